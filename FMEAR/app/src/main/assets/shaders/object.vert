@@ -16,6 +16,14 @@
 uniform mat4 u_ModelView;
 uniform mat4 u_ModelViewProjection;
 
+// Dequantization of the vertex attributes. The positions are transformed with
+// u_PositionDequantization, and the texture coordinates are scaled with the xy components and
+// offset by the zw components of u_TexCoordDequantization. If u_OctahedralNormals is true, the xy
+// components of a_Normal contain the octahedral encoding of the normal, in the range [-127,127].
+uniform mat4 u_PositionDequantization;
+uniform vec4 u_TexCoordDequantization;
+uniform bool u_OctahedralNormals;
+
 attribute vec4 a_Position;
 attribute vec3 a_Normal;
 attribute vec2 a_TexCoord;
@@ -24,9 +32,20 @@ varying vec3 v_ViewPosition;
 varying vec3 v_ViewNormal;
 varying vec2 v_TexCoord;
 
+vec3 decodeOctahedral(vec2 encoded) {
+    vec2 e = max(encoded / 127.0, -1.0);
+    vec3 n = vec3(e, 1.0 - abs(e.x) - abs(e.y));
+    if (n.z < 0.0) {
+        n.xy = (1.0 - abs(e.yx)) * (step(0.0, e) * 2.0 - 1.0);
+    }
+    return n;
+}
+
 void main() {
-    v_ViewPosition = (u_ModelView * a_Position).xyz;
-    v_ViewNormal = normalize((u_ModelView * vec4(a_Normal, 0.0)).xyz);
-    v_TexCoord = a_TexCoord;
-    gl_Position = u_ModelViewProjection * a_Position;
+    vec4 position = u_PositionDequantization * a_Position;
+    vec3 normal = u_OctahedralNormals ? decodeOctahedral(a_Normal.xy) : a_Normal;
+    v_ViewPosition = (u_ModelView * position).xyz;
+    v_ViewNormal = normalize((u_ModelView * vec4(normal, 0.0)).xyz);
+    v_TexCoord = a_TexCoord * u_TexCoordDequantization.xy + u_TexCoordDequantization.zw;
+    gl_Position = u_ModelViewProjection * position;
 }
@@ -0,0 +1,109 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link ImageDecoder} that decodes images with {@link BitmapFactory}.
+ *
+ * <p>Each worker thread keeps the last bitmap that it decoded, and decodes the next image into the
+ * same bitmap if it is large enough, so that a new bitmap does not have to be allocated for each
+ * image. Images are reduced with {@code inSampleSize} while they are decoded, which for JPEG files
+ * is considerably faster than decoding them at full resolution. The pixels are then copied into a
+ * pooled direct buffer, which can be passed to {@code glTexImage2D}. Like with
+ * {@code GLUtils.texImage2D}, the colors are premultiplied with the alpha value.
+ *
+ * <p>The files are read from a {@link FileSource}, so that images can be decoded directly from the
+ * entries of an archive.
+ */
+public class BitmapImageDecoder implements ImageDecoder {
+
+  private final FileSource fileSource;
+  private final ThreadLocal<Bitmap> reusableBitmaps = new ThreadLocal<>();
+
+  /** Creates a new decoder for files on the file system. */
+  public BitmapImageDecoder() {
+    this(new LocalFileSource());
+  }
+
+  /**
+   * Creates a new decoder for the files of the given source.
+   *
+   * @param fileSource The source of the image files.
+   */
+  public BitmapImageDecoder(FileSource fileSource) {
+    this.fileSource = fileSource;
+  }
+
+  @Override
+  public int[] readSize(File file) throws IOException {
+    BitmapFactory.Options boundsOptions = new BitmapFactory.Options();
+    boundsOptions.inJustDecodeBounds = true;
+    decodeStream(file, boundsOptions);
+    if (boundsOptions.outWidth <= 0 || boundsOptions.outHeight <= 0) {
+      throw new IOException("Could not decode the size of " + file);
+    }
+    return new int[] {boundsOptions.outWidth, boundsOptions.outHeight};
+  }
+
+  @Override
+  public DecodedImage decode(File file, int sampleSize, ByteBufferPool pool) throws IOException {
+    // Read the size first, to check whether the bitmap of this thread can be reused
+    int[] imageSize = readSize(file);
+    long size =
+        4L * Math.max(1, imageSize[0] / sampleSize) * Math.max(1, imageSize[1] / sampleSize);
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("The image is too large: " + file);
+    }
+
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inScaled = false;
+    options.inSampleSize = sampleSize;
+    options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+    options.inMutable = true;
+    Bitmap reusableBitmap = reusableBitmaps.get();
+    if (reusableBitmap != null && reusableBitmap.getAllocationByteCount() >= size) {
+      options.inBitmap = reusableBitmap;
+    }
+    Bitmap bitmap;
+    try {
+      bitmap = decodeStream(file, options);
+    } catch (IllegalArgumentException e) {
+      // The bitmap could not be reused for this image
+      options.inBitmap = null;
+      bitmap = decodeStream(file, options);
+    }
+    if (bitmap == null) {
+      throw new IOException("Could not decode " + file);
+    }
+    if (bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+      Bitmap converted = bitmap.copy(Bitmap.Config.ARGB_8888, true);
+      bitmap.recycle();
+      if (converted == null) {
+        throw new IOException("Could not convert " + file);
+      }
+      bitmap = converted;
+    }
+
+    int width = bitmap.getWidth();
+    int height = bitmap.getHeight();
+    ByteBuffer pixels = pool.acquire(4 * width * height);
+    bitmap.copyPixelsToBuffer(pixels);
+    pixels.rewind();
+    reusableBitmaps.set(bitmap);
+    return new DecodedImage(width, height, pixels);
+  }
+
+  // Decodes the given file with the given options from a stream of the file source.
+  private Bitmap decodeStream(File file, BitmapFactory.Options options) throws IOException {
+    try (InputStream inputStream = new BufferedInputStream(fileSource.open(file), 64 * 1024)) {
+      return BitmapFactory.decodeStream(inputStream, null, options);
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Uploads the contents of a buffer into a GPU buffer in chunks.
+ *
+ * <p>The first chunk creates the GPU buffer with its full size, and each chunk then fills the next
+ * part of it with {@code glBufferSubData}. The chunks are aligned to the size of the elements of the
+ * buffer.
+ */
+public class BufferUpload {
+
+  /** Receives the buffer operations. This is implemented with OpenGL by the renderer. */
+  public interface Sink {
+
+    /**
+     * Creates a buffer with uninitialized storage of the given size.
+     *
+     * @param target The buffer target, like {@code GL_ARRAY_BUFFER}.
+     * @param size The size, in bytes.
+     * @return The buffer ID.
+     */
+    int createBuffer(int target, int size);
+
+    /**
+     * Replaces a part of the contents of a buffer.
+     *
+     * @param target The buffer target.
+     * @param bufferId The buffer ID.
+     * @param offset The offset in the buffer, in bytes.
+     * @param size The number of bytes.
+     * @param data The data, starting at its current position.
+     */
+    void bufferSubData(int target, int bufferId, int offset, int size, Buffer data);
+  }
+
+  private final Sink sink;
+  private final int target;
+  private final Buffer data;
+  private final int size;
+  private final int elementSize;
+
+  private int bufferId = 0;
+  private int offset = 0;
+
+  /**
+   * Creates a new upload.
+   *
+   * @param sink The sink.
+   * @param target The buffer target, like {@code GL_ARRAY_BUFFER}.
+   * @param data The data. The contents from position 0 to the capacity are uploaded.
+   */
+  public BufferUpload(Sink sink, int target, Buffer data) {
+    this.sink = sink;
+    this.target = target;
+    this.data = data;
+    this.elementSize = getElementSize(data);
+    this.size = data.capacity() * elementSize;
+  }
+
+  private static int getElementSize(Buffer data) {
+    if (data instanceof ByteBuffer) {
+      return 1;
+    }
+    if (data instanceof ShortBuffer) {
+      return 2;
+    }
+    // IntBuffer and FloatBuffer
+    return 4;
+  }
+
+  /** Returns the number of bytes that remain to be uploaded. */
+  public int getRemainingBytes() {
+    return size - offset;
+  }
+
+  /** Returns whether the whole buffer has been uploaded. */
+  public boolean isDone() {
+    return bufferId != 0 && offset >= size;
+  }
+
+  /** Returns the ID of the buffer, or 0 if it has not been created yet. */
+  public int getBufferId() {
+    return bufferId;
+  }
+
+  /**
+   * Uploads the next chunk. The first call creates the buffer.
+   *
+   * @param maxBytes The maximum number of bytes. The chunk contains at least one element.
+   * @return The number of bytes that have been uploaded.
+   */
+  public int uploadNext(long maxBytes) {
+    if (bufferId == 0) {
+      bufferId = sink.createBuffer(target, size);
+    }
+    int remaining = size - offset;
+    if (remaining <= 0) {
+      return 0;
+    }
+    int chunk = (int) Math.min(remaining, Math.max(maxBytes, elementSize));
+    chunk -= chunk % elementSize;
+    data.position(offset / elementSize);
+    sink.bufferSubData(target, bufferId, offset, chunk, data);
+    data.position(0);
+    offset += chunk;
+    return chunk;
+  }
+}
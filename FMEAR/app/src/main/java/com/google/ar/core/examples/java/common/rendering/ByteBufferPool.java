@@ -0,0 +1,115 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pool of direct byte buffers, so that buffers for temporary data like decoded textures are not
+ * allocated again for each use.
+ *
+ * <p>The capacities of new buffers are rounded up to a power of two, so that buffers can be reused
+ * for data of similar sizes. A buffer is taken from the pool if its capacity fits the requested size
+ * and is at most twice as large. Released buffers are kept until the pool holds more than the
+ * maximum number of bytes. This class is thread-safe.
+ */
+public class ByteBufferPool {
+
+  private final long maxPooledBytes;
+  private final List<ByteBuffer> buffers = new ArrayList<>();
+  private long pooledBytes = 0;
+
+  // Statistics
+  private int numAllocated = 0;
+  private int numReused = 0;
+
+  /**
+   * Creates a new pool.
+   *
+   * @param maxPooledBytes The maximum number of bytes of the buffers that are kept in the pool.
+   */
+  public ByteBufferPool(long maxPooledBytes) {
+    this.maxPooledBytes = maxPooledBytes;
+  }
+
+  /**
+   * Returns a direct buffer in native byte order with at least the given capacity. Its position is
+   * 0 and its limit is the given size.
+   *
+   * @param size The size, in bytes.
+   * @return The buffer.
+   */
+  public ByteBuffer acquire(int size) {
+    synchronized (buffers) {
+      int bestIndex = -1;
+      for (int i = 0; i < buffers.size(); ++i) {
+        int capacity = buffers.get(i).capacity();
+        if (capacity >= size && capacity / 2 <= size
+            && (bestIndex == -1 || capacity < buffers.get(bestIndex).capacity())) {
+          bestIndex = i;
+        }
+      }
+      if (bestIndex != -1) {
+        ByteBuffer buffer = buffers.remove(bestIndex);
+        pooledBytes -= buffer.capacity();
+        ++numReused;
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+      }
+      ++numAllocated;
+    }
+    int capacity = Integer.highestOneBit(Math.max(1, size));
+    if (capacity < size) {
+      capacity = capacity <= Integer.MAX_VALUE / 2 ? capacity * 2 : size;
+    }
+    ByteBuffer buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    buffer.limit(size);
+    return buffer;
+  }
+
+  /**
+   * Returns the given buffer to the pool. The buffer must not be used afterwards.
+   *
+   * @param buffer The buffer.
+   */
+  public void release(ByteBuffer buffer) {
+    synchronized (buffers) {
+      if (pooledBytes + buffer.capacity() > maxPooledBytes) {
+        return;
+      }
+      buffers.add(buffer);
+      pooledBytes += buffer.capacity();
+    }
+  }
+
+  /** Removes all buffers from the pool. */
+  public void clear() {
+    synchronized (buffers) {
+      buffers.clear();
+      pooledBytes = 0;
+    }
+  }
+
+  /** Returns the number of bytes of the buffers in the pool. */
+  public long getPooledBytes() {
+    synchronized (buffers) {
+      return pooledBytes;
+    }
+  }
+
+  /** Returns the number of buffers that have been allocated by {@link #acquire(int)}. */
+  public int getNumAllocated() {
+    synchronized (buffers) {
+      return numAllocated;
+    }
+  }
+
+  /** Returns the number of buffers that have been reused by {@link #acquire(int)}. */
+  public int getNumReused() {
+    synchronized (buffers) {
+      return numReused;
+    }
+  }
+}
@@ -0,0 +1,332 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes RGB images into ETC1 compressed textures, which use 4 bits per texel instead of the 32
+ * bits of uncompressed RGBA textures, and are supported by all OpenGL ES 2.0 devices.
+ *
+ * <p>Each block of 4x4 pixels is stored in 64 bits. It consists of two sub-blocks of 2x4 or 4x2
+ * pixels, each with a base color and a table of modifiers that are added to the base color. For
+ * both orientations of the sub-blocks, the encoder uses the average colors of the sub-blocks as the
+ * base colors, either with 5 bits per channel and a difference of 3 bits, or with 4 bits per
+ * channel, and chooses the table and the modifiers with the smallest squared error. This is a fast
+ * encoder that does not search for better base colors.
+ *
+ * <p>The alpha values are ignored. Images that are not opaque should not be encoded. The blocks of
+ * images whose width or height is not a multiple of 4 are filled with the pixels at the edges.
+ */
+public class Etc1Encoder {
+
+  /** The number of bytes of one block of 4x4 pixels. */
+  public static final int BYTES_PER_BLOCK = 8;
+
+  // The modifier tables. The index of a modifier is the value of the pixel index bits.
+  private static final int[][] MODIFIERS = {
+      {2, 8, -2, -8},
+      {5, 17, -5, -17},
+      {9, 29, -9, -29},
+      {13, 42, -13, -42},
+      {18, 60, -18, -60},
+      {24, 80, -24, -80},
+      {33, 106, -33, -106},
+      {47, 183, -47, -183}
+  };
+
+  // The pixels of the sub-blocks, as indices x * 4 + y into a block, for both values of the flip
+  // bit. Without flip, the sub-blocks are the left and the right 2x4 pixels, with flip, the top and
+  // the bottom 4x2 pixels.
+  private static final int[][][] SUB_BLOCK_PIXELS = {
+      {{0, 1, 2, 3, 4, 5, 6, 7}, {8, 9, 10, 11, 12, 13, 14, 15}},
+      {{0, 1, 4, 5, 8, 9, 12, 13}, {2, 3, 6, 7, 10, 11, 14, 15}}
+  };
+
+  private Etc1Encoder() {
+    // Private constructor to prevent instantiation
+  }
+
+  /**
+   * Returns the number of bytes of an ETC1 image with the given size.
+   *
+   * @param width The width, in pixels.
+   * @param height The height, in pixels.
+   * @return The number of bytes.
+   */
+  public static int getEncodedSize(int width, int height) {
+    return ((width + 3) / 4) * ((height + 3) / 4) * BYTES_PER_BLOCK;
+  }
+
+  /**
+   * Returns whether all pixels of the given RGBA image are opaque.
+   *
+   * @param rgba The pixels, with 4 bytes per pixel, starting at position 0.
+   * @param width The width, in pixels.
+   * @param height The height, in pixels.
+   * @return Whether all alpha values are 255.
+   */
+  public static boolean isOpaque(ByteBuffer rgba, int width, int height) {
+    int size = 4 * width * height;
+    for (int i = 3; i < size; i += 4) {
+      if (rgba.get(i) != (byte) 0xFF) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Encodes the given RGBA image.
+   *
+   * @param rgba The pixels, with 4 bytes per pixel, row by row, starting at position 0.
+   * @param width The width, in pixels.
+   * @param height The height, in pixels.
+   * @param etc1 The buffer that the blocks are written to, starting at its position, row by row.
+   *     It must have {@link #getEncodedSize(int, int)} remaining bytes. Its position is not
+   *     changed.
+   */
+  public static void encode(ByteBuffer rgba, int width, int height, ByteBuffer etc1) {
+    int[] block = new int[48];
+    int[] scratch = new int[16];
+    int[] selectors = new int[16];
+    byte[] rows = new byte[4 * 4 * width];
+    ByteBuffer source = rgba.duplicate();
+    int offset = etc1.position();
+    for (int blockY = 0; blockY < height; blockY += 4) {
+      // Read the 4 rows of the blocks at once, since single accesses to direct buffers are slow
+      for (int y = 0; y < 4; ++y) {
+        source.position(4 * width * Math.min(blockY + y, height - 1));
+        source.get(rows, 4 * width * y, 4 * width);
+      }
+      for (int blockX = 0; blockX < width; blockX += 4) {
+        for (int x = 0; x < 4; ++x) {
+          int column = 4 * Math.min(blockX + x, width - 1);
+          for (int y = 0; y < 4; ++y) {
+            int index = 4 * width * y + column;
+            int pixel = 3 * (4 * x + y);
+            block[pixel] = rows[index] & 0xFF;
+            block[pixel + 1] = rows[index + 1] & 0xFF;
+            block[pixel + 2] = rows[index + 2] & 0xFF;
+          }
+        }
+        long bits = encodeBlock(block, scratch, selectors);
+        for (int i = 0; i < BYTES_PER_BLOCK; ++i) {
+          etc1.put(offset++, (byte) (bits >>> (56 - 8 * i)));
+        }
+      }
+    }
+  }
+
+  /**
+   * Decodes the given ETC1 image.
+   *
+   * @param etc1 The blocks, row by row, starting at its position. Its position is not changed.
+   * @param width The width, in pixels.
+   * @param height The height, in pixels.
+   * @param rgba The buffer that the pixels are written to, with 4 bytes per pixel and an alpha
+   *     value of 255, starting at position 0.
+   */
+  public static void decode(ByteBuffer etc1, int width, int height, ByteBuffer rgba) {
+    int[] block = new int[48];
+    int offset = etc1.position();
+    for (int blockY = 0; blockY < height; blockY += 4) {
+      for (int blockX = 0; blockX < width; blockX += 4) {
+        long bits = 0;
+        for (int i = 0; i < BYTES_PER_BLOCK; ++i) {
+          bits = (bits << 8) | (etc1.get(offset++) & 0xFF);
+        }
+        decodeBlock(bits, block);
+        for (int x = 0; x < 4 && blockX + x < width; ++x) {
+          for (int y = 0; y < 4 && blockY + y < height; ++y) {
+            int index = 4 * (width * (blockY + y) + blockX + x);
+            int pixel = 3 * (4 * x + y);
+            rgba.put(index, (byte) block[pixel]);
+            rgba.put(index + 1, (byte) block[pixel + 1]);
+            rgba.put(index + 2, (byte) block[pixel + 2]);
+            rgba.put(index + 3, (byte) 0xFF);
+          }
+        }
+      }
+    }
+  }
+
+  // Encodes the given block of RGB values, with the pixels in the order x * 4 + y, and returns the
+  // 64 bits of the block. The scratch and selectors arrays must have 16 elements.
+  private static long encodeBlock(int[] block, int[] scratch, int[] selectors) {
+    long bestBits = 0;
+    long bestError = Long.MAX_VALUE;
+    int[] average0 = new int[3];
+    int[] average1 = new int[3];
+    int[] base0 = new int[3];
+    int[] base1 = new int[3];
+    for (int flip = 0; flip < 2; ++flip) {
+      int[] pixels0 = SUB_BLOCK_PIXELS[flip][0];
+      int[] pixels1 = SUB_BLOCK_PIXELS[flip][1];
+      computeAverage(block, pixels0, average0);
+      computeAverage(block, pixels1, average1);
+
+      // Differential mode, if the quantized colors are close enough
+      boolean differential = true;
+      int[] quantized0 = new int[3];
+      int[] quantized1 = new int[3];
+      for (int c = 0; c < 3; ++c) {
+        quantized0[c] = (average0[c] * 31 + 127) / 255;
+        quantized1[c] = (average1[c] * 31 + 127) / 255;
+        int delta = quantized1[c] - quantized0[c];
+        if (delta < -4 || delta > 3) {
+          differential = false;
+        }
+        base0[c] = (quantized0[c] << 3) | (quantized0[c] >> 2);
+        base1[c] = (quantized1[c] << 3) | (quantized1[c] >> 2);
+      }
+      if (differential) {
+        long error = fitSubBlock(block, pixels0, base0, scratch);
+        int table0 = scratch[8];
+        copySelectors(scratch, pixels0, selectors);
+        error += fitSubBlock(block, pixels1, base1, scratch);
+        int table1 = scratch[8];
+        copySelectors(scratch, pixels1, selectors);
+        if (error < bestError) {
+          bestError = error;
+          long high = 0;
+          for (int c = 0; c < 3; ++c) {
+            int shift = 27 - 8 * c;
+            high |= (long) quantized0[c] << shift;
+            high |= (long) ((quantized1[c] - quantized0[c]) & 7) << (shift - 3);
+          }
+          high |= (table0 << 5) | (table1 << 2) | 2 | flip;
+          bestBits = (high << 32) | packSelectors(selectors);
+        }
+      }
+
+      // Individual mode
+      for (int c = 0; c < 3; ++c) {
+        quantized0[c] = (average0[c] * 15 + 127) / 255;
+        quantized1[c] = (average1[c] * 15 + 127) / 255;
+        base0[c] = (quantized0[c] << 4) | quantized0[c];
+        base1[c] = (quantized1[c] << 4) | quantized1[c];
+      }
+      long error = fitSubBlock(block, pixels0, base0, scratch);
+      int table0 = scratch[8];
+      copySelectors(scratch, pixels0, selectors);
+      error += fitSubBlock(block, pixels1, base1, scratch);
+      int table1 = scratch[8];
+      copySelectors(scratch, pixels1, selectors);
+      if (error < bestError) {
+        bestError = error;
+        long high = 0;
+        for (int c = 0; c < 3; ++c) {
+          int shift = 28 - 8 * c;
+          high |= (long) quantized0[c] << shift;
+          high |= (long) quantized1[c] << (shift - 4);
+        }
+        high |= (table0 << 5) | (table1 << 2) | flip;
+        bestBits = (high << 32) | packSelectors(selectors);
+      }
+    }
+    return bestBits;
+  }
+
+  // Computes the rounded average color of the given pixels of the block.
+  private static void computeAverage(int[] block, int[] pixels, int[] average) {
+    for (int c = 0; c < 3; ++c) {
+      int sum = 0;
+      for (int pixel : pixels) {
+        sum += block[3 * pixel + c];
+      }
+      average[c] = (sum + pixels.length / 2) / pixels.length;
+    }
+  }
+
+  // Chooses the modifier table for the given pixels and base color with the smallest squared error,
+  // and returns the error. The selectors of the pixels are stored in result[0..7], and the table in
+  // result[8].
+  private static long fitSubBlock(int[] block, int[] pixels, int[] base, int[] result) {
+    long bestError = Long.MAX_VALUE;
+    int[] selectors = new int[8];
+    for (int table = 0; table < MODIFIERS.length; ++table) {
+      int[] modifiers = MODIFIERS[table];
+      long error = 0;
+      for (int i = 0; i < pixels.length && error < bestError; ++i) {
+        int pixel = 3 * pixels[i];
+        int bestPixelError = Integer.MAX_VALUE;
+        for (int selector = 0; selector < 4; ++selector) {
+          int modifier = modifiers[selector];
+          int dr = clamp(base[0] + modifier) - block[pixel];
+          int dg = clamp(base[1] + modifier) - block[pixel + 1];
+          int db = clamp(base[2] + modifier) - block[pixel + 2];
+          int pixelError = dr * dr + dg * dg + db * db;
+          if (pixelError < bestPixelError) {
+            bestPixelError = pixelError;
+            selectors[i] = selector;
+          }
+        }
+        error += bestPixelError;
+      }
+      if (error < bestError) {
+        bestError = error;
+        System.arraycopy(selectors, 0, result, 0, 8);
+        result[8] = table;
+      }
+    }
+    return bestError;
+  }
+
+  private static void copySelectors(int[] result, int[] pixels, int[] selectors) {
+    for (int i = 0; i < pixels.length; ++i) {
+      selectors[pixels[i]] = result[i];
+    }
+  }
+
+  // Packs the selectors of the 16 pixels into the lower 32 bits of a block. The most significant
+  // bits of the selectors are stored in the upper 16 bits.
+  private static long packSelectors(int[] selectors) {
+    long bits = 0;
+    for (int pixel = 0; pixel < 16; ++pixel) {
+      bits |= (long) (selectors[pixel] >> 1) << (16 + pixel);
+      bits |= (long) (selectors[pixel] & 1) << pixel;
+    }
+    return bits;
+  }
+
+  // Decodes the given 64 bits of a block into RGB values, with the pixels in the order x * 4 + y.
+  private static void decodeBlock(long bits, int[] block) {
+    int high = (int) (bits >>> 32);
+    boolean flip = (high & 1) != 0;
+    boolean differential = (high & 2) != 0;
+    int[] base0 = new int[3];
+    int[] base1 = new int[3];
+    for (int c = 0; c < 3; ++c) {
+      if (differential) {
+        int shift = 27 - 8 * c;
+        int color0 = (high >>> shift) & 31;
+        int delta = ((high >>> (shift - 3)) & 7) << 29 >> 29;
+        int color1 = color0 + delta;
+        base0[c] = (color0 << 3) | (color0 >> 2);
+        base1[c] = (color1 << 3) | (color1 >> 2);
+      } else {
+        int shift = 28 - 8 * c;
+        int color0 = (high >>> shift) & 15;
+        int color1 = (high >>> (shift - 4)) & 15;
+        base0[c] = (color0 << 4) | color0;
+        base1[c] = (color1 << 4) | color1;
+      }
+    }
+    int[] modifiers0 = MODIFIERS[(high >>> 5) & 7];
+    int[] modifiers1 = MODIFIERS[(high >>> 2) & 7];
+    for (int pixel = 0; pixel < 16; ++pixel) {
+      int x = pixel / 4;
+      int y = pixel % 4;
+      boolean second = flip ? y >= 2 : x >= 2;
+      int selector = (int) (((bits >>> (16 + pixel)) & 1) << 1 | ((bits >>> pixel) & 1));
+      int[] base = second ? base1 : base0;
+      int modifier = (second ? modifiers1 : modifiers0)[selector];
+      for (int c = 0; c < 3; ++c) {
+        block[3 * pixel + c] = clamp(base[c] + modifier);
+      }
+    }
+  }
+
+  private static int clamp(int value) {
+    return value < 0 ? 0 : (value > 255 ? 255 : value);
+  }
+}
@@ -0,0 +1,99 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A bounded queue of files that hands files from a producer, like the extraction of an archive, to
+ * the workers of a {@link ParallelFileLoader} while the producer is still running.
+ *
+ * <p>The producer blocks when the queue is full, so that it does not run ahead of the workers, and
+ * closes the queue after the last file. The workers take files until the queue is closed and empty.
+ * The workers close the queue as well when they stop early, so that the producer never blocks on a
+ * queue that is no longer drained.
+ */
+public class FileQueue {
+
+  private final int capacity;
+
+  // The queued files, and whether no more files are added. Guarded by this.
+  private final Deque<File> files = new ArrayDeque<>();
+  private boolean closed = false;
+
+  /**
+   * Creates an empty queue.
+   *
+   * @param capacity The maximum number of queued files.
+   */
+  public FileQueue(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("The capacity must be positive, but is " + capacity);
+    }
+    this.capacity = capacity;
+  }
+
+  /**
+   * Creates a closed queue that contains the given files.
+   *
+   * @param files The files.
+   * @return The queue.
+   */
+  public static FileQueue of(List<File> files) {
+    FileQueue queue = new FileQueue(Math.max(1, files.size()));
+    queue.files.addAll(files);
+    queue.closed = true;
+    return queue;
+  }
+
+  /**
+   * Adds the given file, and waits while the queue is full.
+   *
+   * @param file The file.
+   * @return Whether the file was added, which is false if the queue has been closed.
+   * @throws InterruptedException If the calling thread was interrupted while waiting.
+   */
+  public synchronized boolean put(File file) throws InterruptedException {
+    while (!closed && files.size() >= capacity) {
+      wait();
+    }
+    if (closed) {
+      return false;
+    }
+    files.addLast(file);
+    notifyAll();
+    return true;
+  }
+
+  /**
+   * Removes the next file, and waits while the queue is empty and not closed.
+   *
+   * @return The file, or null if the queue is closed and empty.
+   * @throws InterruptedException If the calling thread was interrupted while waiting.
+   */
+  public synchronized File take() throws InterruptedException {
+    while (!closed && files.isEmpty()) {
+      wait();
+    }
+    File file = files.pollFirst();
+    if (file != null) {
+      notifyAll();
+    }
+    return file;
+  }
+
+  /**
+   * Closes the queue. The files that have been added are still taken, and further files are not
+   * added.
+   */
+  public synchronized void close() {
+    closed = true;
+    notifyAll();
+  }
+
+  /** Returns whether the queue has been closed. */
+  public synchronized boolean isClosed() {
+    return closed;
+  }
+}
@@ -0,0 +1,65 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Reads the files of a dataset, which are either files on the file system, see
+ * {@link LocalFileSource}, or entries of an archive that are read without extracting them, see
+ * {@link ZipFileSource}.
+ *
+ * <p>The files are identified by {@link File} objects, which for archives are paths below a root
+ * that does not exist on the file system. Implementations must be thread-safe.
+ */
+public interface FileSource {
+
+  /** Returns whether the given file exists and is not a directory. */
+  boolean exists(File file);
+
+  /** Returns the size of the given file in bytes, or 0 if it does not exist. */
+  long length(File file);
+
+  /** Returns the time of the last modification of the given file, or 0 if it does not exist. */
+  long lastModified(File file);
+
+  /**
+   * Resolves the given relative path against the given directory. Different paths of the same file
+   * are resolved to equal files.
+   *
+   * @param directory The directory.
+   * @param path The path, with '/' as separator, which may contain ".." segments.
+   * @return The file.
+   */
+  File resolve(File directory, String path);
+
+  /**
+   * Finds the files below the given directory whose names, in lower case, end with the given
+   * suffix.
+   *
+   * @param directory The directory, which is searched recursively.
+   * @param suffix The suffix.
+   * @return The files.
+   */
+  List<File> find(File directory, String suffix);
+
+  /**
+   * Opens the given file for reading.
+   *
+   * @param file The file.
+   * @return The stream, which must be closed by the caller.
+   * @throws IOException If the file can not be opened.
+   */
+  InputStream open(File file) throws IOException;
+
+  /**
+   * Reads the whole given file into a buffer.
+   *
+   * @param file The file.
+   * @return The buffer, with the position 0 and the size of the file as limit.
+   * @throws IOException If the file can not be read.
+   */
+  ByteBuffer read(File file) throws IOException;
+}
@@ -0,0 +1,97 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes image files, like PNG or JPEG files, into RGBA pixels.
+ *
+ * <p>On Android, this is implemented with {@code BitmapFactory} by the {@link BitmapImageDecoder}.
+ * Other implementations can be used for testing on the JVM. Implementations must be thread-safe.
+ */
+public interface ImageDecoder {
+
+  /** The pixels of a decoded image. */
+  class DecodedImage {
+
+    /** The format of the pixels. */
+    public enum Format {
+      /** 4 bytes per pixel in RGBA order, row by row. */
+      RGBA,
+      /** ETC1 compressed blocks of 4x4 pixels, row by row. See {@link Etc1Encoder}. */
+      ETC1
+    }
+
+    private final int width;
+    private final int height;
+    private final ByteBuffer pixels;
+    private final Format format;
+
+    /**
+     * Creates a new decoded image.
+     *
+     * @param width The width, in pixels.
+     * @param height The height, in pixels.
+     * @param pixels The pixels, with 4 bytes per pixel in RGBA order, row by row, starting at
+     *     position 0.
+     */
+    public DecodedImage(int width, int height, ByteBuffer pixels) {
+      this(width, height, pixels, Format.RGBA);
+    }
+
+    /**
+     * Creates a new decoded image.
+     *
+     * @param width The width, in pixels.
+     * @param height The height, in pixels.
+     * @param pixels The pixels in the given format, starting at position 0.
+     * @param format The format.
+     */
+    public DecodedImage(int width, int height, ByteBuffer pixels, Format format) {
+      this.width = width;
+      this.height = height;
+      this.pixels = pixels;
+      this.format = format;
+    }
+
+    public int getWidth() {
+      return width;
+    }
+
+    public int getHeight() {
+      return height;
+    }
+
+    /** Returns the pixels, with 4 bytes per pixel in RGBA order, row by row, unless compressed. */
+    public ByteBuffer getPixels() {
+      return pixels;
+    }
+
+    public Format getFormat() {
+      return format;
+    }
+  }
+
+  /**
+   * Reads the size of the given image file, without decoding the pixels.
+   *
+   * @param file The file.
+   * @return The width and the height of the image, in pixels.
+   * @throws IOException If the file can not be read or decoded.
+   */
+  int[] readSize(File file) throws IOException;
+
+  /**
+   * Decodes the given image file.
+   *
+   * @param file The file.
+   * @param sampleSize The factor by which the width and the height of the image are reduced, which
+   *     must be a power of two. The decoded size is about the size of the image divided by this
+   *     factor, but at least 1. The exact rounding depends on the decoder.
+   * @param pool The pool that the buffer for the pixels is taken from.
+   * @return The decoded image.
+   * @throws IOException If the file can not be read or decoded.
+   */
+  DecodedImage decode(File file, int sampleSize, ByteBufferPool pool) throws IOException;
+}
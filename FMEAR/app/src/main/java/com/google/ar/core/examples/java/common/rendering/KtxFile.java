@@ -0,0 +1,167 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads and writes the levels of ETC1 compressed textures in KTX files.
+ *
+ * <p>The files contain a single 2D texture with all of its mip levels, and no key/value data. See
+ * the KTX file format specification of the Khronos Group.
+ */
+public class KtxFile {
+
+  /** The OpenGL internal format of ETC1 textures, {@code GL_ETC1_RGB8_OES}. */
+  public static final int GL_ETC1_RGB8_OES = 0x8D64;
+
+  private static final int GL_RGB = 0x1907;
+
+  private static final byte[] IDENTIFIER = {
+      (byte) 0xAB, 0x4B, 0x54, 0x58, 0x20, 0x31, 0x31, (byte) 0xBB, 0x0D, 0x0A, 0x1A, 0x0A
+  };
+  private static final int ENDIANNESS = 0x04030201;
+  private static final int HEADER_SIZE = 64;
+
+  private KtxFile() {
+    // Private constructor to prevent instantiation
+  }
+
+  /**
+   * Writes the given ETC1 levels of a texture. The file is written to a temporary file first and
+   * then renamed, so that other readers never see an incomplete file.
+   *
+   * @param file The file.
+   * @param levels The levels, starting with the base level, with the ETC1 blocks as pixels.
+   * @throws IOException If the file can not be written.
+   */
+  public static void write(File file, List<ImageDecoder.DecodedImage> levels) throws IOException {
+    ImageDecoder.DecodedImage baseLevel = levels.get(0);
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    header.put(IDENTIFIER);
+    header.putInt(ENDIANNESS);
+    header.putInt(0); // glType, 0 for compressed textures
+    header.putInt(1); // glTypeSize
+    header.putInt(0); // glFormat, 0 for compressed textures
+    header.putInt(GL_ETC1_RGB8_OES);
+    header.putInt(GL_RGB);
+    header.putInt(baseLevel.getWidth());
+    header.putInt(baseLevel.getHeight());
+    header.putInt(0); // pixelDepth
+    header.putInt(0); // numberOfArrayElements
+    header.putInt(1); // numberOfFaces
+    header.putInt(levels.size());
+    header.putInt(0); // bytesOfKeyValueData
+    header.flip();
+
+    File temporaryFile = new File(file.getPath() + ".tmp");
+    try (FileOutputStream outputStream = new FileOutputStream(temporaryFile);
+         FileChannel channel = outputStream.getChannel()) {
+      writeFully(channel, header);
+      ByteBuffer imageSize = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+      for (ImageDecoder.DecodedImage level : levels) {
+        ByteBuffer data = level.getPixels().duplicate();
+        data.rewind();
+        imageSize.clear();
+        imageSize.putInt(data.remaining());
+        imageSize.flip();
+        writeFully(channel, imageSize);
+        // ETC1 levels are multiples of 8 bytes, so that no padding is required
+        writeFully(channel, data);
+      }
+    }
+    if (!temporaryFile.renameTo(file)) {
+      temporaryFile.delete();
+      throw new IOException("Could not rename " + temporaryFile + " to " + file);
+    }
+  }
+
+  /**
+   * Reads the ETC1 levels of a texture.
+   *
+   * @param file The file.
+   * @param pool The pool that the buffers for the levels are taken from.
+   * @return The levels, starting with the base level, with the ETC1 blocks as pixels.
+   * @throws IOException If the file can not be read, or is not an ETC1 texture that has been
+   *     written with {@link #write(File, List)}.
+   */
+  public static List<ImageDecoder.DecodedImage> read(File file, ByteBufferPool pool)
+      throws IOException {
+    try (FileInputStream inputStream = new FileInputStream(file);
+         FileChannel channel = inputStream.getChannel()) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      readFully(channel, header, file);
+      byte[] identifier = new byte[IDENTIFIER.length];
+      header.get(identifier);
+      if (!Arrays.equals(identifier, IDENTIFIER)) {
+        throw new IOException("Not a KTX file: " + file);
+      }
+      header.order(ByteOrder.LITTLE_ENDIAN);
+      if (header.getInt() != ENDIANNESS) {
+        header.order(ByteOrder.BIG_ENDIAN);
+      }
+      header.position(28);
+      int internalFormat = header.getInt();
+      header.position(36);
+      int width = header.getInt();
+      int height = header.getInt();
+      header.position(56);
+      int numLevels = header.getInt();
+      int keyValueBytes = header.getInt();
+      if (internalFormat != GL_ETC1_RGB8_OES || numLevels < 1) {
+        throw new IOException("Not an ETC1 texture: " + file);
+      }
+      channel.position(HEADER_SIZE + keyValueBytes);
+
+      List<ImageDecoder.DecodedImage> levels = new ArrayList<>(numLevels);
+      ByteBuffer imageSize = ByteBuffer.allocate(4).order(header.order());
+      try {
+        for (int i = 0; i < numLevels; ++i) {
+          int levelWidth = Math.max(1, width >> i);
+          int levelHeight = Math.max(1, height >> i);
+          imageSize.clear();
+          readFully(channel, imageSize, file);
+          int size = imageSize.getInt();
+          if (size != Etc1Encoder.getEncodedSize(levelWidth, levelHeight)) {
+            throw new IOException("Invalid size of level " + i + " in " + file);
+          }
+          ByteBuffer data = pool.acquire(size);
+          levels.add(new ImageDecoder.DecodedImage(
+              levelWidth, levelHeight, data, ImageDecoder.DecodedImage.Format.ETC1));
+          readFully(channel, data, file);
+          data.rewind();
+        }
+      } catch (IOException e) {
+        for (ImageDecoder.DecodedImage level : levels) {
+          pool.release(level.getPixels());
+        }
+        throw e;
+      }
+      return levels;
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  // Fills the remaining bytes of the given buffer and flips it.
+  private static void readFully(FileChannel channel, ByteBuffer buffer, File file)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new IOException("Unexpected end of " + file);
+      }
+    }
+    buffer.flip();
+  }
+}
@@ -0,0 +1,60 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import com.safe.fmear.FileFinder;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * A {@link FileSource} for files on the file system. Files are read by memory mapping them, and
+ * resolved to their canonical files.
+ */
+public class LocalFileSource implements FileSource {
+
+  @Override
+  public boolean exists(File file) {
+    return file.isFile();
+  }
+
+  @Override
+  public long length(File file) {
+    return file.length();
+  }
+
+  @Override
+  public long lastModified(File file) {
+    return file.lastModified();
+  }
+
+  @Override
+  public File resolve(File directory, String path) {
+    File file = new File(directory, path);
+    try {
+      return file.getCanonicalFile();
+    } catch (IOException e) {
+      return file.getAbsoluteFile();
+    }
+  }
+
+  @Override
+  public List<File> find(File directory, String suffix) {
+    return new FileFinder(suffix).find(directory);
+  }
+
+  @Override
+  public InputStream open(File file) throws IOException {
+    return new FileInputStream(file);
+  }
+
+  @Override
+  public ByteBuffer read(File file) throws IOException {
+    try (FileInputStream inputStream = new FileInputStream(file);
+         FileChannel channel = inputStream.getChannel()) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+  }
+}
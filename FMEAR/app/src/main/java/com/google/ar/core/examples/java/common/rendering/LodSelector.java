@@ -0,0 +1,152 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+/**
+ * Selects a level of detail for each chunk of a model, based on the screen-space error.
+ *
+ * <p>Level 0 of each chunk is the full-detail mesh with an error of 0, and each following level has
+ * fewer triangles and a larger geometric error in model units. The geometric error is converted to
+ * pixels by the number of pixels per model unit, which is estimated from the projected size of the
+ * bounding box of the chunk. The coarsest level whose error stays below the maximum pixel error is
+ * selected. A level only changes when its error has moved past the maximum by the hysteresis factor,
+ * so that a chunk does not flicker between two levels. Finally, chunks are coarsened until the total
+ * number of triangles fits into the triangle budget.
+ */
+public class LodSelector {
+
+  private final float maxPixelError;
+  private final float hysteresis;
+  private final int triangleBudget;
+
+  /**
+   * Creates a new selector.
+   *
+   * @param maxPixelError The maximum screen-space error, in pixels.
+   * @param hysteresis The relative amount by which the error of a level has to be below (or above)
+   *     the maximum pixel error before a coarser (or finer) level is selected, between 0 and 1.
+   * @param triangleBudget The maximum total number of triangles of all chunks.
+   */
+  public LodSelector(float maxPixelError, float hysteresis, int triangleBudget) {
+    if (hysteresis < 0.0f || hysteresis >= 1.0f) {
+      throw new IllegalArgumentException("The hysteresis must be in [0,1), but is " + hysteresis);
+    }
+    this.maxPixelError = maxPixelError;
+    this.hysteresis = hysteresis;
+    this.triangleBudget = triangleBudget;
+  }
+
+  /**
+   * Selects the level of detail of each chunk.
+   *
+   * @param pixelsPerUnit The number of pixels per model unit of each chunk.
+   * @param errors The geometric error of each level of each chunk, in ascending order.
+   * @param triangleCounts The number of triangles of each level of each chunk.
+   * @param levels The levels that were selected in the previous frame. This array will be
+   *     overwritten with the new selection.
+   * @return The total number of triangles of the selected levels.
+   */
+  public int select(float[] pixelsPerUnit, float[][] errors, int[][] triangleCounts, int[] levels) {
+    int totalTriangles = 0;
+    for (int i = 0; i < levels.length; ++i) {
+      levels[i] = selectLevel(errors[i], pixelsPerUnit[i], levels[i]);
+      totalTriangles += triangleCounts[i][levels[i]];
+    }
+
+    // Coarsen the chunks whose next level has the smallest screen-space error until the budget is
+    // met or all chunks are at their coarsest level.
+    while (totalTriangles > triangleBudget) {
+      int bestChunk = -1;
+      float bestPixelError = Float.POSITIVE_INFINITY;
+      for (int i = 0; i < levels.length; ++i) {
+        int next = levels[i] + 1;
+        if (next < errors[i].length) {
+          float pixelError = errors[i][next] * pixelsPerUnit[i];
+          if (bestChunk == -1 || pixelError < bestPixelError) {
+            bestChunk = i;
+            bestPixelError = pixelError;
+          }
+        }
+      }
+      if (bestChunk == -1) {
+        break;
+      }
+      int level = levels[bestChunk];
+      totalTriangles -= triangleCounts[bestChunk][level] - triangleCounts[bestChunk][level + 1];
+      levels[bestChunk] = level + 1;
+    }
+    return totalTriangles;
+  }
+
+  /**
+   * Selects the level of detail of a single chunk, ignoring the triangle budget.
+   *
+   * @param errors The geometric error of each level, in ascending order.
+   * @param pixelsPerUnit The number of pixels per model unit.
+   * @param previousLevel The level that was selected in the previous frame.
+   * @return The selected level.
+   */
+  public int selectLevel(float[] errors, float pixelsPerUnit, int previousLevel) {
+    int numLevels = errors.length;
+    int level = Math.max(0, Math.min(previousLevel, numLevels - 1));
+
+    // Keep the previous level unless its error is noticeably too large, then refine
+    if (errors[level] * pixelsPerUnit > maxPixelError * (1.0f + hysteresis)) {
+      while (level > 0 && errors[level] * pixelsPerUnit > maxPixelError) {
+        --level;
+      }
+      return level;
+    }
+
+    // Only coarsen if the error of the coarser level is noticeably small enough
+    float coarsenThreshold = maxPixelError * (1.0f - hysteresis);
+    while (level + 1 < numLevels && errors[level + 1] * pixelsPerUnit <= coarsenThreshold) {
+      ++level;
+    }
+    return level;
+  }
+
+  /**
+   * Computes the number of pixels per model unit for a bounding box, which is the size of the
+   * projected bounding box in pixels divided by the length of its diagonal in model units.
+   *
+   * @param modelViewProjection A 4x4 model-view-projection matrix, in column-major order.
+   * @param bounds The bounding box, as minX, minY, minZ, maxX, maxY, maxZ.
+   * @param viewportWidth The width of the viewport, in pixels.
+   * @param viewportHeight The height of the viewport, in pixels.
+   * @return The number of pixels per model unit. This is infinite if the bounding box intersects the
+   *     near side of the camera, and 0 if the box is empty.
+   */
+  public static float computePixelsPerUnit(
+      float[] modelViewProjection, float[] bounds, int viewportWidth, int viewportHeight) {
+    float dx = bounds[3] - bounds[0];
+    float dy = bounds[4] - bounds[1];
+    float dz = bounds[5] - bounds[2];
+    float diagonal = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    if (!(diagonal > 0.0f)) {
+      return 0.0f;
+    }
+
+    float minX = Float.POSITIVE_INFINITY;
+    float minY = Float.POSITIVE_INFINITY;
+    float maxX = Float.NEGATIVE_INFINITY;
+    float maxY = Float.NEGATIVE_INFINITY;
+    float[] m = modelViewProjection;
+    for (int corner = 0; corner < 8; ++corner) {
+      float x = bounds[(corner & 1) == 0 ? 0 : 3];
+      float y = bounds[(corner & 2) == 0 ? 1 : 4];
+      float z = bounds[(corner & 4) == 0 ? 2 : 5];
+      float w = m[3] * x + m[7] * y + m[11] * z + m[15];
+      if (w <= 0.0f) {
+        return Float.POSITIVE_INFINITY;
+      }
+      float ndcX = (m[0] * x + m[4] * y + m[8] * z + m[12]) / w;
+      float ndcY = (m[1] * x + m[5] * y + m[9] * z + m[13]) / w;
+      minX = Math.min(minX, ndcX);
+      minY = Math.min(minY, ndcY);
+      maxX = Math.max(maxX, ndcX);
+      maxY = Math.max(maxY, ndcY);
+    }
+    float projectedSize =
+        Math.max((maxX - minX) * 0.5f * viewportWidth, (maxY - minY) * 0.5f * viewportHeight);
+    return projectedSize / diagonal;
+  }
+}
@@ -0,0 +1,466 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes the prepared render data of an obj file, so that loading an unchanged file
+ * again skips parsing, triangulation, normal generation, vertex welding, vertex cache optimization
+ * and the creation of the levels of detail.
+ *
+ * <p>A file contains the final vertex and index buffers of each {@link Material}, with its bounds,
+ * colors, texture and the layout of its vertices. The file starts with a magic number and a
+ * version, followed by the description of the materials and the buffers. The buffers are stored in
+ * the native byte order and aligned to 8 bytes. The file is memory mapped when it is read, and the
+ * buffers of the materials are slices of the mapped file, which can be passed to
+ * {@code glBufferData} without copying them into the Java heap.
+ *
+ * <p>Texture files are stored relative to a base directory, which is usually the directory of the
+ * obj file, and resolved with a {@link FileSource} when they are read, so that the file remains
+ * valid when the dataset is opened from another location.
+ */
+public class MeshCacheFile {
+
+  /** The version of the format. Files of other versions are rejected. */
+  public static final int VERSION = 1;
+
+  private static final byte[] MAGIC = {'F', 'M', 'E', 'A', 'R', 'M', 'S', 'H'};
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int ALIGNMENT = 8;
+
+  // The types of the elements of the buffers
+  private static final int TYPE_BYTE = 1;
+  private static final int TYPE_SHORT = 2;
+  private static final int TYPE_INT = 3;
+  private static final int TYPE_FLOAT = 4;
+
+  /**
+   * The render data of one material, like the material properties of the renderer. The index type
+   * and size are those of the index buffers: {@code GL_UNSIGNED_SHORT} with 2 bytes or
+   * {@code GL_UNSIGNED_INT} with 4 bytes.
+   */
+  public static final class Material {
+    public String name = "";
+
+    /** The minimum and maximum corners of the bounds, or null if the bounds are not valid. */
+    public float[] bounds;
+
+    public float[] ambient = new float[3];
+    public float[] diffuse = new float[3];
+    public float[] specular = new float[3];
+    public float shininess;
+    public float opacity;
+
+    /** The texture file, or null. For an atlas page, this is the file of the page. */
+    public File textureFile;
+    public TextureAtlas.Page atlasPage;
+
+    public boolean quantized;
+    public float[] positionDequantization = new float[16];
+    public float[] texCoordDequantization = new float[4];
+    public int vertexStride;
+    public int normalsOffset;
+    public int texCoordsOffset;
+    public int numVertices;
+    public boolean hasNormals;
+    public boolean hasTexCoords;
+
+    public int indexType;
+    public int indexSize;
+    public int indexCount;
+    public int[] lodIndexCounts = new int[0];
+    public float[] lodErrors = new float[0];
+
+    /** The buffers, with the contents from position 0 to the capacity. */
+    public Buffer vertexData;
+    public Buffer indexData;
+    public List<Buffer> lodIndexData = new ArrayList<>();
+  }
+
+  // Private constructor to prevent instantiation
+  private MeshCacheFile() {}
+
+  /**
+   * Writes the given materials into the given file. The file is written to a temporary file first
+   * and then renamed, so that a file that was interrupted is never read.
+   *
+   * @param file The file.
+   * @param baseDirectory The directory that texture files are stored relative to.
+   * @param materials The materials. Their buffers are not modified.
+   * @throws IOException If the file can not be written.
+   */
+  public static void write(File file, File baseDirectory, List<Material> materials)
+      throws IOException {
+    // Describe the materials, with the offsets of their buffers relative to the data section
+    List<ByteBuffer> blocks = new ArrayList<>();
+    long dataSize = 0;
+    ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+    DataOutputStream header = new DataOutputStream(headerBytes);
+    header.writeInt(materials.size());
+    for (Material material : materials) {
+      writeString(header, material.name);
+      header.writeBoolean(material.bounds != null);
+      writeFloats(header, material.bounds != null ? material.bounds : new float[6]);
+      writeFloats(header, material.ambient);
+      writeFloats(header, material.diffuse);
+      writeFloats(header, material.specular);
+      header.writeFloat(material.shininess);
+      header.writeFloat(material.opacity);
+
+      header.writeBoolean(material.textureFile != null);
+      if (material.textureFile != null) {
+        writeString(header, relativize(baseDirectory, material.textureFile));
+      }
+      TextureAtlas.Page page = material.atlasPage;
+      header.writeBoolean(page != null);
+      if (page != null) {
+        header.writeInt(page.getWidth());
+        header.writeInt(page.getHeight());
+        header.writeInt(page.getPadding());
+        header.writeInt(page.getImageFiles().size());
+        for (int i = 0; i < page.getImageFiles().size(); ++i) {
+          writeString(header, relativize(baseDirectory, page.getImageFiles().get(i)));
+          TextureAtlas.Region region = page.getRegions().get(i);
+          header.writeInt(region.getPage());
+          header.writeInt(region.getX());
+          header.writeInt(region.getY());
+          header.writeInt(region.getWidth());
+          header.writeInt(region.getHeight());
+        }
+      }
+
+      header.writeBoolean(material.quantized);
+      writeFloats(header, material.positionDequantization);
+      writeFloats(header, material.texCoordDequantization);
+      header.writeInt(material.vertexStride);
+      header.writeInt(material.normalsOffset);
+      header.writeInt(material.texCoordsOffset);
+      header.writeInt(material.numVertices);
+      header.writeBoolean(material.hasNormals);
+      header.writeBoolean(material.hasTexCoords);
+      header.writeInt(material.indexType);
+      header.writeInt(material.indexSize);
+      header.writeInt(material.indexCount);
+      header.writeInt(material.lodIndexCounts.length);
+      for (int i = 0; i < material.lodIndexCounts.length; ++i) {
+        header.writeInt(material.lodIndexCounts[i]);
+        header.writeFloat(material.lodErrors[i]);
+      }
+
+      List<Buffer> buffers = new ArrayList<>();
+      buffers.add(material.vertexData);
+      buffers.add(material.indexData);
+      buffers.addAll(material.lodIndexData);
+      for (Buffer buffer : buffers) {
+        ByteBuffer block = toBytes(buffer);
+        header.writeInt(getType(buffer));
+        header.writeLong(dataSize);
+        header.writeInt(block.capacity());
+        blocks.add(block);
+        dataSize += align(block.capacity());
+      }
+    }
+    header.flush();
+
+    File temporaryFile = new File(file.getPath() + ".tmp");
+    try (FileOutputStream outputStream = new FileOutputStream(temporaryFile);
+         FileChannel channel = outputStream.getChannel()) {
+      int headerSize = headerBytes.size();
+      ByteBuffer prefix = ByteBuffer.allocate(align(MAGIC.length + 4 + 1 + 4 + headerSize));
+      prefix.put(MAGIC);
+      prefix.putInt(VERSION);
+      prefix.put((byte) (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 0));
+      prefix.putInt(headerSize);
+      prefix.put(headerBytes.toByteArray());
+      prefix.rewind();
+      writeFully(channel, prefix);
+      for (ByteBuffer block : blocks) {
+        writeFully(channel, block);
+        int padding = align(block.capacity()) - block.capacity();
+        if (padding > 0) {
+          writeFully(channel, ByteBuffer.allocate(padding));
+        }
+      }
+    }
+    if (!temporaryFile.renameTo(file)) {
+      temporaryFile.delete();
+      throw new IOException("Could not rename " + temporaryFile + " to " + file);
+    }
+  }
+
+  /**
+   * Reads the materials from the given file. The buffers of the materials are slices of the memory
+   * mapped file, in the native byte order.
+   *
+   * @param file The file.
+   * @param baseDirectory The directory that texture files are resolved against.
+   * @param fileSource The source that resolves the texture files.
+   * @return The materials.
+   * @throws IOException If the file can not be read, has another version or byte order, or is
+   *     damaged.
+   */
+  public static List<Material> read(File file, File baseDirectory, FileSource fileSource)
+      throws IOException {
+    ByteBuffer mapped;
+    try (FileInputStream inputStream = new FileInputStream(file);
+         FileChannel channel = inputStream.getChannel()) {
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    try {
+      return read(mapped, baseDirectory, fileSource, file);
+    } catch (BufferUnderflowException | IndexOutOfBoundsException
+        | IllegalArgumentException e) {
+      throw new IOException("The mesh cache file " + file + " is damaged", e);
+    }
+  }
+
+  private static List<Material> read(ByteBuffer mapped, File baseDirectory, FileSource fileSource,
+      File file) throws IOException {
+    byte[] magic = new byte[MAGIC.length];
+    mapped.get(magic);
+    for (int i = 0; i < MAGIC.length; ++i) {
+      if (magic[i] != MAGIC[i]) {
+        throw new IOException(file + " is not a mesh cache file");
+      }
+    }
+    int version = mapped.getInt();
+    if (version != VERSION) {
+      throw new IOException("The mesh cache file " + file + " has the version " + version);
+    }
+    boolean littleEndian = mapped.get() != 0;
+    if (littleEndian != (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN)) {
+      throw new IOException("The mesh cache file " + file + " has another byte order");
+    }
+    int headerSize = mapped.getInt();
+    int dataStart = align(mapped.position() + headerSize);
+
+    int numMaterials = mapped.getInt();
+    List<Material> materials = new ArrayList<>(numMaterials);
+    for (int m = 0; m < numMaterials; ++m) {
+      Material material = new Material();
+      material.name = readString(mapped);
+      boolean validBounds = mapped.get() != 0;
+      float[] bounds = readFloats(mapped, 6);
+      material.bounds = validBounds ? bounds : null;
+      material.ambient = readFloats(mapped, 3);
+      material.diffuse = readFloats(mapped, 3);
+      material.specular = readFloats(mapped, 3);
+      material.shininess = mapped.getFloat();
+      material.opacity = mapped.getFloat();
+
+      if (mapped.get() != 0) {
+        material.textureFile = fileSource.resolve(baseDirectory, readString(mapped));
+      }
+      if (mapped.get() != 0) {
+        int width = mapped.getInt();
+        int height = mapped.getInt();
+        int padding = mapped.getInt();
+        int numImages = mapped.getInt();
+        List<File> imageFiles = new ArrayList<>(numImages);
+        List<TextureAtlas.Region> regions = new ArrayList<>(numImages);
+        for (int i = 0; i < numImages; ++i) {
+          imageFiles.add(fileSource.resolve(baseDirectory, readString(mapped)));
+          regions.add(new TextureAtlas.Region(mapped.getInt(), mapped.getInt(), mapped.getInt(),
+              mapped.getInt(), mapped.getInt()));
+        }
+        material.atlasPage = new TextureAtlas.Page(
+            material.textureFile, width, height, padding, imageFiles, regions);
+      }
+
+      material.quantized = mapped.get() != 0;
+      material.positionDequantization = readFloats(mapped, 16);
+      material.texCoordDequantization = readFloats(mapped, 4);
+      material.vertexStride = mapped.getInt();
+      material.normalsOffset = mapped.getInt();
+      material.texCoordsOffset = mapped.getInt();
+      material.numVertices = mapped.getInt();
+      material.hasNormals = mapped.get() != 0;
+      material.hasTexCoords = mapped.get() != 0;
+      material.indexType = mapped.getInt();
+      material.indexSize = mapped.getInt();
+      material.indexCount = mapped.getInt();
+      int numLevels = mapped.getInt();
+      material.lodIndexCounts = new int[numLevels];
+      material.lodErrors = new float[numLevels];
+      for (int i = 0; i < numLevels; ++i) {
+        material.lodIndexCounts[i] = mapped.getInt();
+        material.lodErrors[i] = mapped.getFloat();
+      }
+
+      material.vertexData = readBlock(mapped, dataStart);
+      material.indexData = readBlock(mapped, dataStart);
+      for (int i = 0; i < numLevels; ++i) {
+        material.lodIndexData.add(readBlock(mapped, dataStart));
+      }
+      materials.add(material);
+    }
+    return materials;
+  }
+
+  /**
+   * Returns the path of the given file relative to the given directory, with '/' as separator and
+   * ".." segments for the parents of the directory. Both must be normalized, like the files that
+   * are resolved by a {@link FileSource}.
+   *
+   * @param directory The directory.
+   * @param file The file.
+   * @return The relative path.
+   */
+  public static String relativize(File directory, File file) {
+    String[] directorySegments = split(directory.getPath());
+    String[] fileSegments = split(file.getPath());
+    int common = 0;
+    while (common < directorySegments.length && common < fileSegments.length
+        && directorySegments[common].equals(fileSegments[common])) {
+      ++common;
+    }
+    StringBuilder path = new StringBuilder();
+    for (int i = common; i < directorySegments.length; ++i) {
+      path.append("../");
+    }
+    for (int i = common; i < fileSegments.length; ++i) {
+      path.append(fileSegments[i]);
+      if (i < fileSegments.length - 1) {
+        path.append('/');
+      }
+    }
+    return path.toString();
+  }
+
+  private static String[] split(String path) {
+    List<String> segments = new ArrayList<>();
+    for (String segment : path.replace(File.separatorChar, '/').split("/")) {
+      if (!segment.isEmpty()) {
+        segments.add(segment);
+      }
+    }
+    return segments.toArray(new String[segments.size()]);
+  }
+
+  // Returns the slice of the block that is described at the position of the given buffer, with the
+  // type of its elements.
+  private static Buffer readBlock(ByteBuffer mapped, int dataStart) throws IOException {
+    int type = mapped.getInt();
+    long offset = mapped.getLong();
+    int size = mapped.getInt();
+    if (offset < 0 || dataStart + offset + size > mapped.capacity()) {
+      throw new IOException("A buffer is outside of the mesh cache file");
+    }
+    ByteBuffer block = mapped.duplicate();
+    block.position((int) (dataStart + offset));
+    block.limit((int) (dataStart + offset + size));
+    block = block.slice().order(ByteOrder.nativeOrder());
+    switch (type) {
+      case TYPE_BYTE:
+        return block;
+      case TYPE_SHORT:
+        return block.asShortBuffer();
+      case TYPE_INT:
+        return block.asIntBuffer();
+      case TYPE_FLOAT:
+        return block.asFloatBuffer();
+      default:
+        throw new IOException("Invalid buffer type " + type);
+    }
+  }
+
+  private static int getType(Buffer buffer) {
+    if (buffer instanceof ByteBuffer) {
+      return TYPE_BYTE;
+    }
+    if (buffer instanceof ShortBuffer) {
+      return TYPE_SHORT;
+    }
+    if (buffer instanceof IntBuffer) {
+      return TYPE_INT;
+    }
+    if (buffer instanceof FloatBuffer) {
+      return TYPE_FLOAT;
+    }
+    throw new IllegalArgumentException("Unsupported buffer type: " + buffer);
+  }
+
+  // Returns the contents of the given buffer from position 0 to the capacity as bytes in the
+  // native byte order, without modifying the buffer.
+  private static ByteBuffer toBytes(Buffer buffer) {
+    if (buffer instanceof ByteBuffer) {
+      ByteBuffer bytes = ((ByteBuffer) buffer).duplicate();
+      bytes.clear();
+      return bytes;
+    }
+    int elementSize = buffer instanceof ShortBuffer ? 2 : 4;
+    ByteBuffer bytes = ByteBuffer.allocateDirect(elementSize * buffer.capacity())
+        .order(ByteOrder.nativeOrder());
+    if (buffer instanceof ShortBuffer) {
+      ShortBuffer source = ((ShortBuffer) buffer).duplicate();
+      source.clear();
+      bytes.asShortBuffer().put(source);
+    } else if (buffer instanceof IntBuffer) {
+      IntBuffer source = ((IntBuffer) buffer).duplicate();
+      source.clear();
+      bytes.asIntBuffer().put(source);
+    } else if (buffer instanceof FloatBuffer) {
+      FloatBuffer source = ((FloatBuffer) buffer).duplicate();
+      source.clear();
+      bytes.asFloatBuffer().put(source);
+    } else {
+      throw new IllegalArgumentException("Unsupported buffer type: " + buffer);
+    }
+    return bytes;
+  }
+
+  private static int align(int size) {
+    return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+  }
+
+  private static long align(long size) {
+    return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private static void writeString(DataOutputStream output, String string) throws IOException {
+    byte[] bytes = string.getBytes(UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  private static String readString(ByteBuffer input) {
+    byte[] bytes = new byte[input.getInt()];
+    input.get(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  private static void writeFloats(DataOutputStream output, float[] values) throws IOException {
+    for (float value : values) {
+      output.writeFloat(value);
+    }
+  }
+
+  private static float[] readFloats(ByteBuffer input, int count) {
+    float[] values = new float[count];
+    for (int i = 0; i < count; ++i) {
+      values[i] = input.getFloat();
+    }
+    return values;
+  }
+}
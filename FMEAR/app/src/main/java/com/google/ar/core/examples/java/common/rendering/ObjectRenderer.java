@@ -15,44 +15,55 @@
 package com.google.ar.core.examples.java.common.rendering;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.net.Uri;
 import android.opengl.GLES20;
-import android.opengl.GLUtils;
 import android.opengl.Matrix;
 import android.os.AsyncTask;
 import android.util.Log;
 
-import com.safe.fmear.FileFinder;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import de.javagl.obj.FloatTuple;
 import de.javagl.obj.FloatTuples;
+import de.javagl.obj.MeshSimplifier;
 import de.javagl.obj.Mtl;
 import de.javagl.obj.MtlReader;
 import de.javagl.obj.Obj;
+import de.javagl.obj.ObjLodLevel;
 import de.javagl.obj.ObjData;
-import de.javagl.obj.ObjFace;
-import de.javagl.obj.ObjFaces;
+import de.javagl.obj.ObjNormals;
 import de.javagl.obj.ObjReader;
+import de.javagl.obj.ObjRenderBuffers;
 import de.javagl.obj.ObjSplitting;
 import de.javagl.obj.ObjUtils;
+import de.javagl.obj.QuantizedRenderBuffers;
 import de.javagl.obj.Objs;
+import de.javagl.obj.VertexCacheOptimizer;
 
 /** Renders an object loaded from an OBJ file in OpenGL. */
 public class ObjectRenderer {
@@ -158,10 +169,10 @@ public class ObjectRenderer {
     {
       void clearTemporaryFileHandlesAndBuffers() {
         textureFile = null;
-        wideIndices = null;
-        vertices = null;
-        texCoords = null;
-        normals = null;
+        atlasPage = null;
+        indexData = null;
+        vertexData = null;
+        lodIndexData = null;
       }
 
       public String materialName;
@@ -171,18 +182,50 @@ public class ObjectRenderer {
       public boolean hasTexture = false;
       public int textureId = 0;
 
+      // The key of the texture in the texture cache, and whether this material holds a reference to
+      // the texture, which is released when the dataset is replaced.
+      public TextureCache.Key textureKey;
+      public boolean textureReferenced = false;
+
       public int vertexBufferId = 0;
       public int indexBufferId = 0;
 
-      public int verticesBaseAddress = 0;
-      public int texCoordsBaseAddress = 0;
-      public int normalsBaseAddress = 0;
+      // The vertex attributes are interleaved in the vertex buffer. The stride and offsets are in bytes.
+      public int vertexStride = 0;
+      public int normalsOffset = 0;
+      public int texCoordsOffset = 0;
+      public int vertexDataSize = 0;
+
+      // Whether the vertex attributes are quantized. The positions and texture coordinates are then
+      // normalized unsigned shorts that are dequantized in the shader, and the normals are
+      // octahedral encoded bytes. See QuantizedRenderBuffers.
+      public boolean quantized = false;
+      public float[] positionDequantization = IDENTITY_MATRIX;
+      public float[] texCoordDequantization = IDENTITY_TEX_COORD_DEQUANTIZATION;
 
       public int numVertices = 0;
-      public int numNormals = 0;
-      public int numTexCoords = 0;
+      public boolean hasNormals = false;
+      public boolean hasTexCoords = false;
       public int indexCount = 0;
 
+      // The type of the indices, GL_UNSIGNED_INT or GL_UNSIGNED_SHORT, and the size of one index in
+      // bytes. This applies to the full index buffer and the index buffers of the levels of detail.
+      public int indexType = GLES20.GL_UNSIGNED_INT;
+      public int indexSize = 4;
+
+      // Simplified index buffers that share the vertex buffer, ordered from the most to the least
+      // detailed. The errors are the geometric errors in model units.
+      public int[] lodIndexBufferIds = new int[0];
+      public int[] lodIndexCounts = new int[0];
+      public float[] lodErrors = new float[0];
+
+      // The level of detail that is drawn in the current frame. Level 0 is the full index buffer and
+      // level i > 0 is lodIndexBufferIds[i - 1].
+      public int selectedLod = 0;
+
+      // Whether the texture and all buffers have been uploaded. The material is not drawn before.
+      public boolean uploaded = false;
+
       private FloatTuple ambient = createDefaultAmbient();
       private FloatTuple diffuse = createDefaultDiffuse();
       private FloatTuple specular = FloatTuples.create(0f, 0f, 0f);
@@ -193,10 +236,10 @@ public class ObjectRenderer {
       // Temporary members that are set in ObjFilesAsyncLoader and are only used in updateBuffers.
       // To minimize memory usage, these members will be cleared in updateBuffers after use.
       public File textureFile;
-      private IntBuffer wideIndices;
-      private FloatBuffer vertices;
-      private FloatBuffer texCoords;
-      private FloatBuffer normals;
+      public TextureAtlas.Page atlasPage;
+      private Buffer indexData;
+      private Buffer vertexData;
+      private List<Buffer> lodIndexData;
     }
 
     public String objFilename;
@@ -210,15 +253,200 @@ public class ObjectRenderer {
 
   private static final int COORDS_PER_VERTEX = 3;
 
+  // Faces whose normals differ by more than this angle (in degrees) are not smoothed together when
+  // normals have to be generated. The default smooths all faces, like the previous implementation.
+  private static final float NORMALS_CREASE_ANGLE = ObjNormals.SMOOTH_CREASE_ANGLE;
+
+  // Whether vertices with the same attributes are welded when an obj is converted into render
+  // buffers, which shrinks the vertex buffers of files that repeat their coordinates for each face.
+  // Attributes are rounded to multiples of WELD_EPSILON before they are compared, or compared
+  // exactly if it is 0. See ObjUtils#convertToRenderBuffers(ReadableObj, float).
+  private static final boolean WELD_VERTICES = false;
+  private static final float WELD_EPSILON = 0.0f;
+
+  // Whether the index buffers are reordered for the post-transform vertex cache after loading
+  private static final boolean OPTIMIZE_VERTEX_CACHE = true;
+
+  // Whether 16 bit indices are used. Materials with more vertices than MAX_16_BIT_VERTICES are split
+  // into several chunks that are drawn separately. Otherwise, 32 bit indices are used, which require
+  // twice the memory and bandwidth for the indices, and the OES_element_index_uint extension.
+  private static final boolean USE_16_BIT_INDICES = true;
+
+  // Whether the vertex attributes are quantized to 16 bytes per vertex (instead of 32 bytes with
+  // floats) before they are uploaded. See QuantizedRenderBuffers.
+  private static final boolean QUANTIZE_VERTICES = true;
+  private static final float[] IDENTITY_MATRIX = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};
+  private static final float[] IDENTITY_TEX_COORD_DEQUANTIZATION = {1, 1, 0, 0};
+  private static final int MAX_16_BIT_VERTICES = 65535;
+
+  // Whether simplified levels of detail are created after loading. Materials with fewer triangles
+  // than MIN_LOD_TRIANGLES are not simplified. The ratios are relative to the original triangle count.
+  private static final boolean BUILD_LOD_LEVELS = true;
+  private static final int MIN_LOD_TRIANGLES = 1024;
+  private static final float[] LOD_RATIOS = MeshSimplifier.DEFAULT_LOD_RATIOS;
+
+  // The level of detail of each material is selected each frame so that its geometric error covers
+  // at most LOD_MAX_PIXEL_ERROR pixels on the screen, and the total number of triangles is at most
+  // LOD_TRIANGLE_BUDGET. See LodSelector.
+  private static final float LOD_MAX_PIXEL_ERROR = 1.0f;
+  private static final float LOD_HYSTERESIS = 0.25f;
+  private static final int LOD_TRIANGLE_BUDGET = 1500000;
+
+  // The obj files are loaded concurrently on one thread per core. Loading a file is estimated to
+  // require LOAD_MEMORY_PER_FILE_BYTE bytes of heap for each byte of the file, and the files that
+  // are loaded at the same time may use LOAD_MEMORY_BUDGET_FRACTION of the free heap. See
+  // ParallelFileLoader.
+  private static final long LOAD_MEMORY_PER_FILE_BYTE = 2;
+  private static final float LOAD_MEMORY_BUDGET_FRACTION = 0.5f;
+
+  // Whether each obj file is uploaded and drawn as soon as it has been loaded, instead of after all
+  // files have been loaded. The dataset bounds then grow while the files arrive, which moves and
+  // rescales the model. If LOCK_INITIAL_FRAMING is set, the model keeps the framing of the first
+  // uploaded files instead.
+  private static final boolean STREAM_OBJ_FILES = true;
+  private static final boolean LOCK_INITIAL_FRAMING = false;
+
+  // The buffers and textures are uploaded by an UploadScheduler, which spends at most
+  // UPLOAD_TIME_BUDGET_NANOS and about UPLOAD_BYTE_BUDGET bytes on uploads in each frame, in chunks
+  // of at most UPLOAD_CHUNK_SIZE bytes. The materials that cover the most pixels are uploaded first.
+  private static final long UPLOAD_TIME_BUDGET_NANOS = 4000000;
+  private static final long UPLOAD_BYTE_BUDGET = 8 * 1024 * 1024;
+  private static final long UPLOAD_CHUNK_SIZE = 512 * 1024;
+
+  // The textures are decoded by a TextureDecoder on one thread per core while the obj files are
+  // loaded. The decoded pixels are kept in direct buffers, of which at most TEXTURE_POOL_BYTES are
+  // kept for reuse after their textures have been uploaded.
+  private static final long TEXTURE_POOL_BYTES = 32 * 1024 * 1024;
+
+  // A file source that can be closed, like a ZipFileSource, is closed by the loader of the next
+  // dataset, after waiting at most SOURCE_CLOSE_TIMEOUT_SECONDS for the texture decoder of the
+  // previous dataset to stop reading it.
+  private static final long SOURCE_CLOSE_TIMEOUT_SECONDS = 10;
+
+  // The textures of a dataset, including their mip chains if GENERATE_MIPMAPS is set, should fit into
+  // the texture memory budget, which is DEFAULT_TEXTURE_MEMORY_BUDGET unless it is changed with
+  // setTextureMemoryBudget. The budget is divided among the obj files by their sizes, and within a
+  // file, the resolution of each texture is chosen by the TextureBudgetAllocator. Textures that
+  // are larger than the maximum texture size of the device are always reduced.
+  private static final boolean GENERATE_MIPMAPS = true;
+  private static final long DEFAULT_TEXTURE_MEMORY_BUDGET = 128 * 1024 * 1024;
+
+  // Whether opaque textures are compressed with ETC1 on the decoder threads, if the device supports
+  // it. The compressed textures are cached in the directory of the dataset that is set with
+  // setCompressedTextureDirectory, so that they are not encoded again when the dataset is opened
+  // again.
+  private static final boolean COMPRESS_TEXTURES = true;
+  private static final String ETC1_EXTENSION = "GL_OES_compressed_ETC1_RGB8_texture";
+
+  // Whether the textures of each obj file that are at most ATLAS_MAX_TEXTURE_SIZE pixels wide and
+  // high are packed into atlas pages of at most ATLAS_PAGE_SIZE pixels, with ATLAS_PADDING pixels
+  // around each texture. The materials of a page that have the same colors are merged, so that they
+  // are drawn with one texture bind and one draw call. Textures that are used with texture
+  // coordinates outside of [0, 1] are not packed. See TextureAtlas.
+  private static final boolean ATLAS_TEXTURES = true;
+  private static final int ATLAS_MAX_TEXTURE_SIZE = 256;
+  private static final int ATLAS_PAGE_SIZE = 1024;
+  private static final int ATLAS_PADDING = 4;
+
+  // Whether the prepared buffers of each obj file are written to a MeshCacheFile in the directory
+  // that is set with setMeshCacheDirectory after the file has been loaded, so that loading the same
+  // file again maps the buffers instead of parsing and preparing the file. The cache files are
+  // named by the path of the obj file in the dataset, its size and modification time, and the
+  // settings above that change the buffers.
+  private static final boolean CACHE_MESHES = true;
+  private static final String MESH_CACHE_EXTENSION = ".mesh";
+
   // Note: the last component must be zero to avoid applying the translational part of the matrix.
   private static final float[] LIGHT_DIRECTION = new float[] {0.250f, 0.866f, 0.433f, 0.0f};
   private final float[] viewLightDirection = new float[4];
 
   private int program;
 
-  private List<ObjProperty> objProperties;
+  private List<ObjProperty> objProperties = new ArrayList<>();
   private Bounds datasetBounds = new Bounds();
 
+  // The bounds that the model is framed with in updateModelMatrix. See LOCK_INITIAL_FRAMING.
+  private Bounds framingBounds = new Bounds();
+
+  // The obj files that have been loaded, but whose buffers have not been uploaded in updateBuffers
+  // yet. Each call to loadObjFiles creates a new queue, so that files of a previous dataset that
+  // are still being loaded are dropped. When the loader has finished, it sets the list of all
+  // loaded files, in the order of the files.
+  private volatile Queue<ObjProperty> loadedObjProperties = new ConcurrentLinkedQueue<>();
+  private volatile List<ObjProperty> completedObjProperties = null;
+
+  // The pending uploads of the materials of the loaded obj files.
+  private final UploadScheduler uploadScheduler =
+      new UploadScheduler(UPLOAD_TIME_BUDGET_NANOS, UPLOAD_BYTE_BUDGET, UPLOAD_CHUNK_SIZE);
+  private final BufferUpload.Sink glBufferSink = new BufferUpload.Sink() {
+    @Override
+    public int createBuffer(int target, int size) {
+      int[] buffers = new int[1];
+      GLES20.glGenBuffers(1, buffers, 0);
+      GLES20.glBindBuffer(target, buffers[0]);
+      GLES20.glBufferData(target, size, null, GLES20.GL_STATIC_DRAW);
+      GLES20.glBindBuffer(target, 0);
+      return buffers[0];
+    }
+
+    @Override
+    public void bufferSubData(int target, int bufferId, int offset, int size, Buffer data) {
+      GLES20.glBindBuffer(target, bufferId);
+      GLES20.glBufferSubData(target, offset, size, data);
+      GLES20.glBindBuffer(target, 0);
+    }
+  };
+  private int uploadFrames = 0;
+  private long uploadedBytes = 0;
+
+  // The textures that have been uploaded. The chunks of one material and materials in different
+  // files that use the same image share a texture.
+  private final TextureCache textureCache = new TextureCache(new TextureCache.Deleter() {
+    @Override
+    public void deleteTexture(int textureId) {
+      GLES20.glDeleteTextures(1, new int[] {textureId}, 0);
+    }
+  });
+
+  // Decodes the textures of the current dataset in the background. Each call to loadObjFiles
+  // creates a new decoder, and shuts down the previous one.
+  private TextureDecoder textureDecoder = null;
+  // The source of the files of the current dataset
+  private FileSource fileSource = new LocalFileSource();
+  private final ByteBufferPool texturePool = new ByteBufferPool(TEXTURE_POOL_BYTES);
+  private volatile long textureMemoryBudget = DEFAULT_TEXTURE_MEMORY_BUDGET;
+
+  // The maximum texture size of the device, which is queried in createProgram. 2048 is supported by
+  // all devices that support ARCore.
+  private volatile int maxTextureSize = 2048;
+
+  // Whether the device supports ETC1 textures, which is queried in createProgram, and the cache
+  // directory for the compressed textures, with the root of the dataset.
+  private volatile boolean etc1Supported = false;
+  private File compressedTextureDirectory = null;
+  private File compressedTextureDatasetRoot = null;
+
+  // The number of textures and atlas pages of the current dataset that have been packed by the
+  // loader, and the number of draw calls and texture binds per frame that were saved by merging the
+  // materials of the pages.
+  private final AtomicInteger numAtlasTextures = new AtomicInteger();
+  private final AtomicInteger numAtlasPages = new AtomicInteger();
+  private final AtomicInteger numAtlasDrawCallsSaved = new AtomicInteger();
+
+  // The cache directory for the prepared buffers of the obj files, and the root of the dataset that
+  // the obj files are identified relative to. The numbers of obj files of the current dataset that
+  // have been read from the cache and written to it.
+  private File meshCacheDirectory = null;
+  private File meshCacheDatasetRoot = null;
+  private final AtomicInteger numMeshCacheHits = new AtomicInteger();
+  private final AtomicInteger numMeshCacheWrites = new AtomicInteger();
+
+  // The time when the current dataset started loading, for logging the time to the first pixel and
+  // to the frame that contains all files. This is 0 when both have been logged.
+  private long loadStartNanos = 0;
+  private boolean firstPixelLogged = false;
+  private boolean loadCompleted = false;
+
   // Shader location: model view projection matrix.
   private int modelViewUniform;
   private int modelViewProjectionUniform;
@@ -242,6 +470,11 @@ public class ObjectRenderer {
   private int materialShininessUniform;
   private int materialOpacityUniform;
 
+  // Shader location: vertex attribute dequantization.
+  private int positionDequantizationUniform;
+  private int texCoordDequantizationUniform;
+  private int octahedralNormalsUniform;
+
   // Shader location: color correction property
   private int colorCorrectionParameterUniform;
 
@@ -250,9 +483,31 @@ public class ObjectRenderer {
   private final float[] modelViewMatrix = new float[16];
   private final float[] modelViewProjectionMatrix = new float[16];
 
+  // Level of detail selection. The arrays contain one element for each material of all objects, in
+  // the order in which they are drawn.
+  private final LodSelector lodSelector =
+      new LodSelector(LOD_MAX_PIXEL_ERROR, LOD_HYSTERESIS, LOD_TRIANGLE_BUDGET);
+  private List<ObjProperty.MaterialProperty> lodMaterials = new ArrayList<>();
+  private float[][] lodSelectionErrors = new float[0][];
+  private int[][] lodSelectionTriangleCounts = new int[0][];
+  private int[] lodSelectionLevels = new int[0];
+  private float[] lodSelectionPixelsPerUnit = new float[0];
+  private final float[] lodSelectionBounds = new float[6];
+  private int viewportWidth = 1;
+  private int viewportHeight = 1;
+
+  // Per-frame counters. The counters of the current frame are reset in selectLevelsOfDetail.
+  private int trianglesDrawn = 0;
+  private int fullDetailTriangles = 0;
+  private int drawCalls = 0;
+  private int textureBinds = 0;
+  private int trianglesDrawnLastFrame = 0;
+  private int fullDetailTrianglesLastFrame = 0;
+  private int drawCallsLastFrame = 0;
+  private int textureBindsLastFrame = 0;
+
   private Context context;
   private boolean initialized = false;
-  private boolean buffersNeedUpdate = false;
 
   public ObjectRenderer(Context context) {
 
@@ -280,6 +535,14 @@ public class ObjectRenderer {
 
     ShaderUtil.checkGLError(TAG, "Program creation");
 
+    int[] maxTextureSizes = new int[1];
+    GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, maxTextureSizes, 0);
+    if (maxTextureSizes[0] > 0) {
+      maxTextureSize = maxTextureSizes[0];
+    }
+    String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+    etc1Supported = extensions != null && extensions.contains(ETC1_EXTENSION);
+
     modelViewUniform = GLES20.glGetUniformLocation(program, "u_ModelView");
     modelViewProjectionUniform = GLES20.glGetUniformLocation(program, "u_ModelViewProjection");
 
@@ -297,6 +560,10 @@ public class ObjectRenderer {
     materialShininessUniform = GLES20.glGetUniformLocation(program, "u_MaterialParameters.shininess");
     materialOpacityUniform = GLES20.glGetUniformLocation(program, "u_MaterialParameters.opacity");
 
+    positionDequantizationUniform = GLES20.glGetUniformLocation(program, "u_PositionDequantization");
+    texCoordDequantizationUniform = GLES20.glGetUniformLocation(program, "u_TexCoordDequantization");
+    octahedralNormalsUniform = GLES20.glGetUniformLocation(program, "u_OctahedralNormals");
+
     colorCorrectionParameterUniform =
             GLES20.glGetUniformLocation(program, "u_ColorCorrectionParameters");
 
@@ -307,6 +574,10 @@ public class ObjectRenderer {
   }
 
   public Bounds calculateBounds(FloatBuffer vertices) {
+    return calculateBounds(vertices, 3);
+  }
+
+  public Bounds calculateBounds(FloatBuffer vertices, int stride) {
     Bounds bounds = new Bounds();
     int dimensions = 3;
     int limit = vertices.limit();
@@ -319,6 +590,7 @@ public class ObjectRenderer {
       bounds.maxY = bounds.minY;
       bounds.maxZ = bounds.minZ;
       bounds.initialized = true;
+      index = stride;
       while ((index + dimensions) <= limit) {
         bounds.minX = Math.min(bounds.minX, vertices.get(index));
         bounds.minY = Math.min(bounds.minY, vertices.get(index + 1));
@@ -326,7 +598,7 @@ public class ObjectRenderer {
         bounds.maxX = Math.max(bounds.maxX, vertices.get(index));
         bounds.maxY = Math.max(bounds.maxY, vertices.get(index + 1));
         bounds.maxZ = Math.max(bounds.maxZ, vertices.get(index + 2));
-        index += dimensions;
+        index += stride;
       }
     }
     return bounds;
@@ -338,419 +610,1189 @@ public class ObjectRenderer {
 
   public boolean isInitialized() { return initialized; }
 
-  private class ObjFilesAsyncLoader extends AsyncTask<File, Integer, ArrayList<ObjProperty>> {
+  private class ObjFilesAsyncLoader extends AsyncTask<Void, Integer, ArrayList<ObjProperty>> {
 
-    private Context context;
+    private final FileSource fileSource;
     private ObjFilesLoadedDelegate delegate;
 
-    public ObjFilesAsyncLoader(Context context, ObjFilesLoadedDelegate delegate) {
-      this.context = context;
+    // The obj files, which may still be produced while they are loaded, and their number.
+    private final FileQueue files;
+    private final int numFiles;
+
+    // The queue that the loaded obj files are published to. This is the loadedObjProperties queue
+    // of the renderer at the time when the loader was created.
+    private final Queue<ObjProperty> loadedQueue;
+
+    // The decoder that the textures of the materials are requested from, and the memory budget for
+    // all textures of the dataset.
+    private final TextureDecoder textureDecoder;
+    private final long textureMemoryBudget;
+
+    // The directory that the prepared buffers are cached in, or null, and the root of the dataset.
+    private final File meshCacheDirectory;
+    private final File datasetRoot;
+
+    // The source of the previous dataset that is closed before loading, or null, and the texture
+    // decoder that read it.
+    private final Closeable previousSource;
+    private final TextureDecoder previousTextureDecoder;
+
+    // The total size of the obj files, for dividing the texture memory budget among the files.
+    private final long totalObjFileBytes;
+
+    public ObjFilesAsyncLoader(FileQueue files, int numFiles, long totalObjFileBytes,
+        FileSource fileSource, ObjFilesLoadedDelegate delegate, Queue<ObjProperty> loadedQueue,
+        TextureDecoder textureDecoder, long textureMemoryBudget, File meshCacheDirectory,
+        File datasetRoot, Closeable previousSource, TextureDecoder previousTextureDecoder) {
+      this.files = files;
+      this.numFiles = numFiles;
+      this.totalObjFileBytes = totalObjFileBytes;
+      this.fileSource = fileSource;
       this.delegate = delegate;
+      this.loadedQueue = loadedQueue;
+      this.textureDecoder = textureDecoder;
+      this.textureMemoryBudget = textureMemoryBudget;
+      this.meshCacheDirectory = meshCacheDirectory;
+      this.datasetRoot = datasetRoot;
+      this.previousSource = previousSource;
+      this.previousTextureDecoder = previousTextureDecoder;
     }
 
-    @Override
-    protected ArrayList<ObjProperty> doInBackground(File... files) {
+    // Closes the source of the previous dataset. The loader of the previous dataset has finished,
+    // because the loaders run on the serial executor, but the previous texture decoder may still be
+    // decoding an image, so the source is closed once it has stopped.
+    private void closePreviousSource() {
+      if (previousSource == null) {
+        return;
+      }
+      try {
+        if (previousTextureDecoder != null && !previousTextureDecoder.awaitTermination(
+            SOURCE_CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+          Log.w(TAG, "The texture decoder of the previous dataset did not stop in time");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      try {
+        previousSource.close();
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to close the source of the previous dataset", e);
+      }
+    }
 
-      ArrayList<ObjProperty> result = new ArrayList<>(files.length);
+    // Starts decoding the textures of the materials of the given obj file that have not been
+    // requested for other files yet. The resolution of the textures is chosen so that they fit into
+    // the share of the texture memory budget of the file. Each texture is weighted by the surface
+    // area of the bounds of the materials that use it, which is a rough estimate of the screen area
+    // that they cover.
+    private void requestTextures(ObjProperty objProperty, File objFile) {
+      Map<File, Float> weights = new LinkedHashMap<>();
+      Map<File, TextureAtlas.Page> atlasPages = new HashMap<>();
+      for (ObjProperty.MaterialProperty materialProperty : objProperty.materialProperties) {
+        if (materialProperty.textureKey == null) {
+          continue;
+        }
+        File textureFile = materialProperty.textureKey.getFile();
+        if (textureDecoder.isRequested(textureFile)) {
+          continue;
+        }
+        if (materialProperty.atlasPage != null) {
+          atlasPages.put(textureFile, materialProperty.atlasPage);
+        }
+        Float weight = weights.get(textureFile);
+        weights.put(textureFile,
+            (weight == null ? 0.0f : weight) + computeSurfaceArea(materialProperty.bounds));
+      }
 
-      // Read each obj file
-      int numFilesLoaded = 0;
-      for (File objFile : files)
-      {
-        // Read the obj file.
-        try (InputStream objInputStream = context.getContentResolver().openInputStream(Uri.fromFile(objFile))) {
-          if (objInputStream == null) {
-            // nothing to load, move on
-            return null;
-          }
+      List<File> textureFiles = new ArrayList<>();
+      List<TextureBudgetAllocator.Texture> textures = new ArrayList<>();
+      for (Map.Entry<File, Float> entry : weights.entrySet()) {
+        TextureAtlas.Page atlasPage = atlasPages.get(entry.getKey());
+        if (atlasPage != null) {
+          textureFiles.add(entry.getKey());
+          textures.add(new TextureBudgetAllocator.Texture(
+              atlasPage.getWidth(), atlasPage.getHeight(), entry.getValue()));
+          continue;
+        }
+        try {
+          int[] size = textureDecoder.readSize(entry.getKey());
+          textureFiles.add(entry.getKey());
+          textures.add(new TextureBudgetAllocator.Texture(size[0], size[1], entry.getValue()));
+        } catch (IOException e) {
+          // Decoding it fails as well, and the material is then drawn without the texture
+          textureDecoder.request(entry.getKey());
+        }
+      }
+      long budget = totalObjFileBytes > 0
+          ? (long) ((double) textureMemoryBudget * fileSource.length(objFile) / totalObjFileBytes)
+          : textureMemoryBudget;
+      int[] levels =
+          TextureBudgetAllocator.allocate(textures, budget, maxTextureSize, GENERATE_MIPMAPS);
+      for (int i = 0; i < textureFiles.size(); ++i) {
+        TextureAtlas.Page atlasPage = atlasPages.get(textureFiles.get(i));
+        if (atlasPage != null) {
+          textureDecoder.requestAtlasPage(atlasPage, 1 << levels[i]);
+        } else {
+          textureDecoder.request(textureFiles.get(i), 1 << levels[i]);
+        }
+        if (levels[i] > 0) {
+          Log.i(TAG, String.format(Locale.US, "Reducing %s by %d", textureFiles.get(i).getName(),
+              1 << levels[i]));
+        }
+      }
+    }
 
-          Obj objObject = ObjReader.read(objInputStream);
-          Map<String, MtlAndTexture> materialsByName = fetchMaterials(objObject, context, objFile.getParentFile());
-
-          // Prepare the Obj so that its structure is suitable for
-          // rendering with OpenGL:
-          // 1. Triangulate it
-          // 2. Make sure that texture coordinates are not ambiguous
-          // 3. Make sure that normals are not ambiguous
-          // 4. Convert it to single-indexed data
-          Obj obj = ObjUtils.triangulate(objObject);
-          if (obj.getNumNormals() <= 0) {
-            obj = createNewObjWithNormals(obj);
+    // Packs the small textures of the given materials into atlas pages, and returns the render
+    // buffers by material name afterwards. A texture is packed if all materials that use it have
+    // texture coordinates within [0, 1]. The texture coordinates of these materials are
+    // transformed to the regions of their textures, and the materials of each page that have the
+    // same colors are merged into one material, which is added to the given materials by name.
+    private Map<String, ObjRenderBuffers> packTextureAtlas(File objFile,
+        Map<String, ObjRenderBuffers> materialToBuffersMap,
+        Map<String, MtlAndTexture> materialsByName) {
+
+      // Find the textures that are only used with texture coordinates that do not wrap around
+      Map<TextureCache.Key, Boolean> packable = new LinkedHashMap<>();
+      for (Map.Entry<String, ObjRenderBuffers> entry : materialToBuffersMap.entrySet()) {
+        MtlAndTexture mtlAndTexture = materialsByName.get(entry.getKey());
+        if (mtlAndTexture == null || mtlAndTexture.getTextureKey() == null) {
+          continue;
+        }
+        Boolean previous = packable.get(mtlAndTexture.getTextureKey());
+        packable.put(mtlAndTexture.getTextureKey(), (previous == null || previous)
+            && TextureAtlas.hasNonWrappingTexCoords(entry.getValue()));
+      }
+      List<TextureCache.Key> textureKeys = new ArrayList<>();
+      List<int[]> sizes = new ArrayList<>();
+      for (Map.Entry<TextureCache.Key, Boolean> entry : packable.entrySet()) {
+        if (!entry.getValue()) {
+          continue;
+        }
+        try {
+          int[] size = textureDecoder.readSize(entry.getKey().getFile());
+          if (size[0] <= ATLAS_MAX_TEXTURE_SIZE && size[1] <= ATLAS_MAX_TEXTURE_SIZE) {
+            textureKeys.add(entry.getKey());
+            sizes.add(size);
           }
-          obj = ObjUtils.makeTexCoordsUnique(obj);
-          obj = ObjUtils.makeNormalsUnique(obj);
-          objObject = ObjUtils.makeVertexIndexed(obj, Objs.create());
-
-          // For every obj file, store the properties for later use
-          ObjProperty objProperty = new ObjProperty();
-          objProperty.objFilename = objFile.toString();
-          result.add(objProperty);
-
-          Map<String, Obj> materialToObjMap = ObjSplitting.splitByMaterialGroups(objObject);
-          if (materialToObjMap.isEmpty()) {
-            // If there is no material, we just simply add the original obj with an empty material
-            // name
-            materialToObjMap.put("", objObject);
+        } catch (IOException e) {
+          // The texture keeps its own texture, which can not be decoded either
+        }
+      }
+      if (textureKeys.size() < 2) {
+        return materialToBuffersMap;
+      }
+
+      // Pack the textures and create the pages
+      int numTextures = textureKeys.size();
+      int[] widths = new int[numTextures];
+      int[] heights = new int[numTextures];
+      for (int i = 0; i < numTextures; ++i) {
+        widths[i] = sizes.get(i)[0];
+        heights[i] = sizes.get(i)[1];
+      }
+      TextureAtlas.Region[] regions =
+          TextureAtlas.pack(widths, heights, ATLAS_PAGE_SIZE, ATLAS_PADDING);
+      int numPages = 0;
+      for (TextureAtlas.Region region : regions) {
+        numPages = Math.max(numPages, region.getPage() + 1);
+      }
+      TextureAtlas.Page[] pages = new TextureAtlas.Page[numPages];
+      Map<TextureCache.Key, Integer> textureIndices = new HashMap<>();
+      for (int page = 0; page < numPages; ++page) {
+        List<File> imageFiles = new ArrayList<>();
+        List<TextureAtlas.Region> pageRegions = new ArrayList<>();
+        for (int i = 0; i < numTextures; ++i) {
+          if (regions[i].getPage() == page) {
+            imageFiles.add(textureKeys.get(i).getFile());
+            pageRegions.add(regions[i]);
+            textureIndices.put(textureKeys.get(i), i);
           }
+        }
+        int[] pageSize = TextureAtlas.computePageSize(regions, page, ATLAS_PADDING);
+        pages[page] = new TextureAtlas.Page(
+            new File(objFile.getParentFile(), objFile.getName() + ".atlas" + page),
+            pageSize[0], pageSize[1], ATLAS_PADDING, imageFiles, pageRegions);
+      }
 
-          int numMaterialGroups = materialToObjMap.size();
-          objProperty.materialProperties = new ArrayList<>(numMaterialGroups);
+      // Transform the texture coordinates, and group the materials by page and colors
+      Map<String, List<String>> groups = new LinkedHashMap<>();
+      Map<String, String> groupOfMaterial = new HashMap<>();
+      for (Map.Entry<String, ObjRenderBuffers> entry : materialToBuffersMap.entrySet()) {
+        MtlAndTexture mtlAndTexture = materialsByName.get(entry.getKey());
+        Integer index = mtlAndTexture != null && mtlAndTexture.getTextureKey() != null
+            ? textureIndices.get(mtlAndTexture.getTextureKey())
+            : null;
+        if (index == null) {
+          continue;
+        }
+        TextureAtlas.Region region = regions[index];
+        TextureAtlas.Page page = pages[region.getPage()];
+        TextureAtlas.transformTexCoords(entry.getValue(),
+            TextureAtlas.computeTexCoordTransform(region, page.getWidth(), page.getHeight()));
+        String group = region.getPage() + " " + describeColors(mtlAndTexture.getMtl());
+        List<String> members = groups.get(group);
+        if (members == null) {
+          members = new ArrayList<>();
+          groups.put(group, members);
+        }
+        members.add(entry.getKey());
+        groupOfMaterial.put(entry.getKey(), group);
+      }
 
-          for (Map.Entry<String, Obj> entry : materialToObjMap.entrySet()) {
+      // Merge the materials of each group, in place of the first material of the group
+      Map<String, ObjRenderBuffers> result = new LinkedHashMap<>();
+      int numMergedMaterials = groups.size();
+      for (Map.Entry<String, ObjRenderBuffers> entry : materialToBuffersMap.entrySet()) {
+        String group = groupOfMaterial.get(entry.getKey());
+        if (group == null) {
+          result.put(entry.getKey(), entry.getValue());
+          continue;
+        }
+        List<String> members = groups.remove(group);
+        if (members == null) {
+          // Already merged
+          continue;
+        }
+        List<ObjRenderBuffers> memberBuffers = new ArrayList<>(members.size());
+        for (String member : members) {
+          memberBuffers.add(materialToBuffersMap.get(member));
+        }
+        MtlAndTexture first = materialsByName.get(members.get(0));
+        int page = regions[textureIndices.get(first.getTextureKey())].getPage();
+        String mergedName = members.get(0) + "@atlas" + page;
+        materialsByName.put(
+            mergedName, new MtlAndTexture(first.getMtl(), pages[page], fileSource));
+        result.put(mergedName, ObjUtils.mergeRenderBuffers(memberBuffers));
+      }
 
-            // Get the material name from the key and the obj object from the value
-            String materialName = entry.getKey();
-            Obj currObj = entry.getValue();
+      int numPackedMaterials = groupOfMaterial.size();
+      numAtlasTextures.addAndGet(numTextures);
+      numAtlasPages.addAndGet(numPages);
+      numAtlasDrawCallsSaved.addAndGet(numPackedMaterials - numMergedMaterials);
+      Log.i(TAG, String.format(Locale.US, "%s: packed %d textures into %d atlas pages, merged %d "
+          + "materials into %d", objFile.getName(), numTextures, numPages, numPackedMaterials,
+          numMergedMaterials));
+      return result;
+    }
 
-            // Create a material property record in the obj property
-            ObjProperty.MaterialProperty materialProperty = new ObjProperty.MaterialProperty();
-            objProperty.materialProperties.add(materialProperty);
-            materialProperty.materialName = materialName;
-
-            // If we can read a material and or a texture, we store it in the property.
-            MtlAndTexture mtlAndTexture = materialsByName.get(materialName);
-            if (mtlAndTexture != null) {
-              Mtl material = mtlAndTexture.getMtl();
-              File textureFile = mtlAndTexture.getTextureFile();
-              if (textureFile != null && textureFile.exists()) {
-                materialProperty.textureFile = textureFile;
-                materialProperty.hasTexture = true;
-              }
-              if (material != null) {
-                FloatTuple ka = material.getKa();
-                FloatTuple kd = material.getKd();
-
-                if (!containsColor(ka) && !containsColor(kd)) { // pitch black, probably simply undefined
-                  if (materialProperty.hasTexture) {
-                    materialProperty.ambient = FloatTuples.create(1.0f, 1.0f, 1.0f);
-                    materialProperty.diffuse = kd;
-                  } else {
-                    materialProperty.ambient = createDefaultAmbient();
-                    materialProperty.diffuse = createDefaultDiffuse();
-                  }
-                } else {
-                  materialProperty.ambient = ka;
-                  materialProperty.diffuse = kd;
-                }
-
-                materialProperty.specular = material.getKs();
-                materialProperty.shininess = material.getNs();
-                materialProperty.opacity = material.getD();
-              }
-            }
+    // Returns a description of the colors of the given material, which is equal for materials that
+    // are drawn with the same uniforms.
+    private String describeColors(Mtl mtl) {
+      return mtl.getKa() + " " + mtl.getKd() + " " + mtl.getKs() + " " + mtl.getNs() + " "
+          + mtl.getD();
+    }
 
-            // OpenGL does not use Java arrays. ByteBuffers are used instead to provide data in a format
-            // that OpenGL understands.
+    // Creates a material property for the given material, with the colors and the texture of the
+    // material if it could be read.
+    private ObjProperty.MaterialProperty createMaterialProperty(
+        String materialName, Map<String, MtlAndTexture> materialsByName) {
+
+      ObjProperty.MaterialProperty materialProperty = new ObjProperty.MaterialProperty();
+      materialProperty.materialName = materialName;
+
+      // If we can read a material and or a texture, we store it in the property.
+      MtlAndTexture mtlAndTexture = materialsByName.get(materialName);
+      if (mtlAndTexture != null) {
+        Mtl material = mtlAndTexture.getMtl();
+        File textureFile = mtlAndTexture.getTextureFile();
+        if (mtlAndTexture.getTextureKey() != null) {
+          materialProperty.textureFile = textureFile;
+          materialProperty.textureKey = mtlAndTexture.getTextureKey();
+          materialProperty.atlasPage = mtlAndTexture.getAtlasPage();
+          materialProperty.hasTexture = true;
+        }
+        if (material != null) {
+          FloatTuple ka = material.getKa();
+          FloatTuple kd = material.getKd();
+
+          if (!containsColor(ka) && !containsColor(kd)) { // pitch black, probably simply undefined
+            if (materialProperty.hasTexture) {
+              materialProperty.ambient = FloatTuples.create(1.0f, 1.0f, 1.0f);
+              materialProperty.diffuse = kd;
+            } else {
+              materialProperty.ambient = createDefaultAmbient();
+              materialProperty.diffuse = createDefaultDiffuse();
+            }
+          } else {
+            materialProperty.ambient = ka;
+            materialProperty.diffuse = kd;
+          }
 
-            // Obtain the data from the OBJ, as direct buffers:
-            materialProperty.wideIndices = ObjData.getFaceVertexIndices(currObj, 3);
-            materialProperty.vertices = ObjData.getVertices(currObj);
-            materialProperty.texCoords = ObjData.getTexCoords(currObj, 2);
-            materialProperty.normals = ObjData.getNormals(currObj);
+          materialProperty.specular = material.getKs();
+          materialProperty.shininess = material.getNs();
+          materialProperty.opacity = material.getD();
+        }
+      }
+      return materialProperty;
+    }
 
-            // Calculate the material property bounds. Also expand the obj property bounds.
-            materialProperty.bounds = calculateBounds(materialProperty.vertices);
-            objProperty.bounds.expandBy(materialProperty.bounds);
+    // Optimizes the given render buffers, creates their levels of detail, and stores the buffers
+    // that will be uploaded in updateBuffers in the material property.
+    private void prepareBuffers(ObjProperty.MaterialProperty materialProperty, ObjRenderBuffers renderBuffers) {
+
+      String materialName = materialProperty.materialName;
+
+      // OpenGL does not use Java arrays. ByteBuffers are used instead to provide data in a format
+      // that OpenGL understands.
+
+      // Reorder the triangles and vertices for better vertex cache and vertex fetch efficiency.
+      // The ACMR is only computed for the debug log, because it simulates the cache over all
+      // indices.
+      if (OPTIMIZE_VERTEX_CACHE) {
+        boolean logAcmr = Log.isLoggable(TAG, Log.DEBUG);
+        float acmrBefore = logAcmr ? VertexCacheOptimizer.computeAcmr(
+            renderBuffers.getIndices(), VertexCacheOptimizer.DEFAULT_CACHE_SIZE) : 0;
+        VertexCacheOptimizer.optimize(renderBuffers);
+        if (logAcmr) {
+          float acmrAfter = VertexCacheOptimizer.computeAcmr(
+              renderBuffers.getIndices(), VertexCacheOptimizer.DEFAULT_CACHE_SIZE);
+          Log.d(TAG, String.format(Locale.US, "Material '%s': ACMR %.3f -> %.3f (%d triangles)",
+              materialName, acmrBefore, acmrAfter, renderBuffers.getIndices().capacity() / 3));
+        }
+      }
 
-            // Load vertex buffer
-            materialProperty.numVertices = materialProperty.vertices.limit() / 3;
-            materialProperty.numTexCoords = materialProperty.texCoords.limit() / 3;
-            materialProperty.numNormals = materialProperty.normals.limit() / 3;
+      // The indices are converted to 16 bit if all vertices can be addressed with them
+      boolean shortIndices = renderBuffers.getNumVertices() <= MAX_16_BIT_VERTICES && USE_16_BIT_INDICES;
+      if (shortIndices) {
+        materialProperty.indexType = GLES20.GL_UNSIGNED_SHORT;
+        materialProperty.indexSize = 2;
+      }
 
-            materialProperty.verticesBaseAddress = 0;
-            materialProperty.texCoordsBaseAddress = materialProperty.verticesBaseAddress + 4 * materialProperty.vertices.limit();
-            materialProperty.normalsBaseAddress = materialProperty.texCoordsBaseAddress + 4 * materialProperty.texCoords.limit();
+      // Create the simplified levels of detail. This has to happen after the vertices have
+      // been reordered, because the levels of detail refer to the same vertices.
+      int numTriangles = renderBuffers.getIndices().capacity() / 3;
+      if (BUILD_LOD_LEVELS && numTriangles >= MIN_LOD_TRIANGLES) {
+        List<ObjLodLevel> lodLevels = MeshSimplifier.createLodLevels(renderBuffers, LOD_RATIOS);
+        int numLodLevels = lodLevels.size();
+        materialProperty.lodIndexData = new ArrayList<>(numLodLevels);
+        materialProperty.lodIndexCounts = new int[numLodLevels];
+        materialProperty.lodErrors = new float[numLodLevels];
+        for (int i = 0; i < numLodLevels; ++i) {
+          ObjLodLevel lodLevel = lodLevels.get(i);
+          IntBuffer lodIndices = lodLevel.getIndices();
+          if (OPTIMIZE_VERTEX_CACHE) {
+            VertexCacheOptimizer.optimizeIndices(lodIndices, renderBuffers.getNumVertices());
           }
+          materialProperty.lodIndexData.add(shortIndices ? ObjData.convertToShortBuffer(lodIndices) : lodIndices);
+          materialProperty.lodIndexCounts[i] = lodIndices.capacity();
+          materialProperty.lodErrors[i] = lodLevel.getError();
+          Log.d(TAG, String.format(Locale.US, "Material '%s': LOD with %d of %d triangles, error %f",
+              materialName, lodLevel.getNumTriangles(), numTriangles, lodLevel.getError()));
         }
-        catch (IOException e)
-        {
-          Log.e("ObjectRenderer", "Exception caught: ", e);
-        }
-
-        ++numFilesLoaded;
-        delegate.objFilesLoaded(numFilesLoaded, files.length);
       }
 
-
-      return result;
+      // The render buffers are already direct buffers:
+      IntBuffer indices = renderBuffers.getIndices();
+      materialProperty.indexData = shortIndices ? ObjData.convertToShortBuffer(indices) : indices;
+      materialProperty.indexCount = indices.capacity();
+
+      // Calculate the material property bounds.
+      materialProperty.bounds = calculateBounds(renderBuffers.getVertexData(), renderBuffers.getStride());
+
+      // Describe the interleaved vertex buffer
+      materialProperty.numVertices = renderBuffers.getNumVertices();
+      materialProperty.hasNormals = renderBuffers.hasNormals();
+      materialProperty.hasTexCoords = renderBuffers.hasTexCoords();
+      if (QUANTIZE_VERTICES) {
+        QuantizedRenderBuffers quantizedBuffers = QuantizedRenderBuffers.quantize(renderBuffers);
+        materialProperty.quantized = true;
+        materialProperty.vertexData = quantizedBuffers.getVertexData();
+        materialProperty.vertexDataSize = quantizedBuffers.getVertexData().capacity();
+        materialProperty.vertexStride = quantizedBuffers.getStride();
+        materialProperty.normalsOffset = quantizedBuffers.getNormalOffset();
+        materialProperty.texCoordsOffset = quantizedBuffers.getTexCoordOffset();
+        materialProperty.positionDequantization = quantizedBuffers.getPositionDequantization();
+        materialProperty.texCoordDequantization = quantizedBuffers.getTexCoordDequantization();
+      } else {
+        materialProperty.vertexData = renderBuffers.getVertexData();
+        materialProperty.vertexDataSize = 4 * renderBuffers.getVertexData().capacity();
+        materialProperty.vertexStride = 4 * renderBuffers.getStride();
+        materialProperty.normalsOffset = 4 * renderBuffers.getNormalOffset();
+        materialProperty.texCoordsOffset = 4 * renderBuffers.getTexCoordOffset();
+      }
     }
 
     @Override
-    protected void onPostExecute(ArrayList<ObjProperty> result) {
+    protected ArrayList<ObjProperty> doInBackground(Void... params) {
+
+      closePreviousSource();
+
+      // Load the obj files concurrently as they arrive. The results are in the order of the files,
+      // and the delegate is notified after each file.
+      int numCores = Runtime.getRuntime().availableProcessors();
+      ParallelFileLoader parallelFileLoader =
+          new ParallelFileLoader(numCores, computeLoadMemoryBudget());
+      List<ObjProperty> objProperties = parallelFileLoader.load(files, numFiles,
+          new ParallelFileLoader.FileLoader<ObjProperty>() {
+            @Override
+            public long estimateMemory(File file) {
+              return LOAD_MEMORY_PER_FILE_BYTE * fileSource.length(file);
+            }
 
-      objProperties = result;
-      buffersNeedUpdate = true;
+            @Override
+            public ObjProperty load(File file, int numThreads) {
+              ObjProperty objProperty = loadObjFile(file, numThreads);
+              // Publish the file right away, so that it can be uploaded and drawn while the
+              // remaining files are loaded.
+              if (STREAM_OBJ_FILES && objProperty != null) {
+                loadedQueue.add(objProperty);
+              }
+              return objProperty;
+            }
+          }, new ParallelFileLoader.ProgressListener() {
+            @Override
+            public void filesLoaded(int numFilesLoaded, int totalNumFiles) {
+              if (delegate != null) {
+                delegate.objFilesLoaded(numFilesLoaded, totalNumFiles);
+              }
+            }
+          });
+      return new ArrayList<>(objProperties);
     }
-  }
 
-  public void updateBuffers() {
-    if (!buffersNeedUpdate) {
-      return;
-    }
+    // Loads a single obj file and prepares the buffers of its materials, using the given number of
+    // threads. Returns null if the file could not be read.
+    private ObjProperty loadObjFile(File objFile, int numThreads) {
+
+      // Map the prepared buffers if the file has been loaded before
+      File meshCacheFile = getMeshCacheFile(objFile);
+      if (meshCacheFile != null && meshCacheFile.isFile()) {
+        ObjProperty objProperty = readMeshCache(meshCacheFile, objFile);
+        if (objProperty != null) {
+          requestTextures(objProperty, objFile);
+          return objProperty;
+        }
+      }
 
-    // reset flag
-    buffersNeedUpdate = false;
+      // Read the obj file.
+      try {
+
+        // Scan the raw bytes of the obj file instead of reading it line by line. This avoids
+        // creating several temporary objects for each vertex in large files. The file is split
+        // into chunks that are parsed on all threads that are available for it. Files on the file
+        // system are memory mapped, and entries of an archive are inflated into one buffer.
+        ByteBuffer objBuffer = fileSource.read(objFile);
+        // The compact objs store their elements in primitive arrays instead of one object for
+        // each element, which considerably reduces the memory that is required for large models.
+        Obj objObject = ObjReader.readParallel(objBuffer, Objs.createCompact(), numThreads);
+        Map<String, MtlAndTexture> materialsByName = fetchMaterials(objObject, fileSource, objFile.getParentFile());
+
+        // Generate normals if the obj does not contain any
+        Obj obj = objObject;
+        if (obj.getNumNormals() <= 0) {
+          obj = ObjNormals.createWithNormals(obj, NORMALS_CREASE_ANGLE, numThreads, Objs.createCompact());
+        }
 
-    // reset bounds since we are going to recalculate it
-    datasetBounds.reset();
+        // Convert the Obj into buffers that are suitable for rendering with OpenGL. This
+        // triangulates it, makes sure that texture coordinates and normals are not ambiguous,
+        // converts it to single-indexed, interleaved data and splits it by material, without
+        // creating an intermediate Obj for each of these steps. If there is no material, the
+        // whole obj is stored with an empty material name. If WELD_VERTICES is set, vertices with
+        // the same attributes are welded.
+        Map<String, ObjRenderBuffers> materialToBuffersMap = WELD_VERTICES
+            ? ObjUtils.convertToRenderBuffers(obj, WELD_EPSILON)
+            : ObjUtils.convertToRenderBuffers(obj);
+        obj = null;
+        objObject = null;
+
+        if (ATLAS_TEXTURES) {
+          materialToBuffersMap =
+              packTextureAtlas(objFile, materialToBuffersMap, materialsByName);
+        }
 
-    for (ObjProperty objProperty : objProperties) {
+        // For every obj file, store the properties for later use
+        ObjProperty objProperty = new ObjProperty();
+        objProperty.objFilename = objFile.toString();
 
-      datasetBounds.expandBy(objProperty.bounds);
+        int numMaterialGroups = materialToBuffersMap.size();
+        objProperty.materialProperties = new ArrayList<>(numMaterialGroups);
 
-      for (ObjProperty.MaterialProperty materialProperty : objProperty.materialProperties) {
+        long wideIndexBytes = 0;
+        long indexBytes = 0;
 
-        if (materialProperty.textureFile != null && materialProperty.textureFile.exists()) {
-          try {
-            materialProperty.textureId = loadTexture(context, materialProperty.textureFile);
-          }
-          catch (IOException e) {
-            Log.e("ObjFileAsyncLoader", "Exception caught during texture loading", e);
+        for (Map.Entry<String, ObjRenderBuffers> entry : materialToBuffersMap.entrySet()) {
+
+          // Get the material name from the key and the buffers from the value
+          String materialName = entry.getKey();
+
+          // Split the buffers into chunks whose vertices can be addressed with 16 bit indices.
+          // Each chunk is drawn with its own material property.
+          List<ObjRenderBuffers> chunks;
+          if (USE_16_BIT_INDICES) {
+            chunks = ObjSplitting.splitByMaxNumVertices(entry.getValue(), MAX_16_BIT_VERTICES);
+          } else {
+            chunks = Collections.singletonList(entry.getValue());
           }
-        }
+          entry.setValue(null);
 
-        int[] buffers = new int[2];
-        GLES20.glGenBuffers(2, buffers, 0);
-        materialProperty.vertexBufferId = buffers[0];
-        materialProperty.indexBufferId = buffers[1];
+          for (ObjRenderBuffers renderBuffers : chunks) {
 
-        final int totalBytes = materialProperty.normalsBaseAddress + 4 * materialProperty.normals.limit();
+            // Create a material property record in the obj property
+            ObjProperty.MaterialProperty materialProperty =
+                createMaterialProperty(materialName, materialsByName);
+            objProperty.materialProperties.add(materialProperty);
 
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, materialProperty.vertexBufferId);
-        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, totalBytes, null, GLES20.GL_STATIC_DRAW);
-        if (materialProperty.vertices.limit() > 0) {
-          GLES20.glBufferSubData(
-                  GLES20.GL_ARRAY_BUFFER, materialProperty.verticesBaseAddress, 4 * materialProperty.vertices.limit(), materialProperty.vertices);
-        }
-        if (materialProperty.texCoords.limit() > 0) {
-          GLES20.glBufferSubData(
-                  GLES20.GL_ARRAY_BUFFER, materialProperty.texCoordsBaseAddress, 4 * materialProperty.texCoords.limit(), materialProperty.texCoords);
-        }
-        if (materialProperty.normals.limit() > 0) {
-          GLES20.glBufferSubData(
-                  GLES20.GL_ARRAY_BUFFER, materialProperty.normalsBaseAddress, 4 * materialProperty.normals.limit(), materialProperty.normals);
+            prepareBuffers(materialProperty, renderBuffers);
+            objProperty.bounds.expandBy(materialProperty.bounds);
+
+            wideIndexBytes += 4L * (materialProperty.indexCount + sum(materialProperty.lodIndexCounts));
+            indexBytes += (long) materialProperty.indexSize *
+                (materialProperty.indexCount + sum(materialProperty.lodIndexCounts));
+          }
         }
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 
-        // Load index buffer
-        materialProperty.indexCount = materialProperty.wideIndices.limit();
-        if (materialProperty.indexCount > 0) {
-          GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, materialProperty.indexBufferId);
-          GLES20.glBufferData(
-                  GLES20.GL_ELEMENT_ARRAY_BUFFER, 4 * materialProperty.indexCount, materialProperty.wideIndices, GLES20.GL_STATIC_DRAW);
-          GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        if (meshCacheFile != null) {
+          writeMeshCache(meshCacheFile, objFile, objProperty);
         }
 
-        materialProperty.clearTemporaryFileHandlesAndBuffers();
+        requestTextures(objProperty, objFile);
+
+        Log.i(TAG, String.format(Locale.US, "%s: %d materials in %d draw calls, index buffers %d KB "
+            + "(%d KB with 32 bit indices)", objFile.getName(), numMaterialGroups,
+            objProperty.materialProperties.size(), indexBytes / 1024, wideIndexBytes / 1024));
+        return objProperty;
+      }
+      catch (IOException e)
+      {
+        Log.e("ObjectRenderer", "Exception caught: ", e);
+        return null;
       }
     }
 
-    initialized = true;
-  }
+    // Returns the cache file of the prepared buffers of the given obj file, or null if the buffers
+    // are not cached.
+    private File getMeshCacheFile(File objFile) {
+      if (!CACHE_MESHES || meshCacheDirectory == null || datasetRoot == null) {
+        return null;
+      }
+      MessageDigest digest;
+      try {
+        digest = MessageDigest.getInstance("SHA-1");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+      String identity = MeshCacheFile.relativize(datasetRoot, objFile) + "\n"
+          + fileSource.length(objFile) + " " + fileSource.lastModified(objFile) + "\n"
+          + describeMeshSettings();
+      digest.update(identity.getBytes(Charset.forName("UTF-8")));
+      StringBuilder name = new StringBuilder();
+      for (byte b : digest.digest()) {
+        name.append(Character.forDigit((b >> 4) & 0xF, 16));
+        name.append(Character.forDigit(b & 0xF, 16));
+      }
+      name.append(MESH_CACHE_EXTENSION);
+      return new File(meshCacheDirectory, name.toString());
+    }
 
-  public void loadObjFiles(List<File> files, ObjFilesLoadedDelegate delegate)
-          throws IOException {
+    // Reads the prepared buffers of the given obj file from its cache file. Returns null if the
+    // cache file can not be read, which is then deleted.
+    private ObjProperty readMeshCache(File meshCacheFile, File objFile) {
+      long startNanos = System.nanoTime();
+      List<MeshCacheFile.Material> materials;
+      try {
+        materials = MeshCacheFile.read(meshCacheFile, objFile.getParentFile(), fileSource);
+      } catch (IOException e) {
+        Log.w(TAG, "Could not read the mesh cache file " + meshCacheFile, e);
+        meshCacheFile.delete();
+        return null;
+      }
 
-    if (files.isEmpty()) {
-      return;
+      ObjProperty objProperty = new ObjProperty();
+      objProperty.objFilename = objFile.toString();
+      objProperty.materialProperties = new ArrayList<>(materials.size());
+      for (MeshCacheFile.Material material : materials) {
+        ObjProperty.MaterialProperty materialProperty = toMaterialProperty(material);
+        objProperty.materialProperties.add(materialProperty);
+        objProperty.bounds.expandBy(materialProperty.bounds);
+      }
+      numMeshCacheHits.incrementAndGet();
+      Log.i(TAG, String.format(Locale.US, "%s: mapped %d draw calls from the mesh cache in %.1f ms",
+          objFile.getName(), materials.size(), (System.nanoTime() - startNanos) / 1e6));
+      return objProperty;
     }
 
-    // Clear previous obj models
-    initialized = false;
-    datasetBounds.reset();
-    objProperties = null;
-    buffersNeedUpdate = false;
+    // Writes the prepared buffers of the given obj file to its cache file. The buffers are not
+    // modified. Failures are only logged, and the file is loaded again next time.
+    private void writeMeshCache(File meshCacheFile, File objFile, ObjProperty objProperty) {
+      List<MeshCacheFile.Material> materials =
+          new ArrayList<>(objProperty.materialProperties.size());
+      for (ObjProperty.MaterialProperty materialProperty : objProperty.materialProperties) {
+        materials.add(toMeshCacheMaterial(materialProperty));
+      }
+      meshCacheFile.getParentFile().mkdirs();
+      try {
+        MeshCacheFile.write(meshCacheFile, objFile.getParentFile(), materials);
+        numMeshCacheWrites.incrementAndGet();
+      } catch (IOException e) {
+        Log.w(TAG, "Could not write the mesh cache file " + meshCacheFile, e);
+      }
+    }
 
-    // Run the obj file asyn loader
-    new ObjFilesAsyncLoader(context, delegate).execute(files.toArray(new File[files.size()]));
-  }
+    // Creates a material property from a material of a mesh cache file. The texture is only used
+    // if it still exists.
+    private ObjProperty.MaterialProperty toMaterialProperty(MeshCacheFile.Material material) {
+      ObjProperty.MaterialProperty materialProperty = new ObjProperty.MaterialProperty();
+      materialProperty.materialName = material.name;
+      if (material.bounds != null) {
+        float[] b = material.bounds;
+        materialProperty.bounds.set(b[0], b[1], b[2], b[3], b[4], b[5]);
+      }
+      materialProperty.ambient =
+          FloatTuples.create(material.ambient[0], material.ambient[1], material.ambient[2]);
+      materialProperty.diffuse =
+          FloatTuples.create(material.diffuse[0], material.diffuse[1], material.diffuse[2]);
+      materialProperty.specular =
+          FloatTuples.create(material.specular[0], material.specular[1], material.specular[2]);
+      materialProperty.shininess = material.shininess;
+      materialProperty.opacity = material.opacity;
+
+      if (material.atlasPage != null) {
+        materialProperty.textureKey = TextureCache.Key.of(material.atlasPage, fileSource);
+      } else if (material.textureFile != null && fileSource.exists(material.textureFile)) {
+        materialProperty.textureKey = TextureCache.Key.of(material.textureFile, fileSource);
+      }
+      if (materialProperty.textureKey != null) {
+        materialProperty.textureFile = material.textureFile;
+        materialProperty.atlasPage = material.atlasPage;
+        materialProperty.hasTexture = true;
+      }
 
-  private boolean containsColor(FloatTuple rgb) {
-    return (rgb.getX() != 0f || rgb.getY() != 0f || rgb.getZ() != 0f);
+      materialProperty.quantized = material.quantized;
+      if (material.quantized) {
+        materialProperty.positionDequantization = material.positionDequantization;
+        materialProperty.texCoordDequantization = material.texCoordDequantization;
+      }
+      materialProperty.vertexStride = material.vertexStride;
+      materialProperty.normalsOffset = material.normalsOffset;
+      materialProperty.texCoordsOffset = material.texCoordsOffset;
+      materialProperty.numVertices = material.numVertices;
+      materialProperty.hasNormals = material.hasNormals;
+      materialProperty.hasTexCoords = material.hasTexCoords;
+      materialProperty.indexType = material.indexType;
+      materialProperty.indexSize = material.indexSize;
+      materialProperty.indexCount = material.indexCount;
+      materialProperty.lodIndexCounts = material.lodIndexCounts;
+      materialProperty.lodErrors = material.lodErrors;
+
+      // The buffers are slices of the mapped cache file, which are uploaded without copying them
+      materialProperty.vertexData = material.vertexData;
+      materialProperty.vertexDataSize = material.vertexData instanceof ByteBuffer
+          ? material.vertexData.capacity() : 4 * material.vertexData.capacity();
+      materialProperty.indexData = material.indexData;
+      materialProperty.lodIndexData = material.lodIndexData;
+      return materialProperty;
+    }
+
+    // Creates the material of a mesh cache file for the given material property, which shares its
+    // buffers.
+    private MeshCacheFile.Material toMeshCacheMaterial(
+        ObjProperty.MaterialProperty materialProperty) {
+      MeshCacheFile.Material material = new MeshCacheFile.Material();
+      material.name = materialProperty.materialName;
+      Bounds bounds = materialProperty.bounds;
+      if (bounds.isValid()) {
+        material.bounds = new float[] {bounds.getMinX(), bounds.getMinY(), bounds.getMinZ(),
+            bounds.getMaxX(), bounds.getMaxY(), bounds.getMaxZ()};
+      }
+      material.ambient = toArray(materialProperty.ambient);
+      material.diffuse = toArray(materialProperty.diffuse);
+      material.specular = toArray(materialProperty.specular);
+      material.shininess = materialProperty.shininess;
+      material.opacity = materialProperty.opacity;
+      if (materialProperty.textureKey != null) {
+        material.textureFile = materialProperty.textureFile;
+        material.atlasPage = materialProperty.atlasPage;
+      }
+      material.quantized = materialProperty.quantized;
+      material.positionDequantization = materialProperty.positionDequantization;
+      material.texCoordDequantization = materialProperty.texCoordDequantization;
+      material.vertexStride = materialProperty.vertexStride;
+      material.normalsOffset = materialProperty.normalsOffset;
+      material.texCoordsOffset = materialProperty.texCoordsOffset;
+      material.numVertices = materialProperty.numVertices;
+      material.hasNormals = materialProperty.hasNormals;
+      material.hasTexCoords = materialProperty.hasTexCoords;
+      material.indexType = materialProperty.indexType;
+      material.indexSize = materialProperty.indexSize;
+      material.indexCount = materialProperty.indexCount;
+      material.lodIndexCounts = materialProperty.lodIndexCounts;
+      material.lodErrors = materialProperty.lodErrors;
+      material.vertexData = materialProperty.vertexData;
+      material.indexData = materialProperty.indexData;
+      if (materialProperty.lodIndexData != null) {
+        material.lodIndexData = materialProperty.lodIndexData;
+      }
+      return material;
+    }
+
+    @Override
+    protected void onPostExecute(ArrayList<ObjProperty> result) {
+
+      // Ignore the result if another dataset has been loaded in the meantime
+      if (loadedQueue != loadedObjProperties) {
+        return;
+      }
+      if (!STREAM_OBJ_FILES) {
+        loadedQueue.addAll(result);
+      }
+      completedObjProperties = result;
+    }
   }
 
-  public Bounds getDatasetBounds() { return datasetBounds; };
+  // Schedules the uploads of the obj files that have been loaded since the last call, and performs
+  // the uploads of this frame. This is called on the GL thread in each frame. When the loader has
+  // finished, the obj files are put into the order of the files, so that they are always drawn in
+  // the same order.
+  public void updateBuffers() {
 
+    runUploads();
 
-  private int loadTexture(Context context, File textureFile) throws IOException {
-    final int[] textureHandle = new int[]{0};
-    GLES20.glGenTextures(textureHandle.length, textureHandle, 0);
-    if (textureHandle[0] == 0) {
-      throw new RuntimeException("Error generating texture handle.");
+    // The completed list has to be read before the queue is drained, because all files of the
+    // list have been added to the queue before the list was set.
+    List<ObjProperty> completed = completedObjProperties;
+    boolean uploaded = false;
+    for (ObjProperty objProperty = loadedObjProperties.poll(); objProperty != null;
+        objProperty = loadedObjProperties.poll()) {
+      for (ObjProperty.MaterialProperty materialProperty : objProperty.materialProperties) {
+        uploadScheduler.add(new MaterialUpload(materialProperty));
+      }
+      objProperties.add(objProperty);
+      datasetBounds.expandBy(objProperty.bounds);
+      uploaded = true;
+    }
+    if (completed != null) {
+      completedObjProperties = null;
+      objProperties = new ArrayList<>(completed);
+      loadCompleted = true;
+      uploaded = true;
+    }
+    if (!uploaded) {
+      return;
     }
 
-    try (InputStream textureInputStream = context.getContentResolver().openInputStream(Uri.fromFile(textureFile))) {
-      BitmapFactory.Options options = new BitmapFactory.Options();
-      options.inScaled = false;
-      Bitmap textureBitmap =
-              BitmapFactory.decodeStream(textureInputStream, null, options);
-      GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
-      GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-      GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
-      GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, textureBitmap, 0);
-      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-      textureBitmap.recycle();
+    // Frame the model with the bounds of all files so far, or only with the bounds of the first
+    // files if the framing is locked.
+    if (!LOCK_INITIAL_FRAMING || !framingBounds.isValid()) {
+      framingBounds.reset();
+      framingBounds.expandBy(datasetBounds);
+    }
+
+    initializeLodSelection();
+
+    initialized = true;
+  }
 
-      ShaderUtil.checkGLError(TAG, "Texture loading");
+  // Performs the pending uploads within the budget of one frame, and logs when the backlog has been
+  // uploaded.
+  private void runUploads() {
+    if (uploadScheduler.getNumPendingUploads() == 0) {
+      return;
+    }
+    uploadedBytes += uploadScheduler.runFrame();
+    ++uploadFrames;
+    if (uploadScheduler.getNumPendingUploads() == 0) {
+      Log.i(TAG, String.format(Locale.US, "Uploaded %d KB in %d frames", uploadedBytes / 1024,
+          uploadFrames));
+      uploadedBytes = 0;
+      uploadFrames = 0;
     }
-    return textureHandle[0];
   }
 
+  /**
+   * Returns the number of materials whose texture or buffers have not been uploaded yet.
+   */
+  public int getNumPendingUploads() {
+    return uploadScheduler.getNumPendingUploads();
+  }
 
-  // FIXME: there are LOTS of unnecessary float array inits. optimize!
-  private Obj createNewObjWithNormals(Obj obj) {
-    // Make sure we deal with triangles only
-    //obj = ObjUtils.triangulate(obj);
+  /**
+   * Returns the estimated number of bytes that have not been uploaded yet.
+   */
+  public long getUploadBacklogBytes() {
+    return uploadScheduler.getBacklogBytes();
+  }
 
-    ArrayList<float[]> normalArrayList = new ArrayList<>(obj.getNumVertices());
-    Map<FloatTuple, Integer> vertexToNormalIndexMap = new HashMap<>(obj.getNumVertices());
-    Map<ObjFace, ArrayList<Integer>> faceToNormalIndexMap = new HashMap<>(obj.getNumFaces());
+  // Returns the size of the given bounds on the screen in the last frame, in pixels. This is
+  // infinite if the bounds intersect the near side of the camera, or before the first frame.
+  private float computeProjectedSize(Bounds bounds) {
+    if (!bounds.isValid()) {
+      return 0.0f;
+    }
+    float[] size = bounds.getSize();
+    float diagonal = (float) Math.sqrt(size[0] * size[0] + size[1] * size[1] + size[2] * size[2]);
+    return diagonal * computePixelsPerUnit(bounds);
+  }
 
-    for (int i = 0; i < obj.getNumFaces(); i++) {
-      ObjFace face = obj.getFace(i);
-      // Need at least 3 vertices to calculate face normal
-      FloatTuple[] faceVertices = new FloatTuple[3];
-      for (int j = 0; j < face.getNumVertices() && j < 3; j++) {
-        FloatTuple vertex = obj.getVertex(face.getVertexIndex(j));
-        faceVertices[j] = vertex;
-      }
-      float[] vertexNormal = calculateVertexNormal(faceVertices);
+  // Returns the number of pixels per model unit of the given bounds, with the model-view-projection
+  // matrix of the last frame. See LodSelector.computePixelsPerUnit.
+  private float computePixelsPerUnit(Bounds bounds) {
+    lodSelectionBounds[0] = bounds.getMinX();
+    lodSelectionBounds[1] = bounds.getMinY();
+    lodSelectionBounds[2] = bounds.getMinZ();
+    lodSelectionBounds[3] = bounds.getMaxX();
+    lodSelectionBounds[4] = bounds.getMaxY();
+    lodSelectionBounds[5] = bounds.getMaxZ();
+    return LodSelector.computePixelsPerUnit(
+        modelViewProjectionMatrix, lodSelectionBounds, viewportWidth, viewportHeight);
+  }
 
-      faceToNormalIndexMap.put(face, new ArrayList<Integer>(3));
-      for (FloatTuple faceVertex : faceVertices) {
-        if (vertexToNormalIndexMap.containsKey(faceVertex)) {
-          Integer index = vertexToNormalIndexMap.get(faceVertex);
-          addFloatArray(normalArrayList.get(index), vertexNormal);
-        } else {
-          normalArrayList.add(vertexNormal);
-          vertexToNormalIndexMap.put(faceVertex, normalArrayList.size() - 1);
+  // Uploads the texture and the buffers of one material. The texture is uploaded in one step once it
+  // has been decoded, and the buffers in chunks. The material is drawn after all of them have been
+  // uploaded.
+  private class MaterialUpload implements UploadScheduler.Upload {
+
+    private final ObjProperty.MaterialProperty materialProperty;
+    private boolean textureLoaded;
+    private final BufferUpload vertexUpload;
+    private final BufferUpload indexUpload;
+    private final List<BufferUpload> lodUploads = new ArrayList<>();
+
+    MaterialUpload(ObjProperty.MaterialProperty materialProperty) {
+      this.materialProperty = materialProperty;
+      this.textureLoaded = materialProperty.textureFile == null;
+      this.vertexUpload =
+          new BufferUpload(glBufferSink, GLES20.GL_ARRAY_BUFFER, materialProperty.vertexData);
+      this.indexUpload =
+          new BufferUpload(glBufferSink, GLES20.GL_ELEMENT_ARRAY_BUFFER, materialProperty.indexData);
+      if (materialProperty.lodIndexData != null) {
+        for (Buffer lodIndexData : materialProperty.lodIndexData) {
+          lodUploads.add(new BufferUpload(glBufferSink, GLES20.GL_ELEMENT_ARRAY_BUFFER, lodIndexData));
         }
-        Integer normalIndex = vertexToNormalIndexMap.get(faceVertex);
-        faceToNormalIndexMap.get(face).add(normalIndex);
       }
     }
 
-    // Normalize vertex normals after all faces have been evaluated
-    for (float[] vertexNormal : normalArrayList) {
-      normalize(vertexNormal);
+    @Override
+    public float getPriority() {
+      return computeProjectedSize(materialProperty.bounds);
     }
 
-    // Clone to output obj
-    Obj output = Objs.create();
-    output.setMtlFileNames(obj.getMtlFileNames());
-    // copy vertices
-    for (int i = 0; i < obj.getNumVertices(); i++) {
-      output.addVertex(obj.getVertex(i));
-    }
-    // copy texture coordinates
-    for (int i = 0; i < obj.getNumTexCoords(); i++) {
-      output.addTexCoord(obj.getTexCoord(i));
+    @Override
+    public boolean isReady() {
+      // Wait for the texture to be decoded, instead of blocking the GL thread
+      return textureLoaded || textureCache.contains(materialProperty.textureKey)
+          || textureDecoder.isDone(materialProperty.textureKey.getFile());
     }
-    // inject our normals
-    for (float[] normal : normalArrayList) {
-      output.addNormal(toFloatTuple(normal));
+
+    @Override
+    public long getRemainingBytes() {
+      if (materialProperty.uploaded) {
+        return 0;
+      }
+      // The texture is estimated by the size of its file until it has been decoded
+      long bytes = textureLoaded ? 0 : Math.max(1, fileSource.length(materialProperty.textureFile));
+      bytes += vertexUpload.getRemainingBytes() + indexUpload.getRemainingBytes();
+      for (BufferUpload lodUpload : lodUploads) {
+        bytes += lodUpload.getRemainingBytes();
+      }
+      // A buffer has to be created even if it is empty
+      return Math.max(1, bytes);
     }
-    // copy and inject normals to face
-    for (int h = 0; h < obj.getNumFaces(); h++) {
-      ObjFace face = obj.getFace(h);
-      activateGroups(obj, face, output);
-      int numVertices = face.getNumVertices();
-      // get vertices
-      int[] v = new int[numVertices]; // triangles only!
-      for (int i = 0; i < numVertices; i++) {
-        v[i] = face.getVertexIndex(i);
+
+    @Override
+    public long uploadNext(long maxBytes) {
+      if (!textureLoaded) {
+        textureLoaded = true;
+        return loadMaterialTexture();
+      }
+      long bytes = 0;
+      if (!vertexUpload.isDone()) {
+        bytes = vertexUpload.uploadNext(maxBytes);
+      } else if (!indexUpload.isDone()) {
+        bytes = indexUpload.uploadNext(maxBytes);
+      } else {
+        for (BufferUpload lodUpload : lodUploads) {
+          if (!lodUpload.isDone()) {
+            bytes = lodUpload.uploadNext(maxBytes);
+            break;
+          }
+        }
+      }
+      if (vertexUpload.isDone() && indexUpload.isDone() && lodUploadsDone()) {
+        finish();
       }
+      return bytes;
+    }
 
-      // get texture coords
-      int[] vt = null;
-      if (face.containsTexCoordIndices()) {
-        vt = new int[numVertices];
-        for (int i = 0; i < numVertices; i++) {
-          vt[i] = face.getTexCoordIndex(i);
+    private boolean lodUploadsDone() {
+      for (BufferUpload lodUpload : lodUploads) {
+        if (!lodUpload.isDone()) {
+          return false;
         }
       }
+      return true;
+    }
 
-      // get normal coords
-      int[] vn = new int[numVertices];
-      ArrayList<Integer> normalIndeces = faceToNormalIndexMap.get(face);
-      for (int i = 0; i < normalIndeces.size(); i++) {
-        vn[i] = normalIndeces.get(i);
+    // Uploads the decoded texture, unless it is already in the texture cache, and adds a reference
+    // to it. Returns the number of bytes of the decoded pixels that have been uploaded.
+    private long loadMaterialTexture() {
+      TextureCache.Key textureKey = materialProperty.textureKey;
+      materialProperty.textureReferenced = true;
+      int cachedTextureId = textureCache.acquire(textureKey);
+      if (cachedTextureId != -1) {
+        materialProperty.textureId = cachedTextureId;
+        return 0;
+      }
+      List<ImageDecoder.DecodedImage> levels = null;
+      try {
+        levels = textureDecoder.take(textureKey.getFile());
       }
-      output.addFace(ObjFaces.create(v, vt, vn));
+      catch (IOException e) {
+        Log.e("ObjFileAsyncLoader", "Exception caught during texture loading", e);
+      }
+      if (levels == null) {
+        // Do not try to load it again for the other materials
+        textureCache.put(textureKey, 0, 0);
+        return 0;
+      }
+      long bytes = 0;
+      for (ImageDecoder.DecodedImage level : levels) {
+        bytes += level.getPixels().remaining();
+      }
+      materialProperty.textureId = uploadTexture(levels);
+      textureCache.put(textureKey, materialProperty.textureId, bytes);
+      textureDecoder.release(levels);
+      return bytes;
+    }
+
+    private void finish() {
+      materialProperty.vertexBufferId = vertexUpload.getBufferId();
+      materialProperty.indexBufferId = indexUpload.getBufferId();
+      int numLodLevels = lodUploads.size();
+      materialProperty.lodIndexBufferIds = new int[numLodLevels];
+      for (int i = 0; i < numLodLevels; ++i) {
+        materialProperty.lodIndexBufferIds[i] = lodUploads.get(i).getBufferId();
+      }
+      materialProperty.clearTemporaryFileHandlesAndBuffers();
+      materialProperty.uploaded = true;
     }
-    return output;
   }
 
-  private void activateGroups(Obj input, ObjFace face, Obj output) {
-    Set<String> activatedGroupNames =
-            input.getActivatedGroupNames(face);
-    if (activatedGroupNames != null) {
-      output.setActiveGroupNames(
-              activatedGroupNames);
+  // Collects the errors and triangle counts of the levels of detail of all materials for the
+  // LodSelector. Level 0 is the full index buffer with an error of 0. The selected levels of the
+  // materials are kept, so that they do not change when further obj files arrive.
+  private void initializeLodSelection() {
+    lodMaterials = new ArrayList<>();
+    for (ObjProperty objProperty : objProperties) {
+      lodMaterials.addAll(objProperty.materialProperties);
     }
-    String activatedMaterialGroupName =
-            input.getActivatedMaterialGroupName(face);
-    if (activatedMaterialGroupName != null) {
-      output.setActiveMaterialGroupName(
-              activatedMaterialGroupName);
+    int numMaterials = lodMaterials.size();
+    lodSelectionErrors = new float[numMaterials][];
+    lodSelectionTriangleCounts = new int[numMaterials][];
+    lodSelectionLevels = new int[numMaterials];
+    lodSelectionPixelsPerUnit = new float[numMaterials];
+    for (int i = 0; i < numMaterials; ++i) {
+      ObjProperty.MaterialProperty materialProperty = lodMaterials.get(i);
+      int numLevels = 1 + materialProperty.lodIndexCounts.length;
+      float[] errors = new float[numLevels];
+      int[] triangleCounts = new int[numLevels];
+      triangleCounts[0] = materialProperty.indexCount / 3;
+      for (int level = 1; level < numLevels; ++level) {
+        errors[level] = materialProperty.lodErrors[level - 1];
+        triangleCounts[level] = materialProperty.lodIndexCounts[level - 1] / 3;
+      }
+      lodSelectionErrors[i] = errors;
+      lodSelectionTriangleCounts[i] = triangleCounts;
     }
   }
 
-  private static FloatTuple toFloatTuple(float[] vector3) {
-    return FloatTuples.create(vector3[0], vector3[1], vector3[2]);
+  public void loadObjFiles(List<File> files, ObjFilesLoadedDelegate delegate)
+          throws IOException {
+    loadObjFiles(files, new LocalFileSource(), delegate);
   }
 
-  private static void normalize(float[] array) {
-    float magnitude = (float) Math.sqrt(array[0] * array[0] + array[1] * array[1] + array[2] * array[2]);
-    array[0] = array[0] / magnitude;
-    array[1] = array[1] / magnitude;
-    array[2] = array[2] / magnitude;
+  /**
+   * Loads the given obj files, and the mtl and texture files that they refer to, from the given
+   * source. The files of an archive can be loaded without extracting them with a
+   * {@link ZipFileSource}. A source that is {@link Closeable} is closed when the files of another
+   * source are loaded, once the files of this source are no longer read.
+   *
+   * @param files The obj files.
+   * @param fileSource The source of the files.
+   * @param delegate The delegate that is notified about the progress.
+   * @throws IOException If the files can not be loaded.
+   */
+  public void loadObjFiles(List<File> files, FileSource fileSource,
+      ObjFilesLoadedDelegate delegate) throws IOException {
+    long totalBytes = 0;
+    for (File file : files) {
+      totalBytes += fileSource.length(file);
+    }
+    loadObjFiles(FileQueue.of(files), files.size(), totalBytes, fileSource, delegate);
   }
 
-  private void addFloatArray(float[] originalArray, float[] arrayToAdd) {
-    // TODO: null check?
-    if (originalArray.length != arrayToAdd.length) {
-      throw new IllegalArgumentException("arrays need to be of same length");
+  /**
+   * Loads the obj files of the given queue as they arrive, like {@link #loadObjFiles(List,
+   * FileSource, ObjFilesLoadedDelegate)}. The producer of the queue, like the extraction of the
+   * dataset, may still be running, but must not run on the serial executor of the AsyncTasks, which
+   * the loader runs on. Each file must be complete, together with the mtl and texture files that it
+   * refers to, when it is added to the queue.
+   *
+   * @param files The queue of the obj files, which has to be closed after the last file.
+   * @param numFiles The number of obj files that the queue will deliver.
+   * @param totalBytes The total size of the obj files, for dividing the texture memory budget.
+   * @param fileSource The source of the files.
+   * @param delegate The delegate that is notified about the progress.
+   * @throws IOException If the files can not be loaded.
+   */
+  public void loadObjFiles(FileQueue files, int numFiles, long totalBytes, FileSource fileSource,
+      ObjFilesLoadedDelegate delegate) throws IOException {
+
+    if (numFiles == 0) {
+      files.close();
+      return;
     }
-    for (int i = 0; i < originalArray.length; i++) {
-      originalArray[i] = originalArray[i] + arrayToAdd[i];
+
+    // Clear previous obj models
+    releaseTextures();
+    initialized = false;
+    datasetBounds.reset();
+    framingBounds.reset();
+    objProperties = new ArrayList<>();
+    TextureDecoder previousTextureDecoder = textureDecoder;
+    if (previousTextureDecoder != null) {
+      previousTextureDecoder.shutdown();
     }
+    Closeable previousSource = this.fileSource != fileSource && this.fileSource instanceof Closeable
+        ? (Closeable) this.fileSource : null;
+    this.fileSource = fileSource;
+    textureDecoder = new TextureDecoder(new BitmapImageDecoder(fileSource), fileSource,
+        texturePool, Runtime.getRuntime().availableProcessors(), GENERATE_MIPMAPS,
+        COMPRESS_TEXTURES && etc1Supported, compressedTextureDirectory,
+        compressedTextureDatasetRoot);
+    uploadScheduler.clear();
+    uploadedBytes = 0;
+    uploadFrames = 0;
+    loadedObjProperties = new ConcurrentLinkedQueue<>();
+    completedObjProperties = null;
+    loadStartNanos = System.nanoTime();
+    firstPixelLogged = false;
+    loadCompleted = false;
+    numAtlasTextures.set(0);
+    numAtlasPages.set(0);
+    numAtlasDrawCallsSaved.set(0);
+    numMeshCacheHits.set(0);
+    numMeshCacheWrites.set(0);
+
+    // Run the obj file asyn loader
+    new ObjFilesAsyncLoader(files, numFiles, totalBytes, fileSource, delegate,
+        loadedObjProperties, textureDecoder, textureMemoryBudget, meshCacheDirectory,
+        meshCacheDatasetRoot, previousSource, previousTextureDecoder).execute();
   }
 
-  private static float[] calculateVertexNormal(FloatTuple[] faceVertices) {
-    if (faceVertices.length != 3) {
-      throw new IllegalArgumentException("Need 3 face vertices to calculate normals");
+  // Releases the references of the materials of the current dataset to their textures, which
+  // deletes the textures that are not used by any other material.
+  private void releaseTextures() {
+    for (ObjProperty objProperty : objProperties) {
+      for (ObjProperty.MaterialProperty materialProperty : objProperty.materialProperties) {
+        if (materialProperty.textureReferenced) {
+          textureCache.release(materialProperty.textureKey);
+          materialProperty.textureReferenced = false;
+        }
+      }
     }
-    float[] vector1 = createVector(faceVertices[1], faceVertices[0]);
-    float[] vector2 = createVector(faceVertices[2], faceVertices[0]);
-    return cross(vector1, vector2);
   }
 
-  private static float[] cross(float[] p1, float[] p2) {
-    float x = p1[1] * p2[2] - p2[1] * p1[2];
-    float y = p1[2] * p2[0] - p2[2] * p1[0];
-    float z = p1[0] * p2[1] - p2[0] * p1[1];
-    return new float[]{x, y, z};
+  // Returns the number of bytes of heap that the obj files which are loaded at the same time may use.
+  private static long computeLoadMemoryBudget() {
+    Runtime runtime = Runtime.getRuntime();
+    long usedMemory = runtime.totalMemory() - runtime.freeMemory();
+    return (long) ((runtime.maxMemory() - usedMemory) * LOAD_MEMORY_BUDGET_FRACTION);
+  }
+
+  private boolean containsColor(FloatTuple rgb) {
+    return (rgb.getX() != 0f || rgb.getY() != 0f || rgb.getZ() != 0f);
+  }
+
+  public Bounds getDatasetBounds() { return datasetBounds; };
+
+  /**
+   * Sets the directory that compressed textures are cached in, or null if they should not be
+   * cached, and the root of the dataset that the texture files are identified relative to. The
+   * directory must only be used for the textures of one dataset, because the cache files are only
+   * invalidated by the size and modification time of the texture files. This applies to the
+   * datasets that are loaded afterwards.
+   */
+  public void setCompressedTextureDirectory(File compressedTextureDirectory, File datasetRoot) {
+    this.compressedTextureDirectory = compressedTextureDirectory;
+    this.compressedTextureDatasetRoot = datasetRoot;
+  }
+
+  /**
+   * Sets the directory that the prepared buffers of the obj files are cached in, or null if they
+   * should not be cached, and the root of the dataset that the obj files are identified relative
+   * to. The directory must only be used for the content of one dataset, because the cache files
+   * are only invalidated by the size and modification time of the obj files, and not by their
+   * materials and textures. This applies to the datasets that are loaded afterwards.
+   */
+  public void setMeshCacheDirectory(File meshCacheDirectory, File datasetRoot) {
+    this.meshCacheDirectory = meshCacheDirectory;
+    this.meshCacheDatasetRoot = datasetRoot;
+  }
+
+  /**
+   * Sets the number of bytes that the textures of a dataset should use at most. This applies to the
+   * datasets that are loaded afterwards.
+   */
+  public void setTextureMemoryBudget(long textureMemoryBudget) {
+    this.textureMemoryBudget = textureMemoryBudget;
+  }
+
+
+  // Uploads the levels of the given decoded image into a new texture, and returns its handle.
+  // Textures with a mip chain are sampled with trilinear filtering.
+  private int uploadTexture(List<ImageDecoder.DecodedImage> levels) {
+    final int[] textureHandle = new int[]{0};
+    GLES20.glGenTextures(textureHandle.length, textureHandle, 0);
+    if (textureHandle[0] == 0) {
+      throw new RuntimeException("Error generating texture handle.");
+    }
+
+    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
+    GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+        levels.size() > 1 ? GLES20.GL_LINEAR_MIPMAP_LINEAR : GLES20.GL_LINEAR);
+    GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+    for (int level = 0; level < levels.size(); ++level) {
+      ImageDecoder.DecodedImage image = levels.get(level);
+      if (image.getFormat() == ImageDecoder.DecodedImage.Format.ETC1) {
+        GLES20.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, level, KtxFile.GL_ETC1_RGB8_OES,
+            image.getWidth(), image.getHeight(), 0, image.getPixels().remaining(),
+            image.getPixels());
+      } else {
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, level, GLES20.GL_RGBA, image.getWidth(),
+            image.getHeight(), 0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, image.getPixels());
+      }
+    }
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+
+    ShaderUtil.checkGLError(TAG, "Texture loading");
+    return textureHandle[0];
   }
 
-  private static float[] createVector(FloatTuple head, FloatTuple tail) {
-    return new float[]{head.getX() - tail.getX(), head.getY() - tail.getY(), head.getZ() - tail.getZ()};
+  // Returns half of the surface area of the given bounds, which is proportional to the average
+  // area that the bounds cover on the screen over all viewing directions.
+  private static float computeSurfaceArea(Bounds bounds) {
+    float[] size = bounds.getSize();
+    return size[0] * size[1] + size[1] * size[2] + size[2] * size[0];
   }
 
-  private Map<String, MtlAndTexture> fetchMaterials(Obj currObj, Context context, File objDir) throws IOException {
+  private Map<String, MtlAndTexture> fetchMaterials(Obj currObj, FileSource fileSource, File objDir)
+      throws IOException {
     Map<String, MtlAndTexture> materialByNameMap = new HashMap<>();
 
     List<MtlAndTexture> mtlAndTextures = new ArrayList<>();
     List<String> mtlFileNames = currObj.getMtlFileNames();
 
     for (String mtlFileName : mtlFileNames) {
-      // TODO: tidy up this fileFinder
-      List<File> files = new FileFinder(mtlFileName).find(objDir);
-      File mtlFile = files.get(0);
+      // The mtl file is usually next to the obj file, and otherwise searched below it
+      File mtlFile = fileSource.resolve(objDir, mtlFileName);
+      if (!fileSource.exists(mtlFile)) {
+        List<File> files = fileSource.find(objDir, mtlFileName);
+        mtlFile = files.get(0);
+      }
       File mtlDir = mtlFile.getParentFile();
 
-      try (InputStream materialInputStream = context.getContentResolver().openInputStream(Uri.fromFile(mtlFile))) {
+      try (InputStream materialInputStream = fileSource.open(mtlFile)) {
         if (materialInputStream != null) {
           List<Mtl> mtls = MtlReader.read(materialInputStream);
           for (Mtl mtl : mtls) {
@@ -758,9 +1800,9 @@ public class ObjectRenderer {
             // TODO: can we get multiple texture files for a single material group?
             if(mtl.getMapKd() != null) {
               String textureFileLocation = mtl.getMapKd().replaceAll("\\\\", "/");
-              textureFile = new File(mtlDir, textureFileLocation);
+              textureFile = fileSource.resolve(mtlDir, textureFileLocation);
             }
-            mtlAndTextures.add(new MtlAndTexture(mtl, textureFile));
+            mtlAndTextures.add(new MtlAndTexture(mtl, textureFile, fileSource));
           }
         }
       }
@@ -791,9 +1833,9 @@ public class ObjectRenderer {
     float[] orientationMatrix = new float[16];
     Matrix.setIdentityM(orientationMatrix, 0);
 
-    Bounds bounds = getDatasetBounds();
+    Bounds bounds = framingBounds;
     if (bounds.isValid()) {
-      float[] datasetCenter = datasetBounds.getCenter();
+      float[] datasetCenter = bounds.getCenter();
 
       // Rotate the model -90 degrees around the original x-axis
       Matrix.rotateM(orientationMatrix, 0, -90, 1, 0, 0);
@@ -820,6 +1862,87 @@ public class ObjectRenderer {
     }
   }
 
+  /**
+   * Sets the size of the viewport, which is used for computing the screen-space error in
+   * {@link #selectLevelsOfDetail(float[], float[])}.
+   *
+   * @param width The width of the viewport, in pixels.
+   * @param height The height of the viewport, in pixels.
+   */
+  public void setViewportSize(int width, int height) {
+    viewportWidth = Math.max(1, width);
+    viewportHeight = Math.max(1, height);
+  }
+
+  /**
+   * Selects the level of detail of each material for the current frame, based on the projected size
+   * of its bounds. This should be called once per frame, after the model matrix has been updated and
+   * before the model is drawn. This also starts a new frame for the triangle counters.
+   *
+   * @param cameraView A 4x4 view matrix, in column-major order.
+   * @param cameraPerspective A 4x4 projection matrix, in column-major order.
+   */
+  public void selectLevelsOfDetail(float[] cameraView, float[] cameraPerspective) {
+
+    trianglesDrawnLastFrame = trianglesDrawn;
+    fullDetailTrianglesLastFrame = fullDetailTriangles;
+    drawCallsLastFrame = drawCalls;
+    textureBindsLastFrame = textureBinds;
+    trianglesDrawn = 0;
+    fullDetailTriangles = 0;
+    drawCalls = 0;
+    textureBinds = 0;
+
+    if (!initialized) {
+      return;
+    }
+
+    Matrix.multiplyMM(modelViewMatrix, 0, cameraView, 0, modelMatrix, 0);
+    Matrix.multiplyMM(modelViewProjectionMatrix, 0, cameraPerspective, 0, modelViewMatrix, 0);
+
+    for (int i = 0; i < lodMaterials.size(); ++i) {
+      ObjProperty.MaterialProperty materialProperty = lodMaterials.get(i);
+      lodSelectionPixelsPerUnit[i] = computePixelsPerUnit(materialProperty.bounds);
+      lodSelectionLevels[i] = materialProperty.selectedLod;
+    }
+
+    lodSelector.select(lodSelectionPixelsPerUnit, lodSelectionErrors, lodSelectionTriangleCounts,
+        lodSelectionLevels);
+
+    for (int i = 0; i < lodMaterials.size(); ++i) {
+      lodMaterials.get(i).selectedLod = lodSelectionLevels[i];
+    }
+  }
+
+  /**
+   * Returns the number of triangles that were drawn in the last frame.
+   */
+  public int getTrianglesDrawnLastFrame() {
+    return trianglesDrawnLastFrame;
+  }
+
+  /**
+   * Returns the number of triangles that would have been drawn in the last frame if all materials
+   * had been drawn with full detail.
+   */
+  public int getFullDetailTrianglesLastFrame() {
+    return fullDetailTrianglesLastFrame;
+  }
+
+  /**
+   * Returns the number of draw calls of the last frame.
+   */
+  public int getDrawCallsLastFrame() {
+    return drawCallsLastFrame;
+  }
+
+  /**
+   * Returns the number of texture binds of the last frame.
+   */
+  public int getTextureBindsLastFrame() {
+    return textureBindsLastFrame;
+  }
+
   /**
    * Draws the model.
    *
@@ -859,9 +1982,18 @@ public class ObjectRenderer {
         colorCorrectionRgba[2],
         colorCorrectionRgba[3]);
 
+    // The texture stays bound for the following materials that use the same texture, like the
+    // chunks of a material or the materials of an atlas page with different colors.
+    int boundTextureId = 0;
+
     for (ObjProperty objProperty : objProperties) {
       for (ObjProperty.MaterialProperty materialProperty : objProperty.materialProperties) {
 
+        if (!materialProperty.uploaded) {
+          // The buffers are still being uploaded
+          continue;
+        }
+
         if (!(options.contains(RenderingOptions.DRAW_OPAQUE) && materialProperty.opacity == 1.0) &&
             !(options.contains(RenderingOptions.DRAW_TRANSPARENT) && materialProperty.opacity < 1.0))
         {
@@ -871,13 +2003,22 @@ public class ObjectRenderer {
 
         if (materialProperty.hasTexture) {
           // Attach the object texture.
-          GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-          GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, materialProperty.textureId);
-          GLES20.glUniform1i(textureUniform, 0);
+          if (materialProperty.textureId != boundTextureId) {
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, materialProperty.textureId);
+            GLES20.glUniform1i(textureUniform, 0);
+            boundTextureId = materialProperty.textureId;
+            ++textureBinds;
+          }
 
           // set object color correction to black (we have texture)
           GLES20.glUniform4f(objectColorCorrectionUniform, 0f, 0f, 0f, 0f);
         } else {
+          // The shader adds the color correction to the sampled color, which must be black
+          if (boundTextureId != 0) {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+            boundTextureId = 0;
+          }
           // set white texture
           GLES20.glUniform4f(objectColorCorrectionUniform, 1f, 1f, 1f, 1f);
         }
@@ -891,16 +2032,34 @@ public class ObjectRenderer {
 
         // Set the vertex attributes.
         GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, materialProperty.vertexBufferId);
-        if (materialProperty.numVertices > 0) {
-          GLES20.glVertexAttribPointer(
-                  positionAttribute, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, materialProperty.verticesBaseAddress);
-        }
-        if (materialProperty.numNormals > 0) {
-          GLES20.glVertexAttribPointer(normalAttribute, 3, GLES20.GL_FLOAT, false, 0, materialProperty.normalsBaseAddress);
-        }
-        if (materialProperty.numTexCoords > 0) {
-          GLES20.glVertexAttribPointer(
-                  texCoordAttribute, 2, GLES20.GL_FLOAT, false, 0, materialProperty.texCoordsBaseAddress);
+        if (materialProperty.quantized) {
+          // The normals are not normalized, because the normalization of signed bytes differs
+          // between OpenGL ES 2 and 3. The shader divides them by 127.
+          if (materialProperty.numVertices > 0) {
+            GLES20.glVertexAttribPointer(
+                    positionAttribute, COORDS_PER_VERTEX, GLES20.GL_UNSIGNED_SHORT, true, materialProperty.vertexStride, 0);
+          }
+          if (materialProperty.hasNormals) {
+            GLES20.glVertexAttribPointer(
+                    normalAttribute, 2, GLES20.GL_BYTE, false, materialProperty.vertexStride, materialProperty.normalsOffset);
+          }
+          if (materialProperty.hasTexCoords) {
+            GLES20.glVertexAttribPointer(
+                    texCoordAttribute, 2, GLES20.GL_UNSIGNED_SHORT, true, materialProperty.vertexStride, materialProperty.texCoordsOffset);
+          }
+        } else {
+          if (materialProperty.numVertices > 0) {
+            GLES20.glVertexAttribPointer(
+                    positionAttribute, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, materialProperty.vertexStride, 0);
+          }
+          if (materialProperty.hasNormals) {
+            GLES20.glVertexAttribPointer(
+                    normalAttribute, 3, GLES20.GL_FLOAT, false, materialProperty.vertexStride, materialProperty.normalsOffset);
+          }
+          if (materialProperty.hasTexCoords) {
+            GLES20.glVertexAttribPointer(
+                    texCoordAttribute, 2, GLES20.GL_FLOAT, false, materialProperty.vertexStride, materialProperty.texCoordsOffset);
+          }
         }
         GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 
@@ -908,14 +2067,19 @@ public class ObjectRenderer {
         GLES20.glUniformMatrix4fv(modelViewUniform, 1, false, modelViewMatrix, 0);
         GLES20.glUniformMatrix4fv(modelViewProjectionUniform, 1, false, modelViewProjectionMatrix, 0);
 
+        // Set the dequantization of the vertex attributes.
+        GLES20.glUniformMatrix4fv(positionDequantizationUniform, 1, false, materialProperty.positionDequantization, 0);
+        GLES20.glUniform4fv(texCoordDequantizationUniform, 1, materialProperty.texCoordDequantization, 0);
+        GLES20.glUniform1i(octahedralNormalsUniform, materialProperty.quantized ? 1 : 0);
+
         // Enable vertex arrays
         if (materialProperty.numVertices > 0) {
           GLES20.glEnableVertexAttribArray(positionAttribute);
         }
-        if (materialProperty.numNormals > 0) {
+        if (materialProperty.hasNormals) {
           GLES20.glEnableVertexAttribArray(normalAttribute);
         }
-        if (materialProperty.numTexCoords > 0) {
+        if (materialProperty.hasTexCoords) {
           GLES20.glEnableVertexAttribArray(texCoordAttribute);
         }
 
@@ -924,10 +2088,21 @@ public class ObjectRenderer {
           GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
         }
 
-        if (materialProperty.indexCount > 0) {
-          GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, materialProperty.indexBufferId);
-          GLES20.glDrawElements(GLES20.GL_TRIANGLES, materialProperty.indexCount, GLES20.GL_UNSIGNED_INT, 0);
+        // Draw the selected level of detail
+        int indexBufferId = materialProperty.indexBufferId;
+        int indexCount = materialProperty.indexCount;
+        int lod = materialProperty.selectedLod;
+        if (lod > 0 && lod <= materialProperty.lodIndexBufferIds.length) {
+          indexBufferId = materialProperty.lodIndexBufferIds[lod - 1];
+          indexCount = materialProperty.lodIndexCounts[lod - 1];
+        }
+        if (indexCount > 0) {
+          GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
+          GLES20.glDrawElements(GLES20.GL_TRIANGLES, indexCount, materialProperty.indexType, 0);
           GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+          trianglesDrawn += indexCount / 3;
+          fullDetailTriangles += materialProperty.indexCount / 3;
+          ++drawCalls;
         }
 
         if (options.contains(RenderingOptions.DRAW_TRANSPARENT))
@@ -939,17 +2114,73 @@ public class ObjectRenderer {
         GLES20.glDisableVertexAttribArray(positionAttribute);
         GLES20.glDisableVertexAttribArray(normalAttribute);
         GLES20.glDisableVertexAttribArray(texCoordAttribute);
-
-        if (materialProperty.hasTexture) {
-          GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-        }
       }
     }
 
+    if (boundTextureId != 0) {
+      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+    }
+
     ShaderUtil.checkGLError(TAG, "After draw");
+
+    logLoadTimes();
+  }
+
+  // Logs the time from loadObjFiles to the first frame that shows a part of the dataset, and to the
+  // first frame that shows all of it.
+  private void logLoadTimes() {
+    if (loadStartNanos == 0 || drawCalls == 0) {
+      return;
+    }
+    long millis = (System.nanoTime() - loadStartNanos) / 1000000;
+    if (!firstPixelLogged) {
+      firstPixelLogged = true;
+      Log.i(TAG, String.format(Locale.US, "Time to first pixel: %d ms (%d obj files)", millis,
+          objProperties.size()));
+    }
+    if (loadCompleted) {
+      loadStartNanos = 0;
+      Log.i(TAG, String.format(Locale.US, "Time to all %d obj files drawn: %d ms",
+          objProperties.size(), millis));
+      Log.i(TAG, String.format(Locale.US, "Texture cache: %d textures (%d KB), %d hits, %d misses, "
+          + "%d KB not decoded and uploaded again", textureCache.getNumTextures(),
+          textureCache.getTextureBytes() / 1024, textureCache.getNumHits(),
+          textureCache.getNumMisses(), textureCache.getBytesSaved() / 1024));
+      Log.i(TAG, String.format(Locale.US, "Compressed %d textures, read %d from the cache",
+          textureDecoder.getNumCompressed(), textureDecoder.getNumCacheHits()));
+      Log.i(TAG, String.format(Locale.US, "Texture atlas: %d textures in %d pages, %d draw calls "
+          + "and texture binds saved per frame (%d draw calls and %d texture binds in this frame)",
+          numAtlasTextures.get(), numAtlasPages.get(), numAtlasDrawCallsSaved.get(), drawCalls,
+          textureBinds));
+      Log.i(TAG, String.format(Locale.US, "Mesh cache: %d obj files mapped, %d written",
+          numMeshCacheHits.get(), numMeshCacheWrites.get()));
+    }
+  }
+
+  // Returns a description of the settings that change the prepared buffers of an obj file, for
+  // naming its mesh cache file.
+  private static String describeMeshSettings() {
+    return "mesh" + MeshCacheFile.VERSION + " crease" + NORMALS_CREASE_ANGLE
+        + " weld" + WELD_VERTICES + " " + WELD_EPSILON
+        + " vcache" + OPTIMIZE_VERTEX_CACHE + " short" + USE_16_BIT_INDICES
+        + " quantize" + QUANTIZE_VERTICES + " lod" + BUILD_LOD_LEVELS + " " + MIN_LOD_TRIANGLES
+        + " " + Arrays.toString(LOD_RATIOS) + " atlas" + ATLAS_TEXTURES + " "
+        + ATLAS_MAX_TEXTURE_SIZE + " " + ATLAS_PAGE_SIZE + " " + ATLAS_PADDING;
+  }
+
+  private static float[] toArray(FloatTuple tuple) {
+    return new float[] {tuple.getX(), tuple.getY(), tuple.getZ()};
   }
 
 
+  private static int sum(int[] values) {
+    int sum = 0;
+    for (int value : values) {
+      sum += value;
+    }
+    return sum;
+  }
+
   private static void normalizeVec3(float[] v) {
     float reciprocalLength = 1.0f / (float) Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
     v[0] *= reciprocalLength;
@@ -962,6 +2193,12 @@ public class ObjectRenderer {
 
     private final File textureFile;
 
+    // The key of the texture file in the texture cache, or null if there is no texture file.
+    private final TextureCache.Key textureKey;
+
+    // The atlas page that the texture file identifies, or null if it is an image file.
+    private final TextureAtlas.Page atlasPage;
+
     private Mtl getMtl() {
       return mtl;
     }
@@ -970,9 +2207,30 @@ public class ObjectRenderer {
       return textureFile;
     }
 
-    private MtlAndTexture(Mtl mtl, File textureFile) {
+    private TextureCache.Key getTextureKey() {
+      return textureKey;
+    }
+
+    private TextureAtlas.Page getAtlasPage() {
+      return atlasPage;
+    }
+
+    private MtlAndTexture(Mtl mtl, File textureFile, FileSource fileSource) {
       this.mtl = mtl;
       this.textureFile = textureFile;
+      this.textureKey = textureFile != null && fileSource.exists(textureFile)
+          ? TextureCache.Key.of(textureFile, fileSource)
+          : null;
+      this.atlasPage = null;
+    }
+
+    // Creates the material of the merged materials of an atlas page, with the colors of the given
+    // material.
+    private MtlAndTexture(Mtl mtl, TextureAtlas.Page atlasPage, FileSource fileSource) {
+      this.mtl = mtl;
+      this.textureFile = atlasPage.getFile();
+      this.textureKey = TextureCache.Key.of(atlasPage, fileSource);
+      this.atlasPage = atlasPage;
     }
   }
 }
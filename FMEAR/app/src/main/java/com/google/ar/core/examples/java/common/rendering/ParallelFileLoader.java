@@ -0,0 +1,237 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads a list of files concurrently on a bounded pool of worker threads.
+ *
+ * <p>The files are started in their order, and at most {@code numThreads} files are loaded at the
+ * same time. The files can also be taken from a {@link FileQueue} that is filled while they are
+ * loaded, so that loading overlaps with producing the files. Before a file is loaded, the memory
+ * that loading it is estimated to require is reserved from a shared budget. A file is only started
+ * when its estimate fits into the remaining budget, so that several large files are not loaded at
+ * the same time. A file whose estimate exceeds the whole budget is loaded while no other file is
+ * loaded.
+ *
+ * <p>The results are returned in the order of the files, regardless of the order in which the files
+ * finished loading. The listener is notified after each file, with a strictly increasing number of
+ * loaded files.
+ */
+public class ParallelFileLoader {
+
+  /**
+   * Loads a single file. The methods are called concurrently from the worker threads.
+   *
+   * @param <T> The type of the result of loading one file.
+   */
+  public interface FileLoader<T> {
+
+    /**
+     * Estimates the number of bytes of memory that are required for loading the given file.
+     *
+     * @param file The file.
+     * @return The estimated number of bytes.
+     */
+    long estimateMemory(File file);
+
+    /**
+     * Loads the given file.
+     *
+     * @param file The file.
+     * @param numThreads The number of threads that may be used for loading this file.
+     * @return The result, or null if the file could not be loaded. Null results are omitted from
+     *     the list that is returned by {@link ParallelFileLoader#load}.
+     */
+    T load(File file, int numThreads);
+  }
+
+  /** Is notified about the progress of loading the files. */
+  public interface ProgressListener {
+
+    /**
+     * Is called after a file has been loaded.
+     *
+     * @param numFilesLoaded The number of files that have been loaded.
+     * @param totalNumFiles The total number of files.
+     */
+    void filesLoaded(int numFilesLoaded, int totalNumFiles);
+  }
+
+  private final int numThreads;
+  private final long memoryBudget;
+
+  // The estimated memory of the files that are currently loaded. Guarded by memoryLock.
+  private final Object memoryLock = new Object();
+  private long memoryInUse = 0;
+
+  // The number of files that have been loaded in the current call to load. Guarded by progressLock.
+  private final Object progressLock = new Object();
+  private int numFilesLoaded = 0;
+
+  /**
+   * Creates a new loader.
+   *
+   * @param numThreads The maximum number of files that are loaded at the same time. This is usually
+   *     the number of cores.
+   * @param memoryBudget The number of bytes that the files which are loaded at the same time may
+   *     require, according to {@link FileLoader#estimateMemory(File)}.
+   */
+  public ParallelFileLoader(int numThreads, long memoryBudget) {
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("The number of threads must be positive, but is " + numThreads);
+    }
+    this.numThreads = numThreads;
+    this.memoryBudget = memoryBudget;
+  }
+
+  /**
+   * Loads the given files, and blocks until all of them have been loaded.
+   *
+   * <p>When only a few files are loaded at the same time, the remaining cores are handed to the
+   * loader of each file: the number of threads for each file is the number of threads of this
+   * loader divided by the number of workers.
+   *
+   * @param files The files.
+   * @param fileLoader The loader for a single file.
+   * @param progressListener The listener that is notified after each file, or null.
+   * @return The non-null results of loading the files, in the order of the files.
+   * @throws IllegalStateException If the calling thread is interrupted while waiting.
+   * @throws RuntimeException If loading a file caused a runtime exception, which is rethrown. The
+   *     remaining files are then no longer loaded.
+   */
+  public <T> List<T> load(List<File> files, FileLoader<T> fileLoader,
+      ProgressListener progressListener) {
+    return load(FileQueue.of(files), files.size(), fileLoader, progressListener);
+  }
+
+  /**
+   * Loads the files of the given queue as they arrive, and blocks until the queue has been closed
+   * and all of its files have been loaded. The queue is closed when this method returns, so that
+   * its producer does not block if loading stopped early.
+   *
+   * @param files The queue of the files.
+   * @param totalNumFiles The number of files that the queue is expected to deliver, for the number
+   *     of workers and the progress of the listener.
+   * @param fileLoader The loader for a single file.
+   * @param progressListener The listener that is notified after each file, or null.
+   * @return The non-null results of loading the files, in the order in which they were taken from
+   *     the queue.
+   * @throws IllegalStateException If the calling thread is interrupted while waiting.
+   * @throws RuntimeException If loading a file caused a runtime exception, which is rethrown. The
+   *     remaining files are then no longer loaded.
+   */
+  public synchronized <T> List<T> load(final FileQueue files, final int totalNumFiles,
+      final FileLoader<T> fileLoader, final ProgressListener progressListener) {
+
+    int numWorkers = Math.max(1, Math.min(numThreads, totalNumFiles));
+    final int threadsPerFile = Math.max(1, numThreads / numWorkers);
+    synchronized (progressLock) {
+      numFilesLoaded = 0;
+    }
+
+    // Each worker takes the next file from the queue until it is closed and empty. The files are
+    // numbered while taking them, so that the results keep the order of the queue.
+    final List<T> results = new ArrayList<>();
+    final Object takeLock = new Object();
+    Callable<Void> worker = new Callable<Void>() {
+      @Override
+      public Void call() throws InterruptedException {
+        while (true) {
+          File file;
+          int index;
+          synchronized (takeLock) {
+            file = files.take();
+            if (file == null) {
+              return null;
+            }
+            synchronized (results) {
+              index = results.size();
+              results.add(null);
+            }
+          }
+          long memory = Math.max(0L, fileLoader.estimateMemory(file));
+          acquireMemory(memory);
+          T result;
+          try {
+            result = fileLoader.load(file, threadsPerFile);
+          } finally {
+            releaseMemory(memory);
+          }
+          synchronized (results) {
+            results.set(index, result);
+          }
+          fileLoaded(progressListener, totalNumFiles);
+        }
+      }
+    };
+
+    ExecutorService executor = Executors.newFixedThreadPool(numWorkers);
+    try {
+      List<Future<Void>> futures = new ArrayList<>(numWorkers);
+      for (int i = 0; i < numWorkers; ++i) {
+        futures.add(executor.submit(worker));
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+      List<T> nonNullResults = new ArrayList<>(results.size());
+      for (T result : results) {
+        if (result != null) {
+          nonNullResults.add(result);
+        }
+      }
+      return nonNullResults;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    } finally {
+      files.close();
+      executor.shutdownNow();
+    }
+  }
+
+  // Waits until the given number of bytes fits into the memory budget, or until no other file is
+  // loaded, and reserves them.
+  private void acquireMemory(long bytes) throws InterruptedException {
+    synchronized (memoryLock) {
+      while (memoryInUse > 0 && memoryInUse + bytes > memoryBudget) {
+        memoryLock.wait();
+      }
+      memoryInUse += bytes;
+    }
+  }
+
+  private void releaseMemory(long bytes) {
+    synchronized (memoryLock) {
+      memoryInUse -= bytes;
+      memoryLock.notifyAll();
+    }
+  }
+
+  // Counts a loaded file and notifies the listener. The listener is called while holding the lock,
+  // so that the numbers of loaded files arrive in increasing order.
+  private void fileLoaded(ProgressListener progressListener, int totalNumFiles) {
+    synchronized (progressLock) {
+      ++numFilesLoaded;
+      if (progressListener != null) {
+        progressListener.filesLoaded(numFilesLoaded, totalNumFiles);
+      }
+    }
+  }
+}
@@ -0,0 +1,414 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import de.javagl.obj.ObjRenderBuffers;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Packs small textures into shared atlas pages, so that the materials that use them can be drawn
+ * with one texture bind, and merged into one draw call.
+ *
+ * <p>The images are packed with a skyline packer, which places each image at the lowest position of
+ * the skyline of the images that have already been placed. Each image is surrounded by a border of
+ * padding pixels, which repeat the edges of the image, so that the bilinear filtering of the image
+ * does not blend in the neighbouring images. The slots of the images are aligned to 4 pixels, so
+ * that no ETC1 block contains pixels of two images. Mip levels whose padding is less than a pixel
+ * may still blend the edges of neighbouring images slightly.
+ *
+ * <p>Only texture coordinates within [0, 1] can be transformed to the region of an image in a page.
+ * Materials whose texture coordinates wrap around must keep their own texture.
+ */
+public class TextureAtlas {
+
+  // The alignment of the slots, which is the size of an ETC1 block
+  private static final int ALIGNMENT = 4;
+
+  // Texture coordinates that are outside of [0, 1] by at most this value are clamped instead of
+  // treated as wrapping.
+  private static final float TEX_COORD_EPSILON = 1e-3f;
+
+  /** The region of an image in an atlas page, without the padding. */
+  public static final class Region {
+    private final int page;
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+
+    public Region(int page, int x, int y, int width, int height) {
+      this.page = page;
+      this.x = x;
+      this.y = y;
+      this.width = width;
+      this.height = height;
+    }
+
+    /** Returns the index of the page. */
+    public int getPage() {
+      return page;
+    }
+
+    /** Returns the column of the left edge, in pixels. */
+    public int getX() {
+      return x;
+    }
+
+    /** Returns the row of the top edge, in pixels. */
+    public int getY() {
+      return y;
+    }
+
+    public int getWidth() {
+      return width;
+    }
+
+    public int getHeight() {
+      return height;
+    }
+
+    @Override
+    public String toString() {
+      return page + ":" + x + "," + y + "," + width + "x" + height;
+    }
+  }
+
+  /** An atlas page, with the image files and their regions in the page. */
+  public static final class Page {
+    private final File file;
+    private final int width;
+    private final int height;
+    private final int padding;
+    private final List<File> imageFiles;
+    private final List<Region> regions;
+
+    /**
+     * Creates a new page.
+     *
+     * @param file The file that identifies the page in the {@link TextureDecoder} and the
+     *     {@link TextureCache}. This file does not exist.
+     * @param width The width of the page, in pixels.
+     * @param height The height of the page, in pixels.
+     * @param padding The padding around each image, in pixels.
+     * @param imageFiles The image files.
+     * @param regions The regions of the image files.
+     */
+    public Page(File file, int width, int height, int padding, List<File> imageFiles,
+        List<Region> regions) {
+      this.file = file;
+      this.width = width;
+      this.height = height;
+      this.padding = padding;
+      this.imageFiles = imageFiles;
+      this.regions = regions;
+    }
+
+    public File getFile() {
+      return file;
+    }
+
+    public int getWidth() {
+      return width;
+    }
+
+    public int getHeight() {
+      return height;
+    }
+
+    public int getPadding() {
+      return padding;
+    }
+
+    public List<File> getImageFiles() {
+      return imageFiles;
+    }
+
+    public List<Region> getRegions() {
+      return regions;
+    }
+
+    /** Returns a description of the size and the regions of the page. */
+    public String describeLayout() {
+      return width + "x" + height + "+" + padding + regions;
+    }
+  }
+
+  // The skyline of one page: the top edges of the slots that have been placed, from left to right,
+  // as segments of x, y and width.
+  private static final class Skyline {
+    private final int size;
+    private final List<int[]> segments = new ArrayList<>();
+
+    Skyline(int size) {
+      this.size = size;
+      segments.add(new int[] {0, 0, size});
+    }
+
+    // Returns the lowest y at which a slot of the given size fits with its left edge at the given
+    // segment, or -1 if it does not fit.
+    int findY(int index, int width, int height) {
+      int x = segments.get(index)[0];
+      if (x + width > size) {
+        return -1;
+      }
+      int y = 0;
+      int remaining = width;
+      for (int i = index; remaining > 0; ++i) {
+        int[] segment = segments.get(i);
+        y = Math.max(y, segment[1]);
+        remaining -= segment[2];
+      }
+      return y + height <= size ? y : -1;
+    }
+
+    // Places a slot of the given size with its left edge at the given segment.
+    void place(int index, int y, int width, int height) {
+      int x = segments.get(index)[0];
+      segments.add(index, new int[] {x, y + height, width});
+      // Cut the segments below the slot
+      int right = x + width;
+      int i = index + 1;
+      while (i < segments.size()) {
+        int[] segment = segments.get(i);
+        if (segment[0] >= right) {
+          break;
+        }
+        int segmentRight = segment[0] + segment[2];
+        if (segmentRight <= right) {
+          segments.remove(i);
+        } else {
+          segment[2] = segmentRight - right;
+          segment[0] = right;
+          break;
+        }
+      }
+      // Join neighbours of the same height
+      for (i = 0; i + 1 < segments.size(); ) {
+        int[] segment = segments.get(i);
+        int[] next = segments.get(i + 1);
+        if (segment[1] == next[1]) {
+          segment[2] += next[2];
+          segments.remove(i + 1);
+        } else {
+          ++i;
+        }
+      }
+    }
+  }
+
+  private TextureAtlas() {
+    // Private constructor to prevent instantiation
+  }
+
+  /**
+   * Packs images of the given sizes into square pages. The images are placed from the largest to
+   * the smallest height, each into the first page where it fits.
+   *
+   * @param widths The widths of the images, in pixels.
+   * @param heights The heights of the images, in pixels.
+   * @param pageSize The width and the height of the pages, in pixels.
+   * @param padding The number of pixels around each image.
+   * @return The region of each image, or null for the images that do not fit into an empty page.
+   */
+  public static Region[] pack(int[] widths, int[] heights, int pageSize, int padding) {
+    int numImages = widths.length;
+    final int[] slotWidths = new int[numImages];
+    final int[] slotHeights = new int[numImages];
+    List<Integer> order = new ArrayList<>(numImages);
+    for (int i = 0; i < numImages; ++i) {
+      slotWidths[i] = align(widths[i] + 2 * padding);
+      slotHeights[i] = align(heights[i] + 2 * padding);
+      order.add(i);
+    }
+    Collections.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        if (slotHeights[a] != slotHeights[b]) {
+          return slotHeights[b] - slotHeights[a];
+        }
+        return slotWidths[b] - slotWidths[a];
+      }
+    });
+
+    Region[] regions = new Region[numImages];
+    List<Skyline> pages = new ArrayList<>();
+    for (int image : order) {
+      int width = slotWidths[image];
+      int height = slotHeights[image];
+      if (width > pageSize || height > pageSize) {
+        continue;
+      }
+      for (int page = 0; regions[image] == null; ++page) {
+        if (page == pages.size()) {
+          pages.add(new Skyline(pageSize));
+        }
+        Skyline skyline = pages.get(page);
+        int bestIndex = -1;
+        int bestY = Integer.MAX_VALUE;
+        for (int index = 0; index < skyline.segments.size(); ++index) {
+          int y = skyline.findY(index, width, height);
+          if (y >= 0 && y < bestY) {
+            bestIndex = index;
+            bestY = y;
+          }
+        }
+        if (bestIndex >= 0) {
+          int x = skyline.segments.get(bestIndex)[0];
+          skyline.place(bestIndex, bestY, width, height);
+          regions[image] =
+              new Region(page, x + padding, bestY + padding, widths[image], heights[image]);
+        }
+      }
+    }
+    return regions;
+  }
+
+  /**
+   * Returns the size of the given page, which is the smallest power of two that contains the
+   * regions of the page with their padding.
+   *
+   * @param regions The regions of all pages, which may contain null elements.
+   * @param page The page.
+   * @param padding The padding of the regions.
+   * @return The width and the height of the page.
+   */
+  public static int[] computePageSize(Region[] regions, int page, int padding) {
+    int width = 1;
+    int height = 1;
+    for (Region region : regions) {
+      if (region != null && region.getPage() == page) {
+        width = Math.max(width, align(region.getX() + region.getWidth() + padding));
+        height = Math.max(height, align(region.getY() + region.getHeight() + padding));
+      }
+    }
+    return new int[] {nextPowerOfTwo(width), nextPowerOfTwo(height)};
+  }
+
+  /**
+   * Returns the transformation of the texture coordinates of an image to the texture coordinates of
+   * its region in a page. The texture coordinates are scaled with the first two and offset by the
+   * last two elements. The t coordinate is flipped when the texture is sampled, so that v = 1 is
+   * the top row of the image.
+   *
+   * @param region The region.
+   * @param pageWidth The width of the page.
+   * @param pageHeight The height of the page.
+   * @return The scale and the offset of u and v.
+   */
+  public static float[] computeTexCoordTransform(Region region, int pageWidth, int pageHeight) {
+    return new float[] {
+        (float) region.getWidth() / pageWidth,
+        (float) region.getHeight() / pageHeight,
+        (float) region.getX() / pageWidth,
+        (float) (pageHeight - region.getY() - region.getHeight()) / pageHeight
+    };
+  }
+
+  /**
+   * Returns whether the texture coordinates of the given render buffers are within [0, 1], so that
+   * they can be transformed to a region of a page.
+   *
+   * @param renderBuffers The render buffers.
+   * @return Whether the texture coordinates do not wrap around. This is false if the render
+   *     buffers do not have texture coordinates.
+   */
+  public static boolean hasNonWrappingTexCoords(ObjRenderBuffers renderBuffers) {
+    if (!renderBuffers.hasTexCoords()) {
+      return false;
+    }
+    FloatBuffer vertexData = renderBuffers.getVertexData();
+    int stride = renderBuffers.getStride();
+    int offset = renderBuffers.getTexCoordOffset();
+    for (int i = offset; i < vertexData.capacity(); i += stride) {
+      float u = vertexData.get(i);
+      float v = vertexData.get(i + 1);
+      if (!(u >= -TEX_COORD_EPSILON && u <= 1 + TEX_COORD_EPSILON
+          && v >= -TEX_COORD_EPSILON && v <= 1 + TEX_COORD_EPSILON)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Transforms the texture coordinates of the given render buffers in place. The texture
+   * coordinates are clamped to [0, 1] before they are transformed.
+   *
+   * @param renderBuffers The render buffers.
+   * @param transform The transformation, see {@link #computeTexCoordTransform(Region, int, int)}.
+   */
+  public static void transformTexCoords(ObjRenderBuffers renderBuffers, float[] transform) {
+    FloatBuffer vertexData = renderBuffers.getVertexData();
+    int stride = renderBuffers.getStride();
+    int offset = renderBuffers.getTexCoordOffset();
+    for (int i = offset; i < vertexData.capacity(); i += stride) {
+      float u = Math.max(0.0f, Math.min(1.0f, vertexData.get(i)));
+      float v = Math.max(0.0f, Math.min(1.0f, vertexData.get(i + 1)));
+      vertexData.put(i, u * transform[0] + transform[2]);
+      vertexData.put(i + 1, v * transform[1] + transform[3]);
+    }
+  }
+
+  /**
+   * Copies the given images into their regions of a new page. The padding around each image repeats
+   * its edges. The pixels outside of the regions and their padding are opaque black, so that pages
+   * of opaque images are opaque and can be compressed.
+   *
+   * @param page The page.
+   * @param images The RGBA images of the image files of the page, with the sizes of their regions.
+   * @param pool The pool that the buffer of the page is taken from.
+   * @return The page image.
+   */
+  public static ImageDecoder.DecodedImage compose(
+      Page page, List<ImageDecoder.DecodedImage> images, ByteBufferPool pool) {
+    int pageWidth = page.getWidth();
+    int pageHeight = page.getHeight();
+    int padding = page.getPadding();
+    ByteBuffer target = pool.acquire(4 * pageWidth * pageHeight);
+    byte[] black = new byte[4 * pageWidth];
+    for (int x = 0; x < pageWidth; ++x) {
+      black[4 * x + 3] = (byte) 0xFF;
+    }
+    for (int y = 0; y < pageHeight; ++y) {
+      target.put(black);
+    }
+
+    for (int i = 0; i < images.size(); ++i) {
+      ImageDecoder.DecodedImage image = images.get(i);
+      Region region = page.getRegions().get(i);
+      int width = image.getWidth();
+      int height = image.getHeight();
+      if (width != region.getWidth() || height != region.getHeight()) {
+        throw new IllegalArgumentException("The image " + i + " has a size of " + width + "x"
+            + height + " instead of " + region.getWidth() + "x" + region.getHeight());
+      }
+      // The rows are copied in bulk, since single accesses to direct buffers are slow
+      ByteBuffer source = image.getPixels().duplicate();
+      byte[] row = new byte[4 * (width + 2 * padding)];
+      for (int y = -padding; y < height + padding; ++y) {
+        source.position(4 * width * Math.max(0, Math.min(height - 1, y)));
+        source.get(row, 4 * padding, 4 * width);
+        for (int x = 0; x < padding; ++x) {
+          System.arraycopy(row, 4 * padding, row, 4 * x, 4);
+          System.arraycopy(row, 4 * (padding + width - 1), row, 4 * (padding + width + x), 4);
+        }
+        target.position(4 * (pageWidth * (region.getY() + y) + region.getX() - padding));
+        target.put(row);
+      }
+    }
+    target.rewind();
+    return new ImageDecoder.DecodedImage(pageWidth, pageHeight, target);
+  }
+
+  private static int align(int value) {
+    return (value + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+  }
+
+  private static int nextPowerOfTwo(int value) {
+    return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+  }
+}
@@ -0,0 +1,136 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Chooses the resolution of textures so that they fit into a memory budget.
+ *
+ * <p>Each texture is described by its size and a weight that estimates how much of the screen the
+ * materials that use it cover. The resolution is reduced by halving the width and the height. As
+ * long as the textures exceed the budget, the texture with the most texels per unit of weight is
+ * halved, so that the texels are spread over the textures in proportion to their screen coverage,
+ * and the resolution of textures that cover a large part of the screen is kept as long as possible.
+ */
+public class TextureBudgetAllocator {
+
+  /** A texture whose resolution should be chosen. */
+  public static final class Texture {
+    private final int width;
+    private final int height;
+    private final float weight;
+
+    /**
+     * Creates a new texture.
+     *
+     * @param width The width of the image, in pixels.
+     * @param height The height of the image, in pixels.
+     * @param weight The estimated screen coverage of the materials that use the texture, in any
+     *     unit that is the same for all textures.
+     */
+    public Texture(int width, int height, float weight) {
+      this.width = width;
+      this.height = height;
+      this.weight = weight;
+    }
+  }
+
+  private TextureBudgetAllocator() {
+    // Private constructor to prevent instantiation
+  }
+
+  /**
+   * Returns the number of bytes of an RGBA texture with the given size.
+   *
+   * @param width The width of the base level.
+   * @param height The height of the base level.
+   * @param mipmapped Whether the texture has a full mip chain.
+   * @return The number of bytes.
+   */
+  public static long computeBytes(int width, int height, boolean mipmapped) {
+    long bytes = 0;
+    while (true) {
+      bytes += 4L * width * height;
+      if (!mipmapped || (width == 1 && height == 1)) {
+        return bytes;
+      }
+      width = Math.max(1, width / 2);
+      height = Math.max(1, height / 2);
+    }
+  }
+
+  /**
+   * Returns the size of a texture after halving it the given number of times.
+   *
+   * @param size The width or the height of the image.
+   * @param level The number of halvings.
+   * @return The reduced width or height, at least 1.
+   */
+  public static int reduce(int size, int level) {
+    return Math.max(1, size >> level);
+  }
+
+  /**
+   * Chooses the resolution of the given textures.
+   *
+   * @param textures The textures.
+   * @param budgetBytes The number of bytes that all textures together should use.
+   * @param maxTextureSize The maximum width and height of a texture.
+   * @param mipmapped Whether the textures have full mip chains.
+   * @return For each texture, the number of times its width and height should be halved. This is
+   *     at least the number that is required for the maximum texture size. If the budget can not
+   *     be met, all textures are reduced to 1x1 texels.
+   */
+  public static int[] allocate(final List<Texture> textures, long budgetBytes, int maxTextureSize,
+      boolean mipmapped) {
+    int n = textures.size();
+    final int[] levels = new int[n];
+    final long[] bytes = new long[n];
+    long totalBytes = 0;
+    for (int i = 0; i < n; ++i) {
+      Texture texture = textures.get(i);
+      while (reduce(texture.width, levels[i]) > maxTextureSize
+          || reduce(texture.height, levels[i]) > maxTextureSize) {
+        ++levels[i];
+      }
+      bytes[i] = computeBytes(
+          reduce(texture.width, levels[i]), reduce(texture.height, levels[i]), mipmapped);
+      totalBytes += bytes[i];
+    }
+    if (totalBytes <= budgetBytes) {
+      return levels;
+    }
+
+    // Halve the texture with the most bytes per weight, until the textures fit. Textures without
+    // weight are halved first.
+    PriorityQueue<Integer> queue = new PriorityQueue<>(Math.max(1, n), new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        float weightA = textures.get(a).weight;
+        float weightB = textures.get(b).weight;
+        // bytes[a] / weightA > bytes[b] / weightB, without dividing by 0
+        int result = Double.compare((double) bytes[b] * weightA, (double) bytes[a] * weightB);
+        return result != 0 ? result : Long.compare(bytes[b], bytes[a]);
+      }
+    });
+    for (int i = 0; i < n; ++i) {
+      if (bytes[i] > 4) {
+        queue.add(i);
+      }
+    }
+    while (totalBytes > budgetBytes && !queue.isEmpty()) {
+      int i = queue.poll();
+      Texture texture = textures.get(i);
+      ++levels[i];
+      totalBytes -= bytes[i];
+      bytes[i] = computeBytes(
+          reduce(texture.width, levels[i]), reduce(texture.height, levels[i]), mipmapped);
+      totalBytes += bytes[i];
+      if (bytes[i] > 4) {
+        queue.add(i);
+      }
+    }
+    return levels;
+  }
+}
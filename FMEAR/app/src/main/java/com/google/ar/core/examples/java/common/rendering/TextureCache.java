@@ -0,0 +1,260 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A reference counted cache of the textures that have been uploaded, so that materials in the same
+ * or in different obj files that use the same image share one texture.
+ *
+ * <p>The textures are identified by a {@link Key} of the canonical path, the size and the time of
+ * the last modification of the image file, so that different paths of the same file share a
+ * texture, but a file that has been replaced does not. Each material that uses a texture holds one
+ * reference. The texture is deleted when the last reference is released.
+ */
+public class TextureCache {
+
+  /** Deletes the textures that are no longer referenced. */
+  public interface Deleter {
+    void deleteTexture(int textureId);
+  }
+
+  /** Identifies an image file by its canonical path, its size and its last modification time. */
+  public static final class Key {
+    private final File file;
+    private final long length;
+    private final long lastModified;
+
+    private Key(File file, long length, long lastModified) {
+      this.file = file;
+      this.length = length;
+      this.lastModified = lastModified;
+    }
+
+    /**
+     * Creates the key of the given file. This accesses the file system, so it should not be called
+     * on the GL thread.
+     *
+     * @param file The file.
+     * @return The key.
+     */
+    public static Key of(File file) {
+      File canonicalFile;
+      try {
+        canonicalFile = file.getCanonicalFile();
+      } catch (IOException e) {
+        canonicalFile = file.getAbsoluteFile();
+      }
+      return new Key(canonicalFile, canonicalFile.length(), canonicalFile.lastModified());
+    }
+
+    /**
+     * Creates the key of the given file of the given source. The file must already have been
+     * resolved by the source, so that different paths of the same file are equal.
+     *
+     * @param file The file.
+     * @param fileSource The source of the file.
+     * @return The key.
+     */
+    public static Key of(File file, FileSource fileSource) {
+      return new Key(file, fileSource.length(file), fileSource.lastModified(file));
+    }
+
+    /**
+     * Creates the key of the given atlas page, from the file of the page and the total size and the
+     * last modification time of its image files. This accesses the file system, so it should not be
+     * called on the GL thread.
+     *
+     * @param page The page.
+     * @return The key.
+     */
+    public static Key of(TextureAtlas.Page page) {
+      return of(page, new LocalFileSource());
+    }
+
+    /**
+     * Creates the key of the given atlas page, whose image files are read from the given source.
+     *
+     * @param page The page.
+     * @param fileSource The source of the image files.
+     * @return The key.
+     */
+    public static Key of(TextureAtlas.Page page, FileSource fileSource) {
+      long length = 0;
+      long lastModified = 0;
+      for (File imageFile : page.getImageFiles()) {
+        length += fileSource.length(imageFile);
+        lastModified = Math.max(lastModified, fileSource.lastModified(imageFile));
+      }
+      return new Key(page.getFile().getAbsoluteFile(), length, lastModified);
+    }
+
+    /** Returns the canonical file. */
+    public File getFile() {
+      return file;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+      if (this == object) {
+        return true;
+      }
+      if (!(object instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) object;
+      return length == other.length && lastModified == other.lastModified
+          && file.equals(other.file);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = file.hashCode();
+      result = 31 * result + (int) (length ^ (length >>> 32));
+      result = 31 * result + (int) (lastModified ^ (lastModified >>> 32));
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      return file.getPath();
+    }
+  }
+
+  // A texture and the number of references to it.
+  private static final class Entry {
+    final int textureId;
+    final long bytes;
+    int refCount = 1;
+
+    Entry(int textureId, long bytes) {
+      this.textureId = textureId;
+      this.bytes = bytes;
+    }
+  }
+
+  private final Deleter deleter;
+  private final Map<Key, Entry> entries = new HashMap<>();
+
+  // Statistics
+  private int numHits = 0;
+  private int numMisses = 0;
+  private long bytesSaved = 0;
+
+  /**
+   * Creates a new texture cache.
+   *
+   * @param deleter The deleter for the textures that are no longer referenced.
+   */
+  public TextureCache(Deleter deleter) {
+    this.deleter = deleter;
+  }
+
+  /** Returns whether a texture for the given key is in the cache. */
+  public boolean contains(Key key) {
+    return entries.containsKey(key);
+  }
+
+  /**
+   * Returns the texture for the given key and adds a reference to it, or returns -1 if it is not in
+   * the cache. In that case, the texture should be created and added with
+   * {@link #put(Key, int, long)}.
+   *
+   * @param key The key.
+   * @return The texture ID, or -1.
+   */
+  public int acquire(Key key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      ++numMisses;
+      return -1;
+    }
+    ++entry.refCount;
+    ++numHits;
+    bytesSaved += entry.bytes;
+    return entry.textureId;
+  }
+
+  /**
+   * Adds a texture that has been created after {@link #acquire(Key)} returned -1, with one
+   * reference to it. A texture ID of 0 can be added for an image that could not be loaded, so that
+   * it is not loaded again.
+   *
+   * @param key The key.
+   * @param textureId The texture ID.
+   * @param bytes The number of bytes of the texture, which are saved by each reuse.
+   */
+  public void put(Key key, int textureId, long bytes) {
+    Entry previous = entries.put(key, new Entry(textureId, bytes));
+    if (previous != null) {
+      throw new IllegalStateException("The texture " + key + " is already in the cache");
+    }
+  }
+
+  /**
+   * Releases one reference to the texture of the given key. The texture is deleted when this was
+   * the last reference.
+   *
+   * @param key The key.
+   */
+  public void release(Key key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      throw new IllegalStateException("The texture " + key + " is not in the cache");
+    }
+    --entry.refCount;
+    if (entry.refCount == 0) {
+      entries.remove(key);
+      if (entry.textureId != 0) {
+        deleter.deleteTexture(entry.textureId);
+      }
+    }
+  }
+
+  /** Deletes all textures, regardless of their references, and resets the statistics. */
+  public void clear() {
+    List<Entry> removed = new ArrayList<>(entries.values());
+    entries.clear();
+    for (Entry entry : removed) {
+      if (entry.textureId != 0) {
+        deleter.deleteTexture(entry.textureId);
+      }
+    }
+    numHits = 0;
+    numMisses = 0;
+    bytesSaved = 0;
+  }
+
+  /** Returns the number of textures in the cache. */
+  public int getNumTextures() {
+    return entries.size();
+  }
+
+  /** Returns the number of bytes of the textures in the cache. */
+  public long getTextureBytes() {
+    long bytes = 0;
+    for (Entry entry : entries.values()) {
+      bytes += entry.bytes;
+    }
+    return bytes;
+  }
+
+  /** Returns the number of calls to {@link #acquire(Key)} that returned a cached texture. */
+  public int getNumHits() {
+    return numHits;
+  }
+
+  /** Returns the number of calls to {@link #acquire(Key)} that did not find a texture. */
+  public int getNumMisses() {
+    return numMisses;
+  }
+
+  /** Returns the number of bytes that did not have to be decoded and uploaded again. */
+  public long getBytesSaved() {
+    return bytesSaved;
+  }
+}
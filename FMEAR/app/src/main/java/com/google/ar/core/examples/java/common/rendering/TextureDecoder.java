@@ -0,0 +1,414 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes texture files on a pool of worker threads, so that the GL thread only has to upload the
+ * decoded pixels.
+ *
+ * <p>Each file is decoded once, regardless of how often it is requested, even after its image has
+ * been taken. The pixels are decoded into buffers from a {@link ByteBufferPool}. Images can be
+ * reduced while they are decoded, and the mip chain can be generated on the worker threads as
+ * well. After the pixels of an image have been uploaded, its buffers should be returned to the pool
+ * with {@link #release(List)}.
+ *
+ * <p>Opaque images can be compressed with the {@link Etc1Encoder}. The compressed levels are stored
+ * in KTX files in a cache directory, so that the images do not have to be decoded and encoded
+ * again when the same image is loaded later. The cache files are named by a hash of the path of
+ * the image file relative to the root of its dataset, and its size and modification time, so that
+ * the cache of a dataset stays valid when the dataset is opened from another location, and the
+ * image file does not have to be read for finding its cache file.
+ *
+ * <p>The pages of a {@link TextureAtlas} are requested with {@link #requestAtlasPage}, which
+ * decodes their image files and composes them on the worker threads. Pages are identified by their
+ * files like the other images.
+ *
+ * <p>The image files are read from a {@link FileSource}, which must be the same as the one of the
+ * image decoder.
+ */
+public class TextureDecoder {
+
+  private final ImageDecoder imageDecoder;
+  private final FileSource fileSource;
+  private final ByteBufferPool pool;
+  private final boolean generateMipmaps;
+  private final boolean compress;
+  private final File cacheDirectory;
+  private final File datasetRoot;
+  private final ExecutorService executor;
+  private final ConcurrentMap<File, Future<List<ImageDecoder.DecodedImage>>> images =
+      new ConcurrentHashMap<>();
+  private final Set<File> requestedFiles =
+      Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+  // Statistics
+  private final AtomicInteger numCompressed = new AtomicInteger();
+  private final AtomicInteger numCacheHits = new AtomicInteger();
+
+  /**
+   * Creates a new texture decoder.
+   *
+   * @param imageDecoder The decoder for the image files.
+   * @param pool The pool for the pixel buffers.
+   * @param numThreads The number of worker threads.
+   * @param generateMipmaps Whether the mip chains of the images should be generated.
+   */
+  public TextureDecoder(ImageDecoder imageDecoder, ByteBufferPool pool, int numThreads,
+      boolean generateMipmaps) {
+    this(imageDecoder, pool, numThreads, generateMipmaps, false, null);
+  }
+
+  /**
+   * Creates a new texture decoder that compresses opaque images.
+   *
+   * @param imageDecoder The decoder for the image files.
+   * @param pool The pool for the pixel buffers.
+   * @param numThreads The number of worker threads.
+   * @param generateMipmaps Whether the mip chains of the images should be generated.
+   * @param compress Whether opaque images should be compressed with ETC1.
+   * @param cacheDirectory The directory for the compressed images, or null if they should not be
+   *     cached. The directory is created when the first image is stored.
+   */
+  public TextureDecoder(ImageDecoder imageDecoder, ByteBufferPool pool, int numThreads,
+      boolean generateMipmaps, boolean compress, File cacheDirectory) {
+    this(imageDecoder, new LocalFileSource(), pool, numThreads, generateMipmaps, compress,
+        cacheDirectory, null);
+  }
+
+  /**
+   * Creates a new texture decoder for the image files of the given source.
+   *
+   * @param imageDecoder The decoder for the image files.
+   * @param fileSource The source of the image files.
+   * @param pool The pool for the pixel buffers.
+   * @param numThreads The number of worker threads.
+   * @param generateMipmaps Whether the mip chains of the images should be generated.
+   * @param compress Whether opaque images should be compressed with ETC1.
+   * @param cacheDirectory The directory for the compressed images, or null if they should not be
+   *     cached. The directory is created when the first image is stored. It must only be used for
+   *     the images of one dataset.
+   * @param datasetRoot The root of the dataset that the image files are identified relative to in
+   *     the cache, or null if they are identified by their paths.
+   */
+  public TextureDecoder(ImageDecoder imageDecoder, FileSource fileSource, ByteBufferPool pool,
+      int numThreads, boolean generateMipmaps, boolean compress, File cacheDirectory,
+      File datasetRoot) {
+    this.imageDecoder = imageDecoder;
+    this.fileSource = fileSource;
+    this.pool = pool;
+    this.generateMipmaps = generateMipmaps;
+    this.compress = compress;
+    this.cacheDirectory = cacheDirectory;
+    this.datasetRoot = datasetRoot;
+    this.executor = Executors.newFixedThreadPool(Math.max(1, numThreads));
+  }
+
+  /**
+   * Reads the size of the given image file with the image decoder, without decoding it.
+   *
+   * @param file The file.
+   * @return The width and the height of the image.
+   * @throws IOException If the size can not be read.
+   */
+  public int[] readSize(File file) throws IOException {
+    return imageDecoder.readSize(file);
+  }
+
+  /**
+   * Starts decoding the given file at full resolution, unless it has already been requested
+   * before. This may be called from any thread.
+   *
+   * @param file The file.
+   */
+  public void request(File file) {
+    request(file, 1);
+  }
+
+  /**
+   * Starts decoding the given file, unless it has already been requested before. This may be called
+   * from any thread.
+   *
+   * @param file The file.
+   * @param sampleSize The factor by which the width and the height of the image are reduced, which
+   *     must be a power of two.
+   */
+  public void request(final File file, final int sampleSize) {
+    submit(file, new Callable<List<ImageDecoder.DecodedImage>>() {
+      @Override
+      public List<ImageDecoder.DecodedImage> call() throws IOException {
+        return decode(file, sampleSize);
+      }
+    });
+  }
+
+  /**
+   * Starts composing the given atlas page from its image files, unless it has already been
+   * requested before. The image files are decoded at full resolution. This may be called from any
+   * thread.
+   *
+   * @param page The page, which is identified by its file.
+   * @param sampleSize The factor by which the width and the height of the page are reduced, which
+   *     must be a power of two.
+   */
+  public void requestAtlasPage(final TextureAtlas.Page page, final int sampleSize) {
+    submit(page.getFile(), new Callable<List<ImageDecoder.DecodedImage>>() {
+      @Override
+      public List<ImageDecoder.DecodedImage> call() throws IOException {
+        return decodeAtlasPage(page, sampleSize);
+      }
+    });
+  }
+
+  // Runs the given decoding of the given file on the worker threads, unless the file has already
+  // been requested before.
+  private void submit(File file, Callable<List<ImageDecoder.DecodedImage>> decoding) {
+    if (!requestedFiles.add(file)) {
+      return;
+    }
+    FutureTask<List<ImageDecoder.DecodedImage>> task = new FutureTask<>(decoding);
+    images.put(file, task);
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      // The decoder has been shut down
+      images.remove(file, task);
+    }
+  }
+
+  // Decodes the given file, or reads its compressed levels from the cache.
+  private List<ImageDecoder.DecodedImage> decode(File file, int sampleSize) throws IOException {
+    File cacheFile = findCacheFile(Collections.singletonList(file), null, sampleSize);
+    List<ImageDecoder.DecodedImage> cachedLevels = readCacheFile(cacheFile);
+    if (cachedLevels != null) {
+      return cachedLevels;
+    }
+    return createLevels(imageDecoder.decode(file, sampleSize, pool), cacheFile);
+  }
+
+  // Decodes the image files of the given page and composes them, or reads the compressed levels of
+  // the page from the cache.
+  private List<ImageDecoder.DecodedImage> decodeAtlasPage(TextureAtlas.Page page, int sampleSize)
+      throws IOException {
+    File cacheFile = findCacheFile(page.getImageFiles(), page.describeLayout(), sampleSize);
+    List<ImageDecoder.DecodedImage> cachedLevels = readCacheFile(cacheFile);
+    if (cachedLevels != null) {
+      return cachedLevels;
+    }
+
+    List<ImageDecoder.DecodedImage> images = new ArrayList<>();
+    ImageDecoder.DecodedImage image;
+    try {
+      for (File imageFile : page.getImageFiles()) {
+        images.add(imageDecoder.decode(imageFile, 1, pool));
+      }
+      image = TextureAtlas.compose(page, images, pool);
+    } finally {
+      release(images);
+    }
+    for (int reduced = 1; reduced < sampleSize; reduced *= 2) {
+      ImageDecoder.DecodedImage halved = TextureMipmaps.halve(image, pool);
+      pool.release(image.getPixels());
+      image = halved;
+    }
+    return createLevels(image, cacheFile);
+  }
+
+  // Returns the cache file for the given image files, or null if compressed images are not cached.
+  private File findCacheFile(List<File> files, String layout, int sampleSize) {
+    if (!compress || cacheDirectory == null) {
+      return null;
+    }
+    return new File(cacheDirectory, computeCacheFileName(files, layout, sampleSize));
+  }
+
+  // Reads the compressed levels from the given cache file, or returns null if it does not exist.
+  private List<ImageDecoder.DecodedImage> readCacheFile(File cacheFile) {
+    if (cacheFile == null || !cacheFile.exists()) {
+      return null;
+    }
+    try {
+      List<ImageDecoder.DecodedImage> levels = KtxFile.read(cacheFile, pool);
+      numCacheHits.incrementAndGet();
+      return levels;
+    } catch (IOException e) {
+      // The file is damaged, and is replaced when the levels are created again
+      cacheFile.delete();
+      return null;
+    }
+  }
+
+  // Creates the mip chain of the given decoded image if required, and compresses it if the image is
+  // opaque. The compressed levels are stored in the given cache file, unless it is null.
+  private List<ImageDecoder.DecodedImage> createLevels(
+      ImageDecoder.DecodedImage image, File cacheFile) {
+    List<ImageDecoder.DecodedImage> levels = generateMipmaps
+        ? TextureMipmaps.generate(image, pool)
+        : Collections.singletonList(image);
+    if (!compress
+        || !Etc1Encoder.isOpaque(image.getPixels(), image.getWidth(), image.getHeight())) {
+      return levels;
+    }
+
+    List<ImageDecoder.DecodedImage> compressedLevels = new ArrayList<>(levels.size());
+    for (ImageDecoder.DecodedImage level : levels) {
+      int width = level.getWidth();
+      int height = level.getHeight();
+      ByteBuffer blocks = pool.acquire(Etc1Encoder.getEncodedSize(width, height));
+      Etc1Encoder.encode(level.getPixels(), width, height, blocks);
+      compressedLevels.add(new ImageDecoder.DecodedImage(
+          width, height, blocks, ImageDecoder.DecodedImage.Format.ETC1));
+    }
+    release(levels);
+    numCompressed.incrementAndGet();
+    if (cacheFile != null) {
+      cacheDirectory.mkdirs();
+      try {
+        KtxFile.write(cacheFile, compressedLevels);
+      } catch (IOException e) {
+        // The cache is optional, and the image is encoded again next time
+      }
+    }
+    return compressedLevels;
+  }
+
+  // Returns the name of the cache file for the given image files, from a hash of their paths in the
+  // dataset, sizes and modification times, the layout of the atlas page that they are composed to,
+  // if any, and the parameters that change the compressed levels.
+  private String computeCacheFileName(List<File> files, String layout, int sampleSize) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    StringBuilder identity = new StringBuilder();
+    for (File file : files) {
+      identity.append(datasetRoot == null ? file.getPath()
+          : MeshCacheFile.relativize(datasetRoot, file)).append('\n')
+          .append(fileSource.length(file)).append(' ')
+          .append(fileSource.lastModified(file)).append('\n');
+    }
+    if (layout != null) {
+      identity.append(layout);
+    }
+    digest.update(identity.toString().getBytes(Charset.forName("UTF-8")));
+    StringBuilder name = new StringBuilder();
+    for (byte b : digest.digest()) {
+      name.append(Character.forDigit((b >> 4) & 0xF, 16));
+      name.append(Character.forDigit(b & 0xF, 16));
+    }
+    name.append("-").append(sampleSize).append(generateMipmaps ? "-mip" : "").append(".ktx");
+    return name.toString();
+  }
+
+  /** Returns whether the given file has been requested before. */
+  public boolean isRequested(File file) {
+    return requestedFiles.contains(file);
+  }
+
+  /**
+   * Returns whether the given file has been requested and its decoding has finished, either
+   * successfully or with an error.
+   *
+   * @param file The file.
+   * @return Whether the decoding of the file has finished.
+   */
+  public boolean isDone(File file) {
+    Future<List<ImageDecoder.DecodedImage>> future = images.get(file);
+    return future != null && future.isDone();
+  }
+
+  /**
+   * Returns the decoded image of the given file and removes it from this decoder, waiting for the
+   * decoding to finish if necessary.
+   *
+   * @param file The file.
+   * @return The levels of the decoded image, starting with the base level, or null if the file has
+   *     not been requested or has already been taken. Without mipmaps, this only contains the base
+   *     level.
+   * @throws IOException If the file could not be decoded.
+   */
+  public List<ImageDecoder.DecodedImage> take(File file) throws IOException {
+    Future<List<ImageDecoder.DecodedImage>> future = images.remove(file);
+    if (future == null) {
+      return null;
+    }
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while decoding " + file, e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException("Could not decode " + file, cause);
+    }
+  }
+
+  /**
+   * Returns the pixel buffers of the given levels of an image to the pool.
+   *
+   * @param levels The levels, which must not be used afterwards.
+   */
+  public void release(List<ImageDecoder.DecodedImage> levels) {
+    for (ImageDecoder.DecodedImage level : levels) {
+      pool.release(level.getPixels());
+    }
+  }
+
+  /** Returns the number of images that have been compressed. */
+  public int getNumCompressed() {
+    return numCompressed.get();
+  }
+
+  /** Returns the number of images whose compressed levels have been read from the cache. */
+  public int getNumCacheHits() {
+    return numCacheHits.get();
+  }
+
+  /**
+   * Stops the worker threads. Images that have not been decoded yet are no longer decoded.
+   */
+  public void shutdown() {
+    executor.shutdownNow();
+    images.clear();
+  }
+
+  /**
+   * Waits until the worker threads have stopped after {@link #shutdown()}, so that the file source
+   * is no longer read.
+   *
+   * @param timeout The maximum time to wait.
+   * @param unit The unit of the timeout.
+   * @return Whether the worker threads have stopped.
+   * @throws InterruptedException If the current thread is interrupted while waiting.
+   */
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return executor.awaitTermination(timeout, unit);
+  }
+}
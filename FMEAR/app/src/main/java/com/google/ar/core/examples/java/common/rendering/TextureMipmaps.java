@@ -0,0 +1,82 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates the mip chain of a decoded image on the CPU, so that it does not have to be generated
+ * on the GL thread with {@code glGenerateMipmap}.
+ *
+ * <p>Each level is half as wide and high as the previous one, rounded down, until the level is 1x1.
+ * The pixels are averaged with a box filter over the 2x2 pixels of the previous level. For odd
+ * sizes, the last row or column of the previous level is not used. Since the colors of the decoded
+ * images are premultiplied with the alpha value, they can be averaged directly.
+ */
+public class TextureMipmaps {
+
+  private TextureMipmaps() {
+    // Private constructor to prevent instantiation
+  }
+
+  /**
+   * Creates the mip chain of the given image.
+   *
+   * @param image The base level.
+   * @param pool The pool that the buffers of the other levels are taken from.
+   * @return The levels, starting with the given image.
+   */
+  public static List<ImageDecoder.DecodedImage> generate(
+      ImageDecoder.DecodedImage image, ByteBufferPool pool) {
+    List<ImageDecoder.DecodedImage> levels = new ArrayList<>();
+    levels.add(image);
+    while (image.getWidth() > 1 || image.getHeight() > 1) {
+      image = halve(image, pool);
+      levels.add(image);
+    }
+    return levels;
+  }
+
+  /**
+   * Returns an image that is half as wide and high as the given one, with a box filter.
+   *
+   * @param image The image.
+   * @param pool The pool that the buffer of the new image is taken from.
+   * @return The new image.
+   */
+  public static ImageDecoder.DecodedImage halve(
+      ImageDecoder.DecodedImage image, ByteBufferPool pool) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int newWidth = Math.max(1, width / 2);
+    int newHeight = Math.max(1, height / 2);
+    ByteBuffer source = image.getPixels().duplicate();
+    ByteBuffer target = pool.acquire(4 * newWidth * newHeight);
+
+    // The rows are copied in bulk, since single accesses to direct buffers are slow. For sizes of
+    // 1, the same row or column is used twice.
+    byte[] row0 = new byte[4 * width];
+    byte[] row1 = new byte[4 * width];
+    byte[] newRow = new byte[4 * newWidth];
+    int columnStep = width > 1 ? 4 : 0;
+    for (int y = 0; y < newHeight; ++y) {
+      int y0 = height > 1 ? 2 * y : 0;
+      int y1 = height > 1 ? 2 * y + 1 : 0;
+      source.position(4 * width * y0);
+      source.get(row0);
+      source.position(4 * width * y1);
+      source.get(row1);
+      for (int x = 0; x < newWidth; ++x) {
+        int index = width > 1 ? 8 * x : 0;
+        for (int c = 0; c < 4; ++c) {
+          int sum = (row0[index + c] & 0xFF) + (row0[index + columnStep + c] & 0xFF)
+              + (row1[index + c] & 0xFF) + (row1[index + columnStep + c] & 0xFF);
+          newRow[4 * x + c] = (byte) ((sum + 2) >> 2);
+        }
+      }
+      target.put(newRow);
+    }
+    target.rewind();
+    return new ImageDecoder.DecodedImage(newWidth, newHeight, target);
+  }
+}
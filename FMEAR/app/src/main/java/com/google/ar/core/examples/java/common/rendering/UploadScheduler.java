@@ -0,0 +1,207 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Spreads pending GPU uploads over several frames, so that uploading a large dataset does not stall
+ * the rendering.
+ *
+ * <p>In each frame, {@link #runFrame()} uploads the pending uploads that are ready in the order of
+ * their priority, one chunk after the other, until the time budget or the byte budget of the frame
+ * is used up. The budgets are checked before each chunk, so the last chunk may exceed them, but at
+ * least one chunk is uploaded in each frame in which an upload is ready, so that the uploads always
+ * make progress. Uploads that are not ready keep their place among the pending uploads.
+ */
+public class UploadScheduler {
+
+  /** An upload that can be performed in several chunks. */
+  public interface Upload {
+
+    /**
+     * Returns the priority of this upload. Uploads with a higher priority are performed first. The
+     * priority is queried once per frame.
+     */
+    float getPriority();
+
+    /**
+     * Returns whether the next chunk can be uploaded now. Uploads that are not ready, for example
+     * because they wait for a texture to be decoded, are skipped in the current frame.
+     */
+    boolean isReady();
+
+    /**
+     * Returns the (estimated) number of bytes that remain to be uploaded. The upload is finished and
+     * removed from the scheduler when this is 0.
+     */
+    long getRemainingBytes();
+
+    /**
+     * Uploads the next chunk.
+     *
+     * @param maxBytes The maximum number of bytes that should be uploaded. An upload that can not be
+     *     split may upload more bytes than this.
+     * @return The number of bytes that have been uploaded.
+     */
+    long uploadNext(long maxBytes);
+  }
+
+  /** The source of the time for the time budget. */
+  public interface Clock {
+    long nanoTime();
+  }
+
+  private static final Clock SYSTEM_CLOCK = new Clock() {
+    @Override
+    public long nanoTime() {
+      return System.nanoTime();
+    }
+  };
+
+  private final long timeBudgetNanos;
+  private final long byteBudget;
+  private final long chunkSize;
+  private final Clock clock;
+
+  private final List<Upload> pendingUploads = new ArrayList<>();
+
+  // Statistics of the last frame
+  private long bytesLastFrame = 0;
+  private int chunksLastFrame = 0;
+  private long nanosLastFrame = 0;
+
+  /**
+   * Creates a new scheduler that measures the time with {@link System#nanoTime()}.
+   *
+   * @param timeBudgetNanos The maximum time that should be spent on uploads in each frame.
+   * @param byteBudget The maximum number of bytes that should be uploaded in each frame.
+   * @param chunkSize The maximum number of bytes of a single chunk.
+   */
+  public UploadScheduler(long timeBudgetNanos, long byteBudget, long chunkSize) {
+    this(timeBudgetNanos, byteBudget, chunkSize, SYSTEM_CLOCK);
+  }
+
+  /**
+   * Creates a new scheduler.
+   *
+   * @param timeBudgetNanos The maximum time that should be spent on uploads in each frame.
+   * @param byteBudget The maximum number of bytes that should be uploaded in each frame.
+   * @param chunkSize The maximum number of bytes of a single chunk.
+   * @param clock The clock for measuring the time.
+   */
+  public UploadScheduler(long timeBudgetNanos, long byteBudget, long chunkSize, Clock clock) {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("The chunk size must be positive, but is " + chunkSize);
+    }
+    this.timeBudgetNanos = timeBudgetNanos;
+    this.byteBudget = byteBudget;
+    this.chunkSize = chunkSize;
+    this.clock = clock;
+  }
+
+  /** Adds the given upload. Uploads with the same priority are performed in the order of adding. */
+  public void add(Upload upload) {
+    pendingUploads.add(upload);
+  }
+
+  /** Removes all pending uploads. */
+  public void clear() {
+    pendingUploads.clear();
+  }
+
+  /**
+   * Performs the pending uploads for one frame, within the budgets.
+   *
+   * @return The number of bytes that have been uploaded.
+   */
+  public long runFrame() {
+    long start = clock.nanoTime();
+    long bytes = 0;
+    int chunks = 0;
+    if (!pendingUploads.isEmpty()) {
+      sortByPriority();
+    }
+    List<Upload> skippedUploads = new ArrayList<>();
+    int index = 0;
+    while (index < pendingUploads.size()) {
+      if (chunks > 0 && (bytes >= byteBudget || clock.nanoTime() - start >= timeBudgetNanos)) {
+        break;
+      }
+      Upload upload = pendingUploads.get(index);
+      if (upload.getRemainingBytes() > 0 && !upload.isReady()) {
+        skippedUploads.add(upload);
+        ++index;
+        continue;
+      }
+      if (upload.getRemainingBytes() > 0) {
+        long maxBytes = Math.max(1, Math.min(chunkSize, byteBudget - bytes));
+        bytes += upload.uploadNext(maxBytes);
+        ++chunks;
+      }
+      if (upload.getRemainingBytes() <= 0) {
+        ++index;
+      }
+    }
+    pendingUploads.subList(0, index).clear();
+    pendingUploads.addAll(0, skippedUploads);
+    bytesLastFrame = bytes;
+    chunksLastFrame = chunks;
+    nanosLastFrame = clock.nanoTime() - start;
+    return bytes;
+  }
+
+  // Sorts the pending uploads by their priority, descending. The priorities are queried once, and
+  // the sort is stable.
+  private void sortByPriority() {
+    int n = pendingUploads.size();
+    final float[] priorities = new float[n];
+    List<Integer> order = new ArrayList<>(n);
+    for (int i = 0; i < n; ++i) {
+      priorities[i] = pendingUploads.get(i).getPriority();
+      order.add(i);
+    }
+    Collections.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Float.compare(priorities[b], priorities[a]);
+      }
+    });
+    List<Upload> sorted = new ArrayList<>(n);
+    for (int i : order) {
+      sorted.add(pendingUploads.get(i));
+    }
+    pendingUploads.clear();
+    pendingUploads.addAll(sorted);
+  }
+
+  /** Returns the number of uploads that are not finished. */
+  public int getNumPendingUploads() {
+    return pendingUploads.size();
+  }
+
+  /** Returns the (estimated) number of bytes that remain to be uploaded. */
+  public long getBacklogBytes() {
+    long bytes = 0;
+    for (Upload upload : pendingUploads) {
+      bytes += upload.getRemainingBytes();
+    }
+    return bytes;
+  }
+
+  /** Returns the number of bytes that were uploaded in the last frame. */
+  public long getBytesLastFrame() {
+    return bytesLastFrame;
+  }
+
+  /** Returns the number of chunks that were uploaded in the last frame. */
+  public int getChunksLastFrame() {
+    return chunksLastFrame;
+  }
+
+  /** Returns the time that was spent on uploads in the last frame, in nanoseconds. */
+  public long getNanosLastFrame() {
+    return nanosLastFrame;
+  }
+}
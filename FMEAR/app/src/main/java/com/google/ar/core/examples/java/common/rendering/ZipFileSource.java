@@ -0,0 +1,233 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A {@link FileSource} for the entries of a zip archive, so that a dataset can be loaded without
+ * extracting it. The archive is read with random access through its central directory, so that
+ * each entry is inflated only when it is read.
+ *
+ * <p>The entries are identified by files below the {@link #getRoot() root}, which is the path of
+ * the archive followed by '!'. The root does not exist on the file system. Directories and the
+ * "__MACOSX" metadata that is added by the macOS archiver are skipped.
+ */
+public class ZipFileSource implements FileSource, Closeable {
+
+  private static final String MACOSX_DIRECTORY = "__MACOSX";
+
+  private final ZipFile zipFile;
+  private final File root;
+
+  // The entries, by the files that identify them
+  private final Map<File, ZipEntry> entries = new TreeMap<>();
+
+  /**
+   * Opens the given archive.
+   *
+   * @param archive The archive.
+   * @throws IOException If the archive can not be opened.
+   */
+  public ZipFileSource(File archive) throws IOException {
+    this(new ZipFile(archive));
+  }
+
+  /**
+   * Creates a source for the given opened archive, which is closed when this source is closed.
+   *
+   * @param zipFile The archive.
+   */
+  public ZipFileSource(ZipFile zipFile) {
+    this.zipFile = zipFile;
+    this.root = new File(zipFile.getName() + "!");
+    Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+    while (zipEntries.hasMoreElements()) {
+      ZipEntry entry = zipEntries.nextElement();
+      String name = normalize(entry.getName());
+      if (entry.isDirectory() || name == null || name.isEmpty()
+          || name.startsWith(MACOSX_DIRECTORY + "/")) {
+        continue;
+      }
+      entries.put(new File(root, name), entry);
+    }
+  }
+
+  /** Returns the directory that contains the entries of the archive. */
+  public File getRoot() {
+    return root;
+  }
+
+  /** Returns the number of entries, without directories. */
+  public int getNumEntries() {
+    return entries.size();
+  }
+
+  /** Returns the total uncompressed size of the entries in bytes. */
+  public long getUncompressedSize() {
+    long size = 0;
+    for (ZipEntry entry : entries.values()) {
+      size += Math.max(0, entry.getSize());
+    }
+    return size;
+  }
+
+  @Override
+  public boolean exists(File file) {
+    return entries.containsKey(file);
+  }
+
+  @Override
+  public long length(File file) {
+    ZipEntry entry = entries.get(file);
+    return entry == null ? 0 : Math.max(0, entry.getSize());
+  }
+
+  @Override
+  public long lastModified(File file) {
+    ZipEntry entry = entries.get(file);
+    return entry == null ? 0 : Math.max(0, entry.getTime());
+  }
+
+  @Override
+  public File resolve(File directory, String path) {
+    String relativePath = relativize(new File(directory, path));
+    if (relativePath == null) {
+      return new File(directory, path);
+    }
+    String name = normalize(relativePath);
+    return name == null ? new File(directory, path) : new File(root, name);
+  }
+
+  @Override
+  public List<File> find(File directory, String suffix) {
+    String prefix = relativize(directory);
+    List<File> results = new ArrayList<>();
+    if (prefix == null) {
+      return results;
+    }
+    prefix = normalize(prefix);
+    for (File file : entries.keySet()) {
+      String name = relativize(file);
+      boolean below = prefix == null || prefix.isEmpty() || name.startsWith(prefix + "/");
+      if (below && file.getName().toLowerCase(Locale.US).endsWith(suffix)) {
+        results.add(file);
+      }
+    }
+    return results;
+  }
+
+  @Override
+  public InputStream open(File file) throws IOException {
+    return getInputStream(getEntry(file));
+  }
+
+  @Override
+  public ByteBuffer read(File file) throws IOException {
+    ZipEntry entry = getEntry(file);
+    long size = entry.getSize();
+    if (size < 0 || size > Integer.MAX_VALUE) {
+      throw new IOException("The size of " + file + " is not valid: " + size);
+    }
+    ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+    byte[] chunk = new byte[64 * 1024];
+    try (InputStream inputStream = getInputStream(entry)) {
+      int read;
+      while (buffer.hasRemaining()
+          && (read = inputStream.read(chunk, 0, Math.min(chunk.length, buffer.remaining()))) > 0) {
+        buffer.put(chunk, 0, read);
+      }
+    }
+    if (buffer.hasRemaining()) {
+      throw new IOException("Unexpected end of " + file);
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Closes the archive. The entries can no longer be read afterwards, and reading them throws an
+   * IOException.
+   */
+  @Override
+  public void close() throws IOException {
+    zipFile.close();
+  }
+
+  // Returns the entry of the given file, or throws if there is none.
+  private ZipEntry getEntry(File file) throws IOException {
+    ZipEntry entry = entries.get(file);
+    if (entry == null) {
+      throw new IOException("The archive does not contain " + file);
+    }
+    return entry;
+  }
+
+  // Opens the given entry. Throws an IOException instead of the IllegalStateException of the
+  // ZipFile if the archive has been closed, so that reading it fails like reading a missing file.
+  private InputStream getInputStream(ZipEntry entry) throws IOException {
+    try {
+      return zipFile.getInputStream(entry);
+    } catch (IllegalStateException e) {
+      throw new IOException("The archive " + zipFile.getName() + " has been closed", e);
+    }
+  }
+
+  // Returns the path of the given file relative to the root, with '/' as separator, or null if the
+  // file is not below the root.
+  private String relativize(File file) {
+    String path = file.getPath().replace(File.separatorChar, '/');
+    String rootPath = root.getPath().replace(File.separatorChar, '/');
+    if (path.equals(rootPath)) {
+      return "";
+    }
+    if (!path.startsWith(rootPath + "/")) {
+      return null;
+    }
+    return path.substring(rootPath.length() + 1);
+  }
+
+  /**
+   * Normalizes the given entry name, by removing empty and "." segments and resolving ".."
+   * segments, and using '/' as separator.
+   *
+   * @param name The name.
+   * @return The normalized name, or null if the name leaves the root of the archive.
+   */
+  static String normalize(String name) {
+    Deque<String> segments = new ArrayDeque<>();
+    for (String segment : name.replace('\\', '/').split("/")) {
+      if (segment.isEmpty() || segment.equals(".")) {
+        continue;
+      }
+      if (segment.equals("..")) {
+        if (segments.isEmpty()) {
+          return null;
+        }
+        segments.removeLast();
+      } else {
+        segments.addLast(segment);
+      }
+    }
+    StringBuilder result = new StringBuilder();
+    for (String segment : segments) {
+      if (result.length() > 0) {
+        result.append('/');
+      }
+      result.append(segment);
+    }
+    return result.toString();
+  }
+}
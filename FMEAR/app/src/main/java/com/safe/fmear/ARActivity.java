@@ -8,6 +8,7 @@ import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.provider.OpenableColumns;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
@@ -39,9 +40,13 @@ import com.google.ar.core.examples.java.common.helpers.SnackbarHelper;
 import com.google.ar.core.examples.java.common.helpers.StoragePermissionHelper;
 import com.google.ar.core.examples.java.common.helpers.TapHelper;
 import com.google.ar.core.examples.java.common.rendering.BackgroundRenderer;
+import com.google.ar.core.examples.java.common.rendering.FileQueue;
+import com.google.ar.core.examples.java.common.rendering.FileSource;
+import com.google.ar.core.examples.java.common.rendering.LocalFileSource;
 import com.google.ar.core.examples.java.common.rendering.ObjectRenderer;
 import com.google.ar.core.examples.java.common.rendering.PlaneRenderer;
 import com.google.ar.core.examples.java.common.rendering.PointCloudRenderer;
+import com.google.ar.core.examples.java.common.rendering.ZipFileSource;
 import com.google.ar.core.exceptions.CameraNotAvailableException;
 import com.google.ar.core.exceptions.UnavailableApkTooOldException;
 import com.google.ar.core.exceptions.UnavailableArcoreNotInstalledException;
@@ -49,17 +54,20 @@ import com.google.ar.core.exceptions.UnavailableDeviceNotCompatibleException;
 import com.google.ar.core.exceptions.UnavailableSdkTooOldException;
 import com.google.ar.core.exceptions.UnavailableUserDeclinedInstallationException;
 
-import java.io.BufferedInputStream;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.Enumeration;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -90,13 +98,61 @@ public class ARActivity extends AppCompatActivity implements GLSurfaceView.Rende
     // Anchors created from taps used for object placing.
     private final ArrayList<Anchor> anchors = new ArrayList<>();
 
-    // If this boolean is set to true, onDrawFrame will try to load the obj files from the temp
-    // directory.
+    // Whether a dataset has been opened, so that onResume does not open the dataset of the intent
+    // again.
     private boolean fileUnzippedSuccessfully = false;
-    private boolean objFilesLoadRequested = false;
+
+    // The obj files of the dataset that is being opened, which onDrawFrame hands to the object
+    // renderer in the next frame, without waiting for the extraction to finish or for a plane to
+    // anchor the model on. Guarded by this. The model is anchored on the first tracked plane
+    // automatically while modelAnchorRequested is set.
+    private ObjFilesRequest pendingObjFiles;
+    private volatile boolean modelAnchorRequested = false;
+
+    // The number of extracted obj files that may wait for the object renderer, before the
+    // extraction of the remaining obj files waits for it
+    private static final int OBJ_FILE_QUEUE_CAPACITY = 4;
+
+    // The UnzipTasks run one after another on their own thread instead of the serial executor of
+    // the AsyncTasks, because the extraction of a dataset waits for the obj file loader of the
+    // object renderer, which runs on the serial executor.
+    private static final Executor UNZIP_EXECUTOR = Executors.newSingleThreadExecutor();
 
     private static final int READ_REQUEST_CODE = 1337;
 
+    // The obj, mtl and texture files are read directly from the entries of the .fmear archive,
+    // instead of extracting the archive into the dataset cache first, unless the dataset has been
+    // extracted before, or an entry is larger than STREAM_MAX_ENTRY_BYTES or of unknown size. The
+    // streamed entries are inflated into memory when they are read, while the extracted files are
+    // mapped. Archives that can not be opened with random access, like streams of a content
+    // provider that are not backed by a file, are copied into the temp directory first.
+    private static final long STREAM_MAX_ENTRY_BYTES = 64L * 1024 * 1024;
+
+    // The source of the files of the current dataset, and the directory that the obj files are
+    // searched in. This is an entry of the dataset cache, or the root of the archive when it is
+    // streamed. The archive is closed by the object renderer when the next dataset is loaded.
+    private volatile FileSource datasetSource = new LocalFileSource();
+    private volatile File datasetRoot;
+
+    // The time when the current dataset was opened, for measuring the time until its first model is
+    // drawn, or 0 when that has been logged.
+    private volatile long datasetOpenedNanos = 0;
+
+    // The extracted datasets, by the content of their archives, so that reopening a dataset does
+    // not unzip it again. The least recently used datasets are deleted beyond the quota.
+    private static final long DATASET_CACHE_QUOTA_BYTES = 512L * 1024 * 1024;
+    private DatasetCache datasetCache;
+
+    // The entry of the dataset cache of the current dataset, or null. The prepared meshes of the
+    // obj files are cached in its MESH_CACHE_DIRECTORY_NAME directory, and the compressed textures
+    // in its TEXTURE_CACHE_DIRECTORY_NAME directory, so that they count against the quota and are
+    // deleted with the dataset. When the dataset is streamed, the entry only contains these caches,
+    // and its key has the STREAMED_KEY_SUFFIX, so that it is not mistaken for an extracted dataset.
+    private static final String MESH_CACHE_DIRECTORY_NAME = ".meshes";
+    private static final String TEXTURE_CACHE_DIRECTORY_NAME = ".textures";
+    private static final String STREAMED_KEY_SUFFIX = "-streamed";
+    private volatile File datasetCacheEntry;
+
     // One finger scroll gesture detecting
     private final float kTranslationMultiplier = 0.001f;
     private float[] mTranslateFactor = new float[3];
@@ -144,6 +200,8 @@ public class ARActivity extends AppCompatActivity implements GLSurfaceView.Rende
 
         // Initialize the temp directory by removing previous content and recreate the directory
         initDirectory(tempDirectory());
+        datasetRoot = tempDirectory();
+        datasetCache = new DatasetCache(datasetCacheDirectory(), DATASET_CACHE_QUOTA_BYTES);
     }
 
     @Override
@@ -153,14 +211,13 @@ public class ARActivity extends AppCompatActivity implements GLSurfaceView.Rende
         // TODO: Selecting a fmear file from the Android file system will resume on this activity.
         // However, we can end up in this onResume function even no file is selected. We should
         // handle both cases.
-        // Get the data from the intent and unzip the FME AR dataset into the temp directory.
-        // If we successfully extracted the content from a .fmear file, we will set the boolean
-        // fileUnzippedSuccessfully to true. Then, in onDrawFrame, we load the obj and update the
-        // geometry.
+        // Get the data from the intent and open the FME AR dataset. The UnzipTask requests the obj
+        // files, which onDrawFrame hands to the object renderer, and sets the boolean
+        // fileUnzippedSuccessfully to true once the dataset has been opened.
 
-        // Pass null to unzipping AsyncTask to set fileUnzippedSuccessfully.
+        // Pass null to unzipping AsyncTask to open the dataset of the intent.
         if (!fileUnzippedSuccessfully) {
-            new UnzipTask().execute((Intent) null);
+            new UnzipTask().executeOnExecutor(UNZIP_EXECUTOR, (Intent) null);
         }
 
         if (session == null) {
@@ -302,6 +359,7 @@ public class ARActivity extends AppCompatActivity implements GLSurfaceView.Rende
     public void onSurfaceChanged(GL10 gl, int width, int height) {
         displayRotationHelper.onSurfaceChanged(width, height);
         GLES20.glViewport(0, 0, width, height);
+        objectRenderer.setViewportSize(width, height);
     }
 
 
@@ -331,10 +389,19 @@ public class ARActivity extends AppCompatActivity implements GLSurfaceView.Rende
             Frame frame = session.update();
             Camera camera = frame.getCamera();
 
+            // Start loading the obj files of a new dataset right away, so that they are parsed,
+            // prepared and uploaded while the user is still scanning for a plane. The uploads run
+            // in every frame, and the model is drawn once it has been anchored.
+            ObjFilesRequest objFilesRequest = takeObjFilesRequest();
+            if (objFilesRequest != null) {
+                loadObjFiles(objFilesRequest);
+            }
+            objectRenderer.updateBuffers();
+
             // If there is no anchors on the detected plane yet and the obj model is ready, we
             // should generate an anchor so that the model can be displayed at the anchor
             // automatically without user tapping on the plane.
-            if (objFilesLoadRequested && anchors.isEmpty()) {
+            if (modelAnchorRequested && anchors.isEmpty()) {
                 for (Trackable trackable: session.getAllTrackables(Plane.class)) {
                     if (trackable instanceof Plane && trackable.getTrackingState() == TrackingState.TRACKING) {
                         Plane plane = (Plane)trackable;
@@ -448,30 +515,8 @@ public class ARActivity extends AppCompatActivity implements GLSurfaceView.Rende
                 // during calls to session.update() as ARCore refines its estimate of the world.
                 anchor.getPose().toMatrix(anchorMatrix, 0);
 
-                // Load the new obj files if any
-                if (objFilesLoadRequested) {
-
-                    objFilesLoadRequested = false;
-                    try {
-                        List<File> objFiles = new FileFinder(".obj").find(tempDirectory());
-                        int numObjFiles = objFiles.size();
-
-                        if (numObjFiles == 0) {
-                            showToast("No assets to load from file");
-                        } else if (numObjFiles == 1) {
-                            showToast("Loading the asset from file...");
-                        } else {
-                            showToast("Loading " + objFiles.size() + " assets from file...");
-                        }
-
-                        objectRenderer.loadObjFiles(objFiles, this);
-                    } catch (IOException e) {
-                        Log.e(TAG, "Failed to read an asset file", e);
-                        showToast("ERROR: Failed to read assets from file");
-                    }
-                }
-
-                objectRenderer.updateBuffers();
+                // The model has been anchored
+                modelAnchorRequested = false;
 
                 if (objectRenderer.isInitialized()) {
 
@@ -490,10 +535,22 @@ public class ARActivity extends AppCompatActivity implements GLSurfaceView.Rende
                     // Update the model matrix
                     objectRenderer.updateModelMatrix(anchorMatrix, mTranslateFactor, mScaleFactor, mRotateAngle);
 
+                    // Select the levels of detail for this frame
+                    objectRenderer.selectLevelsOfDetail(viewmtx, projmtx);
+
                     // Draw the model
                     // Draw Opaque first and then transparent objects
                     objectRenderer.draw(viewmtx, projmtx, colorCorrectionRgba, EnumSet.of(ObjectRenderer.RenderingOptions.DRAW_OPAQUE));
                     objectRenderer.draw(viewmtx, projmtx, colorCorrectionRgba, EnumSet.of(ObjectRenderer.RenderingOptions.DRAW_TRANSPARENT));
+
+                    // The draw calls of the last frame are known after selectLevelsOfDetail
+                    long openedNanos = datasetOpenedNanos;
+                    if (openedNanos != 0 && objectRenderer.getDrawCallsLastFrame() > 0) {
+                        datasetOpenedNanos = 0;
+                        Log.i(TAG, String.format(Locale.US,
+                                "First model of the dataset drawn %.1f ms after opening it",
+                                (System.nanoTime() - openedNanos) / 1e6));
+                    }
                 }
 
                 // We only want to use the first anchor
@@ -507,6 +564,79 @@ public class ARActivity extends AppCompatActivity implements GLSurfaceView.Rende
         }
     }
 
+    // ---------------------------------------------------------------------------------------------
+    // This class describes the obj files of a dataset for the object renderer. The files are taken
+    // from the queue, which may still be filled by the extraction of the dataset.
+    private static class ObjFilesRequest {
+        final FileQueue files;
+        final int numFiles;
+        final long totalBytes;
+        final FileSource fileSource;
+        final File datasetRoot;
+        final File cacheEntry;
+
+        ObjFilesRequest(FileQueue files, int numFiles, long totalBytes, FileSource fileSource,
+                        File datasetRoot, File cacheEntry) {
+            this.files = files;
+            this.numFiles = numFiles;
+            this.totalBytes = totalBytes;
+            this.fileSource = fileSource;
+            this.datasetRoot = datasetRoot;
+            this.cacheEntry = cacheEntry;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // This function sets the obj files that onDrawFrame loads next, replacing a previous request
+    // that has not been loaded yet. The queue of the replaced request is closed, so that its
+    // extraction does not wait for it, and so is its archive.
+    private synchronized void requestObjFiles(ObjFilesRequest request) {
+        if (pendingObjFiles != null) {
+            pendingObjFiles.files.close();
+            if (pendingObjFiles.fileSource != request.fileSource) {
+                closeDatasetSource(pendingObjFiles.fileSource);
+            }
+        }
+        pendingObjFiles = request;
+        modelAnchorRequested = true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // This function returns the obj files that have been requested since the last call, or null.
+    private synchronized ObjFilesRequest takeObjFilesRequest() {
+        ObjFilesRequest request = pendingObjFiles;
+        pendingObjFiles = null;
+        return request;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // This function starts loading the requested obj files on the GL thread.
+    private void loadObjFiles(ObjFilesRequest request) {
+        try {
+            int numObjFiles = request.numFiles;
+            if (numObjFiles == 0) {
+                showToast("No assets to load from file");
+            } else if (numObjFiles == 1) {
+                showToast("Loading the asset from file...");
+            } else {
+                showToast("Loading " + numObjFiles + " assets from file...");
+            }
+
+            objectRenderer.setMeshCacheDirectory(request.cacheEntry == null ? null
+                    : new File(request.cacheEntry, MESH_CACHE_DIRECTORY_NAME),
+                    request.datasetRoot);
+            objectRenderer.setCompressedTextureDirectory(request.cacheEntry == null ? null
+                    : new File(request.cacheEntry, TEXTURE_CACHE_DIRECTORY_NAME),
+                    request.datasetRoot);
+            objectRenderer.loadObjFiles(request.files, numObjFiles, request.totalBytes,
+                    request.fileSource, this);
+        } catch (IOException e) {
+            request.files.close();
+            Log.e(TAG, "Failed to read an asset file", e);
+            showToast("ERROR: Failed to read assets from file");
+        }
+    }
+
     private void showToast(final String message) {
         final ARActivity context = this;
         context.runOnUiThread(new Runnable() {
@@ -595,7 +725,7 @@ public class ARActivity extends AppCompatActivity implements GLSurfaceView.Rende
                 anchors.clear();
 
                 // Call anon AsyncTask to unzip files in background
-                new UnzipTask().execute(resultData);
+                new UnzipTask().executeOnExecutor(UNZIP_EXECUTOR, resultData);
             }
             // END_INCLUDE (parse_open_document_response)
         }
@@ -681,6 +811,20 @@ public class ARActivity extends AppCompatActivity implements GLSurfaceView.Rende
         fileOrDirectory.delete();
     }
 
+    // ---------------------------------------------------------------------------------------------
+    // This function closes the source of a dataset if it is a streamed archive. This is only done
+    // for sources that have not been handed to the object renderer, which closes the sources that
+    // it has loaded once they are no longer read.
+    private void closeDatasetSource(FileSource source) {
+        if (source instanceof Closeable) {
+            try {
+                ((Closeable) source).close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close the archive of a dataset", e);
+            }
+        }
+    }
+
     // ---------------------------------------------------------------------------------------------
     // This function returns a directory named "fmear" in the cache directory.
     private File tempDirectory() {
@@ -691,6 +835,13 @@ public class ARActivity extends AppCompatActivity implements GLSurfaceView.Rende
         return new File(cacheDir.toString(), "fmear");
     }
 
+    // ---------------------------------------------------------------------------------------------
+    // This function returns a directory named "fmear-datasets" in the cache directory, for the
+    // dataset cache. Unlike the "fmear" directory, it is kept when a dataset is opened.
+    private File datasetCacheDirectory() {
+        return new File(getCacheDir().toString(), "fmear-datasets");
+    }
+
     // ---------------------------------------------------------------------------------------------
     // This function deletes everything in dir including itself and then creates dir again.
     private void initDirectory(File dir) {
@@ -713,15 +864,32 @@ public class ARActivity extends AppCompatActivity implements GLSurfaceView.Rende
     // GUI thread.
     private class UnzipTask extends AsyncTask<Intent, Integer, Boolean> {
 
+        // The progress of the extraction is published in this range
+        private static final int PROGRESS_MAX = 1000;
+
         private ProgressBar progressBar;
         private Exception exception;
 
+        // The number of bytes that were copied because the archive could not be opened in place
+        private long bytesCopied = 0;
+
+        // Whether the obj files have already been requested while the archive was extracted
+        private boolean objFilesRequested = false;
+
         @Override
         protected void onPreExecute() {
             progressBar = findViewById(R.id.progressbar);
+            progressBar.setIndeterminate(true);
             progressBar.setVisibility(View.VISIBLE);
         }
 
+        @Override
+        protected void onProgressUpdate(Integer... progress) {
+            progressBar.setIndeterminate(false);
+            progressBar.setMax(PROGRESS_MAX);
+            progressBar.setProgress(progress[0]);
+        }
+
         @Override
         protected Boolean doInBackground(Intent... intents) {
             try {
@@ -736,14 +904,10 @@ public class ARActivity extends AppCompatActivity implements GLSurfaceView.Rende
         protected void onPostExecute(Boolean result) {
 
             fileUnzippedSuccessfully = result;
-            if (fileUnzippedSuccessfully) {
-                List<File> objFiles = new FileFinder(".obj").find(tempDirectory());
-                objFilesLoadRequested = !objFiles.isEmpty();
-            }
 
             if (exception == null) {
 
-                if (objFilesLoadRequested) {
+                if (fileUnzippedSuccessfully) {
                     showToast("File read successfully");
                 }
 
@@ -779,8 +943,9 @@ public class ARActivity extends AppCompatActivity implements GLSurfaceView.Rende
 
         // -----------------------------------------------------------------------------------------
         // This function gets the data from the view intent. If the data exists, this function will
-        // unzip the data, assuming it's a .fmear file, into the temp directory named "fmear" in the
-        // default cache directory.
+        // open the data, assuming it's a .fmear file, and either stream it or unzip it into the
+        // dataset cache. The temp directory named "fmear" in the default cache directory is used
+        // for archives that have to be copied.
         private boolean extractDatasetFromIntent(Intent resultData) throws IOException {
             Intent intent;
             if (resultData != null) {
@@ -797,26 +962,44 @@ public class ARActivity extends AppCompatActivity implements GLSurfaceView.Rende
                     }
 
                     showToast("Reading " + getFileName(uri) + "...");
+                    long startNanos = System.nanoTime();
 
                     // Get the temp directory
                     File tempDir = tempDirectory();
                     initDirectory(tempDir);
 
-                    // Unzip the content to the temporary directory
+                    // Open the archive, or unzip the content to the dataset cache. The time is set
+                    // before, because the obj files may already be drawn while they are extracted.
+                    long bytesWritten;
+                    datasetOpenedNanos = startNanos;
                     try {
-                        unzipContent(uri, tempDir);
+                        bytesWritten = openDataset(uri, new File(tempDir, "dataset.fmear"));
                     } catch (IOException e) {
+                        datasetOpenedNanos = 0;
                         throw new IOException("Failed to unpack selected file", e);
                     }
 
                     // Find all the .obj files
-                    List<File> objFiles = new FileFinder(".obj").find(tempDir);
+                    List<File> objFiles = datasetSource.find(datasetRoot, ".obj");
+                    Log.i(TAG, String.format(Locale.US,
+                            "Prepared the dataset in %.1f ms, %d bytes written to storage",
+                            (System.nanoTime() - startNanos) / 1e6, bytesWritten));
                     if (objFiles.size() == 0){
+                        closeDatasetSource(datasetSource);
                         throw new IOException("No renderable objects found");
                     }
                     for (File file : objFiles) {
                         Log.d("FME AR", "OBJ File: " + file.toString());
                     }
+                    if (!objFilesRequested) {
+                        long totalBytes = 0;
+                        for (File file : objFiles) {
+                            totalBytes += datasetSource.length(file);
+                        }
+                        requestObjFiles(new ObjFilesRequest(FileQueue.of(objFiles),
+                                objFiles.size(), totalBytes, datasetSource, datasetRoot,
+                                datasetCacheEntry));
+                    }
                     return true;
                 }
             }
@@ -824,69 +1007,187 @@ public class ARActivity extends AppCompatActivity implements GLSurfaceView.Rende
         }
 
         // -----------------------------------------------------------------------------------------
-        // This function unzip the content from the contentPath to the destinationFolder. This
-        // function creates all the directories necessary for the unzipped files.
-        private void unzipContent(Uri inputUri, File destinationFolder) throws IOException {
-            InputStream inputStream;
+        // This function opens the archive of the inputUri, and streams its entries or unzips them
+        // into the dataset cache. An archive that has to be copied is copied to the copyFile, which
+        // is deleted after unzipping it. Returns the number of bytes that were written to storage.
+        private long openDataset(Uri inputUri, File copyFile) throws IOException {
+            ZipFile zipFile = openZipFile(inputUri, copyFile);
+            boolean streamed = false;
+            try {
+                String key = DatasetCache.computeKey(zipFile);
+                if (datasetCache.get(key) == null && isStreamable(zipFile)) {
+                    streamed = true;
+                    return bytesCopied + openArchive(zipFile, key);
+                }
+                return bytesCopied + unzipContent(zipFile, key);
+            } finally {
+                if (!streamed) {
+                    zipFile.close();
+                    copyFile.delete();
+                }
+            }
+        }
+
+        // -----------------------------------------------------------------------------------------
+        // This function returns whether the entries of the archive can be streamed, because none
+        // of them is larger than STREAM_MAX_ENTRY_BYTES or of unknown size.
+        private boolean isStreamable(ZipFile zipFile) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                long size = entry.getSize();
+                if (!entry.isDirectory() && (size < 0 || size > STREAM_MAX_ENTRY_BYTES)) {
+                    Log.i("FME AR", "Extracting the archive, because '" + entry.getName()
+                            + "' has " + size + " bytes");
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // -----------------------------------------------------------------------------------------
+        // This function makes the opened archive with the key the source of the dataset, so that
+        // its entries are read without extracting them. The archive is closed by the object
+        // renderer. Returns the number of bytes that were written to storage.
+        private long openArchive(ZipFile zipFile, String key) {
+            datasetCacheEntry = openStreamedCacheEntry(key);
+            ZipFileSource archive = new ZipFileSource(zipFile);
+            Log.i("FME AR", String.format(Locale.US, "Streaming %d entries (%d bytes) from '%s'",
+                    archive.getNumEntries(), archive.getUncompressedSize(), archive.getRoot()));
+            datasetSource = archive;
+            datasetRoot = archive.getRoot();
+            mScaleFactor = 1.0f;
+            return 0;
+        }
+
+        // -----------------------------------------------------------------------------------------
+        // This function returns the entry of the dataset cache that holds the prepared meshes and
+        // the compressed textures of the streamed archive with the key, and creates an empty entry
+        // if there is none. Returns null if the entry can not be created, and the meshes and
+        // textures are then not cached.
+        private File openStreamedCacheEntry(String key) {
+            String streamedKey = key + STREAMED_KEY_SUFFIX;
+            File entryDirectory = datasetCache.get(streamedKey);
+            if (entryDirectory != null) {
+                return entryDirectory;
+            }
+            try {
+                return datasetCache.commit(streamedKey, datasetCache.create(streamedKey));
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to create the mesh cache of the dataset", e);
+                return null;
+            }
+        }
+
+        // -----------------------------------------------------------------------------------------
+        // This function opens the archive of the inputUri as a zip file. File URIs and content URIs
+        // that are backed by a file are opened in place. Other content is copied to the copyFile
+        // first, and the number of copied bytes is stored in bytesCopied.
+        private ZipFile openZipFile(Uri inputUri, File copyFile) throws IOException {
+            bytesCopied = 0;
             String uriScheme = inputUri.getScheme();
-            if ("content".equalsIgnoreCase(uriScheme)) {
-                inputStream = getContentResolver().openInputStream(inputUri);
-            } else if ("file".equalsIgnoreCase(uriScheme)) {
-                inputStream = new FileInputStream(new File(inputUri.getPath()));
-            } else {
+            if ("file".equalsIgnoreCase(uriScheme)) {
+                return new ZipFile(new File(inputUri.getPath()));
+            }
+            if (!"content".equalsIgnoreCase(uriScheme)) {
                 throw new IOException("expected Uri with scheme 'content' or 'file', instead: " + uriScheme);
             }
-            try {
+
+            // The archive is opened through the path of the file descriptor, which keeps working
+            // after the descriptor is closed. This fails for pipes and sockets.
+            try (ParcelFileDescriptor fileDescriptor =
+                         getContentResolver().openFileDescriptor(inputUri, "r")) {
+                if (fileDescriptor != null) {
+                    return new ZipFile(new File("/proc/self/fd/" + fileDescriptor.getFd()));
+                }
+            } catch (IOException | SecurityException e) {
+                Log.i(TAG, "The archive can not be opened in place, copying it", e);
+            }
+            try (InputStream inputStream = getContentResolver().openInputStream(inputUri)) {
                 if (inputStream == null) {
-                    return;
+                    throw new IOException("Could not open " + inputUri);
+                }
+                bytesCopied = copy(inputStream, copyFile);
+            }
+            return new ZipFile(copyFile);
+        }
+
+        // -----------------------------------------------------------------------------------------
+        // This function copies the inputStream to the outputFile, and returns the number of bytes.
+        private long copy(InputStream inputStream, File outputFile) throws IOException {
+            byte[] buffer = new byte[64 * 1024];
+            long bytesWritten = 0;
+            int numBytes;
+            try (FileOutputStream fileOutputStream = new FileOutputStream(outputFile)) {
+                while ((numBytes = inputStream.read(buffer)) > 0) {
+                    fileOutputStream.write(buffer, 0, numBytes);
+                    bytesWritten += numBytes;
                 }
-                try (ZipInputStream zipInputStream = new ZipInputStream(new BufferedInputStream(inputStream))) {
-                    // Create a buffer to read the zip file content
-                    byte[] buffer = new byte[1024];
-                    int numBytes;
-
-                    String zipEntryName;
-                    ZipEntry zipEntry;
-                    while ((zipEntry = zipInputStream.getNextEntry()) != null) {
-                        zipEntryName = zipEntry.getName();
-
-                        File unzippedFile = new File(destinationFolder, zipEntryName);
-
-                        // Skip the __MACOSX folders in the .fmear file in case the .fmear archive
-                        // was created on macOS with the __MACOSX resource fork.
-                        if (!zipEntryName.startsWith("__MACOSX")) {
-                            if (zipEntry.isDirectory()) {
-                                // If the entry is a directory, we need to make sure all the parent
-                                // directories leading up to this directory exist before writing a
-                                // file in the directory
-                                unzippedFile.mkdirs();
-                            } else {
-                                // If the entry is a file, we need to make sure all the parent
-                                // directories leading up to this file exist before writing the
-                                // file to the path.
-                                File subfolder = unzippedFile.getParentFile();
-                                if (subfolder != null) {
-                                    subfolder.mkdirs();
+            }
+            return bytesWritten;
+        }
+
+        // -----------------------------------------------------------------------------------------
+        // This function unzips the opened archive with the key into an entry of the dataset cache,
+        // unless the cache already contains the dataset, and makes the entry the root of the
+        // dataset. The entries are inflated concurrently by a ZipExtractor, which creates all the
+        // directories necessary for the unzipped files, and the extracted bytes are shown by the
+        // progress bar. The entry is extracted in place, and the obj files are requested before the
+        // extraction and handed to the object renderer as they are extracted, after the mtl and
+        // texture files, so that they are parsed and prepared while the remaining obj files are
+        // extracted. Returns the number of bytes that were written to storage.
+        private long unzipContent(ZipFile zipFile, String key) throws IOException {
+            long bytesWritten = 0;
+            long startNanos = System.nanoTime();
+            File entryDirectory = datasetCache.get(key);
+            if (entryDirectory != null) {
+                Log.i("FME AR", "Reusing the extracted dataset '" + entryDirectory + "'");
+            } else {
+                entryDirectory = datasetCache.createInPlace(key).getCanonicalFile();
+                final File root = entryDirectory;
+                final FileQueue objFileQueue = new FileQueue(OBJ_FILE_QUEUE_CAPACITY);
+                int numThreads = Runtime.getRuntime().availableProcessors();
+                try {
+                    bytesWritten = new ZipExtractor(numThreads).extract(zipFile, root,
+                            new ZipExtractor.ProgressListener() {
+                                @Override
+                                public void progressChanged(int numEntriesExtracted,
+                                                            int totalNumEntries,
+                                                            long bytesExtracted,
+                                                            long totalBytes) {
+                                    publishProgress((int) (PROGRESS_MAX * bytesExtracted
+                                            / Math.max(1, totalBytes)));
+                                }
+                            }, ".obj", new ZipExtractor.FileListener() {
+                                @Override
+                                public void deferredEntriesFound(int numEntries,
+                                                                 long totalBytes) {
+                                    if (numEntries > 0) {
+                                        requestObjFiles(new ObjFilesRequest(objFileQueue,
+                                                numEntries, totalBytes, new LocalFileSource(),
+                                                root, root));
+                                        objFilesRequested = true;
+                                    }
                                 }
 
-                                // Now we can unzip the file
-                                Log.i("FME AR", "Unzipping '" + unzippedFile.toString() + "' ...");
-                                FileOutputStream fileOutputStream = new FileOutputStream(unzippedFile);
-                                while ((numBytes = zipInputStream.read(buffer)) > 0) {
-                                    fileOutputStream.write(buffer, 0, numBytes);
+                                @Override
+                                public void deferredFileExtracted(File file)
+                                        throws InterruptedException {
+                                    objFileQueue.put(file);
                                 }
-                                fileOutputStream.close();
-                            }
-                        }
-                        zipInputStream.closeEntry();
-                    }
-                }
-                mScaleFactor = 1.0f;
-            } finally {
-                if (inputStream != null) {
-                    inputStream.close();
+                            });
+                } finally {
+                    objFileQueue.close();
                 }
+                datasetCache.commitInPlace(key);
+                Log.i("FME AR", String.format(Locale.US, "Unzipped %d bytes in %.1f ms",
+                        bytesWritten, (System.nanoTime() - startNanos) / 1e6));
             }
+            datasetSource = new LocalFileSource();
+            datasetRoot = entryDirectory;
+            datasetCacheEntry = entryDirectory;
+            mScaleFactor = 1.0f;
+            return bytesWritten;
         }
     }
 
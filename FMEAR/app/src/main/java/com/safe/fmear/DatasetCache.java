@@ -0,0 +1,280 @@
+package com.safe.fmear;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// =================================================================================================
+// DatasetCache
+//
+// A persistent cache of the extracted content of .fmear archives, so that reopening a dataset does
+// not have to unzip it again. Each dataset is stored in a directory that is named by the key of its
+// archive. The key is a hash of the central directory of the archive, which contains the names,
+// sizes and CRCs of all entries, so that a changed archive gets a new entry even if it has the same
+// name, while a copy of the same archive from another location reuses the entry.
+//
+// An entry is filled in a temporary directory and committed by renaming it, so that an entry that
+// was interrupted is never used. An entry whose files have to keep their paths while it is filled,
+// because they are loaded during the extraction, is filled in place instead, and only found after
+// it has been committed. Each use of an entry is recorded in a small file in the entry, and when
+// the total size of the entries exceeds the quota, the least recently used entries are deleted.
+public class DatasetCache {
+
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final String LAST_USED_FILE_NAME = ".last-used";
+
+    // Changing the layout of the entries requires a new version, which invalidates the old entries
+    private static final int VERSION = 1;
+
+    private final File mDirectory;
+    private final long mQuotaBytes;
+
+    // The last time stamp that was written, so that the uses are strictly ordered even within the
+    // resolution of the clock
+    private long mLastUsed = 0;
+
+    // ---------------------------------------------------------------------------------------------
+    // Creates a cache in the directory, which is created when the first entry is committed. The
+    // entries that were not committed before, like after a crash, are deleted.
+    public DatasetCache(File directory, long quotaBytes) {
+        mDirectory = directory;
+        mQuotaBytes = quotaBytes;
+        File[] children = directory.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.getName().endsWith(TEMPORARY_SUFFIX)
+                        || !new File(child, LAST_USED_FILE_NAME).isFile()) {
+                    deleteRecursively(child);
+                }
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Returns the key of the archive, from the entries of its central directory.
+    public static String computeKey(ZipFile zipFile) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        Charset utf8 = Charset.forName("UTF-8");
+        StringBuilder entry = new StringBuilder();
+        Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+        while (zipEntries.hasMoreElements()) {
+            ZipEntry zipEntry = zipEntries.nextElement();
+            entry.setLength(0);
+            entry.append(zipEntry.getName()).append('\n')
+                    .append(zipEntry.getSize()).append(' ')
+                    .append(zipEntry.getCompressedSize()).append(' ')
+                    .append(zipEntry.getCrc()).append(' ')
+                    .append(zipEntry.getTime()).append('\n');
+            digest.update(entry.toString().getBytes(utf8));
+        }
+        StringBuilder key = new StringBuilder();
+        key.append('v').append(VERSION).append('-');
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16));
+            key.append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Returns the directory of the committed entry of the key and records the use, or returns null
+    // if there is no such entry.
+    public synchronized File get(String key) {
+        File entryDirectory = new File(mDirectory, key);
+        if (!new File(entryDirectory, LAST_USED_FILE_NAME).isFile()) {
+            return null;
+        }
+        markUsed(entryDirectory);
+        return entryDirectory;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Returns an empty temporary directory for filling the entry of the key, which has to be
+    // committed afterwards.
+    public synchronized File create(String key) throws IOException {
+        File temporaryDirectory = new File(mDirectory, key + TEMPORARY_SUFFIX);
+        deleteRecursively(temporaryDirectory);
+        if (!temporaryDirectory.mkdirs()) {
+            throw new IOException("Could not create " + temporaryDirectory);
+        }
+        return temporaryDirectory;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Commits the temporary directory that was created for the key, replacing a previous entry of
+    // the key, and evicts the least recently used other entries until the cache fits into the
+    // quota. The committed entry is kept even if it does not fit on its own. Returns the directory
+    // of the entry.
+    public synchronized File commit(String key, File temporaryDirectory) throws IOException {
+        markUsed(temporaryDirectory);
+        File entryDirectory = new File(mDirectory, key);
+        deleteRecursively(entryDirectory);
+        if (!temporaryDirectory.renameTo(entryDirectory)) {
+            throw new IOException(
+                    "Could not rename " + temporaryDirectory + " to " + entryDirectory);
+        }
+        trim(key);
+        return entryDirectory;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Returns the empty directory of the entry of the key for filling it in place, replacing a
+    // previous entry of the key. The entry has to be committed with commitInPlace afterwards, and
+    // is not found by get before.
+    public synchronized File createInPlace(String key) throws IOException {
+        File entryDirectory = new File(mDirectory, key);
+        deleteRecursively(entryDirectory);
+        if (!entryDirectory.mkdirs()) {
+            throw new IOException("Could not create " + entryDirectory);
+        }
+        return entryDirectory;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Commits the entry of the key that was filled in place, and evicts the least recently used
+    // other entries like commit. Returns the directory of the entry.
+    public synchronized File commitInPlace(String key) {
+        File entryDirectory = new File(mDirectory, key);
+        markUsed(entryDirectory);
+        trim(key);
+        return entryDirectory;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Deletes the entry of the key, if there is one.
+    public synchronized void remove(String key) {
+        deleteRecursively(new File(mDirectory, key));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Returns the total size of the committed entries in bytes.
+    public synchronized long getSizeBytes() {
+        long size = 0;
+        for (File entryDirectory : listEntries()) {
+            size += computeSize(entryDirectory);
+        }
+        return size;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Returns the keys of the committed entries, from the least to the most recently used.
+    public synchronized List<String> getKeys() {
+        List<String> keys = new ArrayList<>();
+        for (File entryDirectory : listEntries()) {
+            keys.add(entryDirectory.getName());
+        }
+        return keys;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Deletes the least recently used entries, except for the one of the key, until the cache fits
+    // into the quota.
+    private void trim(String keepKey) {
+        List<File> entries = listEntries();
+        long size = 0;
+        List<Long> sizes = new ArrayList<>(entries.size());
+        for (File entryDirectory : entries) {
+            long entrySize = computeSize(entryDirectory);
+            sizes.add(entrySize);
+            size += entrySize;
+        }
+        for (int i = 0; i < entries.size() && size > mQuotaBytes; i++) {
+            File entryDirectory = entries.get(i);
+            if (!entryDirectory.getName().equals(keepKey)) {
+                deleteRecursively(entryDirectory);
+                size -= sizes.get(i);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Returns the directories of the committed entries, from the least to the most recently used.
+    private List<File> listEntries() {
+        List<File> entries = new ArrayList<>();
+        File[] children = mDirectory.listFiles();
+        if (children == null) {
+            return entries;
+        }
+        final Map<File, Long> lastUsed = new HashMap<>();
+        for (File child : children) {
+            if (child.isDirectory() && !child.getName().endsWith(TEMPORARY_SUFFIX)) {
+                entries.add(child);
+                lastUsed.put(child, readLastUsed(child));
+            }
+        }
+        Collections.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(lastUsed.get(a), lastUsed.get(b));
+            }
+        });
+        return entries;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    private void markUsed(File entryDirectory) {
+        mLastUsed = Math.max(System.currentTimeMillis(), mLastUsed + 1);
+        File file = new File(entryDirectory, LAST_USED_FILE_NAME);
+        try (DataOutputStream outputStream = new DataOutputStream(new FileOutputStream(file))) {
+            outputStream.writeLong(mLastUsed);
+        } catch (IOException e) {
+            // The entry is then evicted first
+            file.delete();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Returns the time of the last use of the entry, or 0 if it is not known.
+    private static long readLastUsed(File entryDirectory) {
+        File file = new File(entryDirectory, LAST_USED_FILE_NAME);
+        try (DataInputStream inputStream = new DataInputStream(new FileInputStream(file))) {
+            return inputStream.readLong();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    private static long computeSize(File fileOrDirectory) {
+        File[] children = fileOrDirectory.listFiles();
+        if (children == null) {
+            return fileOrDirectory.length();
+        }
+        long size = 0;
+        for (File child : children) {
+            size += computeSize(child);
+        }
+        return size;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    private static void deleteRecursively(File fileOrDirectory) {
+        File[] children = fileOrDirectory.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        fileOrDirectory.delete();
+    }
+}
@@ -0,0 +1,298 @@
+package com.safe.fmear;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// =================================================================================================
+// ZipExtractor
+//
+// Extracts the entries of a zip archive concurrently. The entries are indexed from the central
+// directory of the archive, and inflated on a pool of worker threads, starting with the largest
+// entries so that a few large textures do not end up as the last tasks. Large entries are copied
+// with a large buffer, small entries with a small one, and each thread reuses its buffers. The
+// "__MACOSX" folders that the macOS archiver adds are skipped, as well as entries whose paths
+// would leave the destination folder.
+//
+// Entries with a deferred suffix, like the obj files of a dataset, can be handed to a FileListener
+// while the extraction is still running, so that loading them overlaps with extracting the rest.
+// These entries are started after all other entries, and each of them is passed to the listener
+// once it and all other entries have been extracted, so that the mtl and texture files that it
+// refers to exist.
+public class ZipExtractor {
+
+    // Receives the progress of an extraction. The calls are made from the worker threads, one at a
+    // time, after each entry and after every PROGRESS_INTERVAL_BYTES of a large entry, so that the
+    // progress moves while the large entries are written. The numbers of extracted entries and
+    // bytes do not decrease between the calls.
+    public interface ProgressListener {
+        void progressChanged(int numEntriesExtracted, int totalNumEntries, long bytesExtracted,
+                             long totalBytes);
+    }
+
+    // Receives the files of the deferred entries. The calls are made from the worker threads, and
+    // may block to hold back the extraction of the remaining deferred entries.
+    public interface FileListener {
+        // Called before any entry is extracted, with the number and the total size of the
+        // deferred entries.
+        void deferredEntriesFound(int numEntries, long totalBytes);
+
+        // Called once the file of a deferred entry and all entries that are not deferred have been
+        // extracted.
+        void deferredFileExtracted(File file) throws InterruptedException;
+    }
+
+    private static final String MACOSX_DIRECTORY = "__MACOSX";
+
+    // Entries of at least this size are copied with the large buffer
+    static final int LARGE_ENTRY_SIZE = 1024 * 1024;
+    private static final int SMALL_BUFFER_SIZE = 64 * 1024;
+    private static final int LARGE_BUFFER_SIZE = 1024 * 1024;
+    static final int PROGRESS_INTERVAL_BYTES = 1024 * 1024;
+
+    private final int mNumThreads;
+
+    private final ThreadLocal<byte[]> mSmallBuffers = new ThreadLocal<>();
+    private final ThreadLocal<byte[]> mLargeBuffers = new ThreadLocal<>();
+
+    // The progress of the current extraction. Guarded by mProgressLock.
+    private final Object mProgressLock = new Object();
+    private int mNumEntriesExtracted;
+    private long mBytesExtracted;
+
+    // The number of entries of the current extraction that are not deferred and have not been
+    // extracted yet. Guarded by mProgressLock.
+    private int mNumEntriesPending;
+
+    // ---------------------------------------------------------------------------------------------
+    public ZipExtractor(int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException(
+                    "The number of threads must be positive, but is " + numThreads);
+        }
+        mNumThreads = numThreads;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Extracts all entries of the zipFile into the destinationFolder, and blocks until all of them
+    // have been written. Returns the number of bytes that were written. The listener may be null.
+    public long extract(ZipFile zipFile, File destinationFolder, ProgressListener listener)
+            throws IOException {
+        return extract(zipFile, destinationFolder, listener, null, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Extracts all entries of the zipFile like above, and passes the files of the entries whose
+    // names end with the deferredSuffix, ignoring the case, to the fileListener. The suffix and the
+    // fileListener may be null.
+    public synchronized long extract(final ZipFile zipFile, File destinationFolder,
+                                     final ProgressListener listener, String deferredSuffix,
+                                     final FileListener fileListener) throws IOException {
+        final File canonicalFolder = destinationFolder.getCanonicalFile();
+        canonicalFolder.mkdirs();
+
+        // Index the entries, and create the directories up front so that the workers do not race
+        // for them
+        List<ZipEntry> entries = new ArrayList<>();
+        long totalBytes = 0;
+        Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+        while (zipEntries.hasMoreElements()) {
+            ZipEntry entry = zipEntries.nextElement();
+            if (entry.getName().startsWith(MACOSX_DIRECTORY)) {
+                continue;
+            }
+            File file = resolve(canonicalFolder, entry.getName());
+            if (entry.isDirectory()) {
+                file.mkdirs();
+            } else {
+                File parent = file.getParentFile();
+                if (parent != null) {
+                    parent.mkdirs();
+                }
+                entries.add(entry);
+                totalBytes += Math.max(0, entry.getSize());
+            }
+        }
+        final String suffix =
+                deferredSuffix == null ? null : deferredSuffix.toLowerCase(Locale.US);
+        Collections.sort(entries, new Comparator<ZipEntry>() {
+            @Override
+            public int compare(ZipEntry a, ZipEntry b) {
+                int deferred = Boolean.compare(isDeferred(a, suffix), isDeferred(b, suffix));
+                return deferred != 0 ? deferred : Long.compare(b.getSize(), a.getSize());
+            }
+        });
+
+        int numDeferredEntries = 0;
+        long deferredBytes = 0;
+        for (ZipEntry entry : entries) {
+            if (isDeferred(entry, suffix)) {
+                ++numDeferredEntries;
+                deferredBytes += Math.max(0, entry.getSize());
+            }
+        }
+        if (fileListener != null) {
+            fileListener.deferredEntriesFound(numDeferredEntries, deferredBytes);
+        }
+
+        synchronized (mProgressLock) {
+            mNumEntriesExtracted = 0;
+            mBytesExtracted = 0;
+            mNumEntriesPending = entries.size() - numDeferredEntries;
+        }
+        final int totalNumEntries = entries.size();
+        final long finalTotalBytes = totalBytes;
+        List<Callable<Long>> tasks = new ArrayList<>(totalNumEntries);
+        for (final ZipEntry entry : entries) {
+            tasks.add(new Callable<Long>() {
+                @Override
+                public Long call() throws IOException, InterruptedException {
+                    File file = resolve(canonicalFolder, entry.getName());
+                    long bytes = extractEntry(zipFile, entry, file, listener, totalNumEntries,
+                            finalTotalBytes);
+                    if (!isDeferred(entry, suffix)) {
+                        pendingEntryExtracted();
+                    } else if (fileListener != null) {
+                        awaitPendingEntries();
+                        fileListener.deferredFileExtracted(file);
+                    }
+                    return bytes;
+                }
+            });
+        }
+
+        ExecutorService executor =
+                Executors.newFixedThreadPool(Math.max(1, Math.min(mNumThreads, totalNumEntries)));
+        try {
+            List<Future<Long>> futures = new ArrayList<>(totalNumEntries);
+            for (Callable<Long> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            long bytesWritten = 0;
+            for (Future<Long> future : futures) {
+                bytesWritten += future.get();
+            }
+            return bytesWritten;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while extracting " + zipFile.getName(), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Failed to extract " + zipFile.getName(), cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Writes the content of the entry to the file, with the buffer of this thread that matches the
+    // size of the entry, and returns the number of bytes. The written bytes are reported to the
+    // listener every PROGRESS_INTERVAL_BYTES, and when the entry is complete.
+    private long extractEntry(ZipFile zipFile, ZipEntry entry, File file,
+                              ProgressListener listener, int totalNumEntries, long totalBytes)
+            throws IOException {
+        byte[] buffer = entry.getSize() >= LARGE_ENTRY_SIZE
+                ? getBuffer(mLargeBuffers, LARGE_BUFFER_SIZE)
+                : getBuffer(mSmallBuffers, SMALL_BUFFER_SIZE);
+        long bytes = 0;
+        long unreportedBytes = 0;
+        try (InputStream inputStream = zipFile.getInputStream(entry);
+             FileOutputStream fileOutputStream = new FileOutputStream(file)) {
+            int numBytes;
+            while ((numBytes = inputStream.read(buffer)) > 0) {
+                fileOutputStream.write(buffer, 0, numBytes);
+                bytes += numBytes;
+                unreportedBytes += numBytes;
+                if (unreportedBytes >= PROGRESS_INTERVAL_BYTES) {
+                    progressChanged(listener, 0, unreportedBytes, totalNumEntries, totalBytes);
+                    unreportedBytes = 0;
+                }
+            }
+        }
+        progressChanged(listener, 1, unreportedBytes, totalNumEntries, totalBytes);
+        return bytes;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    private static byte[] getBuffer(ThreadLocal<byte[]> buffers, int size) {
+        byte[] buffer = buffers.get();
+        if (buffer == null) {
+            buffer = new byte[size];
+            buffers.set(buffer);
+        }
+        return buffer;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    private static boolean isDeferred(ZipEntry entry, String suffix) {
+        return suffix != null && entry.getName().toLowerCase(Locale.US).endsWith(suffix);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Counts an extracted entry that is not deferred, and wakes up the deferred entries that wait
+    // for the last of them.
+    private void pendingEntryExtracted() {
+        synchronized (mProgressLock) {
+            if (--mNumEntriesPending == 0) {
+                mProgressLock.notifyAll();
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Waits until all entries that are not deferred have been extracted. This does not block the
+    // extraction of these entries, because the deferred entries are only started after all of them.
+    private void awaitPendingEntries() throws InterruptedException {
+        synchronized (mProgressLock) {
+            while (mNumEntriesPending > 0) {
+                mProgressLock.wait();
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Counts the extracted entries and bytes, and notifies the listener. The listener is called
+    // while holding the lock, so that the numbers of extracted entries and bytes arrive in order.
+    private void progressChanged(ProgressListener listener, int numEntries, long bytes,
+                                 int totalNumEntries, long totalBytes) {
+        synchronized (mProgressLock) {
+            mNumEntriesExtracted += numEntries;
+            mBytesExtracted += bytes;
+            if (listener != null) {
+                listener.progressChanged(mNumEntriesExtracted, totalNumEntries, mBytesExtracted,
+                        totalBytes);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Returns the file of the entry name in the canonical folder, or throws if the name leaves the
+    // folder, like "../file".
+    private static File resolve(File canonicalFolder, String name) throws IOException {
+        File file = new File(canonicalFolder, name).getCanonicalFile();
+        if (!file.getPath().startsWith(canonicalFolder.getPath() + File.separator)) {
+            throw new IOException("The entry '" + name + "' is outside of the destination folder");
+        }
+        return file;
+    }
+}
@@ -0,0 +1,1201 @@
+package de.javagl.obj;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * SAFE SOFTWARE INC.
+ * Implementation of an {@link Obj} that stores its data in primitive
+ * arrays. <br>
+ * <br>
+ * The {@link DefaultObj} stores each vertex, texture coordinate and normal
+ * as an object, and each face as an object with up to three arrays. For
+ * large models, this means that tens of millions of small objects are
+ * created. This class stores the coordinates in growable
+ * <code>float</code> arrays, and the indices of all faces in growable
+ * <code>int</code> arrays, where the start of each face is given by an
+ * offsets array (similar to a "compressed sparse row" layout). Groups
+ * only store the ranges of the indices of their faces.<br>
+ * <br>
+ * The {@link FloatTuple} and {@link ObjFace} instances that are returned
+ * by this class are lightweight objects that are created on demand. Two
+ * faces that are obtained for the same index are equal.
+ * Faces that are added to this Obj are copied into the arrays. Apart from
+ * that, the behavior is the same as that of the {@link DefaultObj}.
+ */
+final class CompactObj implements Obj
+{
+    /**
+     * The initial capacity for the arrays
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The flag indicating that a face contains texture coordinate indices
+     */
+    private static final byte FLAG_TEX_COORDS = 1;
+
+    /**
+     * The flag indicating that a face contains normal indices
+     */
+    private static final byte FLAG_NORMALS = 2;
+
+    /**
+     * The vertices in this Obj
+     */
+    private final TupleArray vertices = new TupleArray(3);
+
+    /**
+     * The texture coordinates in this Obj
+     */
+    private final TupleArray texCoords = new TupleArray(2);
+
+    /**
+     * The normals in this Obj
+     */
+    private final TupleArray normals = new TupleArray(3);
+
+    /**
+     * The number of faces in this Obj
+     */
+    private int numFaces = 0;
+
+    /**
+     * The offsets of the faces: The indices of face i are stored in the
+     * index arrays, between faceOffsets[i] (inclusive) and
+     * faceOffsets[i+1] (exclusive)
+     */
+    private int faceOffsets[] = new int[INITIAL_CAPACITY + 1];
+
+    /**
+     * The {@link #FLAG_TEX_COORDS} and {@link #FLAG_NORMALS} of each face
+     */
+    private byte faceFlags[] = new byte[INITIAL_CAPACITY];
+
+    /**
+     * The vertex indices of all faces
+     */
+    private int vertexIndices[] = new int[INITIAL_CAPACITY * 3];
+
+    /**
+     * The texture coordinate indices of all faces. This is
+     * <code>null</code> until the first face with texture coordinate
+     * indices is added.
+     */
+    private int texCoordIndices[] = null;
+
+    /**
+     * The normal indices of all faces. This is <code>null</code> until
+     * the first face with normal indices is added.
+     */
+    private int normalIndices[] = null;
+
+    /**
+     * The groups in this Obj.
+     */
+    private final List<CompactObjGroup> groups;
+
+    /**
+     * The material groups in this Obj.
+     */
+    private final List<CompactObjGroup> materialGroups;
+
+    /**
+     * Maps a group name to a group
+     */
+    private final Map<String, CompactObjGroup> groupMap;
+
+    /**
+     * Maps a material name to a material group
+     */
+    private final Map<String, CompactObjGroup> materialGroupMap;
+
+    /**
+     * The names of the MTL files for this Obj.
+     */
+    private List<String> mtlFileNames = Collections.emptyList();
+
+    /**
+     * The indices of the faces at which groups started, in ascending order
+     */
+    private int startedGroupFaces[] = new int[INITIAL_CAPACITY];
+
+    /**
+     * The names of the groups that started at the faces in
+     * {@link #startedGroupFaces}
+     */
+    private final List<Set<String>> startedGroupNames;
+
+    /**
+     * The indices of the faces at which material groups started, in
+     * ascending order
+     */
+    private int startedMaterialGroupFaces[] = new int[INITIAL_CAPACITY];
+
+    /**
+     * The names of the material groups that started at the faces in
+     * {@link #startedMaterialGroupFaces}
+     */
+    private final List<String> startedMaterialGroupNames;
+
+    /**
+     * The names for the groups that should be used for faces that are
+     * added subsequently
+     */
+    private Set<String> nextActiveGroupNames = null;
+
+    /**
+     * The name for the material group that should be used for faces that are
+     * added subsequently
+     */
+    private String nextActiveMaterialGroupName = null;
+
+    /**
+     * The groups that are currently active, and to which faces will be
+     * added
+     */
+    private List<CompactObjGroup> activeGroups = null;
+
+    /**
+     * The names of the groups that faces are currently added to
+     */
+    private Set<String> activeGroupNames = null;
+
+    /**
+     * The material group that is currently active, and to which faces will be
+     * added
+     */
+    private CompactObjGroup activeMaterialGroup = null;
+
+    /**
+     * The name of the material group that is currently active
+     */
+    private String activeMaterialGroupName = null;
+
+    /**
+     * Creates a new, empty CompactObj.
+     */
+    CompactObj()
+    {
+        groups = new ArrayList<CompactObjGroup>();
+        materialGroups = new ArrayList<CompactObjGroup>();
+
+        groupMap = new LinkedHashMap<String, CompactObjGroup>();
+        materialGroupMap = new LinkedHashMap<String, CompactObjGroup>();
+
+        startedGroupNames = new ArrayList<Set<String>>();
+        startedMaterialGroupNames = new ArrayList<String>();
+
+        setActiveGroupNames(Arrays.asList("default"));
+        getGroupInternal("default");
+    }
+
+
+    @Override
+    public int getNumVertices()
+    {
+        return vertices.size();
+    }
+
+    @Override
+    public FloatTuple getVertex(int index)
+    {
+        return vertices.get(index);
+    }
+
+    @Override
+    public int getNumTexCoords()
+    {
+        return texCoords.size();
+    }
+
+    @Override
+    public FloatTuple getTexCoord(int index)
+    {
+        return texCoords.get(index);
+    }
+
+    @Override
+    public int getNumNormals()
+    {
+        return normals.size();
+    }
+
+    @Override
+    public FloatTuple getNormal(int index)
+    {
+        return normals.get(index);
+    }
+
+
+    @Override
+    public int getNumFaces()
+    {
+        return numFaces;
+    }
+
+    @Override
+    public ObjFace getFace(int index)
+    {
+        if (index < 0 || index >= numFaces)
+        {
+            throw new IndexOutOfBoundsException(
+                "Index: " + index + ", Size: " + numFaces);
+        }
+        return new CompactObjFace(index);
+    }
+
+    @Override
+    public Set<String> getActivatedGroupNames(ObjFace face)
+    {
+        int index = indexOf(face);
+        if (index < 0)
+        {
+            return null;
+        }
+        int n = Arrays.binarySearch(
+            startedGroupFaces, 0, startedGroupNames.size(), index);
+        if (n < 0)
+        {
+            return null;
+        }
+        return startedGroupNames.get(n);
+    }
+
+    @Override
+    public String getActivatedMaterialGroupName(ObjFace face)
+    {
+        int index = indexOf(face);
+        if (index < 0)
+        {
+            return null;
+        }
+        int n = Arrays.binarySearch(startedMaterialGroupFaces, 0,
+            startedMaterialGroupNames.size(), index);
+        if (n < 0)
+        {
+            return null;
+        }
+        return startedMaterialGroupNames.get(n);
+    }
+
+    @Override
+    public int getNumGroups()
+    {
+        return groups.size();
+    }
+
+    @Override
+    public ObjGroup getGroup(int index)
+    {
+        return groups.get(index);
+    }
+
+    @Override
+    public ObjGroup getGroup(String name)
+    {
+        return groupMap.get(name);
+    }
+
+    @Override
+    public int getNumMaterialGroups()
+    {
+        return materialGroups.size();
+    }
+
+    @Override
+    public ObjGroup getMaterialGroup(int index)
+    {
+        return materialGroups.get(index);
+    }
+
+    @Override
+    public ObjGroup getMaterialGroup(String name)
+    {
+        return materialGroupMap.get(name);
+    }
+
+
+    @Override
+    public List<String> getMtlFileNames()
+    {
+        return mtlFileNames;
+    }
+
+
+
+
+    @Override
+    public void addVertex(FloatTuple vertex)
+    {
+        Objects.requireNonNull(vertex, "The vertex is null");
+        vertices.add(vertex);
+    }
+
+    @Override
+    public void addVertex(float x, float y, float z)
+    {
+        vertices.add(x, y, z);
+    }
+
+    @Override
+    public void addTexCoord(FloatTuple texCoord)
+    {
+        Objects.requireNonNull(texCoord, "The texCoord is null");
+        texCoords.add(texCoord);
+    }
+
+    @Override
+    public void addTexCoord(float x)
+    {
+        texCoords.add(new DefaultFloatTuple(x));
+    }
+
+    @Override
+    public void addTexCoord(float x, float y)
+    {
+        texCoords.add(x, y);
+    }
+
+    @Override
+    public void addTexCoord(float x, float y, float z)
+    {
+        texCoords.add(x, y, z);
+    }
+
+
+    @Override
+    public void addNormal(FloatTuple normal)
+    {
+        Objects.requireNonNull(normal, "The normal is null");
+        normals.add(normal);
+    }
+
+    @Override
+    public void addNormal(float x, float y, float z)
+    {
+        normals.add(x, y, z);
+    }
+
+    @Override
+    public void setActiveGroupNames(Collection<? extends String> groupNames)
+    {
+        if (groupNames == null)
+        {
+            return;
+        }
+        if (groupNames.size() == 0)
+        {
+            groupNames = Arrays.asList("default");
+        }
+        else if (groupNames.contains(null))
+        {
+            throw new NullPointerException("The groupNames contains null");
+        }
+        nextActiveGroupNames =
+            Collections.unmodifiableSet(new LinkedHashSet<String>(groupNames));
+    }
+
+
+    @Override
+    public void setActiveMaterialGroupName(String materialGroupName)
+    {
+        if (materialGroupName == null)
+        {
+            return;
+        }
+        nextActiveMaterialGroupName = materialGroupName;
+    }
+
+    @Override
+    public void addFace(ObjFace face)
+    {
+        if (face == null)
+        {
+            throw new NullPointerException("The face is null");
+        }
+        int index = numFaces;
+        if (nextActiveGroupNames != null)
+        {
+            activeGroups = getGroupsInternal(nextActiveGroupNames);
+            if (!nextActiveGroupNames.equals(activeGroupNames))
+            {
+                int n = startedGroupNames.size();
+                startedGroupFaces = ensureCapacity(startedGroupFaces, n + 1);
+                startedGroupFaces[n] = index;
+                startedGroupNames.add(nextActiveGroupNames);
+            }
+            activeGroupNames = nextActiveGroupNames;
+            nextActiveGroupNames = null;
+        }
+        if (nextActiveMaterialGroupName != null)
+        {
+            activeMaterialGroup =
+                getMaterialGroupInternal(nextActiveMaterialGroupName);
+            if (!nextActiveMaterialGroupName.equals(activeMaterialGroupName))
+            {
+                int n = startedMaterialGroupNames.size();
+                startedMaterialGroupFaces =
+                    ensureCapacity(startedMaterialGroupFaces, n + 1);
+                startedMaterialGroupFaces[n] = index;
+                startedMaterialGroupNames.add(nextActiveMaterialGroupName);
+            }
+            activeMaterialGroupName = nextActiveMaterialGroupName;
+            nextActiveMaterialGroupName = null;
+        }
+        addFaceIndices(face);
+        if (activeMaterialGroup != null)
+        {
+            activeMaterialGroup.addFace(index);
+        }
+        for (CompactObjGroup group : activeGroups)
+        {
+            group.addFace(index);
+        }
+    }
+
+    /**
+     * Append the indices of the given face to the index arrays
+     *
+     * @param face The face
+     */
+    private void addFaceIndices(ObjFace face)
+    {
+        int n = face.getNumVertices();
+        int offset = faceOffsets[numFaces];
+        int end = offset + n;
+        faceOffsets = ensureCapacity(faceOffsets, numFaces + 2);
+        faceFlags = ensureCapacity(faceFlags, numFaces + 1);
+        vertexIndices = ensureCapacity(vertexIndices, end);
+        byte flags = 0;
+        for (int i = 0; i < n; i++)
+        {
+            vertexIndices[offset + i] = face.getVertexIndex(i);
+        }
+        if (face.containsTexCoordIndices())
+        {
+            if (texCoordIndices == null)
+            {
+                texCoordIndices = new int[vertexIndices.length];
+            }
+            texCoordIndices = ensureCapacity(texCoordIndices, end);
+            for (int i = 0; i < n; i++)
+            {
+                texCoordIndices[offset + i] = face.getTexCoordIndex(i);
+            }
+            flags |= FLAG_TEX_COORDS;
+        }
+        if (face.containsNormalIndices())
+        {
+            if (normalIndices == null)
+            {
+                normalIndices = new int[vertexIndices.length];
+            }
+            normalIndices = ensureCapacity(normalIndices, end);
+            for (int i = 0; i < n; i++)
+            {
+                normalIndices[offset + i] = face.getNormalIndex(i);
+            }
+            flags |= FLAG_NORMALS;
+        }
+        faceFlags[numFaces] = flags;
+        faceOffsets[numFaces + 1] = end;
+        numFaces++;
+    }
+
+
+    @Override
+    public void addFace(int ... v)
+    {
+        addFace(v, null, null);
+    }
+
+    @Override
+    public void addFaceWithTexCoords(int... v)
+    {
+        addFace(v, v, null);
+    }
+
+    @Override
+    public void addFaceWithNormals(int... v)
+    {
+        addFace(v, null, v);
+    }
+
+    @Override
+    public void addFaceWithAll(int... v)
+    {
+        addFace(v, v, v);
+    }
+
+    @Override
+    public void addFace(int[] v, int[] vt, int[] vn)
+    {
+        Objects.requireNonNull(v, "The vertex indices are null");
+        checkIndices(v, getNumVertices(), "Vertex");
+        checkIndices(vt, getNumTexCoords(), "TexCoord");
+        checkIndices(vn, getNumNormals(), "Normal");
+        addFace(new DefaultObjFace(v, vt, vn));
+    }
+
+
+    @Override
+    public void setMtlFileNames(Collection<? extends String> mtlFileNames)
+    {
+        this.mtlFileNames = Collections.unmodifiableList(
+            new ArrayList<String>(mtlFileNames));
+    }
+
+    /**
+     * Reduces the length of all arrays to the number of elements that
+     * they contain. This releases the spare capacity that the arrays
+     * have after growing, and should be called after all elements have
+     * been added. Elements may still be added afterwards.
+     */
+    void trimToSize()
+    {
+        vertices.trimToSize();
+        texCoords.trimToSize();
+        normals.trimToSize();
+        int numIndices = faceOffsets[numFaces];
+        faceOffsets = trimToSize(faceOffsets, numFaces + 1);
+        faceFlags = trimToSize(faceFlags, numFaces);
+        vertexIndices = trimToSize(vertexIndices, numIndices);
+        if (texCoordIndices != null)
+        {
+            texCoordIndices = trimToSize(texCoordIndices, numIndices);
+        }
+        if (normalIndices != null)
+        {
+            normalIndices = trimToSize(normalIndices, numIndices);
+        }
+        startedGroupFaces = trimToSize(
+            startedGroupFaces, startedGroupNames.size());
+        startedMaterialGroupFaces = trimToSize(
+            startedMaterialGroupFaces, startedMaterialGroupNames.size());
+        for (CompactObjGroup group : groups)
+        {
+            group.trimToSize();
+        }
+        for (CompactObjGroup materialGroup : materialGroups)
+        {
+            materialGroup.trimToSize();
+        }
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "Obj[" +
+            "#vertices="+ vertices.size() + "," +
+            "#texCoords=" + texCoords.size() + "," +
+            "#normals=" + normals.size() + "," +
+            "#faces=" + numFaces + "," +
+            "#groups=" + groups.size() + "," +
+            "#materialGroups=" + materialGroups.size() + "," +
+            "mtlFileNames=" + mtlFileNames + "]";
+    }
+
+    /**
+     * Returns the index of the given face in this Obj, or -1 if the given
+     * face was not obtained from this Obj
+     *
+     * @param face The face
+     * @return The index
+     */
+    private int indexOf(ObjFace face)
+    {
+        if (face instanceof CompactObjFace)
+        {
+            CompactObjFace compactObjFace = (CompactObjFace) face;
+            if (compactObjFace.getObj() == this)
+            {
+                return compactObjFace.index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a set containing all groups with the given names. If the
+     * groups with the given names do not exist, they are created and
+     * added to this Obj.
+     *
+     * @param groupNames The group names
+     * @return The groups
+     */
+    private List<CompactObjGroup> getGroupsInternal(
+        Collection<? extends String> groupNames)
+    {
+        List<CompactObjGroup> groups =
+            new ArrayList<CompactObjGroup>(groupNames.size());
+        for (String groupName : groupNames)
+        {
+            CompactObjGroup group = getGroupInternal(groupName);
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    /**
+     * Returns the group with the given names. If the group with the given
+     * name does not exist, it is created and added to this Obj.
+     *
+     * @param groupName The group name
+     * @return The group
+     */
+    private CompactObjGroup getGroupInternal(String groupName)
+    {
+        CompactObjGroup group = groupMap.get(groupName);
+        if (group == null)
+        {
+            group = new CompactObjGroup(groupName);
+            groupMap.put(groupName, group);
+            groups.add(group);
+        }
+        return group;
+    }
+
+    /**
+     * Returns the material group with the given names. If the material group
+     * with the given name does not exist, it is created and added to this Obj.
+     *
+     * @param materialGroupName The material group name
+     * @return The material group
+     */
+    private CompactObjGroup getMaterialGroupInternal(String materialGroupName)
+    {
+        CompactObjGroup group = materialGroupMap.get(materialGroupName);
+        if (group == null)
+        {
+            group = new CompactObjGroup(materialGroupName);
+            materialGroupMap.put(materialGroupName, group);
+            materialGroups.add(group);
+        }
+        return group;
+    }
+
+    /**
+     * If the given indices are <code>null</code>, then this method will
+     * do nothing. Otherwise, it will check whether the given indices
+     * are valid, and throw an IllegalArgumentException if not. They
+     * are valid when they are all not negative, and all smaller than
+     * the given maximum.
+     *
+     * @param indices The indices
+     * @param max The maximum index, exclusive
+     * @param name The name of the index set
+     * @throws IllegalArgumentException If the given indices are not valid
+     */
+    private static void checkIndices(int indices[], int max, String name)
+    {
+        if (indices == null)
+        {
+            return;
+        }
+        for (int i=0; i<indices.length; i++)
+        {
+            if (indices[i] < 0)
+            {
+                throw new IllegalArgumentException(
+                    name+" index is negative: "+indices[i]);
+            }
+            if (indices[i] >= max)
+            {
+                throw new IllegalArgumentException(
+                    name+" index is "+indices[i]+
+                    ", but must be smaller than "+max);
+            }
+        }
+    }
+
+    /**
+     * Returns an array that contains the given array, and has at least the
+     * given length. If the given array is not long enough, a copy with
+     * 1.5 times the required length is returned.
+     *
+     * @param array The array
+     * @param length The minimum length
+     * @return The array
+     */
+    private static int[] ensureCapacity(int array[], int length)
+    {
+        if (array.length >= length)
+        {
+            return array;
+        }
+        return Arrays.copyOf(array, Math.max(length, length + (length >> 1)));
+    }
+
+    /**
+     * Returns an array that contains the given array, and has at least the
+     * given length. If the given array is not long enough, a copy with
+     * 1.5 times the required length is returned.
+     *
+     * @param array The array
+     * @param length The minimum length
+     * @return The array
+     */
+    private static byte[] ensureCapacity(byte array[], int length)
+    {
+        if (array.length >= length)
+        {
+            return array;
+        }
+        return Arrays.copyOf(array, Math.max(length, length + (length >> 1)));
+    }
+
+    /**
+     * Returns an array that contains the given array, and has at least the
+     * given length. If the given array is not long enough, a copy with
+     * 1.5 times the required length is returned.
+     *
+     * @param array The array
+     * @param length The minimum length
+     * @return The array
+     */
+    private static float[] ensureCapacity(float array[], int length)
+    {
+        if (array.length >= length)
+        {
+            return array;
+        }
+        return Arrays.copyOf(array, Math.max(length, length + (length >> 1)));
+    }
+
+    /**
+     * Returns an array that contains the first elements of the given
+     * array, and has the given length. If the given array is longer,
+     * a copy is returned.
+     *
+     * @param array The array
+     * @param length The length
+     * @return The array
+     */
+    private static int[] trimToSize(int array[], int length)
+    {
+        if (array.length == length)
+        {
+            return array;
+        }
+        return Arrays.copyOf(array, length);
+    }
+
+    /**
+     * Returns an array that contains the first elements of the given
+     * array, and has the given length. If the given array is longer,
+     * a copy is returned.
+     *
+     * @param array The array
+     * @param length The length
+     * @return The array
+     */
+    private static byte[] trimToSize(byte array[], int length)
+    {
+        if (array.length == length)
+        {
+            return array;
+        }
+        return Arrays.copyOf(array, length);
+    }
+
+    /**
+     * Returns an array that contains the first elements of the given
+     * array, and has the given length. If the given array is longer,
+     * a copy is returned.
+     *
+     * @param array The array
+     * @param length The length
+     * @return The array
+     */
+    private static float[] trimToSize(float array[], int length)
+    {
+        if (array.length == length)
+        {
+            return array;
+        }
+        return Arrays.copyOf(array, length);
+    }
+
+    /**
+     * A view on one face of this Obj
+     */
+    private final class CompactObjFace implements ObjFace
+    {
+        /**
+         * The index of the face
+         */
+        private final int index;
+
+        /**
+         * Creates a new view on the face with the given index
+         *
+         * @param index The index
+         */
+        CompactObjFace(int index)
+        {
+            this.index = index;
+        }
+
+        /**
+         * Returns the Obj that this face belongs to
+         *
+         * @return The Obj
+         */
+        CompactObj getObj()
+        {
+            return CompactObj.this;
+        }
+
+        @Override
+        public int getNumVertices()
+        {
+            return faceOffsets[index + 1] - faceOffsets[index];
+        }
+
+        @Override
+        public boolean containsTexCoordIndices()
+        {
+            return (faceFlags[index] & FLAG_TEX_COORDS) != 0;
+        }
+
+        @Override
+        public boolean containsNormalIndices()
+        {
+            return (faceFlags[index] & FLAG_NORMALS) != 0;
+        }
+
+        @Override
+        public int getVertexIndex(int number)
+        {
+            return vertexIndices[faceOffsets[index] + number];
+        }
+
+        @Override
+        public int getTexCoordIndex(int number)
+        {
+            return texCoordIndices[faceOffsets[index] + number];
+        }
+
+        @Override
+        public int getNormalIndex(int number)
+        {
+            return normalIndices[faceOffsets[index] + number];
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return index;
+        }
+
+        @Override
+        public boolean equals(Object object)
+        {
+            // Views on the same face of the same Obj are equal, so that
+            // they may be used as keys in maps
+            if (this == object)
+            {
+                return true;
+            }
+            if (!(object instanceof CompactObjFace))
+            {
+                return false;
+            }
+            CompactObjFace other = (CompactObjFace) object;
+            return index == other.index && getObj() == other.getObj();
+        }
+
+        @Override
+        public String toString()
+        {
+            return ObjFaces.createString(this);
+        }
+    }
+
+    /**
+     * A group of this Obj, which stores the indices of its faces. Since
+     * the faces of a group are usually contiguous, they are stored as
+     * runs of consecutive face indices.
+     */
+    private final class CompactObjGroup implements ObjGroup
+    {
+        /**
+         * The name of this group.
+         */
+        private final String name;
+
+        /**
+         * The index of the first face of each run
+         */
+        private int runStarts[] = new int[INITIAL_CAPACITY];
+
+        /**
+         * The number of faces in this group that precede each run
+         */
+        private int runOffsets[] = new int[INITIAL_CAPACITY];
+
+        /**
+         * The number of runs
+         */
+        private int numRuns = 0;
+
+        /**
+         * The number of faces in this group
+         */
+        private int size = 0;
+
+        /**
+         * Creates a new group with the given name
+         *
+         * @param name The name of this group
+         */
+        CompactObjGroup(String name)
+        {
+            this.name = name;
+        }
+
+        @Override
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Add the face with the given index to this group
+         *
+         * @param index The index of the face to add
+         */
+        void addFace(int index)
+        {
+            boolean continuesRun = numRuns > 0 &&
+                runStarts[numRuns - 1] + size - runOffsets[numRuns - 1] ==
+                index;
+            if (!continuesRun)
+            {
+                runStarts = ensureCapacity(runStarts, numRuns + 1);
+                runOffsets = ensureCapacity(runOffsets, numRuns + 1);
+                runStarts[numRuns] = index;
+                runOffsets[numRuns] = size;
+                numRuns++;
+            }
+            size++;
+        }
+
+        /**
+         * Reduces the length of the arrays to the number of runs
+         */
+        void trimToSize()
+        {
+            runStarts = CompactObj.trimToSize(runStarts, numRuns);
+            runOffsets = CompactObj.trimToSize(runOffsets, numRuns);
+        }
+
+        @Override
+        public int getNumFaces()
+        {
+            return size;
+        }
+
+        @Override
+        public ObjFace getFace(int index)
+        {
+            if (index < 0 || index >= size)
+            {
+                throw new IndexOutOfBoundsException(
+                    "Index: " + index + ", Size: " + size);
+            }
+            int run = Arrays.binarySearch(runOffsets, 0, numRuns, index);
+            if (run < 0)
+            {
+                run = -run - 2;
+            }
+            return new CompactObjFace(
+                runStarts[run] + index - runOffsets[run]);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "ObjGroup[name=" + name + ",#faces=" + size + "]";
+        }
+    }
+
+    /**
+     * A list of float tuples that are stored in a single array. All tuples
+     * are assumed to have the same number of dimensions. When a tuple with
+     * a different number of dimensions is added, then the tuples will be
+     * stored with 4 values each, and their dimensions will be stored in
+     * a separate array.
+     */
+    private static final class TupleArray
+    {
+        /**
+         * The number of values that are stored for each tuple
+         */
+        private int stride;
+
+        /**
+         * The values of the tuples
+         */
+        private float values[];
+
+        /**
+         * The dimensions of each tuple, or <code>null</code> if all tuples
+         * have a number of dimensions that is equal to the stride
+         */
+        private byte dimensions[] = null;
+
+        /**
+         * The number of tuples
+         */
+        private int size = 0;
+
+        /**
+         * Creates a new array for tuples with the given dimensions
+         *
+         * @param stride The dimensions of the tuples
+         */
+        TupleArray(int stride)
+        {
+            this.stride = stride;
+            this.values = new float[INITIAL_CAPACITY * stride];
+        }
+
+        /**
+         * Returns the number of tuples
+         *
+         * @return The number of tuples
+         */
+        int size()
+        {
+            return size;
+        }
+
+        /**
+         * Add the given tuple
+         *
+         * @param x The x-coordinate
+         * @param y The y-coordinate
+         */
+        void add(float x, float y)
+        {
+            int offset = prepareAdd(2);
+            values[offset] = x;
+            values[offset + 1] = y;
+        }
+
+        /**
+         * Add the given tuple
+         *
+         * @param x The x-coordinate
+         * @param y The y-coordinate
+         * @param z The z-coordinate
+         */
+        void add(float x, float y, float z)
+        {
+            int offset = prepareAdd(3);
+            values[offset] = x;
+            values[offset + 1] = y;
+            values[offset + 2] = z;
+        }
+
+        /**
+         * Add the given tuple
+         *
+         * @param tuple The tuple
+         */
+        void add(FloatTuple tuple)
+        {
+            int n = tuple.getDimensions();
+            int offset = prepareAdd(n);
+            for (int i = 0; i < n; i++)
+            {
+                values[offset + i] = tuple.get(i);
+            }
+        }
+
+        /**
+         * Reduces the length of the arrays to the number of tuples
+         */
+        void trimToSize()
+        {
+            values = CompactObj.trimToSize(values, size * stride);
+            if (dimensions != null)
+            {
+                dimensions = CompactObj.trimToSize(dimensions, size);
+            }
+        }
+
+        /**
+         * Prepare the addition of a tuple with the given dimensions, and
+         * return the offset of the values of the new tuple
+         *
+         * @param n The dimensions
+         * @return The offset for the values
+         */
+        private int prepareAdd(int n)
+        {
+            if (n != stride && dimensions == null)
+            {
+                convertToMixedDimensions();
+            }
+            if (dimensions != null)
+            {
+                dimensions = ensureCapacity(dimensions, size + 1);
+                dimensions[size] = (byte) n;
+            }
+            int offset = size * stride;
+            values = ensureCapacity(values, offset + stride);
+            size++;
+            return offset;
+        }
+
+        /**
+         * Convert the values so that each tuple occupies 4 values, and
+         * store the dimensions of each tuple
+         */
+        private void convertToMixedDimensions()
+        {
+            float newValues[] = new float[Math.max(size + 1,
+                INITIAL_CAPACITY) * 4];
+            dimensions = new byte[newValues.length / 4];
+            for (int i = 0; i < size; i++)
+            {
+                System.arraycopy(values, i * stride, newValues, i * 4, stride);
+                dimensions[i] = (byte) stride;
+            }
+            values = newValues;
+            stride = 4;
+        }
+
+        /**
+         * Returns a new tuple with the values of the tuple at the given
+         * index
+         *
+         * @param index The index
+         * @return The tuple
+         */
+        FloatTuple get(int index)
+        {
+            if (index < 0 || index >= size)
+            {
+                throw new IndexOutOfBoundsException(
+                    "Index: " + index + ", Size: " + size);
+            }
+            int n = dimensions == null ? stride : dimensions[index];
+            int offset = index * stride;
+            return new DefaultFloatTuple(
+                Arrays.copyOfRange(values, offset, offset + n));
+        }
+    }
+}
@@ -0,0 +1,690 @@
+package de.javagl.obj;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SAFE SOFTWARE INC.
+ * A mesh simplifier for {@link ObjRenderBuffers}, based on quadric error
+ * metrics.<br>
+ * <br>
+ * Each vertex position accumulates the quadrics of the planes of the
+ * triangles that use it. The mesh is simplified with half-edge collapses,
+ * which move one vertex onto a neighboring vertex, so that the simplified
+ * triangles only refer to vertices of the original render buffers. The
+ * cost of a collapse is the quadric error of the combined quadrics at the
+ * target position, plus a penalty for the difference between the other
+ * vertex attributes (normals and texture coordinates) of both vertices.
+ * Collapses that would flip a triangle are rejected.<br>
+ * <br>
+ * Vertices on open borders and on attribute seams (where several vertices
+ * share one position) are never moved, so that the silhouette of the
+ * mesh and the texture and normal discontinuities are preserved.<br>
+ * <br>
+ * The collapses are performed in passes: In each pass, the cheapest
+ * collapse of each vertex is determined, and the collapses are performed
+ * in the order of their cost, skipping vertices whose neighborhood has
+ * already been changed in the same pass.
+ */
+public class MeshSimplifier
+{
+    /**
+     * The default ratios of the number of triangles of each level of
+     * detail to the number of triangles of the input
+     */
+    public static final float DEFAULT_LOD_RATIOS[] = { 0.5f, 0.25f, 0.1f };
+
+    /**
+     * The weight of the difference of the non-position attributes in the
+     * cost of a collapse, relative to the size of the mesh
+     */
+    private static final float ATTRIBUTE_WEIGHT = 0.01f;
+
+    /**
+     * The minimum cosine of the angle between the normal of a triangle
+     * before and after a collapse
+     */
+    private static final float MIN_NORMAL_COSINE = 0.01f;
+
+    /**
+     * The inverse of the minimum fraction of triangles that is removed
+     * in each pass, unless the target is reached earlier
+     */
+    private static final int MIN_PASS_REDUCTION = 32;
+
+    /**
+     * The number of floats of each vertex
+     */
+    private final int stride;
+
+    /**
+     * The number of vertices
+     */
+    private final int numVertices;
+
+    /**
+     * The interleaved vertex data
+     */
+    private final float data[];
+
+    /**
+     * The index of the unique position of each vertex
+     */
+    private final int positionIds[];
+
+    /**
+     * Whether each vertex is locked, because it is on a border or a seam
+     */
+    private final boolean locked[];
+
+    /**
+     * The 10 coefficients of the quadric of each unique position
+     */
+    private final double quadrics[];
+
+    /**
+     * The scaling factor for the squared attribute differences
+     */
+    private final float attributeFactor;
+
+    /**
+     * Temporary storage for the normal of a triangle before a collapse
+     */
+    private final float oldNormal[] = new float[3];
+
+    /**
+     * Temporary storage for the normal of a triangle after a collapse
+     */
+    private final float newNormal[] = new float[3];
+
+    /**
+     * The current indices
+     */
+    private final int indices[];
+
+    /**
+     * The number of current indices
+     */
+    private int numIndices;
+
+    /**
+     * The largest error of all collapses that have been performed
+     */
+    private float error;
+
+    /**
+     * Creates a new simplifier for the given render buffers. The given
+     * buffers are not modified.
+     *
+     * @param renderBuffers The render buffers
+     */
+    public MeshSimplifier(ObjRenderBuffers renderBuffers)
+    {
+        this.stride = renderBuffers.getStride();
+        this.numVertices = renderBuffers.getNumVertices();
+        FloatBuffer vertexData = renderBuffers.getVertexData();
+        this.data = new float[numVertices * stride];
+        for (int i = 0; i < data.length; i++)
+        {
+            data[i] = vertexData.get(i);
+        }
+        IntBuffer inputIndices = renderBuffers.getIndices();
+        this.numIndices = inputIndices.capacity() / 3 * 3;
+        this.indices = new int[numIndices];
+        for (int i = 0; i < numIndices; i++)
+        {
+            indices[i] = inputIndices.get(i);
+        }
+
+        // Vertices with the same position share one quadric
+        this.positionIds = new int[numVertices];
+        VertexWelder welder = new VertexWelder(3, 0.0f, numVertices);
+        int positionUsers[] = new int[numVertices];
+        for (int v = 0; v < numVertices; v++)
+        {
+            positionIds[v] = welder.weld(data, v * stride, 0);
+        }
+        int numPositions = welder.getNumVertices();
+        boolean referenced[] = new boolean[numVertices];
+        for (int i = 0; i < numIndices; i++)
+        {
+            referenced[indices[i]] = true;
+        }
+        for (int v = 0; v < numVertices; v++)
+        {
+            if (referenced[v])
+            {
+                positionUsers[positionIds[v]]++;
+            }
+        }
+
+        this.quadrics = new double[numPositions * 10];
+        for (int t = 0; t < numIndices; t += 3)
+        {
+            addTriangleQuadric(indices[t], indices[t + 1], indices[t + 2]);
+        }
+
+        this.locked = new boolean[numVertices];
+        int offsets[] = new int[numVertices + 1];
+        int triangles[] = buildAdjacency(offsets);
+        for (int v = 0; v < numVertices; v++)
+        {
+            locked[v] = positionUsers[positionIds[v]] > 1 ||
+                isBorder(v, offsets, triangles);
+        }
+
+        float size = computeSize();
+        float weight = ATTRIBUTE_WEIGHT * size;
+        this.attributeFactor = weight * weight;
+    }
+
+    /**
+     * Creates levels of detail for the given render buffers. For each of
+     * the given ratios, the mesh is simplified until the number of
+     * triangles is at most the given ratio of the original number of
+     * triangles. Levels whose number of triangles is not at least 10
+     * percent smaller than the one of the previous level are omitted.
+     *
+     * @param renderBuffers The render buffers
+     * @param ratios The ratios, in descending order
+     * @return The levels of detail
+     */
+    public static List<ObjLodLevel> createLodLevels(
+        ObjRenderBuffers renderBuffers, float ratios[])
+    {
+        MeshSimplifier simplifier = new MeshSimplifier(renderBuffers);
+        int numTriangles = renderBuffers.getIndices().capacity() / 3;
+        int previousNumTriangles = numTriangles;
+        List<ObjLodLevel> lodLevels = new ArrayList<ObjLodLevel>();
+        for (float ratio : ratios)
+        {
+            int target = (int) (numTriangles * ratio);
+            ObjLodLevel lodLevel =
+                simplifier.simplify(target, Float.POSITIVE_INFINITY);
+            if (lodLevel.getNumTriangles() > previousNumTriangles * 0.9f)
+            {
+                break;
+            }
+            lodLevels.add(lodLevel);
+            previousNumTriangles = lodLevel.getNumTriangles();
+        }
+        return lodLevels;
+    }
+
+    /**
+     * Continue simplifying the mesh until it has at most the given number
+     * of triangles, or no further collapse is possible without exceeding
+     * the given error, and return the current result. This may be called
+     * repeatedly with decreasing targets, to create several levels of
+     * detail.
+     *
+     * @param targetNumTriangles The target number of triangles
+     * @param maxError The maximum error, in the units of the positions
+     * @return The simplified mesh
+     */
+    public ObjLodLevel simplify(int targetNumTriangles, float maxError)
+    {
+        float maxCost = maxError * maxError;
+        while (numIndices / 3 > targetNumTriangles)
+        {
+            if (!collapsePass(targetNumTriangles, maxCost))
+            {
+                break;
+            }
+        }
+        IntBuffer result = ObjData.createDirectIntBuffer(numIndices);
+        result.put(indices, 0, numIndices);
+        result.position(0);
+        return new ObjLodLevel(result, error);
+    }
+
+    /**
+     * Perform one pass of collapses
+     *
+     * @param targetNumTriangles The target number of triangles
+     * @param maxCost The maximum quadric error of a collapse
+     * @return Whether any collapse was performed
+     */
+    private boolean collapsePass(int targetNumTriangles, float maxCost)
+    {
+        int offsets[] = new int[numVertices + 1];
+        int triangles[] = buildAdjacency(offsets);
+
+        // Find the cheapest collapse for each vertex
+        int targets[] = new int[numVertices];
+        float errors[] = new float[numVertices];
+        long keys[] = new long[numVertices];
+        int numKeys = 0;
+        for (int v = 0; v < numVertices; v++)
+        {
+            if (locked[v] || offsets[v] == offsets[v + 1])
+            {
+                continue;
+            }
+            float bestCost = Float.POSITIVE_INFINITY;
+            float bestGeometricCost = 0;
+            int bestTarget = -1;
+            for (int a = offsets[v]; a < offsets[v + 1]; a++)
+            {
+                int t = triangles[a] * 3;
+                for (int c = 0; c < 3; c++)
+                {
+                    int u = indices[t + c];
+                    if (positionIds[u] == positionIds[v])
+                    {
+                        continue;
+                    }
+                    float geometricCost = computeGeometricCost(v, u);
+                    if (geometricCost > maxCost)
+                    {
+                        continue;
+                    }
+                    float cost = geometricCost + computeAttributeCost(v, u);
+                    if (cost < bestCost)
+                    {
+                        bestCost = cost;
+                        bestGeometricCost = geometricCost;
+                        bestTarget = u;
+                    }
+                }
+            }
+            if (bestTarget != -1)
+            {
+                targets[v] = bestTarget;
+                errors[v] = (float) Math.sqrt(bestGeometricCost);
+                keys[numKeys++] =
+                    ((long) Float.floatToIntBits(bestCost) << 32) | v;
+            }
+        }
+        Arrays.sort(keys, 0, numKeys);
+
+        // Perform the collapses, in the order of their cost. In order to
+        // keep the collapses evenly distributed, each pass only performs
+        // about half of the remaining reduction, unless the remaining
+        // reduction is small.
+        int numTriangles = numIndices / 3;
+        int remaining = numTriangles - targetNumTriangles;
+        int goal = Math.max((remaining + 1) / 2,
+            Math.min(remaining, numTriangles / MIN_PASS_REDUCTION));
+        int numRemoved = 0;
+        int numCollapses = 0;
+        boolean touched[] = new boolean[numVertices];
+        int remap[] = new int[numVertices];
+        for (int v = 0; v < numVertices; v++)
+        {
+            remap[v] = v;
+        }
+        for (int k = 0; k < numKeys && numRemoved < goal; k++)
+        {
+            int v = (int) keys[k];
+            int u = targets[v];
+            if (touched[v] || touched[u] || flips(v, u, offsets, triangles))
+            {
+                continue;
+            }
+            remap[v] = u;
+            int pv = positionIds[v] * 10;
+            int pu = positionIds[u] * 10;
+            for (int i = 0; i < 10; i++)
+            {
+                quadrics[pu + i] += quadrics[pv + i];
+            }
+            error = Math.max(error, errors[v]);
+            for (int a = offsets[v]; a < offsets[v + 1]; a++)
+            {
+                int t = triangles[a] * 3;
+                boolean removed = false;
+                for (int c = 0; c < 3; c++)
+                {
+                    int w = indices[t + c];
+                    touched[w] = true;
+                    removed |= positionIds[w] == positionIds[u];
+                }
+                if (removed)
+                {
+                    numRemoved++;
+                }
+            }
+            numCollapses++;
+        }
+        if (numCollapses == 0)
+        {
+            return false;
+        }
+
+        // Apply the collapses, and remove the degenerate triangles
+        int n = 0;
+        for (int t = 0; t < numIndices; t += 3)
+        {
+            int i0 = remap[indices[t + 0]];
+            int i1 = remap[indices[t + 1]];
+            int i2 = remap[indices[t + 2]];
+            int p0 = positionIds[i0];
+            int p1 = positionIds[i1];
+            int p2 = positionIds[i2];
+            if (p0 != p1 && p1 != p2 && p2 != p0)
+            {
+                indices[n++] = i0;
+                indices[n++] = i1;
+                indices[n++] = i2;
+            }
+        }
+        numIndices = n;
+        return true;
+    }
+
+    /**
+     * Returns whether collapsing the given vertex onto the given target
+     * would flip (or almost flip) any of the triangles of the vertex
+     *
+     * @param v The vertex
+     * @param u The target vertex
+     * @param offsets The offsets of the adjacent triangles of each vertex
+     * @param triangles The adjacent triangles
+     * @return Whether a triangle would be flipped
+     */
+    private boolean flips(int v, int u, int offsets[], int triangles[])
+    {
+        int pu = positionIds[u];
+        for (int a = offsets[v]; a < offsets[v + 1]; a++)
+        {
+            int t = triangles[a] * 3;
+            int i0 = indices[t + 0];
+            int i1 = indices[t + 1];
+            int i2 = indices[t + 2];
+            if (positionIds[i0] == pu || positionIds[i1] == pu ||
+                positionIds[i2] == pu)
+            {
+                // This triangle will be removed
+                continue;
+            }
+            normal(i0, i1, i2, -1, -1, oldNormal);
+            normal(i0, i1, i2, v, u, newNormal);
+            float dot = oldNormal[0] * newNormal[0] +
+                oldNormal[1] * newNormal[1] + oldNormal[2] * newNormal[2];
+            float oldLength = length(oldNormal);
+            float newLength = length(newNormal);
+            if (dot <= MIN_NORMAL_COSINE * oldLength * newLength)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the (unnormalized) normal of the given triangle, where
+     * the vertex <code>v</code> is replaced by the vertex
+     * <code>u</code>
+     *
+     * @param i0 The first vertex
+     * @param i1 The second vertex
+     * @param i2 The third vertex
+     * @param v The vertex to replace, or -1
+     * @param u The replacement
+     * @param normal The array that will store the normal
+     */
+    private void normal(int i0, int i1, int i2, int v, int u, float normal[])
+    {
+        int o0 = (i0 == v ? u : i0) * stride;
+        int o1 = (i1 == v ? u : i1) * stride;
+        int o2 = (i2 == v ? u : i2) * stride;
+        float ax = data[o1 + 0] - data[o0 + 0];
+        float ay = data[o1 + 1] - data[o0 + 1];
+        float az = data[o1 + 2] - data[o0 + 2];
+        float bx = data[o2 + 0] - data[o0 + 0];
+        float by = data[o2 + 1] - data[o0 + 1];
+        float bz = data[o2 + 2] - data[o0 + 2];
+        normal[0] = ay * bz - by * az;
+        normal[1] = az * bx - bz * ax;
+        normal[2] = ax * by - bx * ay;
+    }
+
+    /**
+     * Returns the length of the given vector
+     *
+     * @param v The vector
+     * @return The length
+     */
+    private static float length(float v[])
+    {
+        return (float) Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+    }
+
+    /**
+     * Computes the quadric error of collapsing the vertex <code>v</code>
+     * onto the vertex <code>u</code>
+     *
+     * @param v The vertex
+     * @param u The target vertex
+     * @return The quadric error
+     */
+    private float computeGeometricCost(int v, int u)
+    {
+        int qv = positionIds[v] * 10;
+        int qu = positionIds[u] * 10;
+        int o = u * stride;
+        float x = data[o + 0];
+        float y = data[o + 1];
+        float z = data[o + 2];
+        double cost = evaluateQuadric(qv, x, y, z) +
+            evaluateQuadric(qu, x, y, z);
+        return (float) Math.max(0.0, cost);
+    }
+
+    /**
+     * Computes the penalty for the difference of the non-position
+     * attributes of the given vertices
+     *
+     * @param v The vertex
+     * @param u The target vertex
+     * @return The penalty
+     */
+    private float computeAttributeCost(int v, int u)
+    {
+        float attributeDistance = 0;
+        int ov = v * stride;
+        int ou = u * stride;
+        for (int i = 3; i < stride; i++)
+        {
+            float d = data[ov + i] - data[ou + i];
+            attributeDistance += d * d;
+        }
+        return attributeFactor * attributeDistance;
+    }
+
+    /**
+     * Evaluate the quadric that starts at the given index at the given
+     * point
+     *
+     * @param q The index of the first coefficient of the quadric
+     * @param x The x-coordinate
+     * @param y The y-coordinate
+     * @param z The z-coordinate
+     * @return The value of the quadric
+     */
+    private double evaluateQuadric(int q, double x, double y, double z)
+    {
+        return
+            quadrics[q + 0] * x * x +
+            2 * quadrics[q + 1] * x * y +
+            2 * quadrics[q + 2] * x * z +
+            2 * quadrics[q + 3] * x +
+            quadrics[q + 4] * y * y +
+            2 * quadrics[q + 5] * y * z +
+            2 * quadrics[q + 6] * y +
+            quadrics[q + 7] * z * z +
+            2 * quadrics[q + 8] * z +
+            quadrics[q + 9];
+    }
+
+    /**
+     * Add the quadric of the plane of the given triangle to the quadrics
+     * of its vertices
+     *
+     * @param i0 The first vertex
+     * @param i1 The second vertex
+     * @param i2 The third vertex
+     */
+    private void addTriangleQuadric(int i0, int i1, int i2)
+    {
+        float n[] = oldNormal;
+        normal(i0, i1, i2, -1, -1, n);
+        double length = length(n);
+        if (length == 0)
+        {
+            return;
+        }
+        double a = n[0] / length;
+        double b = n[1] / length;
+        double c = n[2] / length;
+        int o = i0 * stride;
+        double d = -(a * data[o + 0] + b * data[o + 1] + c * data[o + 2]);
+        for (int i : new int[] { i0, i1, i2 })
+        {
+            int q = positionIds[i] * 10;
+            quadrics[q + 0] += a * a;
+            quadrics[q + 1] += a * b;
+            quadrics[q + 2] += a * c;
+            quadrics[q + 3] += a * d;
+            quadrics[q + 4] += b * b;
+            quadrics[q + 5] += b * c;
+            quadrics[q + 6] += b * d;
+            quadrics[q + 7] += c * c;
+            quadrics[q + 8] += c * d;
+            quadrics[q + 9] += d * d;
+        }
+    }
+
+    /**
+     * Build the adjacency information of the current triangles: The
+     * triangles that use vertex <code>v</code> are stored in the returned
+     * array, from <code>offsets[v]</code> (inclusive) to
+     * <code>offsets[v+1]</code> (exclusive).
+     *
+     * @param offsets The offsets, with a length of numVertices+1
+     * @return The triangles
+     */
+    private int[] buildAdjacency(int offsets[])
+    {
+        for (int i = 0; i < numIndices; i++)
+        {
+            offsets[indices[i] + 1]++;
+        }
+        for (int v = 0; v < numVertices; v++)
+        {
+            offsets[v + 1] += offsets[v];
+        }
+        int triangles[] = new int[numIndices];
+        int fillOffsets[] = Arrays.copyOf(offsets, numVertices);
+        for (int i = 0; i < numIndices; i++)
+        {
+            triangles[fillOffsets[indices[i]]++] = i / 3;
+        }
+        return triangles;
+    }
+
+    /**
+     * Returns whether the given vertex is on an open border of the mesh,
+     * meaning that one of its edges is only used by one triangle
+     *
+     * @param v The vertex
+     * @param offsets The offsets of the adjacent triangles of each vertex
+     * @param triangles The adjacent triangles
+     * @return Whether the vertex is on a border
+     */
+    private boolean isBorder(int v, int offsets[], int triangles[])
+    {
+        // Each edge from v to the next vertex of a triangle must be
+        // matched by an edge from the same position to v in another
+        // triangle
+        for (int a = offsets[v]; a < offsets[v + 1]; a++)
+        {
+            int t = triangles[a] * 3;
+            int c = cornerOf(t, v);
+            int next = positionIds[indices[t + (c + 1) % 3]];
+            int previous = positionIds[indices[t + (c + 2) % 3]];
+            if (!hasCorner(v, next, true, offsets, triangles) ||
+                !hasCorner(v, previous, false, offsets, triangles))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether one of the triangles of the given vertex has the
+     * given position before (or after) the vertex
+     *
+     * @param v The vertex
+     * @param position The position index
+     * @param before Whether the position should be before the vertex
+     * @param offsets The offsets of the adjacent triangles of each vertex
+     * @param triangles The adjacent triangles
+     * @return Whether such a triangle exists
+     */
+    private boolean hasCorner(int v, int position, boolean before,
+        int offsets[], int triangles[])
+    {
+        for (int a = offsets[v]; a < offsets[v + 1]; a++)
+        {
+            int t = triangles[a] * 3;
+            int c = cornerOf(t, v);
+            int other = indices[t + (c + (before ? 2 : 1)) % 3];
+            if (positionIds[other] == position)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the corner of the triangle that starts at the given index
+     * that is the given vertex
+     *
+     * @param t The index of the first corner
+     * @param v The vertex
+     * @return The corner
+     */
+    private int cornerOf(int t, int v)
+    {
+        if (indices[t] == v)
+        {
+            return 0;
+        }
+        return indices[t + 1] == v ? 1 : 2;
+    }
+
+    /**
+     * Computes the length of the diagonal of the bounding box of the
+     * vertex positions
+     *
+     * @return The size
+     */
+    private float computeSize()
+    {
+        float min[] = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+        float max[] = { -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+        for (int v = 0; v < numVertices; v++)
+        {
+            for (int j = 0; j < 3; j++)
+            {
+                min[j] = Math.min(min[j], data[v * stride + j]);
+                max[j] = Math.max(max[j], data[v * stride + j]);
+            }
+        }
+        float dx = max[0] - min[0];
+        float dy = max[1] - min[1];
+        float dz = max[2] - min[2];
+        if (numVertices == 0)
+        {
+            return 0;
+        }
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+}
@@ -0,0 +1,1040 @@
+package de.javagl.obj;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.StringTokenizer;
+
+/**
+ * SAFE SOFTWARE INC.
+ * A class for reading OBJ data directly from raw bytes. <br>
+ * <br>
+ * In contrast to the line-based parsing in {@link ObjReader}, this class
+ * does not create a <code>String</code> for each line. The vertex, texture
+ * coordinate, normal and face lines are scanned directly in a reusable
+ * byte buffer, and numbers are parsed with a hand-written parser. Lines
+ * that are rare or unusual (for example, <code>usemtl</code> or
+ * <code>g</code> lines, broken lines, or numbers in an unusual format)
+ * are passed to {@link ObjReader#processLine}, so that the result is
+ * always identical to the result of {@link ObjReader#read(InputStream)}.
+ * <br>
+ * The input is assumed to be US-ASCII encoded.
+ */
+final class ObjByteParser
+{
+    /**
+     * The initial size of the byte buffer. The buffer will grow when a
+     * single line does not fit into it.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The maximum number of significant decimal digits that are parsed
+     * into a <code>long</code> mantissa. Mantissas with up to 15 digits
+     * are exactly representable as a <code>double</code>.
+     */
+    private static final int MAX_MANTISSA_DIGITS = 15;
+
+    /**
+     * The powers of ten that are exactly representable as a
+     * <code>double</code>
+     */
+    private static final double POWERS_OF_TEN[] =
+    {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+        1e21, 1e22
+    };
+
+    /**
+     * The stream to read from, or <code>null</code> if the data is read
+     * from the {@link #byteBuffer}
+     */
+    private final InputStream inputStream;
+
+    /**
+     * The byte buffer to read from, or <code>null</code> if the data is
+     * read from the {@link #inputStream}
+     */
+    private final ByteBuffer byteBuffer;
+
+    /**
+     * The buffer that contains the bytes that are currently processed
+     */
+    private byte buffer[] = new byte[INITIAL_BUFFER_SIZE];
+
+    /**
+     * The position of the first byte in the {@link #buffer} that was not
+     * processed yet
+     */
+    private int position = 0;
+
+    /**
+     * The number of valid bytes in the {@link #buffer}
+     */
+    private int limit = 0;
+
+    /**
+     * Whether the end of the input was reached
+     */
+    private boolean endOfInput = false;
+
+    /**
+     * The start of the current line in the {@link #buffer}, inclusive
+     */
+    private int lineStart;
+
+    /**
+     * The end of the current line in the {@link #buffer}, exclusive
+     */
+    private int lineEnd;
+
+    /**
+     * The parser for face lines that have to be processed based on
+     * a <code>String</code>
+     */
+    private final ObjFaceParser objFaceParser = new ObjFaceParser();
+
+    /**
+     * The number of vertices, texture coordinates and normals that
+     * have been read so far
+     */
+    private final int counts[] = new int[3];
+
+    /**
+     * Temporary storage for the components of a float tuple
+     */
+    private final float tuple[] = new float[4];
+
+    /**
+     * Buffer for vertex indices of a face
+     */
+    private int vertexIndexBuffer[] = new int[8];
+
+    /**
+     * Buffer for texture coordinate indices of a face
+     */
+    private int texCoordIndexBuffer[] = new int[8];
+
+    /**
+     * Buffer for normal indices of a face
+     */
+    private int normalIndexBuffer[] = new int[8];
+
+    /**
+     * The result of the last call to {@link #parseFloat}
+     */
+    private float parsedFloat;
+
+    /**
+     * The result of the last call to {@link #parseIndex}
+     */
+    private int parsedIndex;
+
+    /**
+     * Creates a new parser that reads from the given stream. The caller
+     * is responsible for closing the given stream.
+     *
+     * @param inputStream The input stream
+     */
+    ObjByteParser(InputStream inputStream)
+    {
+        this.inputStream = inputStream;
+        this.byteBuffer = null;
+    }
+
+    /**
+     * Creates a new parser that reads the bytes between the position and
+     * the limit of the given buffer. The position of the given buffer
+     * will not be affected.
+     *
+     * @param byteBuffer The byte buffer
+     */
+    ObjByteParser(ByteBuffer byteBuffer)
+    {
+        this.inputStream = null;
+        this.byteBuffer = byteBuffer.duplicate();
+    }
+
+    /**
+     * Creates a new parser that reads the bytes between the position and
+     * the limit of the given buffer, assuming that the given number of
+     * vertices, texture coordinates and normals have already been read
+     * before. This is used for parsing a part of an OBJ file, so that
+     * relative (negative) indices are resolved properly. The position of
+     * the given buffer will not be affected.
+     *
+     * @param byteBuffer The byte buffer
+     * @param initialCounts The number of vertices, texture coordinates
+     * and normals that precede the given data
+     */
+    ObjByteParser(ByteBuffer byteBuffer, int initialCounts[])
+    {
+        this(byteBuffer);
+        System.arraycopy(initialCounts, 0, counts, 0, counts.length);
+    }
+
+    /**
+     * Read the OBJ data and store the read elements in the given
+     * {@link WritableObj}.
+     *
+     * @param <T> The output type
+     * @param output The {@link WritableObj} to store the read data
+     * @return The output
+     * @throws IOException If an IO error occurs or the data can not be
+     * parsed
+     */
+    <T extends WritableObj> T read(T output) throws IOException
+    {
+        output.setActiveMaterialGroupName(
+            ObjReader.DEFAULT_MATERIAL_GROUP_NAME);
+        return parse(output);
+    }
+
+    /**
+     * Read the OBJ data and store the read elements in the given
+     * {@link WritableObj}. In contrast to {@link #read(WritableObj)},
+     * this will not activate the default material group at the beginning.
+     *
+     * @param <T> The output type
+     * @param output The {@link WritableObj} to store the read data
+     * @return The output
+     * @throws IOException If an IO error occurs or the data can not be
+     * parsed
+     */
+    <T extends WritableObj> T parse(T output) throws IOException
+    {
+        while (nextTrimmedLine())
+        {
+            int start = lineStart;
+            int end = lineEnd;
+
+            // Lines that have been broken are combined and processed
+            // like in the ObjReader
+            if (buffer[end - 1] == '\\')
+            {
+                String line = combineBrokenLine(start, end);
+                if (line == null)
+                {
+                    break;
+                }
+                ObjReader.processLine(line, objFaceParser, counts, output);
+                continue;
+            }
+
+            int identifierEnd = start;
+            while (identifierEnd < end && !isDelimiter(buffer[identifierEnd]))
+            {
+                identifierEnd++;
+            }
+            int identifierLength = identifierEnd - start;
+            byte c0 = toLowerCase(buffer[start]);
+            if (identifierLength == 1 && c0 == 'v')
+            {
+                int n = parseFloatTuple(identifierEnd, end);
+                if (n == 3)
+                {
+                    output.addVertex(tuple[0], tuple[1], tuple[2]);
+                }
+                else if (n > 0)
+                {
+                    output.addVertex(createFloatTuple(n));
+                }
+                else
+                {
+                    processLine(start, end, output);
+                    continue;
+                }
+                counts[0]++;
+            }
+            else if (identifierLength == 2 && c0 == 'v' &&
+                toLowerCase(buffer[start + 1]) == 't')
+            {
+                int n = parseFloatTuple(identifierEnd, end);
+                if (n == 2)
+                {
+                    output.addTexCoord(tuple[0], tuple[1]);
+                }
+                else if (n == 3)
+                {
+                    output.addTexCoord(tuple[0], tuple[1], tuple[2]);
+                }
+                else if (n > 0)
+                {
+                    output.addTexCoord(createFloatTuple(n));
+                }
+                else
+                {
+                    processLine(start, end, output);
+                    continue;
+                }
+                counts[1]++;
+            }
+            else if (identifierLength == 2 && c0 == 'v' &&
+                toLowerCase(buffer[start + 1]) == 'n')
+            {
+                int n = parseFloatTuple(identifierEnd, end);
+                if (n == 3)
+                {
+                    output.addNormal(tuple[0], tuple[1], tuple[2]);
+                }
+                else if (n > 0)
+                {
+                    output.addNormal(createFloatTuple(n));
+                }
+                else
+                {
+                    processLine(start, end, output);
+                    continue;
+                }
+                counts[2]++;
+            }
+            else if (identifierLength == 1 && c0 == 'f')
+            {
+                if (!parseFace(identifierEnd, end, output))
+                {
+                    processLine(start, end, output);
+                }
+            }
+            else if ((identifierLength == 1 && c0 == 'g') ||
+                (identifierLength == 6 && (
+                    matches(start, "mtllib") || matches(start, "usemtl"))))
+            {
+                processLine(start, end, output);
+            }
+
+            // All other lines (comments, smoothing groups, object names...)
+            // are ignored, as in the ObjReader
+        }
+        return output;
+    }
+
+    /**
+     * Process the specified range of the buffer as a <code>String</code>
+     * line, with {@link ObjReader#processLine}
+     *
+     * @param start The start of the line, inclusive
+     * @param end The end of the line, exclusive
+     * @param output The output
+     * @throws IOException If the line can not be parsed
+     */
+    private void processLine(int start, int end, WritableObj output)
+        throws IOException
+    {
+        ObjReader.processLine(
+            createString(start, end), objFaceParser, counts, output);
+    }
+
+    /**
+     * Count the number of vertices, texture coordinates and normals in
+     * the input, without parsing them. The result is the same as the
+     * number of elements that would be added by {@link #parse}, provided
+     * that the input is valid.
+     *
+     * @return The number of vertices, texture coordinates and normals
+     * @throws IOException If an IO error occurs
+     */
+    int[] count() throws IOException
+    {
+        int result[] = new int[3];
+        while (nextTrimmedLine())
+        {
+            if (buffer[lineEnd - 1] == '\\')
+            {
+                String line = combineBrokenLine(lineStart, lineEnd);
+                if (line == null)
+                {
+                    break;
+                }
+                StringTokenizer st = new StringTokenizer(line);
+                if (!st.hasMoreTokens())
+                {
+                    continue;
+                }
+                String identifier = st.nextToken().toLowerCase();
+                if (identifier.equals("v"))
+                {
+                    result[0]++;
+                }
+                else if (identifier.equals("vt"))
+                {
+                    result[1]++;
+                }
+                else if (identifier.equals("vn"))
+                {
+                    result[2]++;
+                }
+                continue;
+            }
+            if (toLowerCase(buffer[lineStart]) != 'v')
+            {
+                continue;
+            }
+            int identifierEnd = lineStart + 1;
+            while (identifierEnd < lineEnd &&
+                !isDelimiter(buffer[identifierEnd]))
+            {
+                identifierEnd++;
+            }
+            int identifierLength = identifierEnd - lineStart;
+            if (identifierLength == 1)
+            {
+                result[0]++;
+            }
+            else if (identifierLength == 2)
+            {
+                byte c1 = toLowerCase(buffer[lineStart + 1]);
+                if (c1 == 't')
+                {
+                    result[1]++;
+                }
+                else if (c1 == 'n')
+                {
+                    result[2]++;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Combine a line that ends with a backslash with the following lines,
+     * exactly as it is done in the {@link ObjReader}.
+     *
+     * @param start The start of the trimmed line, inclusive
+     * @param end The end of the trimmed line, exclusive
+     * @return The combined line, or <code>null</code> if the end of the
+     * input was reached while combining the lines
+     * @throws IOException If an IO error occurs
+     */
+    private String combineBrokenLine(int start, int end) throws IOException
+    {
+        String line = createString(start, end);
+        while (line.endsWith("\\"))
+        {
+            line = line.substring(0, line.length() - 2);
+            if (!nextLine())
+            {
+                return null;
+            }
+            line += " " + createString(lineStart, lineEnd);
+        }
+        return line;
+    }
+
+    /**
+     * Advance to the next line in the input that is not empty after
+     * trimming it as in <code>String#trim</code>, and store the trimmed
+     * range in the {@link #lineStart} and {@link #lineEnd}.
+     *
+     * @return Whether a line was found
+     * @throws IOException If an IO error occurs
+     */
+    private boolean nextTrimmedLine() throws IOException
+    {
+        while (nextLine())
+        {
+            while (lineStart < lineEnd && (buffer[lineStart] & 0xFF) <= ' ')
+            {
+                lineStart++;
+            }
+            while (lineEnd > lineStart && (buffer[lineEnd - 1] & 0xFF) <= ' ')
+            {
+                lineEnd--;
+            }
+            if (lineStart < lineEnd)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Advance to the next line in the input, and store its range in the
+     * {@link #lineStart} and {@link #lineEnd}. Lines are terminated by
+     * <code>'\n'</code>, <code>'\r'</code> or <code>"\r\n"</code>, as in
+     * <code>BufferedReader#readLine</code>.
+     *
+     * @return Whether a line was found
+     * @throws IOException If an IO error occurs
+     */
+    private boolean nextLine() throws IOException
+    {
+        int scanned = position;
+        while (true)
+        {
+            for (int i = scanned; i < limit; i++)
+            {
+                byte b = buffer[i];
+                if (b == '\n')
+                {
+                    lineStart = position;
+                    lineEnd = i;
+                    position = i + 1;
+                    return true;
+                }
+                if (b == '\r')
+                {
+                    // Make sure that a "\r\n" that is split between two
+                    // reads is detected
+                    if (i + 1 == limit && !endOfInput)
+                    {
+                        break;
+                    }
+                    lineStart = position;
+                    lineEnd = i;
+                    position = i + 1;
+                    if (position < limit && buffer[position] == '\n')
+                    {
+                        position++;
+                    }
+                    return true;
+                }
+                scanned = i + 1;
+            }
+            if (endOfInput)
+            {
+                if (position == limit)
+                {
+                    return false;
+                }
+                lineStart = position;
+                lineEnd = limit;
+                position = limit;
+                return true;
+            }
+            int offset = position;
+            fill();
+            scanned -= offset;
+        }
+    }
+
+    /**
+     * Move the unprocessed bytes to the start of the buffer, growing the
+     * buffer if necessary, and fill the remaining buffer with data from
+     * the input.
+     *
+     * @throws IOException If an IO error occurs
+     */
+    private void fill() throws IOException
+    {
+        int remaining = limit - position;
+        if (position > 0)
+        {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        }
+        else if (remaining == buffer.length)
+        {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        position = 0;
+        limit = remaining;
+
+        int free = buffer.length - limit;
+        int read;
+        if (inputStream != null)
+        {
+            read = inputStream.read(buffer, limit, free);
+        }
+        else
+        {
+            read = Math.min(free, byteBuffer.remaining());
+            byteBuffer.get(buffer, limit, read);
+            if (read == 0)
+            {
+                read = -1;
+            }
+        }
+        if (read < 0)
+        {
+            endOfInput = true;
+        }
+        else
+        {
+            limit += read;
+        }
+    }
+
+    /**
+     * Parse up to four float values from the specified range of the
+     * buffer into the {@link #tuple}. Additional values are ignored,
+     * as in the {@link ObjReader}.
+     *
+     * @param start The start of the range, inclusive
+     * @param end The end of the range, exclusive
+     * @return The number of values that have been parsed. If this is 0,
+     * the line has to be processed as a <code>String</code>
+     * @throws IOException If a value can not be parsed
+     */
+    private int parseFloatTuple(int start, int end) throws IOException
+    {
+        int n = 0;
+        int i = start;
+        while (n < 4)
+        {
+            while (i < end && isDelimiter(buffer[i]))
+            {
+                i++;
+            }
+            if (i == end)
+            {
+                break;
+            }
+            int tokenStart = i;
+            while (i < end && !isDelimiter(buffer[i]))
+            {
+                i++;
+            }
+            if (parseFloat(tokenStart, i))
+            {
+                tuple[n] = parsedFloat;
+            }
+            else
+            {
+                tuple[n] = parseFloatString(tokenStart, i);
+            }
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Create a {@link FloatTuple} from the first <code>n</code> values of
+     * the {@link #tuple}
+     *
+     * @param n The number of values
+     * @return The {@link FloatTuple}
+     */
+    private FloatTuple createFloatTuple(int n)
+    {
+        switch (n)
+        {
+            case 1:
+                return FloatTuples.create(tuple[0]);
+            case 2:
+                return FloatTuples.create(tuple[0], tuple[1]);
+            case 3:
+                return FloatTuples.create(tuple[0], tuple[1], tuple[2]);
+            default:
+                return FloatTuples.create(
+                    tuple[0], tuple[1], tuple[2], tuple[3]);
+        }
+    }
+
+    /**
+     * Try to parse the specified range of the buffer as a float value
+     * that is written in plain decimal notation, with an optional
+     * exponent. The result will be stored in {@link #parsedFloat}.<br>
+     * <br>
+     * The result is always equal to the result of
+     * <code>Float.parseFloat</code>. If this can not be guaranteed
+     * (for example, for values with many digits, values that are
+     * close to the point between two float values, or values in an
+     * unusual format), then <code>false</code> is returned.
+     *
+     * @param start The start of the range, inclusive
+     * @param end The end of the range, exclusive
+     * @return Whether the value could be parsed
+     */
+    private boolean parseFloat(int start, int end)
+    {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+'))
+        {
+            negative = buffer[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int numDigits = 0;
+        int numMantissaDigits = 0;
+        int exponent = 0;
+        boolean truncated = false;
+        boolean foundPoint = false;
+        for (; i < end; i++)
+        {
+            byte b = buffer[i];
+            if (b >= '0' && b <= '9')
+            {
+                numDigits++;
+                if (mantissa == 0 && b == '0')
+                {
+                    // Leading zeros are not significant
+                    if (foundPoint)
+                    {
+                        exponent--;
+                    }
+                }
+                else if (numMantissaDigits < MAX_MANTISSA_DIGITS)
+                {
+                    mantissa = mantissa * 10 + (b - '0');
+                    numMantissaDigits++;
+                    if (foundPoint)
+                    {
+                        exponent--;
+                    }
+                }
+                else
+                {
+                    // Digits that do not fit into the mantissa
+                    if (b != '0')
+                    {
+                        truncated = true;
+                    }
+                    if (!foundPoint)
+                    {
+                        exponent++;
+                    }
+                }
+            }
+            else if (b == '.' && !foundPoint)
+            {
+                foundPoint = true;
+            }
+            else
+            {
+                break;
+            }
+        }
+        if (numDigits == 0)
+        {
+            return false;
+        }
+        if (i < end)
+        {
+            if (buffer[i] != 'e' && buffer[i] != 'E')
+            {
+                return false;
+            }
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (buffer[i] == '-' || buffer[i] == '+'))
+            {
+                negativeExponent = buffer[i] == '-';
+                i++;
+            }
+            if (i == end)
+            {
+                return false;
+            }
+            int explicitExponent = 0;
+            for (; i < end; i++)
+            {
+                byte b = buffer[i];
+                if (b < '0' || b > '9' || explicitExponent > 1000)
+                {
+                    return false;
+                }
+                explicitExponent = explicitExponent * 10 + (b - '0');
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+
+        float result;
+        if (mantissa == 0)
+        {
+            result = 0.0f;
+        }
+        else
+        {
+            float lower = toFloat(mantissa, exponent);
+            if (Float.isNaN(lower))
+            {
+                return false;
+            }
+            if (truncated)
+            {
+                // The actual value is between mantissa and mantissa+1
+                // (times the power of ten). When both of them yield
+                // the same float, then this is the result.
+                float upper = toFloat(mantissa + 1, exponent);
+                if (lower != upper)
+                {
+                    return false;
+                }
+            }
+            result = lower;
+        }
+        parsedFloat = negative ? -result : result;
+        return true;
+    }
+
+    /**
+     * Computes the float value that is closest to
+     * <code>mantissa * 10<sup>exponent</sup></code>. If the result can
+     * not be computed exactly, then <code>NaN</code> is returned.<br>
+     * <br>
+     * The computation is done with a single (correctly rounded) double
+     * operation. The conversion of this double to float yields the correctly
+     * rounded float value, unless the double is exactly in the middle
+     * between two float values.
+     *
+     * @param mantissa The mantissa, which must be positive and smaller
+     * than 2<sup>53</sup>
+     * @param exponent The exponent
+     * @return The float value
+     */
+    private static float toFloat(long mantissa, int exponent)
+    {
+        double d;
+        if (exponent >= 0 && exponent < POWERS_OF_TEN.length)
+        {
+            d = mantissa * POWERS_OF_TEN[exponent];
+        }
+        else if (exponent < 0 && -exponent < POWERS_OF_TEN.length)
+        {
+            d = mantissa / POWERS_OF_TEN[-exponent];
+        }
+        else
+        {
+            return Float.NaN;
+        }
+        if (d < Float.MIN_NORMAL || d > Float.MAX_VALUE)
+        {
+            return Float.NaN;
+        }
+        // The lower 29 bits of the double mantissa are the bits that
+        // are discarded in the conversion to float
+        long bits = Double.doubleToRawLongBits(d);
+        if ((bits & 0x1FFFFFFFL) == 0x10000000L)
+        {
+            return Float.NaN;
+        }
+        return (float) d;
+    }
+
+    /**
+     * Parse the specified range of the buffer with
+     * <code>Float.parseFloat</code>, wrapping number format exceptions
+     * into an IOException
+     *
+     * @param start The start of the range, inclusive
+     * @param end The end of the range, exclusive
+     * @return The float value
+     * @throws IOException If the range does not contain a valid float
+     */
+    private float parseFloatString(int start, int end) throws IOException
+    {
+        try
+        {
+            return Float.parseFloat(createString(start, end));
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Try to parse the specified range of the buffer, which is the part
+     * of an <code>'f'</code>-line that follows the identifier, and add
+     * the resulting face to the given output.<br>
+     * <br>
+     * This only handles faces where all vertices are given in the same
+     * form (<code>v</code>, <code>v/vt</code>, <code>v//vn</code> or
+     * <code>v/vt/vn</code>), separated by spaces. For all other lines,
+     * <code>false</code> is returned, and the line has to be processed
+     * with the {@link ObjFaceParser}.
+     *
+     * @param start The start of the range, inclusive
+     * @param end The end of the range, exclusive
+     * @param output The output
+     * @return Whether the face could be parsed
+     */
+    private boolean parseFace(int start, int end, WritableObj output)
+    {
+        int count = 0;
+        boolean hasTexCoords = false;
+        boolean hasNormals = false;
+        int i = start;
+        while (true)
+        {
+            while (i < end && buffer[i] == ' ')
+            {
+                i++;
+            }
+            if (i == end)
+            {
+                break;
+            }
+            if (count == vertexIndexBuffer.length)
+            {
+                vertexIndexBuffer = Arrays.copyOf(vertexIndexBuffer, count * 2);
+                texCoordIndexBuffer =
+                    Arrays.copyOf(texCoordIndexBuffer, count * 2);
+                normalIndexBuffer = Arrays.copyOf(normalIndexBuffer, count * 2);
+            }
+
+            i = parseIndex(i, end);
+            if (i < 0)
+            {
+                return false;
+            }
+            vertexIndexBuffer[count] = parsedIndex;
+
+            boolean foundTexCoord = false;
+            boolean foundNormal = false;
+            if (i < end && buffer[i] == '/')
+            {
+                i++;
+                if (i < end && buffer[i] != '/')
+                {
+                    i = parseIndex(i, end);
+                    if (i < 0)
+                    {
+                        return false;
+                    }
+                    texCoordIndexBuffer[count] = parsedIndex;
+                    foundTexCoord = true;
+                }
+                if (i < end && buffer[i] == '/')
+                {
+                    i = parseIndex(i + 1, end);
+                    if (i < 0)
+                    {
+                        return false;
+                    }
+                    normalIndexBuffer[count] = parsedIndex;
+                    foundNormal = true;
+                }
+                else if (!foundTexCoord)
+                {
+                    return false;
+                }
+            }
+            if (i < end && buffer[i] != ' ')
+            {
+                return false;
+            }
+            if (count == 0)
+            {
+                hasTexCoords = foundTexCoord;
+                hasNormals = foundNormal;
+            }
+            else if (hasTexCoords != foundTexCoord || hasNormals != foundNormal)
+            {
+                return false;
+            }
+            count++;
+        }
+        if (count == 0)
+        {
+            return false;
+        }
+
+        int v[] = Arrays.copyOf(vertexIndexBuffer, count);
+        int vt[] = null;
+        int vn[] = null;
+        if (hasTexCoords)
+        {
+            vt = Arrays.copyOf(texCoordIndexBuffer, count);
+        }
+        if (hasNormals)
+        {
+            vn = Arrays.copyOf(normalIndexBuffer, count);
+        }
+        ObjReader.makeIndicesAbsolute(v, counts[0]);
+        ObjReader.makeIndicesAbsolute(vt, counts[1]);
+        ObjReader.makeIndicesAbsolute(vn, counts[2]);
+        output.addFace(ObjFaces.create(v, vt, vn));
+        return true;
+    }
+
+    /**
+     * Parse a nonzero, optionally negative index that starts at the given
+     * position in the buffer, and store it in {@link #parsedIndex}
+     *
+     * @param start The start position, inclusive
+     * @param end The end of the line, exclusive
+     * @return The position after the index, or -1 if no valid index
+     * could be parsed
+     */
+    private int parseIndex(int start, int end)
+    {
+        int i = start;
+        boolean negative = false;
+        if (i < end && buffer[i] == '-')
+        {
+            negative = true;
+            i++;
+        }
+        int digitsStart = i;
+        int value = 0;
+        while (i < end && buffer[i] >= '0' && buffer[i] <= '9')
+        {
+            value = value * 10 + (buffer[i] - '0');
+            i++;
+        }
+        int numDigits = i - digitsStart;
+        if (numDigits == 0 || numDigits > 9 || value == 0)
+        {
+            return -1;
+        }
+        parsedIndex = negative ? -value : value;
+        return i;
+    }
+
+    /**
+     * Returns whether the given byte at the given position in the buffer
+     * matches the given lower-case string, ignoring case
+     *
+     * @param start The start position
+     * @param s The string
+     * @return Whether the bytes match the string
+     */
+    private boolean matches(int start, String s)
+    {
+        for (int i = 0; i < s.length(); i++)
+        {
+            if (toLowerCase(buffer[start + i]) != s.charAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates a string from the specified range of the buffer
+     *
+     * @param start The start of the range, inclusive
+     * @param end The end of the range, exclusive
+     * @return The string
+     */
+    private String createString(int start, int end)
+    {
+        return new String(buffer, start, end - start, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns whether the given byte is one of the default delimiters
+     * of a <code>StringTokenizer</code>
+     *
+     * @param b The byte
+     * @return Whether the byte is a delimiter
+     */
+    private static boolean isDelimiter(byte b)
+    {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+    }
+
+    /**
+     * Returns the lower-case version of the given ASCII byte
+     *
+     * @param b The byte
+     * @return The lower-case byte
+     */
+    private static byte toLowerCase(byte b)
+    {
+        if (b >= 'A' && b <= 'Z')
+        {
+            return (byte) (b + ('a' - 'A'));
+        }
+        return b;
+    }
+
+}
@@ -765,7 +765,7 @@ public class ObjData
      * @param size The size 
      * @return The IntBuffer
      */
-    private static IntBuffer createDirectIntBuffer(int size)
+    static IntBuffer createDirectIntBuffer(int size)
     {
         return ByteBuffer.allocateDirect(size * 4)
             .order(ByteOrder.nativeOrder())
@@ -791,7 +791,7 @@ public class ObjData
      * @param size The size 
      * @return The FloatBuffer
      */
-    private static FloatBuffer createDirectFloatBuffer(int size)
+    static FloatBuffer createDirectFloatBuffer(int size)
     {
         return ByteBuffer.allocateDirect(size * 4)
             .order(ByteOrder.nativeOrder())
@@ -0,0 +1,79 @@
+package de.javagl.obj;
+
+import java.nio.IntBuffer;
+
+/**
+ * SAFE SOFTWARE INC.
+ * A level of detail of an {@link ObjRenderBuffers} instance. It consists
+ * of an index buffer that refers to the vertices of the original render
+ * buffers, so that all levels of detail can share one vertex buffer.<br>
+ * <br>
+ * Instances of this class are created with the {@link MeshSimplifier}.
+ */
+public final class ObjLodLevel
+{
+    /**
+     * The indices
+     */
+    private final IntBuffer indices;
+
+    /**
+     * The geometric error
+     */
+    private final float error;
+
+    /**
+     * Creates a new level of detail
+     *
+     * @param indices The indices
+     * @param error The geometric error
+     */
+    ObjLodLevel(IntBuffer indices, float error)
+    {
+        this.indices = indices;
+        this.error = error;
+    }
+
+    /**
+     * Returns the direct buffer that contains the vertex indices, three
+     * for each triangle. Its position will be 0, and its limit and
+     * capacity will match the stored data.
+     *
+     * @return The indices
+     */
+    public IntBuffer getIndices()
+    {
+        return indices;
+    }
+
+    /**
+     * Returns the number of triangles
+     *
+     * @return The number of triangles
+     */
+    public int getNumTriangles()
+    {
+        return indices.capacity() / 3;
+    }
+
+    /**
+     * Returns the geometric error of this level of detail, in the units
+     * of the vertex positions. This is an upper bound for the distance
+     * between each simplified vertex and the planes of the original
+     * triangles that have been merged into it.
+     *
+     * @return The error
+     */
+    public float getError()
+    {
+        return error;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ObjLodLevel[" +
+            "#triangles=" + getNumTriangles() + "," +
+            "error=" + error + "]";
+    }
+}
@@ -0,0 +1,620 @@
+package de.javagl.obj;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * SAFE SOFTWARE INC.
+ * Methods for generating vertex normals for {@link ReadableObj}s.<br>
+ * <br>
+ * The normals are computed on flat <code>float</code> arrays: The normal
+ * of each face is computed from the positions of its vertices, in
+ * parallel chunks of faces. Its length is proportional to the area of the
+ * face. The normal of a vertex is the normalized sum of the normals of
+ * the faces that share the position of this vertex. Vertices with equal
+ * positions are treated as the same vertex, even when they have different
+ * indices.<br>
+ * <br>
+ * With a crease angle that is smaller than 180 degrees, only the faces
+ * whose normals differ by at most the crease angle from the normal of
+ * the current face are smoothed together. This keeps hard edges sharp,
+ * and creates several normals for the vertices at these edges.
+ */
+public class ObjNormals
+{
+    /**
+     * The crease angle, in degrees, that causes all normals to be
+     * smoothed, regardless of the angle between the faces
+     */
+    public static final float SMOOTH_CREASE_ANGLE = 180.0f;
+
+    /**
+     * The minimum number of elements that are processed by one task
+     */
+    private static final int MIN_CHUNK_SIZE = 4096;
+
+    /**
+     * The input
+     */
+    private final ReadableObj input;
+
+    /**
+     * The pool for the parallel chunks, or <code>null</code> if the
+     * chunks are processed on the calling thread
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * The number of threads
+     */
+    private final int numThreads;
+
+    /**
+     * The offsets of the corners of each face. The corners of face
+     * <code>f</code> range from <code>faceOffsets[f]</code> (inclusive)
+     * to <code>faceOffsets[f+1]</code> (exclusive).
+     */
+    private int faceOffsets[];
+
+    /**
+     * The position index of each corner
+     */
+    private int cornerPositions[];
+
+    /**
+     * The x, y, z coordinates of each unique position
+     */
+    private float positions[];
+
+    /**
+     * The number of unique positions
+     */
+    private int numPositions;
+
+    /**
+     * The area-weighted x, y, z coordinates of the normal of each face
+     */
+    private float faceNormals[];
+
+    /**
+     * Creates a new instance
+     *
+     * @param input The input
+     * @param numThreads The number of threads
+     */
+    private ObjNormals(ReadableObj input, int numThreads)
+    {
+        this.input = input;
+        this.numThreads = Math.max(1, numThreads);
+        this.pool = this.numThreads > 1 ?
+            new ForkJoinPool(this.numThreads) : null;
+    }
+
+    /**
+     * Creates a new {@link Obj} that contains the data of the given
+     * {@link ReadableObj}, but with newly generated, smooth vertex
+     * normals. See
+     * {@link #createWithNormals(ReadableObj, float, int, WritableObj)}
+     * for details.
+     *
+     * @param input The input {@link ReadableObj}
+     * @return The resulting {@link Obj}
+     */
+    public static Obj createWithNormals(ReadableObj input)
+    {
+        return createWithNormals(input, SMOOTH_CREASE_ANGLE,
+            Runtime.getRuntime().availableProcessors(), Objs.create());
+    }
+
+    /**
+     * Copies the vertices, texture coordinates, faces and groups of the
+     * given {@link ReadableObj} into the given {@link WritableObj}, and
+     * adds newly generated vertex normals to it. Any normals that the
+     * input contained are ignored.<br>
+     * <br>
+     * Faces may be arbitrary (planar) polygons. Faces with less than 3
+     * vertices, or with a zero area, do not contribute to the normals.
+     * When a vertex is only shared by such faces, then its normal will
+     * be (0,0,0).
+     *
+     * @param <T> The type of the output
+     * @param input The input {@link ReadableObj}
+     * @param creaseAngle The crease angle, in degrees. Faces whose normals
+     * differ by more than this angle will not be smoothed together. A
+     * value of {@link #SMOOTH_CREASE_ANGLE} or larger causes all faces
+     * to be smoothed together, and results in one normal for each
+     * unique vertex position.
+     * @param numThreads The number of threads to use for computing the
+     * normals
+     * @param output The output {@link WritableObj}
+     * @return The given output
+     */
+    public static <T extends WritableObj> T createWithNormals(
+        ReadableObj input, float creaseAngle, int numThreads, T output)
+    {
+        ObjNormals objNormals = new ObjNormals(input, numThreads);
+        try
+        {
+            objNormals.computeCornerPositions();
+            objNormals.computeFaceNormals();
+            if (creaseAngle >= SMOOTH_CREASE_ANGLE)
+            {
+                float normals[] = objNormals.computeSmoothNormals();
+                return objNormals.createOutput(normals,
+                    objNormals.numPositions, objNormals.cornerPositions,
+                    output);
+            }
+            float cosCreaseAngle =
+                (float) Math.cos(Math.toRadians(creaseAngle));
+            float cornerNormals[] =
+                objNormals.computeCreasedCornerNormals(cosCreaseAngle);
+            return objNormals.createOutputWithUniqueNormals(
+                cornerNormals, output);
+        }
+        finally
+        {
+            if (objNormals.pool != null)
+            {
+                objNormals.pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Compute the {@link #faceOffsets} and the {@link #cornerPositions},
+     * assigning indices to the unique vertex positions in the order in
+     * which they are first used by the faces
+     */
+    private void computeCornerPositions()
+    {
+        int numFaces = input.getNumFaces();
+        faceOffsets = new int[numFaces + 1];
+        for (int f = 0; f < numFaces; f++)
+        {
+            faceOffsets[f + 1] =
+                faceOffsets[f] + input.getFace(f).getNumVertices();
+        }
+        cornerPositions = new int[faceOffsets[numFaces]];
+
+        int numVertices = input.getNumVertices();
+        int vertexPositions[] = new int[numVertices];
+        Arrays.fill(vertexPositions, -1);
+        VertexWelder welder = new VertexWelder(3, 0.0f, numVertices);
+        positions = new float[numVertices * 3];
+        float values[] = new float[3];
+        int corner = 0;
+        for (int f = 0; f < numFaces; f++)
+        {
+            ObjFace face = input.getFace(f);
+            for (int j = 0; j < face.getNumVertices(); j++)
+            {
+                int vertexIndex = face.getVertexIndex(j);
+                int position = vertexPositions[vertexIndex];
+                if (position == -1)
+                {
+                    FloatTuple vertex = input.getVertex(vertexIndex);
+                    values[0] = vertex.getX();
+                    values[1] = vertex.getY();
+                    values[2] = vertex.getZ();
+                    position = welder.weld(values, 0, 0);
+                    if (position == numPositions)
+                    {
+                        System.arraycopy(
+                            values, 0, positions, position * 3, 3);
+                        numPositions++;
+                    }
+                    vertexPositions[vertexIndex] = position;
+                }
+                cornerPositions[corner++] = position;
+            }
+        }
+    }
+
+    /**
+     * Compute the area-weighted {@link #faceNormals}, in parallel
+     */
+    private void computeFaceNormals()
+    {
+        final int numFaces = input.getNumFaces();
+        faceNormals = new float[numFaces * 3];
+        forEachChunk(numFaces, new ChunkTask()
+        {
+            @Override
+            public void run(int start, int end)
+            {
+                for (int f = start; f < end; f++)
+                {
+                    computeFaceNormal(f);
+                }
+            }
+        });
+    }
+
+    /**
+     * Compute the normal of the specified face, and store it in the
+     * {@link #faceNormals}. For triangles, this is the cross product of
+     * two edges. For other polygons, it is computed with Newell's method.
+     *
+     * @param f The face index
+     */
+    private void computeFaceNormal(int f)
+    {
+        int start = faceOffsets[f];
+        int n = faceOffsets[f + 1] - start;
+        float x = 0;
+        float y = 0;
+        float z = 0;
+        if (n == 3)
+        {
+            int p0 = cornerPositions[start + 0] * 3;
+            int p1 = cornerPositions[start + 1] * 3;
+            int p2 = cornerPositions[start + 2] * 3;
+            float ax = positions[p1 + 0] - positions[p0 + 0];
+            float ay = positions[p1 + 1] - positions[p0 + 1];
+            float az = positions[p1 + 2] - positions[p0 + 2];
+            float bx = positions[p2 + 0] - positions[p0 + 0];
+            float by = positions[p2 + 1] - positions[p0 + 1];
+            float bz = positions[p2 + 2] - positions[p0 + 2];
+            x = ay * bz - by * az;
+            y = az * bx - bz * ax;
+            z = ax * by - bx * ay;
+        }
+        else if (n > 3)
+        {
+            for (int j = 0; j < n; j++)
+            {
+                int pc = cornerPositions[start + j] * 3;
+                int pn = cornerPositions[start + (j + 1) % n] * 3;
+                float cx = positions[pc + 0];
+                float cy = positions[pc + 1];
+                float cz = positions[pc + 2];
+                float nx = positions[pn + 0];
+                float ny = positions[pn + 1];
+                float nz = positions[pn + 2];
+                x += (cy - ny) * (cz + nz);
+                y += (cz - nz) * (cx + nx);
+                z += (cx - nx) * (cy + ny);
+            }
+        }
+        faceNormals[f * 3 + 0] = x;
+        faceNormals[f * 3 + 1] = y;
+        faceNormals[f * 3 + 2] = z;
+    }
+
+    /**
+     * Compute one smooth normal for each unique position, by summing the
+     * normals of all faces that use this position
+     *
+     * @return The normals
+     */
+    private float[] computeSmoothNormals()
+    {
+        final float normals[] = new float[numPositions * 3];
+        int numFaces = input.getNumFaces();
+        for (int f = 0; f < numFaces; f++)
+        {
+            float x = faceNormals[f * 3 + 0];
+            float y = faceNormals[f * 3 + 1];
+            float z = faceNormals[f * 3 + 2];
+            for (int c = faceOffsets[f]; c < faceOffsets[f + 1]; c++)
+            {
+                int p = cornerPositions[c] * 3;
+                normals[p + 0] += x;
+                normals[p + 1] += y;
+                normals[p + 2] += z;
+            }
+        }
+        forEachChunk(numPositions, new ChunkTask()
+        {
+            @Override
+            public void run(int start, int end)
+            {
+                for (int i = start; i < end; i++)
+                {
+                    normalize(normals, i * 3);
+                }
+            }
+        });
+        return normals;
+    }
+
+    /**
+     * Compute the normal of each corner, by summing the normals of the
+     * faces that use the position of the corner, and whose normals do
+     * not differ too much from the normal of the face of the corner
+     *
+     * @param cosCreaseAngle The cosine of the crease angle
+     * @return The corner normals
+     */
+    private float[] computeCreasedCornerNormals(final float cosCreaseAngle)
+    {
+        final int numFaces = input.getNumFaces();
+
+        // The unit normals of the faces, for the angle computations
+        final float unitFaceNormals[] = faceNormals.clone();
+        forEachChunk(numFaces, new ChunkTask()
+        {
+            @Override
+            public void run(int start, int end)
+            {
+                for (int f = start; f < end; f++)
+                {
+                    normalize(unitFaceNormals, f * 3);
+                }
+            }
+        });
+
+        // The faces that use each position
+        int numCorners = cornerPositions.length;
+        final int positionOffsets[] = new int[numPositions + 1];
+        for (int c = 0; c < numCorners; c++)
+        {
+            positionOffsets[cornerPositions[c] + 1]++;
+        }
+        for (int p = 0; p < numPositions; p++)
+        {
+            positionOffsets[p + 1] += positionOffsets[p];
+        }
+        final int positionFaces[] = new int[numCorners];
+        int fillOffsets[] = Arrays.copyOf(positionOffsets, numPositions);
+        for (int f = 0; f < numFaces; f++)
+        {
+            for (int c = faceOffsets[f]; c < faceOffsets[f + 1]; c++)
+            {
+                positionFaces[fillOffsets[cornerPositions[c]]++] = f;
+            }
+        }
+
+        final float cornerNormals[] = new float[numCorners * 3];
+        forEachChunk(numFaces, new ChunkTask()
+        {
+            @Override
+            public void run(int start, int end)
+            {
+                for (int f = start; f < end; f++)
+                {
+                    float ux = unitFaceNormals[f * 3 + 0];
+                    float uy = unitFaceNormals[f * 3 + 1];
+                    float uz = unitFaceNormals[f * 3 + 2];
+                    boolean degenerate = ux == 0 && uy == 0 && uz == 0;
+                    for (int c = faceOffsets[f]; c < faceOffsets[f + 1]; c++)
+                    {
+                        int p = cornerPositions[c];
+                        float x = 0;
+                        float y = 0;
+                        float z = 0;
+                        for (int a = positionOffsets[p];
+                            a < positionOffsets[p + 1]; a++)
+                        {
+                            int g = positionFaces[a];
+                            float dot =
+                                ux * unitFaceNormals[g * 3 + 0] +
+                                uy * unitFaceNormals[g * 3 + 1] +
+                                uz * unitFaceNormals[g * 3 + 2];
+                            if (g == f || degenerate || dot >= cosCreaseAngle)
+                            {
+                                x += faceNormals[g * 3 + 0];
+                                y += faceNormals[g * 3 + 1];
+                                z += faceNormals[g * 3 + 2];
+                            }
+                        }
+                        cornerNormals[c * 3 + 0] = x;
+                        cornerNormals[c * 3 + 1] = y;
+                        cornerNormals[c * 3 + 2] = z;
+                        normalize(cornerNormals, c * 3);
+                    }
+                }
+            }
+        });
+        return cornerNormals;
+    }
+
+    /**
+     * Create the output from the given corner normals, where corners
+     * with the same position and the same normal share one normal
+     *
+     * @param <T> The type of the output
+     * @param cornerNormals The normal of each corner
+     * @param output The output
+     * @return The output
+     */
+    private <T extends WritableObj> T createOutputWithUniqueNormals(
+        float cornerNormals[], T output)
+    {
+        int numCorners = cornerPositions.length;
+        VertexWelder welder = new VertexWelder(3, 0.0f, numPositions);
+        int cornerNormalIndices[] = new int[numCorners];
+        float normals[] = new float[numPositions * 3];
+        for (int c = 0; c < numCorners; c++)
+        {
+            int numNormals = welder.getNumVertices();
+            int index = welder.weld(cornerNormals, c * 3, cornerPositions[c]);
+            if (index == numNormals)
+            {
+                if (normals.length < (index + 1) * 3)
+                {
+                    normals = Arrays.copyOf(normals,
+                        (index + (index >> 1) + 16) * 3);
+                }
+                System.arraycopy(cornerNormals, c * 3, normals, index * 3, 3);
+            }
+            cornerNormalIndices[c] = index;
+        }
+        return createOutput(
+            normals, welder.getNumVertices(), cornerNormalIndices, output);
+    }
+
+    /**
+     * Copy the input into the given output, with the given normals
+     *
+     * @param <T> The type of the output
+     * @param normals The x, y, z coordinates of the normals
+     * @param numNormals The number of normals
+     * @param cornerNormalIndices The normal index of each corner
+     * @param output The output
+     * @return The output
+     */
+    private <T extends WritableObj> T createOutput(float normals[],
+        int numNormals, int cornerNormalIndices[], T output)
+    {
+        output.setMtlFileNames(input.getMtlFileNames());
+        for (int i = 0; i < input.getNumVertices(); i++)
+        {
+            output.addVertex(input.getVertex(i));
+        }
+        for (int i = 0; i < input.getNumTexCoords(); i++)
+        {
+            output.addTexCoord(input.getTexCoord(i));
+        }
+        for (int i = 0; i < numNormals; i++)
+        {
+            output.addNormal(
+                normals[i * 3 + 0], normals[i * 3 + 1], normals[i * 3 + 2]);
+        }
+        for (int f = 0; f < input.getNumFaces(); f++)
+        {
+            ObjFace face = input.getFace(f);
+            activateGroups(input, face, output);
+            int n = face.getNumVertices();
+            int v[] = new int[n];
+            int vt[] = face.containsTexCoordIndices() ? new int[n] : null;
+            int vn[] = new int[n];
+            for (int j = 0; j < n; j++)
+            {
+                v[j] = face.getVertexIndex(j);
+                if (vt != null)
+                {
+                    vt[j] = face.getTexCoordIndex(j);
+                }
+                vn[j] = cornerNormalIndices[faceOffsets[f] + j];
+            }
+            output.addFace(ObjFaces.create(v, vt, vn));
+        }
+        return output;
+    }
+
+    /**
+     * Normalize the 3D vector that starts at the given offset in the
+     * given array. Vectors with a length of zero remain unchanged.
+     *
+     * @param array The array
+     * @param offset The offset
+     */
+    private static void normalize(float array[], int offset)
+    {
+        float x = array[offset + 0];
+        float y = array[offset + 1];
+        float z = array[offset + 2];
+        float length = (float) Math.sqrt(x * x + y * y + z * z);
+        if (length > 0)
+        {
+            array[offset + 0] = x / length;
+            array[offset + 1] = y / length;
+            array[offset + 2] = z / length;
+        }
+    }
+
+    /**
+     * Set the active group names and material group name in the given
+     * output based on the group names and material group name that the
+     * given face activated in the input
+     *
+     * @param input The input
+     * @param face The face
+     * @param output The output
+     */
+    private static void activateGroups(
+        ReadableObj input, ObjFace face, WritableObj output)
+    {
+        Set<String> activatedGroupNames =
+            input.getActivatedGroupNames(face);
+        if (activatedGroupNames != null)
+        {
+            output.setActiveGroupNames(activatedGroupNames);
+        }
+        String activatedMaterialGroupName =
+            input.getActivatedMaterialGroupName(face);
+        if (activatedMaterialGroupName != null)
+        {
+            output.setActiveMaterialGroupName(activatedMaterialGroupName);
+        }
+    }
+
+    /**
+     * A task that processes a range of elements
+     */
+    private interface ChunkTask
+    {
+        /**
+         * Process the specified range of elements
+         *
+         * @param start The start index, inclusive
+         * @param end The end index, exclusive
+         */
+        void run(int start, int end);
+    }
+
+    /**
+     * Split the given number of elements into chunks, and run the given
+     * task for each chunk, in parallel if a {@link #pool} is available
+     *
+     * @param n The number of elements
+     * @param task The task
+     */
+    private void forEachChunk(int n, final ChunkTask task)
+    {
+        int numChunks = Math.min(numThreads * 4,
+            (n + MIN_CHUNK_SIZE - 1) / MIN_CHUNK_SIZE);
+        if (pool == null || numChunks <= 1)
+        {
+            task.run(0, n);
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < numChunks; i++)
+        {
+            final int start = (int) ((long) n * i / numChunks);
+            final int end = (int) ((long) n * (i + 1) / numChunks);
+            tasks.add(new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                {
+                    task.run(start, end);
+                    return null;
+                }
+            });
+        }
+        for (Future<Void> future : pool.invokeAll(tasks))
+        {
+            try
+            {
+                future.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            catch (ExecutionException e)
+            {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException)
+                {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error)
+                {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,670 @@
+package de.javagl.obj;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * SAFE SOFTWARE INC.
+ * A class for reading OBJ data from a byte buffer with multiple threads.
+ * <br>
+ * <br>
+ * The data is split into chunks at line boundaries. In a first pass, the
+ * number of vertices, texture coordinates and normals in each chunk is
+ * counted in parallel. These counts are used for resolving the relative
+ * (negative) indices of faces when the chunks are parsed in parallel,
+ * in a second pass. Each chunk is parsed into a {@link Chunk}, which
+ * records the elements and the group- and material group changes in the
+ * order in which they appear. Finally, the chunks are passed to the
+ * output in the order of the input, so that the active groups and the
+ * active material group carry over from one chunk to the next.
+ * <br>
+ * The result is identical to the result of {@link ObjReader#read(ByteBuffer)}.
+ */
+final class ObjParallelReader
+{
+    /**
+     * The default minimum size of a chunk, in bytes. Smaller inputs are
+     * not split into multiple chunks, because the overhead would outweigh
+     * the gain.
+     */
+    static final int DEFAULT_MIN_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * The number of chunks that are created for each thread. Using more
+     * chunks than threads balances the load when some parts of the file
+     * are more expensive to parse than others.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * Read the OBJ data from the bytes between the position and the limit
+     * of the given buffer, using the given number of threads, and store
+     * the read elements in the given {@link WritableObj}. The position of
+     * the given buffer will not be affected.
+     *
+     * @param <T> The output type
+     * @param byteBuffer The buffer to read from
+     * @param output The {@link WritableObj} to store the read data
+     * @param numThreads The number of threads
+     * @param minChunkSize The minimum size of a chunk, in bytes
+     * @return The output
+     * @throws IOException If the data can not be parsed, or the calling
+     * thread was interrupted
+     */
+    static <T extends WritableObj> T read(ByteBuffer byteBuffer, T output,
+        int numThreads, int minChunkSize) throws IOException
+    {
+        List<ByteBuffer> chunkBuffers =
+            split(byteBuffer, numThreads * CHUNKS_PER_THREAD, minChunkSize);
+        if (numThreads <= 1 || chunkBuffers.size() <= 1)
+        {
+            return new ObjByteParser(byteBuffer).read(output);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try
+        {
+            List<Callable<int[]>> countTasks = new ArrayList<>();
+            for (final ByteBuffer chunkBuffer : chunkBuffers)
+            {
+                countTasks.add(new Callable<int[]>()
+                {
+                    @Override
+                    public int[] call() throws IOException
+                    {
+                        return new ObjByteParser(chunkBuffer).count();
+                    }
+                });
+            }
+            List<int[]> counts = invokeAll(pool, countTasks);
+
+            List<Callable<Chunk>> parseTasks = new ArrayList<>();
+            int offsets[] = new int[3];
+            for (int i = 0; i < chunkBuffers.size(); i++)
+            {
+                final ByteBuffer chunkBuffer = chunkBuffers.get(i);
+                final int chunkOffsets[] = offsets.clone();
+                parseTasks.add(new Callable<Chunk>()
+                {
+                    @Override
+                    public Chunk call() throws IOException
+                    {
+                        return new ObjByteParser(chunkBuffer, chunkOffsets)
+                            .parse(new Chunk());
+                    }
+                });
+                for (int j = 0; j < offsets.length; j++)
+                {
+                    offsets[j] += counts.get(i)[j];
+                }
+            }
+            List<Chunk> chunks = invokeAll(pool, parseTasks);
+
+            output.setActiveMaterialGroupName(
+                ObjReader.DEFAULT_MATERIAL_GROUP_NAME);
+            for (Chunk chunk : chunks)
+            {
+                chunk.transferTo(output);
+            }
+            return output;
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Split the bytes between the position and the limit of the given
+     * buffer into chunks that each contain complete lines.
+     *
+     * @param byteBuffer The byte buffer
+     * @param numChunks The desired number of chunks
+     * @param minChunkSize The minimum size of a chunk, in bytes
+     * @return The buffers for the chunks
+     */
+    private static List<ByteBuffer> split(
+        ByteBuffer byteBuffer, int numChunks, int minChunkSize)
+    {
+        int start = byteBuffer.position();
+        int limit = byteBuffer.limit();
+        int chunkSize = Math.max(Math.max(1, minChunkSize),
+            (limit - start) / Math.max(1, numChunks) + 1);
+        List<ByteBuffer> chunkBuffers = new ArrayList<>();
+        while (start < limit)
+        {
+            int end = limit;
+            if (limit - start > chunkSize)
+            {
+                end = findChunkEnd(byteBuffer, start, start + chunkSize, limit);
+            }
+            ByteBuffer chunkBuffer = byteBuffer.duplicate();
+            chunkBuffer.limit(end);
+            chunkBuffer.position(start);
+            chunkBuffers.add(chunkBuffer);
+            start = end;
+        }
+        return chunkBuffers;
+    }
+
+    /**
+     * Returns the position after the first <code>'\n'</code> at or after
+     * the given position that terminates a line which is not continued
+     * in the next line with a trailing backslash. If no such position is
+     * found, the limit is returned.
+     *
+     * @param byteBuffer The byte buffer
+     * @param start The start of the current chunk
+     * @param position The position to start searching at
+     * @param limit The limit
+     * @return The end of the chunk
+     */
+    private static int findChunkEnd(
+        ByteBuffer byteBuffer, int start, int position, int limit)
+    {
+        for (int i = position; i < limit; i++)
+        {
+            if (byteBuffer.get(i) != '\n')
+            {
+                continue;
+            }
+            int last = i - 1;
+            while (last >= start && (byteBuffer.get(last) & 0xFF) <= ' ')
+            {
+                last--;
+            }
+            if (last < start || byteBuffer.get(last) != '\\')
+            {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Invoke all the given tasks in the given pool, and return their
+     * results, in the same order.
+     *
+     * @param <T> The result type
+     * @param pool The pool
+     * @param tasks The tasks
+     * @return The results
+     * @throws IOException If one of the tasks threw an IOException, or
+     * the calling thread was interrupted
+     */
+    private static <T> List<T> invokeAll(
+        ForkJoinPool pool, List<? extends Callable<T>> tasks)
+        throws IOException
+    {
+        List<T> results = new ArrayList<>();
+        for (Future<T> future : pool.invokeAll(tasks))
+        {
+            try
+            {
+                results.add(future.get());
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(e.getMessage());
+            }
+            catch (ExecutionException e)
+            {
+                // The fork-join pool may wrap the exceptions of the tasks
+                // into RuntimeExceptions
+                for (Throwable t = e.getCause(); t != null; t = t.getCause())
+                {
+                    if (t instanceof IOException)
+                    {
+                        throw (IOException) t;
+                    }
+                }
+                if (e.getCause() instanceof RuntimeException)
+                {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * A {@link WritableObj} that records the data of one chunk, and can
+     * pass it on to another {@link WritableObj} in the same order
+     */
+    private static final class Chunk implements WritableObj
+    {
+        /**
+         * The vertices
+         */
+        private final TupleList vertices = new TupleList();
+
+        /**
+         * The texture coordinates
+         */
+        private final TupleList texCoords = new TupleList();
+
+        /**
+         * The normals
+         */
+        private final TupleList normals = new TupleList();
+
+        /**
+         * The faces
+         */
+        private final List<ObjFace> faces = new ArrayList<>();
+
+        /**
+         * The changes of the active groups, active material group and
+         * MTL file names, in the order in which they appeared
+         */
+        private final List<Event> events = new ArrayList<>();
+
+        @Override
+        public void addVertex(FloatTuple vertex)
+        {
+            vertices.add(vertex);
+        }
+
+        @Override
+        public void addVertex(float x, float y, float z)
+        {
+            vertices.add(x, y, z);
+        }
+
+        @Override
+        public void addTexCoord(FloatTuple texCoord)
+        {
+            texCoords.add(texCoord);
+        }
+
+        @Override
+        public void addTexCoord(float x)
+        {
+            texCoords.add(FloatTuples.create(x));
+        }
+
+        @Override
+        public void addTexCoord(float x, float y)
+        {
+            texCoords.add(x, y);
+        }
+
+        @Override
+        public void addTexCoord(float x, float y, float z)
+        {
+            texCoords.add(x, y, z);
+        }
+
+        @Override
+        public void addNormal(FloatTuple normal)
+        {
+            normals.add(normal);
+        }
+
+        @Override
+        public void addNormal(float x, float y, float z)
+        {
+            normals.add(x, y, z);
+        }
+
+        @Override
+        public void setActiveGroupNames(
+            Collection<? extends String> groupNames)
+        {
+            events.add(new Event(Event.GROUPS, faces.size(), groupNames));
+        }
+
+        @Override
+        public void setActiveMaterialGroupName(String materialGroupName)
+        {
+            events.add(new Event(
+                Event.MATERIAL_GROUP, faces.size(), materialGroupName));
+        }
+
+        @Override
+        public void addFace(ObjFace face)
+        {
+            faces.add(face);
+        }
+
+        @Override
+        public void addFace(int... v)
+        {
+            addFace(v, null, null);
+        }
+
+        @Override
+        public void addFaceWithTexCoords(int... v)
+        {
+            addFace(v, v, null);
+        }
+
+        @Override
+        public void addFaceWithNormals(int... v)
+        {
+            addFace(v, null, v);
+        }
+
+        @Override
+        public void addFaceWithAll(int... v)
+        {
+            addFace(v, v, v);
+        }
+
+        @Override
+        public void addFace(int v[], int vt[], int vn[])
+        {
+            addFace(ObjFaces.create(v, vt, vn));
+        }
+
+        @Override
+        public void setMtlFileNames(Collection<? extends String> mtlFileNames)
+        {
+            events.add(new Event(Event.MTL_FILES, faces.size(), mtlFileNames));
+        }
+
+        /**
+         * Pass all elements of this chunk to the given output, in the
+         * order in which they have been added to this chunk
+         *
+         * @param output The output
+         */
+        void transferTo(WritableObj output)
+        {
+            vertices.transferTo(output, TupleList.VERTEX);
+            texCoords.transferTo(output, TupleList.TEX_COORD);
+            normals.transferTo(output, TupleList.NORMAL);
+            int e = 0;
+            for (int f = 0; f < faces.size(); f++)
+            {
+                while (e < events.size() && events.get(e).faceIndex == f)
+                {
+                    events.get(e++).transferTo(output);
+                }
+                output.addFace(faces.get(f));
+            }
+            while (e < events.size())
+            {
+                events.get(e++).transferTo(output);
+            }
+        }
+    }
+
+    /**
+     * A change of the active groups, material group or MTL file names
+     */
+    private static final class Event
+    {
+        /**
+         * The type for a change of the active groups
+         */
+        static final int GROUPS = 0;
+
+        /**
+         * The type for a change of the active material group
+         */
+        static final int MATERIAL_GROUP = 1;
+
+        /**
+         * The type for a change of the MTL file names
+         */
+        static final int MTL_FILES = 2;
+
+        /**
+         * The type of this event
+         */
+        private final int type;
+
+        /**
+         * The number of faces of the chunk that preceded this event
+         */
+        private final int faceIndex;
+
+        /**
+         * The new value: A collection of strings, or a string
+         */
+        private final Object value;
+
+        /**
+         * Creates a new event
+         *
+         * @param type The type
+         * @param faceIndex The number of preceding faces
+         * @param value The new value
+         */
+        Event(int type, int faceIndex, Object value)
+        {
+            this.type = type;
+            this.faceIndex = faceIndex;
+            this.value = value;
+        }
+
+        /**
+         * Pass this change to the given output
+         *
+         * @param output The output
+         */
+        @SuppressWarnings("unchecked")
+        void transferTo(WritableObj output)
+        {
+            switch (type)
+            {
+                case GROUPS:
+                    output.setActiveGroupNames(
+                        (Collection<? extends String>) value);
+                    break;
+                case MATERIAL_GROUP:
+                    output.setActiveMaterialGroupName((String) value);
+                    break;
+                default:
+                    output.setMtlFileNames(
+                        (Collection<? extends String>) value);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * A list of float tuples that stores the values in a primitive array
+     */
+    private static final class TupleList
+    {
+        /**
+         * The type for vertices
+         */
+        static final int VERTEX = 0;
+
+        /**
+         * The type for texture coordinates
+         */
+        static final int TEX_COORD = 1;
+
+        /**
+         * The type for normals
+         */
+        static final int NORMAL = 2;
+
+        /**
+         * The values of all tuples
+         */
+        private float values[] = new float[3 * 1024];
+
+        /**
+         * The dimensions of each tuple
+         */
+        private byte dimensions[] = new byte[1024];
+
+        /**
+         * The number of tuples
+         */
+        private int size = 0;
+
+        /**
+         * The number of values
+         */
+        private int numValues = 0;
+
+        /**
+         * Add the given tuple
+         *
+         * @param x The x-coordinate
+         * @param y The y-coordinate
+         * @param z The z-coordinate
+         */
+        void add(float x, float y, float z)
+        {
+            ensureCapacity(3);
+            values[numValues++] = x;
+            values[numValues++] = y;
+            values[numValues++] = z;
+            dimensions[size++] = 3;
+        }
+
+        /**
+         * Add the given tuple
+         *
+         * @param x The x-coordinate
+         * @param y The y-coordinate
+         */
+        void add(float x, float y)
+        {
+            ensureCapacity(2);
+            values[numValues++] = x;
+            values[numValues++] = y;
+            dimensions[size++] = 2;
+        }
+
+        /**
+         * Add the given tuple
+         *
+         * @param tuple The tuple
+         */
+        void add(FloatTuple tuple)
+        {
+            int n = tuple.getDimensions();
+            ensureCapacity(n);
+            for (int i = 0; i < n; i++)
+            {
+                values[numValues++] = tuple.get(i);
+            }
+            dimensions[size++] = (byte) n;
+        }
+
+        /**
+         * Make sure that there is space for one tuple with the given
+         * number of dimensions
+         *
+         * @param n The number of dimensions
+         */
+        private void ensureCapacity(int n)
+        {
+            if (numValues + n > values.length)
+            {
+                values = Arrays.copyOf(values,
+                    Math.max(numValues + n, values.length * 2));
+            }
+            if (size == dimensions.length)
+            {
+                dimensions = Arrays.copyOf(dimensions, size * 2);
+            }
+        }
+
+        /**
+         * Pass all tuples to the given output, as elements of the given
+         * type
+         *
+         * @param output The output
+         * @param type The type of the elements
+         */
+        void transferTo(WritableObj output, int type)
+        {
+            int v = 0;
+            for (int i = 0; i < size; i++)
+            {
+                int n = dimensions[i];
+                if (n == 3)
+                {
+                    float x = values[v];
+                    float y = values[v + 1];
+                    float z = values[v + 2];
+                    if (type == VERTEX)
+                    {
+                        output.addVertex(x, y, z);
+                    }
+                    else if (type == TEX_COORD)
+                    {
+                        output.addTexCoord(x, y, z);
+                    }
+                    else
+                    {
+                        output.addNormal(x, y, z);
+                    }
+                }
+                else if (n == 2 && type == TEX_COORD)
+                {
+                    output.addTexCoord(values[v], values[v + 1]);
+                }
+                else
+                {
+                    FloatTuple tuple = createTuple(v, n);
+                    if (type == VERTEX)
+                    {
+                        output.addVertex(tuple);
+                    }
+                    else if (type == TEX_COORD)
+                    {
+                        output.addTexCoord(tuple);
+                    }
+                    else
+                    {
+                        output.addNormal(tuple);
+                    }
+                }
+                v += n;
+            }
+        }
+
+        /**
+         * Create a tuple from the given range of the values
+         *
+         * @param v The index of the first value
+         * @param n The number of dimensions
+         * @return The tuple
+         */
+        private FloatTuple createTuple(int v, int n)
+        {
+            switch (n)
+            {
+                case 1:
+                    return FloatTuples.create(values[v]);
+                case 2:
+                    return FloatTuples.create(values[v], values[v + 1]);
+                case 3:
+                    return FloatTuples.create(
+                        values[v], values[v + 1], values[v + 2]);
+                default:
+                    return FloatTuples.create(values[v], values[v + 1],
+                        values[v + 2], values[v + 3]);
+            }
+        }
+    }
+
+    /**
+     * Private constructor to prevent instantiation
+     */
+    private ObjParallelReader()
+    {
+        // Private constructor to prevent instantiation
+    }
+}
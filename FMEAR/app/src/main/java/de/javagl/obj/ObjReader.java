@@ -31,6 +31,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -44,6 +45,13 @@ import java.util.StringTokenizer;
  */
 public class ObjReader
 {
+    /**
+     * SAFE SOFTWARE INC.
+     * The name of the material group that faces are associated with
+     * when they are not preceded by a <code>usemtl</code> directive
+     */
+    static final String DEFAULT_MATERIAL_GROUP_NAME = "fme_ar_default";
+
     /**
      * Read the OBJ data from the given stream and return it as an {@link Obj}.
      * The caller is responsible for closing the given stream.
@@ -74,7 +82,7 @@ public class ObjReader
     {
         BufferedReader reader = new BufferedReader(
             new InputStreamReader(inputStream, StandardCharsets.US_ASCII));
-        return readImpl(reader, output);
+        return trimToSize(readImpl(reader, output));
     }
 
     /**
@@ -107,10 +115,159 @@ public class ObjReader
     {
         if (reader instanceof BufferedReader)
         {
-            return readImpl((BufferedReader)reader, output);
+            return trimToSize(readImpl((BufferedReader)reader, output));
         }
-        return readImpl(new BufferedReader(reader), output);
+        return trimToSize(readImpl(new BufferedReader(reader), output));
+
+    }
+
+    /**
+     * SAFE SOFTWARE INC.
+     * Read the OBJ data from the given stream and return it as an {@link Obj}.
+     * The caller is responsible for closing the given stream.<br>
+     * <br>
+     * In contrast to {@link #read(InputStream)}, this method scans the raw
+     * bytes of the stream, without creating a <code>String</code> for each
+     * line. The result is identical to that of {@link #read(InputStream)},
+     * but it is considerably faster for large files. The stream is assumed
+     * to contain US-ASCII data.
+     *
+     * @param inputStream The stream to read from
+     * @return The {@link Obj}
+     * @throws IOException If an IO error occurs
+     */
+    public static Obj readBytes(InputStream inputStream) throws IOException
+    {
+        return readBytes(inputStream, Objs.create());
+    }
+
+    /**
+     * SAFE SOFTWARE INC.
+     * Read the OBJ data from the given stream and store the read
+     * elements in the given {@link WritableObj}.
+     * The caller is responsible for closing the given stream.<br>
+     * <br>
+     * See {@link #readBytes(InputStream)} for details.
+     *
+     * @param <T> The output type
+     * @param inputStream The stream to read from
+     * @param output The {@link WritableObj} to store the read data
+     * @return The output
+     * @throws IOException If an IO error occurs
+     */
+    public static <T extends WritableObj> T readBytes(
+        InputStream inputStream, T output)
+        throws IOException
+    {
+        return trimToSize(new ObjByteParser(inputStream).read(output));
+    }
+
+    /**
+     * SAFE SOFTWARE INC.
+     * Read the OBJ data from the bytes between the position and the limit
+     * of the given buffer, and return it as an {@link Obj}. The position
+     * of the given buffer will not be affected. The buffer may, for example,
+     * be a <code>MappedByteBuffer</code> of an OBJ file.<br>
+     * <br>
+     * See {@link #readBytes(InputStream)} for details.
+     *
+     * @param byteBuffer The buffer to read from
+     * @return The {@link Obj}
+     * @throws IOException If the data can not be parsed
+     */
+    public static Obj read(ByteBuffer byteBuffer) throws IOException
+    {
+        return read(byteBuffer, Objs.create());
+    }
+
+    /**
+     * SAFE SOFTWARE INC.
+     * Read the OBJ data from the bytes between the position and the limit
+     * of the given buffer, and store the read elements in the given
+     * {@link WritableObj}. The position of the given buffer will not be
+     * affected.<br>
+     * <br>
+     * See {@link #readBytes(InputStream)} for details.
+     *
+     * @param <T> The output type
+     * @param byteBuffer The buffer to read from
+     * @param output The {@link WritableObj} to store the read data
+     * @return The output
+     * @throws IOException If the data can not be parsed
+     */
+    public static <T extends WritableObj> T read(
+        ByteBuffer byteBuffer, T output)
+        throws IOException
+    {
+        return trimToSize(new ObjByteParser(byteBuffer).read(output));
+    }
+
+    /**
+     * SAFE SOFTWARE INC.
+     * Read the OBJ data from the bytes between the position and the limit
+     * of the given buffer with the given number of threads, and return it
+     * as an {@link Obj}. The position of the given buffer will not be
+     * affected.<br>
+     * <br>
+     * The data is split into chunks at line boundaries, which are parsed
+     * in parallel on a fork-join pool and merged afterwards. The result is
+     * identical to that of {@link #read(ByteBuffer)}. Small inputs are read
+     * with a single thread.
+     *
+     * @param byteBuffer The buffer to read from
+     * @param numThreads The number of threads
+     * @return The {@link Obj}
+     * @throws IOException If the data can not be parsed, or the calling
+     * thread was interrupted
+     */
+    public static Obj readParallel(ByteBuffer byteBuffer, int numThreads)
+        throws IOException
+    {
+        return readParallel(byteBuffer, Objs.create(), numThreads);
+    }
+
+    /**
+     * SAFE SOFTWARE INC.
+     * Read the OBJ data from the bytes between the position and the limit
+     * of the given buffer with the given number of threads, and store the
+     * read elements in the given {@link WritableObj}. The position of the
+     * given buffer will not be affected. The given output will only be
+     * accessed by the calling thread.<br>
+     * <br>
+     * See {@link #readParallel(ByteBuffer, int)} for details.
+     *
+     * @param <T> The output type
+     * @param byteBuffer The buffer to read from
+     * @param output The {@link WritableObj} to store the read data
+     * @param numThreads The number of threads
+     * @return The output
+     * @throws IOException If the data can not be parsed, or the calling
+     * thread was interrupted
+     */
+    public static <T extends WritableObj> T readParallel(
+        ByteBuffer byteBuffer, T output, int numThreads)
+        throws IOException
+    {
+        return trimToSize(ObjParallelReader.read(byteBuffer, output,
+            numThreads, ObjParallelReader.DEFAULT_MIN_CHUNK_SIZE));
+    }
 
+    /**
+     * SAFE SOFTWARE INC.
+     * Releases the spare capacity of the arrays of the given output if it
+     * is a {@link CompactObj}, after all elements have been read.
+     *
+     * @param <T> The output type
+     * @param output The output
+     * @return The output
+     */
+    private static <T extends WritableObj> T trimToSize(T output)
+    {
+        if (output instanceof CompactObj)
+        {
+            ((CompactObj) output).trimToSize();
+        }
+        return output;
     }
 
     /**
@@ -133,14 +290,14 @@ public class ObjReader
         // Set a default active material group name so that all the faces
         // without a material group name can still be retrieved by
         // ObjSplitting.splitByMaterialGroups
-        output.setActiveMaterialGroupName("fme_ar_default");
+        output.setActiveMaterialGroupName(DEFAULT_MATERIAL_GROUP_NAME);
         // ---------------------------------------------------------------
 
         ObjFaceParser objFaceParser = new ObjFaceParser();
 
-        int vertexCounter = 0;
-        int texCoordCounter = 0;
-        int normalCounter = 0;
+        // The number of vertices, texture coordinates and normals that
+        // have been read so far, used for resolving relative indices
+        int counts[] = new int[3];
         while(true)
         {
             String line = reader.readLine();
@@ -171,80 +328,100 @@ public class ObjReader
                 break;
             }
 
-            StringTokenizer st = new StringTokenizer(line);
-            if(!st.hasMoreTokens())
-            {
-                continue;
-            }
+            processLine(line, objFaceParser, counts, output);
+        }
+        return output;
+    }
 
-            String identifier = st.nextToken().toLowerCase();
+    /**
+     * Process a single (trimmed and combined) line of an OBJ file, and
+     * pass the element that it describes to the given {@link WritableObj}.
+     * The given <code>counts</code> array contains the number of vertices,
+     * texture coordinates and normals that have been read so far. It is
+     * used for resolving relative indices, and will be updated accordingly.
+     *
+     * @param line The line
+     * @param objFaceParser The parser for face lines
+     * @param counts The vertex-, texture coordinate- and normal counts
+     * @param output The {@link WritableObj} to store the read data
+     * @throws IOException If the line can not be parsed
+     */
+    static void processLine(String line, ObjFaceParser objFaceParser,
+        int counts[], WritableObj output)
+        throws IOException
+    {
+        StringTokenizer st = new StringTokenizer(line);
+        if(!st.hasMoreTokens())
+        {
+            return;
+        }
 
-            // v: Vertex coordinates
-            if(identifier.equals("v"))
-            {
-                output.addVertex(readFloatTuple(st));
-                vertexCounter++;
-            }
+        String identifier = st.nextToken().toLowerCase();
 
-            // vt: Texture coordinates for a vertex
-            else if(identifier.equals("vt"))
-            {
-                output.addTexCoord(readFloatTuple(st));
-                texCoordCounter++;
-            }
+        // v: Vertex coordinates
+        if(identifier.equals("v"))
+        {
+            output.addVertex(readFloatTuple(st));
+            counts[0]++;
+        }
 
-            // vn: Vertex normal
-            else if(identifier.equals("vn"))
-            {
-                output.addNormal(readFloatTuple(st));
-                normalCounter++;
-            }
+        // vt: Texture coordinates for a vertex
+        else if(identifier.equals("vt"))
+        {
+            output.addTexCoord(readFloatTuple(st));
+            counts[1]++;
+        }
 
-            // mtllib: Name of the MTL file
-            else if(identifier.equals("mtllib"))
-            {
-                String s = line.substring(6).trim();
-                //output.setMtlFileNames(readStrings(s));
-                // According to the OBJ specification, the "mtllib" keyword
-                // may be followed by multiple file names, separated with
-                // whitespaces:
-                // "When you assign a material library using the Model
-                //  program, only one map library per .obj file is allowed.
-                //  You can assign multiple libraries using a text editor."
-                // However, to avoid problems with file names that contain
-                // whitespaces, only ONE file name is assumed here:
-                output.setMtlFileNames(Collections.singleton(s));
-            }
+        // vn: Vertex normal
+        else if(identifier.equals("vn"))
+        {
+            output.addNormal(readFloatTuple(st));
+            counts[2]++;
+        }
 
-            // usemtl: Material groups
-            else if(identifier.equals("usemtl"))
-            {
-                String materialGroupName = line.substring(6).trim();
-                output.setActiveMaterialGroupName(materialGroupName);
-            }
+        // mtllib: Name of the MTL file
+        else if(identifier.equals("mtllib"))
+        {
+            String s = line.substring(6).trim();
+            //output.setMtlFileNames(readStrings(s));
+            // According to the OBJ specification, the "mtllib" keyword
+            // may be followed by multiple file names, separated with
+            // whitespaces:
+            // "When you assign a material library using the Model
+            //  program, only one map library per .obj file is allowed.
+            //  You can assign multiple libraries using a text editor."
+            // However, to avoid problems with file names that contain
+            // whitespaces, only ONE file name is assumed here:
+            output.setMtlFileNames(Collections.singleton(s));
+        }
 
-            // g: Geometry groups
-            else if(identifier.equals("g"))
-            {
-                String s = line.substring(1).trim();
-                String groupNames[] = readStrings(s);
-                output.setActiveGroupNames(Arrays.asList(groupNames));
-            }
+        // usemtl: Material groups
+        else if(identifier.equals("usemtl"))
+        {
+            String materialGroupName = line.substring(6).trim();
+            output.setActiveMaterialGroupName(materialGroupName);
+        }
 
-            // f: A face definition
-            else if(identifier.equals("f"))
-            {
-                objFaceParser.parse(line);
-                int v[] = objFaceParser.getVertexIndices();
-                int vt[] = objFaceParser.getTexCoordIndices();
-                int vn[] = objFaceParser.getNormalIndices();
-                makeIndicesAbsolute(v, vertexCounter);
-                makeIndicesAbsolute(vt, texCoordCounter);
-                makeIndicesAbsolute(vn, normalCounter);
-                output.addFace(ObjFaces.create(v, vt, vn));
-            }
+        // g: Geometry groups
+        else if(identifier.equals("g"))
+        {
+            String s = line.substring(1).trim();
+            String groupNames[] = readStrings(s);
+            output.setActiveGroupNames(Arrays.asList(groupNames));
+        }
+
+        // f: A face definition
+        else if(identifier.equals("f"))
+        {
+            objFaceParser.parse(line);
+            int v[] = objFaceParser.getVertexIndices();
+            int vt[] = objFaceParser.getTexCoordIndices();
+            int vn[] = objFaceParser.getNormalIndices();
+            makeIndicesAbsolute(v, counts[0]);
+            makeIndicesAbsolute(vt, counts[1]);
+            makeIndicesAbsolute(vn, counts[2]);
+            output.addFace(ObjFaces.create(v, vt, vn));
         }
-        return output;
     }
 
     /**
@@ -256,7 +433,7 @@ public class ObjReader
      * be done
      * @param count The count
      */
-    private static void makeIndicesAbsolute(int array[], int count)
+    static void makeIndicesAbsolute(int array[], int count)
     {
         if (array == null)
         {
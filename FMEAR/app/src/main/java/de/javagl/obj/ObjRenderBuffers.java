@@ -0,0 +1,154 @@
+package de.javagl.obj;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * SAFE SOFTWARE INC.
+ * The data that is required for rendering one material group of an
+ * {@link Obj} with OpenGL: A vertex buffer that contains the interleaved
+ * vertex attributes, and an index buffer with three indices for each
+ * triangle. <br>
+ * <br>
+ * Each vertex consists of the three position coordinates, followed by
+ * the three normal coordinates (if {@link #hasNormals()}), followed by
+ * the two texture coordinates (if {@link #hasTexCoords()}).<br>
+ * <br>
+ * Instances of this class are created with
+ * {@link ObjUtils#convertToRenderBuffers(ReadableObj)}.
+ */
+public final class ObjRenderBuffers
+{
+    /**
+     * The interleaved vertex data
+     */
+    private final FloatBuffer vertexData;
+
+    /**
+     * The indices
+     */
+    private final IntBuffer indices;
+
+    /**
+     * Whether the vertices contain normals
+     */
+    private final boolean hasNormals;
+
+    /**
+     * Whether the vertices contain texture coordinates
+     */
+    private final boolean hasTexCoords;
+
+    /**
+     * Creates new render buffers
+     *
+     * @param vertexData The interleaved vertex data
+     * @param indices The indices
+     * @param hasNormals Whether the vertices contain normals
+     * @param hasTexCoords Whether the vertices contain texture coordinates
+     */
+    ObjRenderBuffers(FloatBuffer vertexData, IntBuffer indices,
+        boolean hasNormals, boolean hasTexCoords)
+    {
+        this.vertexData = vertexData;
+        this.indices = indices;
+        this.hasNormals = hasNormals;
+        this.hasTexCoords = hasTexCoords;
+    }
+
+    /**
+     * Returns the direct buffer that contains the interleaved vertex
+     * data. Its position will be 0, and its limit and capacity will
+     * match the stored data.
+     *
+     * @return The vertex data
+     */
+    public FloatBuffer getVertexData()
+    {
+        return vertexData;
+    }
+
+    /**
+     * Returns the direct buffer that contains the vertex indices, three
+     * for each triangle. Its position will be 0, and its limit and
+     * capacity will match the stored data.
+     *
+     * @return The indices
+     */
+    public IntBuffer getIndices()
+    {
+        return indices;
+    }
+
+    /**
+     * Returns the number of vertices
+     *
+     * @return The number of vertices
+     */
+    public int getNumVertices()
+    {
+        return vertexData.capacity() / getStride();
+    }
+
+    /**
+     * Returns whether the vertices contain normals
+     *
+     * @return Whether the vertices contain normals
+     */
+    public boolean hasNormals()
+    {
+        return hasNormals;
+    }
+
+    /**
+     * Returns whether the vertices contain texture coordinates
+     *
+     * @return Whether the vertices contain texture coordinates
+     */
+    public boolean hasTexCoords()
+    {
+        return hasTexCoords;
+    }
+
+    /**
+     * Returns the number of floats for each vertex
+     *
+     * @return The stride, in floats
+     */
+    public int getStride()
+    {
+        return 3 + (hasNormals ? 3 : 0) + (hasTexCoords ? 2 : 0);
+    }
+
+    /**
+     * Returns the offset of the normal inside each vertex, or -1 if the
+     * vertices do not contain normals
+     *
+     * @return The offset, in floats
+     */
+    public int getNormalOffset()
+    {
+        return hasNormals ? 3 : -1;
+    }
+
+    /**
+     * Returns the offset of the texture coordinates inside each vertex, or
+     * -1 if the vertices do not contain texture coordinates
+     *
+     * @return The offset, in floats
+     */
+    public int getTexCoordOffset()
+    {
+        return hasTexCoords ? (hasNormals ? 6 : 3) : -1;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ObjRenderBuffers[" +
+            "#vertices=" + getNumVertices() + "," +
+            "#indices=" + indices.capacity() + "," +
+            "hasNormals=" + hasNormals + "," +
+            "hasTexCoords=" + hasTexCoords + "]";
+    }
+}
@@ -0,0 +1,629 @@
+package de.javagl.obj;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SAFE SOFTWARE INC.
+ * Implementation of {@link ObjUtils#convertToRenderBuffers(ReadableObj)}.
+ * <br>
+ * <br>
+ * This class computes the same result as the sequence of
+ * {@link ObjUtils#triangulate(ReadableObj)},
+ * {@link ObjUtils#makeTexCoordsUnique(ReadableObj)},
+ * {@link ObjUtils#makeNormalsUnique(ReadableObj)},
+ * {@link ObjUtils#makeVertexIndexed(ReadableObj)} and
+ * {@link ObjSplitting#splitByMaterialGroups(ReadableObj)}, followed by
+ * obtaining the vertex data of each part with {@link ObjData}. But instead
+ * of creating an intermediate {@link Obj} in each step, it only tracks the
+ * <i>identity</i> of each vertex of the final result in a few
+ * <code>int</code> arrays:<br>
+ * <br>
+ * In a single pass over the faces, the faces are triangulated, and each
+ * triangle corner is assigned an ID. The IDs are assigned exactly as the
+ * vertex indices are assigned when the texture coordinates and normals
+ * are made unique, except that the duplicated vertices receive their IDs
+ * in a different order. For each ID, the original vertex index and the
+ * texture coordinate and normal index that the vertex indexing would
+ * assign are stored.<br>
+ * <br>
+ * In a second step, the triangles are bucketed by material group, and the
+ * IDs of each material group are mapped to consecutive indices in the
+ * order of their first use, as it is done when splitting the
+ * {@link Obj}. The vertex data is then written directly into the
+ * interleaved buffer.<br>
+ * <br>
+ * Optionally, identical vertices of each material group are welded
+ * afterwards, using a {@link VertexWelder}.
+ */
+final class ObjRenderBuffersConverter
+{
+    /**
+     * The flag for triangles that contain texture coordinate indices
+     */
+    private static final byte FLAG_TEX_COORDS = 1;
+
+    /**
+     * The flag for triangles that contain normal indices
+     */
+    private static final byte FLAG_NORMALS = 2;
+
+    /**
+     * The input
+     */
+    private final ReadableObj input;
+
+    /**
+     * Whether identical vertices should be welded
+     */
+    private final boolean weld;
+
+    /**
+     * The epsilon for welding vertices
+     */
+    private final float weldEpsilon;
+
+    /**
+     * The number of vertices in the input
+     */
+    private final int numInputVertices;
+
+    /**
+     * The number of IDs that have been assigned
+     */
+    private int numIds;
+
+    /**
+     * The index of the input vertex for each ID
+     */
+    private int origins[];
+
+    /**
+     * The texture coordinate index that is assigned to each ID
+     */
+    private int texCoordIndices[];
+
+    /**
+     * The normal index that is assigned to each ID
+     */
+    private int normalIndices[];
+
+    /**
+     * The normal index that was first used for each ID that results from
+     * making the texture coordinates unique, or -1
+     */
+    private int usedNormalIndices[];
+
+    /**
+     * For each ID of a duplicated vertex, the position of the vertex among
+     * the vertices that are duplicated for the texture coordinates, or the
+     * bitwise complement of its position among the vertices that are
+     * duplicated for the normals
+     */
+    private int duplicateRanks[];
+
+    /**
+     * The number of vertices that are duplicated for the texture
+     * coordinates
+     */
+    private int numTexCoordDuplicates;
+
+    /**
+     * The number of vertices that are duplicated for the normals
+     */
+    private int numNormalDuplicates;
+
+    /**
+     * The number of triangles
+     */
+    private int numTriangles;
+
+    /**
+     * The IDs of the corners of all triangles
+     */
+    private int corners[];
+
+    /**
+     * The {@link #FLAG_TEX_COORDS} and {@link #FLAG_NORMALS} of each
+     * triangle
+     */
+    private byte triangleFlags[];
+
+    /**
+     * The index of the material group of each triangle, or -1
+     */
+    private int triangleMaterials[];
+
+    /**
+     * The names of the material groups, in the order of their creation
+     */
+    private final List<String> materialNames = new ArrayList<String>();
+
+    /**
+     * Creates a new converter for the given input
+     *
+     * @param input The input
+     * @param weld Whether identical vertices should be welded
+     * @param weldEpsilon The epsilon for welding vertices
+     */
+    private ObjRenderBuffersConverter(
+        ReadableObj input, boolean weld, float weldEpsilon)
+    {
+        this.input = input;
+        this.weld = weld;
+        this.weldEpsilon = weldEpsilon;
+        this.numInputVertices = input.getNumVertices();
+        int capacity = numInputVertices + 16;
+        this.origins = new int[capacity];
+        this.texCoordIndices = new int[capacity];
+        this.normalIndices = new int[capacity];
+        this.usedNormalIndices = new int[capacity];
+        this.duplicateRanks = new int[capacity];
+        Arrays.fill(usedNormalIndices, -1);
+        for (int i = 0; i < numInputVertices; i++)
+        {
+            origins[i] = i;
+        }
+        this.numIds = numInputVertices;
+
+        int triangleCapacity = input.getNumFaces() + 16;
+        this.corners = new int[triangleCapacity * 3];
+        this.triangleFlags = new byte[triangleCapacity];
+        this.triangleMaterials = new int[triangleCapacity];
+    }
+
+    /**
+     * Convert the given {@link ReadableObj} into render buffers. See
+     * {@link ObjUtils#convertToRenderBuffers(ReadableObj)} for details.
+     *
+     * @param input The input
+     * @return The render buffers
+     */
+    static Map<String, ObjRenderBuffers> convert(ReadableObj input)
+    {
+        ObjRenderBuffersConverter converter =
+            new ObjRenderBuffersConverter(input, false, 0.0f);
+        converter.assignIds();
+        return converter.createRenderBuffers();
+    }
+
+    /**
+     * Convert the given {@link ReadableObj} into render buffers, welding
+     * identical vertices. See
+     * {@link ObjUtils#convertToRenderBuffers(ReadableObj, float)} for
+     * details.
+     *
+     * @param input The input
+     * @param weldEpsilon The epsilon for welding vertices
+     * @return The render buffers
+     * @throws IllegalArgumentException If the epsilon is negative
+     */
+    static Map<String, ObjRenderBuffers> convert(
+        ReadableObj input, float weldEpsilon)
+    {
+        if (!(weldEpsilon >= 0))
+        {
+            throw new IllegalArgumentException(
+                "The epsilon must not be negative, but is " + weldEpsilon);
+        }
+        ObjRenderBuffersConverter converter =
+            new ObjRenderBuffersConverter(input, true, weldEpsilon);
+        converter.assignIds();
+        return converter.createRenderBuffers();
+    }
+
+    /**
+     * Triangulate all faces, and assign the IDs to the triangle corners
+     */
+    private void assignIds()
+    {
+        int usedTexCoordIndices[] = new int[numInputVertices];
+        Arrays.fill(usedTexCoordIndices, -1);
+
+        Map<String, Integer> materialIndices =
+            new LinkedHashMap<String, Integer>();
+        String nextMaterialName = null;
+        int materialIndex = -1;
+
+        for (int i = 0; i < input.getNumFaces(); i++)
+        {
+            ObjFace face = input.getFace(i);
+            String activatedMaterialName =
+                input.getActivatedMaterialGroupName(face);
+            if (activatedMaterialName != null)
+            {
+                nextMaterialName = activatedMaterialName;
+            }
+            boolean hasTexCoords = face.containsTexCoordIndices();
+            boolean hasNormals = face.containsNormalIndices();
+            byte flags = 0;
+            if (hasTexCoords)
+            {
+                flags |= FLAG_TEX_COORDS;
+            }
+            if (hasNormals)
+            {
+                flags |= FLAG_NORMALS;
+            }
+
+            for (int j = 0; j < face.getNumVertices() - 2; j++)
+            {
+                // The activation of a material group only takes effect
+                // when a triangle is added
+                if (nextMaterialName != null)
+                {
+                    Integer index = materialIndices.get(nextMaterialName);
+                    if (index == null)
+                    {
+                        index = materialNames.size();
+                        materialIndices.put(nextMaterialName, index);
+                        materialNames.add(nextMaterialName);
+                    }
+                    materialIndex = index;
+                    nextMaterialName = null;
+                }
+                ensureTriangleCapacity(numTriangles + 1);
+                triangleFlags[numTriangles] = flags;
+                triangleMaterials[numTriangles] = materialIndex;
+
+                int base = numTriangles * 3;
+                corners[base + 0] = assignId(face, 0,
+                    hasTexCoords, hasNormals, usedTexCoordIndices);
+                corners[base + 1] = assignId(face, j + 1,
+                    hasTexCoords, hasNormals, usedTexCoordIndices);
+                corners[base + 2] = assignId(face, j + 2,
+                    hasTexCoords, hasNormals, usedTexCoordIndices);
+                numTriangles++;
+            }
+        }
+    }
+
+    /**
+     * Assign the ID to the specified corner of the given face
+     *
+     * @param face The face
+     * @param n The index of the corner
+     * @param hasTexCoords Whether the face contains texture coordinates
+     * @param hasNormals Whether the face contains normals
+     * @param usedTexCoordIndices The texture coordinate indices that have
+     * first been used for each input vertex
+     * @return The ID
+     */
+    private int assignId(ObjFace face, int n, boolean hasTexCoords,
+        boolean hasNormals, int usedTexCoordIndices[])
+    {
+        int vertexIndex = face.getVertexIndex(n);
+
+        // Making the texture coordinates unique
+        int id = vertexIndex;
+        int texCoordIndex = 0;
+        if (hasTexCoords)
+        {
+            texCoordIndex = face.getTexCoordIndex(n);
+            int used = usedTexCoordIndices[vertexIndex];
+            if (used != -1 && used != texCoordIndex)
+            {
+                id = createId(vertexIndex, numTexCoordDuplicates++);
+            }
+            else
+            {
+                usedTexCoordIndices[vertexIndex] = texCoordIndex;
+            }
+        }
+
+        // Making the normals unique
+        int normalIndex = 0;
+        if (hasNormals)
+        {
+            normalIndex = face.getNormalIndex(n);
+            int used = usedNormalIndices[id];
+            if (used != -1 && used != normalIndex)
+            {
+                id = createId(vertexIndex, ~(numNormalDuplicates++));
+            }
+            else
+            {
+                usedNormalIndices[id] = normalIndex;
+            }
+        }
+
+        // Making the data vertex indexed: The last texture coordinate and
+        // normal index that is used with a vertex is assigned to it
+        if (hasTexCoords)
+        {
+            texCoordIndices[id] = texCoordIndex;
+        }
+        if (hasNormals)
+        {
+            normalIndices[id] = normalIndex;
+        }
+        return id;
+    }
+
+    /**
+     * Create a new ID for a duplicate of the given vertex
+     *
+     * @param vertexIndex The index of the input vertex
+     * @param rank The {@link #duplicateRanks rank} of the duplicate
+     * @return The new ID
+     */
+    private int createId(int vertexIndex, int rank)
+    {
+        if (numIds == origins.length)
+        {
+            int newLength = numIds + (numIds >> 1) + 16;
+            origins = Arrays.copyOf(origins, newLength);
+            texCoordIndices = Arrays.copyOf(texCoordIndices, newLength);
+            normalIndices = Arrays.copyOf(normalIndices, newLength);
+            duplicateRanks = Arrays.copyOf(duplicateRanks, newLength);
+            int oldLength = usedNormalIndices.length;
+            usedNormalIndices = Arrays.copyOf(usedNormalIndices, newLength);
+            Arrays.fill(usedNormalIndices, oldLength, newLength, -1);
+        }
+        int id = numIds++;
+        origins[id] = vertexIndex;
+        duplicateRanks[id] = rank;
+        return id;
+    }
+
+    /**
+     * Make sure that the triangle arrays can store the given number of
+     * triangles
+     *
+     * @param n The number of triangles
+     */
+    private void ensureTriangleCapacity(int n)
+    {
+        if (n > triangleFlags.length)
+        {
+            int newLength = n + (n >> 1) + 16;
+            corners = Arrays.copyOf(corners, newLength * 3);
+            triangleFlags = Arrays.copyOf(triangleFlags, newLength);
+            triangleMaterials = Arrays.copyOf(triangleMaterials, newLength);
+        }
+    }
+
+    /**
+     * Create the render buffers for all material groups, or for the whole
+     * input if it does not contain any material groups
+     *
+     * @return The render buffers
+     */
+    private Map<String, ObjRenderBuffers> createRenderBuffers()
+    {
+        Map<String, ObjRenderBuffers> result =
+            new LinkedHashMap<String, ObjRenderBuffers>();
+        int numMaterials = materialNames.size();
+        if (numMaterials == 0)
+        {
+            result.put("", createRenderBuffersForAll());
+            return result;
+        }
+
+        // Bucket the triangles by their material group, preserving
+        // their order
+        int materialOffsets[] = new int[numMaterials + 1];
+        for (int t = 0; t < numTriangles; t++)
+        {
+            int m = triangleMaterials[t];
+            if (m >= 0)
+            {
+                materialOffsets[m + 1]++;
+            }
+        }
+        for (int m = 0; m < numMaterials; m++)
+        {
+            materialOffsets[m + 1] += materialOffsets[m];
+        }
+        int sortedTriangles[] = new int[materialOffsets[numMaterials]];
+        int fillOffsets[] = Arrays.copyOf(materialOffsets, numMaterials);
+        for (int t = 0; t < numTriangles; t++)
+        {
+            int m = triangleMaterials[t];
+            if (m >= 0)
+            {
+                sortedTriangles[fillOffsets[m]++] = t;
+            }
+        }
+
+        int localIndices[] = new int[numIds];
+        int localIndicesMaterial[] = new int[numIds];
+        Arrays.fill(localIndicesMaterial, -1);
+        int localIds[] = new int[Math.min(numIds,
+            materialOffsets[numMaterials] * 3)];
+        for (int m = 0; m < numMaterials; m++)
+        {
+            int start = materialOffsets[m];
+            int end = materialOffsets[m + 1];
+            IntBuffer indices = ObjData.createDirectIntBuffer(
+                (end - start) * 3);
+            int numLocalIds = 0;
+            boolean hasTexCoords = false;
+            boolean hasNormals = false;
+            for (int s = start; s < end; s++)
+            {
+                int t = sortedTriangles[s];
+                hasTexCoords |= (triangleFlags[t] & FLAG_TEX_COORDS) != 0;
+                hasNormals |= (triangleFlags[t] & FLAG_NORMALS) != 0;
+                for (int c = 0; c < 3; c++)
+                {
+                    int id = corners[t * 3 + c];
+                    if (localIndicesMaterial[id] != m)
+                    {
+                        localIndicesMaterial[id] = m;
+                        localIndices[id] = numLocalIds;
+                        localIds[numLocalIds] = id;
+                        numLocalIds++;
+                    }
+                    indices.put(localIndices[id]);
+                }
+            }
+            indices.position(0);
+            FloatBuffer vertexData = createVertexData(
+                localIds, numLocalIds, hasNormals, hasTexCoords);
+            result.put(materialNames.get(m), createRenderBuffers(
+                vertexData, indices, hasNormals, hasTexCoords));
+        }
+        return result;
+    }
+
+    /**
+     * Create the render buffers for the whole input, which contains all
+     * vertices in the order that they would have after making the data
+     * vertex indexed.
+     *
+     * @return The render buffers
+     */
+    private ObjRenderBuffers createRenderBuffersForAll()
+    {
+        boolean hasTexCoords = false;
+        boolean hasNormals = false;
+        for (int t = 0; t < numTriangles; t++)
+        {
+            hasTexCoords |= (triangleFlags[t] & FLAG_TEX_COORDS) != 0;
+            hasNormals |= (triangleFlags[t] & FLAG_NORMALS) != 0;
+        }
+
+        // The vertices that are duplicated for the texture coordinates
+        // are appended to the input vertices, followed by the vertices
+        // that are duplicated for the normals
+        int finalIndices[] = new int[numIds];
+        int ids[] = new int[numIds];
+        for (int id = 0; id < numIds; id++)
+        {
+            int finalIndex = id;
+            if (id >= numInputVertices)
+            {
+                int rank = duplicateRanks[id];
+                if (rank >= 0)
+                {
+                    finalIndex = numInputVertices + rank;
+                }
+                else
+                {
+                    finalIndex = numInputVertices + numTexCoordDuplicates +
+                        ~rank;
+                }
+            }
+            finalIndices[id] = finalIndex;
+            ids[finalIndex] = id;
+        }
+        IntBuffer indices = ObjData.createDirectIntBuffer(numTriangles * 3);
+        for (int c = 0; c < numTriangles * 3; c++)
+        {
+            indices.put(finalIndices[corners[c]]);
+        }
+        indices.position(0);
+        FloatBuffer vertexData =
+            createVertexData(ids, numIds, hasNormals, hasTexCoords);
+        return createRenderBuffers(
+            vertexData, indices, hasNormals, hasTexCoords);
+    }
+
+    /**
+     * Create the render buffers from the given data, welding identical
+     * vertices if this was requested
+     *
+     * @param vertexData The interleaved vertex data
+     * @param indices The indices
+     * @param hasNormals Whether the vertices contain normals
+     * @param hasTexCoords Whether the vertices contain texture coordinates
+     * @return The render buffers
+     */
+    private ObjRenderBuffers createRenderBuffers(FloatBuffer vertexData,
+        IntBuffer indices, boolean hasNormals, boolean hasTexCoords)
+    {
+        if (weld)
+        {
+            int stride = 3 + (hasNormals ? 3 : 0) + (hasTexCoords ? 2 : 0);
+            vertexData = weld(vertexData, indices, stride);
+        }
+        return new ObjRenderBuffers(
+            vertexData, indices, hasNormals, hasTexCoords);
+    }
+
+    /**
+     * Weld the identical vertices in the given vertex data. The unique
+     * vertices are moved to the front of the given buffer, and the given
+     * indices are updated accordingly.
+     *
+     * @param vertexData The interleaved vertex data
+     * @param indices The indices
+     * @param stride The number of floats of each vertex
+     * @return A buffer that contains only the unique vertices
+     */
+    private FloatBuffer weld(
+        FloatBuffer vertexData, IntBuffer indices, int stride)
+    {
+        int numVertices = vertexData.capacity() / stride;
+        VertexWelder welder =
+            new VertexWelder(stride, weldEpsilon, numVertices);
+        int weldedIndices[] = new int[numVertices];
+        float values[] = new float[stride];
+        for (int i = 0; i < numVertices; i++)
+        {
+            vertexData.position(i * stride);
+            vertexData.get(values);
+            int numWeldedVertices = welder.getNumVertices();
+            int weldedIndex = welder.weld(values, 0, 0);
+            if (weldedIndex == numWeldedVertices)
+            {
+                vertexData.position(weldedIndex * stride);
+                vertexData.put(values);
+            }
+            weldedIndices[i] = weldedIndex;
+        }
+        for (int i = 0; i < indices.capacity(); i++)
+        {
+            indices.put(i, weldedIndices[indices.get(i)]);
+        }
+        vertexData.position(0);
+        vertexData.limit(welder.getNumVertices() * stride);
+        return vertexData.slice();
+    }
+
+    /**
+     * Create the interleaved vertex data for the given IDs
+     *
+     * @param ids The IDs
+     * @param numIds The number of IDs
+     * @param hasNormals Whether normals should be written
+     * @param hasTexCoords Whether texture coordinates should be written
+     * @return The vertex data
+     */
+    private FloatBuffer createVertexData(int ids[], int numIds,
+        boolean hasNormals, boolean hasTexCoords)
+    {
+        int stride = 3 + (hasNormals ? 3 : 0) + (hasTexCoords ? 2 : 0);
+        FloatBuffer vertexData =
+            ObjData.createDirectFloatBuffer(numIds * stride);
+        for (int i = 0; i < numIds; i++)
+        {
+            int id = ids[i];
+            FloatTuple vertex = input.getVertex(origins[id]);
+            vertexData.put(vertex.getX());
+            vertexData.put(vertex.getY());
+            vertexData.put(vertex.getZ());
+            if (hasNormals)
+            {
+                FloatTuple normal = input.getNormal(normalIndices[id]);
+                vertexData.put(normal.getX());
+                vertexData.put(normal.getY());
+                vertexData.put(normal.getZ());
+            }
+            if (hasTexCoords)
+            {
+                FloatTuple texCoord = input.getTexCoord(texCoordIndices[id]);
+                vertexData.put(texCoord.get(0));
+                vertexData.put(texCoord.get(1));
+            }
+        }
+        vertexData.position(0);
+        return vertexData;
+    }
+}
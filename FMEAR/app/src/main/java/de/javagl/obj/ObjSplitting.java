@@ -26,9 +26,19 @@
  */
 package de.javagl.obj;
 
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Methods for splitting {@link ReadableObj} objects into multiple parts, 
@@ -86,22 +96,290 @@ public class ObjSplitting
      */
     public static Map<String, Obj> splitByMaterialGroups(ReadableObj obj)
     {
-        Map<String, Obj> objs = new LinkedHashMap<String, Obj>();
+        return splitByMaterialGroups(obj, 1);
+    }
+
+    /**
+     * Split the given {@link ReadableObj} based on its material groups,
+     * using the given number of threads. The result is the same as for
+     * {@link #splitByMaterialGroups(ReadableObj)}. <br>
+     * <br>
+     * SAFE SOFTWARE INC.
+     * Calling {@link ObjUtils#groupToObj(ReadableObj, ObjGroup, List)}
+     * for each material group allocates and fills index tables with the
+     * size of the whole input for each group, which dominates the time
+     * for models with hundreds of materials. Here, the faces of each
+     * material group are visited once, and the indices are remapped with
+     * tables that are allocated once per thread. Each entry of a table
+     * is only valid when its stamp matches the current material group,
+     * so the tables never have to be cleared. The material groups are
+     * distributed to the threads, largest first.
+     *
+     * @param obj The input {@link ReadableObj}
+     * @param numThreads The number of threads. If this is not greater
+     * than 1, the material groups are split in the calling thread.
+     * @return The mapping from material group names (corresponding to the
+     * <code>usemtl</code> directives in the input file) to the {@link Obj}
+     * that represents this material group.
+     */
+    public static Map<String, Obj> splitByMaterialGroups(
+        ReadableObj obj, int numThreads)
+    {
+        List<ObjGroup> materialGroups = new ArrayList<ObjGroup>();
         int numMaterialGroups = obj.getNumMaterialGroups();
         for (int i = 0; i < numMaterialGroups; i++)
         {
             ObjGroup materialGroup = obj.getMaterialGroup(i);
             if (materialGroup.getNumFaces() > 0)
             {
-                String materialGroupName = materialGroup.getName();
-                Obj materialGroupObj = 
-                    ObjUtils.groupToObj(obj, materialGroup, null);
-                objs.put(materialGroupName, materialGroupObj);
+                materialGroups.add(materialGroup);
+            }
+        }
+        Obj materialGroupObjs[] = new Obj[materialGroups.size()];
+        int numWorkers = Math.min(numThreads, materialGroups.size());
+        if (numWorkers <= 1)
+        {
+            IndexRemapping remapping = new IndexRemapping(obj);
+            for (int i = 0; i < materialGroups.size(); i++)
+            {
+                materialGroupObjs[i] =
+                    remapping.groupToObj(materialGroups.get(i));
             }
         }
+        else
+        {
+            splitInParallel(
+                obj, materialGroups, materialGroupObjs, numWorkers);
+        }
+        Map<String, Obj> objs = new LinkedHashMap<String, Obj>();
+        for (int i = 0; i < materialGroups.size(); i++)
+        {
+            objs.put(materialGroups.get(i).getName(), materialGroupObjs[i]);
+        }
         return objs;
     }
 
+    /**
+     * Convert the given material groups into {@link Obj} instances, using
+     * the given number of threads
+     *
+     * @param obj The input {@link ReadableObj}
+     * @param materialGroups The material groups
+     * @param materialGroupObjs The array that will store the {@link Obj}
+     * for each material group
+     * @param numWorkers The number of threads
+     */
+    private static void splitInParallel(final ReadableObj obj,
+        final List<ObjGroup> materialGroups, final Obj materialGroupObjs[],
+        int numWorkers)
+    {
+        // Sort the material groups by their number of faces, descending,
+        // so that the largest groups do not end up last on one thread
+        final int n = materialGroups.size();
+        long keys[] = new long[n];
+        for (int i = 0; i < n; i++)
+        {
+            long numFaces = materialGroups.get(i).getNumFaces();
+            keys[i] = ((Integer.MAX_VALUE - numFaces) << 32) | i;
+        }
+        Arrays.sort(keys);
+        final int order[] = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            order[i] = (int) keys[i];
+        }
+
+        final AtomicInteger next = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int w = 0; w < numWorkers; w++)
+        {
+            tasks.add(new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                {
+                    IndexRemapping remapping = new IndexRemapping(obj);
+                    int i = next.getAndIncrement();
+                    while (i < n)
+                    {
+                        int g = order[i];
+                        materialGroupObjs[g] =
+                            remapping.groupToObj(materialGroups.get(g));
+                        i = next.getAndIncrement();
+                    }
+                    return null;
+                }
+            });
+        }
+        ForkJoinPool pool = new ForkJoinPool(numWorkers);
+        try
+        {
+            for (Future<Void> future : pool.invokeAll(tasks))
+            {
+                future.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Reusable index tables for converting groups of one input
+     * {@link ReadableObj} into {@link Obj} instances, in the same way as
+     * {@link ObjUtils#groupToObj(ReadableObj, ObjGroup, List)}.
+     * Instances of this class are not thread-safe.
+     */
+    private static final class IndexRemapping
+    {
+        /**
+         * The input OBJ
+         */
+        private final ReadableObj input;
+
+        /**
+         * The index that each vertex of the input has in the current output
+         */
+        private final int vertexIndexMap[];
+
+        /**
+         * The stamp of the output that each entry of the
+         * {@link #vertexIndexMap} was assigned for
+         */
+        private final int vertexStamps[];
+
+        /**
+         * The index that each texture coordinate of the input has in
+         * the current output
+         */
+        private final int texCoordIndexMap[];
+
+        /**
+         * The stamps for the {@link #texCoordIndexMap}
+         */
+        private final int texCoordStamps[];
+
+        /**
+         * The index that each normal of the input has in the current output
+         */
+        private final int normalIndexMap[];
+
+        /**
+         * The stamps for the {@link #normalIndexMap}
+         */
+        private final int normalStamps[];
+
+        /**
+         * The stamp of the current output
+         */
+        private int stamp;
+
+        /**
+         * Creates new index tables for the given input
+         *
+         * @param input The input {@link ReadableObj}
+         */
+        IndexRemapping(ReadableObj input)
+        {
+            this.input = input;
+            this.vertexIndexMap = new int[input.getNumVertices()];
+            this.vertexStamps = new int[input.getNumVertices()];
+            this.texCoordIndexMap = new int[input.getNumTexCoords()];
+            this.texCoordStamps = new int[input.getNumTexCoords()];
+            this.normalIndexMap = new int[input.getNumNormals()];
+            this.normalStamps = new int[input.getNumNormals()];
+        }
+
+        /**
+         * Create an {@link Obj} that contains the faces of the given group,
+         * and the vertices, texture coordinates and normals that they
+         * refer to, in the order of their first use
+         *
+         * @param inputGroup The group of the input
+         * @return The {@link Obj}
+         */
+        Obj groupToObj(ObjGroup inputGroup)
+        {
+            stamp++;
+            Obj output = Objs.create();
+            output.setMtlFileNames(input.getMtlFileNames());
+            int vertexCounter = 0;
+            int texCoordCounter = 0;
+            int normalCounter = 0;
+            for (int i = 0; i < inputGroup.getNumFaces(); i++)
+            {
+                ObjFace face = inputGroup.getFace(i);
+                DefaultObjFace resultFace = ObjFaces.create(face);
+                ObjUtils.activateGroups(input, face, output);
+                int numFaceVertices = face.getNumVertices();
+                for (int j = 0; j < numFaceVertices; j++)
+                {
+                    int index = face.getVertexIndex(j);
+                    if (vertexStamps[index] != stamp)
+                    {
+                        vertexStamps[index] = stamp;
+                        vertexIndexMap[index] = vertexCounter;
+                        output.addVertex(input.getVertex(index));
+                        vertexCounter++;
+                    }
+                    resultFace.setVertexIndex(j, vertexIndexMap[index]);
+                }
+                if (face.containsTexCoordIndices())
+                {
+                    for (int j = 0; j < numFaceVertices; j++)
+                    {
+                        int index = face.getTexCoordIndex(j);
+                        if (texCoordStamps[index] != stamp)
+                        {
+                            texCoordStamps[index] = stamp;
+                            texCoordIndexMap[index] = texCoordCounter;
+                            output.addTexCoord(input.getTexCoord(index));
+                            texCoordCounter++;
+                        }
+                        resultFace.setTexCoordIndex(
+                            j, texCoordIndexMap[index]);
+                    }
+                }
+                if (face.containsNormalIndices())
+                {
+                    for (int j = 0; j < numFaceVertices; j++)
+                    {
+                        int index = face.getNormalIndex(j);
+                        if (normalStamps[index] != stamp)
+                        {
+                            normalStamps[index] = stamp;
+                            normalIndexMap[index] = normalCounter;
+                            output.addNormal(input.getNormal(index));
+                            normalCounter++;
+                        }
+                        resultFace.setNormalIndex(j, normalIndexMap[index]);
+                    }
+                }
+                output.addFace(resultFace);
+            }
+            return output;
+        }
+    }
+
     /**
      * Split the given {@link ReadableObj} into {@link Obj} instances based
      * on the given maximum number of vertices.<br> 
@@ -141,6 +419,133 @@ public class ObjSplitting
         return splitter.split(obj);
     }
     
+    /**
+     * Split the given {@link ObjRenderBuffers} into parts that each have
+     * at most the given number of vertices. This may, for example, be
+     * used to create parts whose indices can be represented with an
+     * <code>unsigned short</code> value, by calling it with
+     * <code>maxNumVertices=65535</code>.<br>
+     * <br>
+     * Unlike {@link #splitByMaxNumVertices(ReadableObj, int)}, this does
+     * not split the object spatially. Instead, the triangles are assigned
+     * to the parts in a single pass, in the order in which they appear in
+     * the index buffer, and a new part is started whenever the next
+     * triangle would exceed the maximum number of vertices. The vertices
+     * of each part are stored in the order of their first use. If the
+     * given render buffers do not have more than the given number of
+     * vertices, a list containing only the given render buffers is
+     * returned.
+     * 
+     * @param renderBuffers The input {@link ObjRenderBuffers}
+     * @param maxNumVertices The maximum number of vertices
+     * @return One {@link ObjRenderBuffers} for each part
+     * @throws IllegalArgumentException If the given number is smaller than 3.
+     */
+    public static List<ObjRenderBuffers> splitByMaxNumVertices(
+        ObjRenderBuffers renderBuffers, int maxNumVertices)
+    {
+        if (maxNumVertices < 3)
+        {
+            throw new IllegalArgumentException(
+                "The given number of vertices must at least be 3");
+        }
+        int numVertices = renderBuffers.getNumVertices();
+        if (numVertices <= maxNumVertices)
+        {
+            return Collections.singletonList(renderBuffers);
+        }
+        
+        IntBuffer indices = renderBuffers.getIndices();
+        int numIndices = indices.capacity() / 3 * 3;
+        int partIndices[] = new int[numIndices];
+        int partVertices[] = new int[maxNumVertices];
+        int partOfVertex[] = new int[numVertices];
+        int localIndexOfVertex[] = new int[numVertices];
+        Arrays.fill(partOfVertex, -1);
+        
+        List<ObjRenderBuffers> parts = new ArrayList<ObjRenderBuffers>();
+        int part = 0;
+        int partStart = 0;
+        int numPartVertices = 0;
+        for (int t = 0; t < numIndices; t += 3)
+        {
+            int v0 = indices.get(t);
+            int v1 = indices.get(t + 1);
+            int v2 = indices.get(t + 2);
+            int numNewVertices = 0;
+            if (partOfVertex[v0] != part)
+            {
+                numNewVertices++;
+            }
+            if (partOfVertex[v1] != part && v1 != v0)
+            {
+                numNewVertices++;
+            }
+            if (partOfVertex[v2] != part && v2 != v0 && v2 != v1)
+            {
+                numNewVertices++;
+            }
+            if (numPartVertices + numNewVertices > maxNumVertices)
+            {
+                parts.add(createPart(renderBuffers, partIndices, 
+                    partStart, t, partVertices, numPartVertices));
+                part++;
+                partStart = t;
+                numPartVertices = 0;
+            }
+            for (int c = 0; c < 3; c++)
+            {
+                int v = indices.get(t + c);
+                if (partOfVertex[v] != part)
+                {
+                    partOfVertex[v] = part;
+                    localIndexOfVertex[v] = numPartVertices;
+                    partVertices[numPartVertices] = v;
+                    numPartVertices++;
+                }
+                partIndices[t + c] = localIndexOfVertex[v];
+            }
+        }
+        parts.add(createPart(renderBuffers, partIndices, 
+            partStart, numIndices, partVertices, numPartVertices));
+        return parts;
+    }
+    
+    /**
+     * Create one part of the given {@link ObjRenderBuffers}
+     * 
+     * @param renderBuffers The input {@link ObjRenderBuffers}
+     * @param partIndices The local indices of all corners
+     * @param start The first corner of the part, inclusive
+     * @param end The last corner of the part, exclusive
+     * @param partVertices The vertices of the input for each local index
+     * @param numPartVertices The number of vertices of the part
+     * @return The part
+     */
+    private static ObjRenderBuffers createPart(ObjRenderBuffers renderBuffers,
+        int partIndices[], int start, int end, 
+        int partVertices[], int numPartVertices)
+    {
+        int stride = renderBuffers.getStride();
+        FloatBuffer vertexData = renderBuffers.getVertexData();
+        FloatBuffer partVertexData = 
+            ObjData.createDirectFloatBuffer(numPartVertices * stride);
+        for (int i = 0; i < numPartVertices; i++)
+        {
+            int offset = partVertices[i] * stride;
+            for (int j = 0; j < stride; j++)
+            {
+                partVertexData.put(vertexData.get(offset + j));
+            }
+        }
+        partVertexData.position(0);
+        IntBuffer indices = ObjData.createDirectIntBuffer(end - start);
+        indices.put(partIndices, start, end - start);
+        indices.position(0);
+        return new ObjRenderBuffers(partVertexData, indices, 
+            renderBuffers.hasNormals(), renderBuffers.hasTexCoords());
+    }
+    
     /**
      * Private constructor to prevent instantiation
      */
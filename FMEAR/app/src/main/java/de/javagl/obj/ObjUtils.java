@@ -26,9 +26,12 @@
  */
 
 package de.javagl.obj;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -747,6 +750,319 @@ public class ObjUtils
     }
     
     
+    /**
+     * SAFE SOFTWARE INC.
+     * Converts the given {@link ReadableObj} data into data that uses the
+     * same indices for vertices, texture coordinates and normals, where
+     * each unique combination of vertex, texture coordinate and normal
+     * <i>values</i> appears only once, and returns the result.<br>
+     * <br>
+     * See {@link #weldVertices(ReadableObj, float, WritableObj)} for 
+     * details.
+     *
+     * @param input The input {@link ReadableObj}
+     * @param epsilon The epsilon for quantizing the values, or 0 to
+     * compare them exactly
+     * @return The resulting {@link Obj}
+     * @throws IllegalArgumentException If the epsilon is negative
+     */
+    public static Obj weldVertices(ReadableObj input, float epsilon)
+    {
+        return weldVertices(input, epsilon, Objs.create());
+    }
+
+    /**
+     * SAFE SOFTWARE INC.
+     * Converts the given {@link ReadableObj} data into data that uses the
+     * same indices for vertices, texture coordinates and normals, where
+     * each unique combination of vertex, texture coordinate and normal
+     * <i>values</i> appears only once, and stores the result in the given
+     * {@link WritableObj}.<br>
+     * <br>
+     * This is an alternative to the sequence of 
+     * {@link #makeTexCoordsUnique(ReadableObj)},
+     * {@link #makeNormalsUnique(ReadableObj)} and 
+     * {@link #makeVertexIndexed(ReadableObj)}: These methods duplicate a
+     * vertex whenever it is used with different texture coordinate or
+     * normal indices, but never merge vertices that have the same values
+     * but different indices, as it is common in files where each face 
+     * refers to its own vertices. This method uses a hash table that is
+     * keyed on the values of all attributes, so that each vertex of the
+     * result is unique.<br>
+     * <br>
+     * When the epsilon is 0, then the values are compared exactly. 
+     * Otherwise, all values are rounded to the nearest multiple of the
+     * epsilon before they are compared, and the values of the first 
+     * vertex of each set of merged vertices are used. Vertices of faces
+     * that contain texture coordinates or normals are never merged with 
+     * vertices of faces that do not contain them.<br>
+     * <br>
+     * The faces and groups of the input are preserved.
+     *
+     * @param <T> The type of the output
+     * @param input The input {@link ReadableObj}
+     * @param epsilon The epsilon for quantizing the values, or 0 to
+     * compare them exactly
+     * @param output The output {@link WritableObj}
+     * @return The given output 
+     * @throws IllegalArgumentException If the epsilon is negative
+     */
+    public static <T extends WritableObj> T weldVertices(
+        ReadableObj input, float epsilon, T output)
+    {
+        output.setMtlFileNames(input.getMtlFileNames());
+
+        // The key of each vertex consists of 4 vertex coordinates, 
+        // 3 texture coordinates and 3 normal coordinates
+        VertexWelder welder = 
+            new VertexWelder(10, epsilon, input.getNumVertices());
+        float values[] = new float[10];
+        int numCorners = 0;
+        for (int i = 0; i < input.getNumFaces(); i++)
+        {
+            numCorners += input.getFace(i).getNumVertices();
+        }
+        int weldedIndices[] = new int[numCorners];
+        int sources[] = new int[input.getNumVertices() * 3 + 3];
+        boolean foundTexCoords = false;
+        boolean foundNormals = false;
+        int corner = 0;
+        for (int i = 0; i < input.getNumFaces(); i++)
+        {
+            ObjFace face = input.getFace(i);
+            boolean hasTexCoords = face.containsTexCoordIndices();
+            boolean hasNormals = face.containsNormalIndices();
+            foundTexCoords |= hasTexCoords;
+            foundNormals |= hasNormals;
+            for (int j = 0; j < face.getNumVertices(); j++)
+            {
+                int vertexIndex = face.getVertexIndex(j);
+                FloatTuple vertex = input.getVertex(vertexIndex);
+                int tag = vertex.getDimensions();
+                copyValues(vertex, values, 0, 4);
+                int texCoordIndex = -1;
+                if (hasTexCoords)
+                {
+                    texCoordIndex = face.getTexCoordIndex(j);
+                    FloatTuple texCoord = input.getTexCoord(texCoordIndex);
+                    tag |= (texCoord.getDimensions() + 1) << 3;
+                    copyValues(texCoord, values, 4, 3);
+                }
+                else
+                {
+                    copyValues(null, values, 4, 3);
+                }
+                int normalIndex = -1;
+                if (hasNormals)
+                {
+                    normalIndex = face.getNormalIndex(j);
+                    tag |= 1 << 6;
+                    copyValues(input.getNormal(normalIndex), values, 7, 3);
+                }
+                else
+                {
+                    copyValues(null, values, 7, 3);
+                }
+
+                int numVertices = welder.getNumVertices();
+                int weldedIndex = welder.weld(values, 0, tag);
+                if (weldedIndex == numVertices)
+                {
+                    if (sources.length < (numVertices + 1) * 3)
+                    {
+                        sources = Arrays.copyOf(sources, 
+                            (numVertices + (numVertices >> 1) + 16) * 3);
+                    }
+                    sources[numVertices * 3 + 0] = vertexIndex;
+                    sources[numVertices * 3 + 1] = texCoordIndex;
+                    sources[numVertices * 3 + 2] = normalIndex;
+                }
+                weldedIndices[corner++] = weldedIndex;
+            }
+        }
+
+        int numWeldedVertices = welder.getNumVertices();
+        for (int i = 0; i < numWeldedVertices; i++)
+        {
+            output.addVertex(input.getVertex(sources[i * 3 + 0]));
+        }
+        if (foundTexCoords)
+        {
+            for (int i = 0; i < numWeldedVertices; i++)
+            {
+                int texCoordIndex = Math.max(0, sources[i * 3 + 1]);
+                output.addTexCoord(input.getTexCoord(texCoordIndex));
+            }
+        }
+        if (foundNormals)
+        {
+            for (int i = 0; i < numWeldedVertices; i++)
+            {
+                int normalIndex = Math.max(0, sources[i * 3 + 2]);
+                output.addNormal(input.getNormal(normalIndex));
+            }
+        }
+
+        corner = 0;
+        for (int i = 0; i < input.getNumFaces(); i++)
+        {
+            ObjFace inputFace = input.getFace(i);
+
+            activateGroups(input, inputFace, output);
+
+            int n = inputFace.getNumVertices();
+            int v[] = Arrays.copyOfRange(weldedIndices, corner, corner + n);
+            int vt[] = inputFace.containsTexCoordIndices() ? v.clone() : null;
+            int vn[] = inputFace.containsNormalIndices() ? v.clone() : null;
+            output.addFace(ObjFaces.create(v, vt, vn));
+            corner += n;
+        }
+        return output;
+    }
+
+    /**
+     * Copy the first <code>n</code> values of the given tuple into the
+     * given array, filling missing values with 0
+     *
+     * @param tuple The tuple. If this is <code>null</code>, then only
+     * zeros are written.
+     * @param values The target array
+     * @param offset The offset in the target array
+     * @param n The number of values
+     */
+    private static void copyValues(
+        FloatTuple tuple, float values[], int offset, int n)
+    {
+        int dimensions = tuple == null ? 0 : tuple.getDimensions();
+        for (int i = 0; i < n; i++)
+        {
+            values[offset + i] = i < dimensions ? tuple.get(i) : 0.0f;
+        }
+    }
+
+    
+    /**
+     * SAFE SOFTWARE INC.
+     * Converts the given {@link ReadableObj} into the buffers that are
+     * required for rendering it with OpenGL, one {@link ObjRenderBuffers}
+     * for each non-empty material group.<br>
+     * <br>
+     * The result contains the same vertices and indices as the result of
+     * applying {@link #triangulate(ReadableObj)},
+     * {@link #makeTexCoordsUnique(ReadableObj)},
+     * {@link #makeNormalsUnique(ReadableObj)} and
+     * {@link #makeVertexIndexed(ReadableObj)}, splitting the result with
+     * {@link ObjSplitting#splitByMaterialGroups(ReadableObj)}, and
+     * obtaining the vertices, texture coordinates, normals and face vertex
+     * indices of each part with {@link ObjData}. However, no intermediate
+     * {@link Obj} objects are created, and the vertex attributes are
+     * interleaved. If the input does not contain any material groups, then
+     * the result will contain a single entry with the empty string as its
+     * key, with the data of the whole input.<br>
+     * <br>
+     * The only difference to the sequence of operations described above
+     * occurs for a material group that contains faces with and without
+     * texture coordinates (or normals): In the interleaved data, each
+     * vertex receives the texture coordinate (or normal) that was assigned
+     * to it when making the data vertex indexed.
+     *
+     * @param input The input {@link ReadableObj}
+     * @return The mapping from material group names to render buffers,
+     * in the order of the material groups
+     */
+    public static Map<String, ObjRenderBuffers> convertToRenderBuffers(
+        ReadableObj input)
+    {
+        return ObjRenderBuffersConverter.convert(input);
+    }
+
+
+    /**
+     * SAFE SOFTWARE INC.
+     * Converts the given {@link ReadableObj} into the buffers that are
+     * required for rendering it with OpenGL, exactly as
+     * {@link #convertToRenderBuffers(ReadableObj)}, but additionally 
+     * merges identical vertices within each material group.<br>
+     * <br>
+     * Two vertices are identical when all their interleaved values are
+     * equal. When the epsilon is 0, then the values are compared exactly.
+     * Otherwise, the values are rounded to the nearest multiple of the
+     * epsilon before they are compared, and the values of the first 
+     * vertex of each set of merged vertices are used.
+     *
+     * @param input The input {@link ReadableObj}
+     * @param weldEpsilon The epsilon for quantizing the values, or 0 to
+     * compare them exactly
+     * @return The mapping from material group names to render buffers,
+     * in the order of the material groups
+     * @throws IllegalArgumentException If the epsilon is negative
+     */
+    public static Map<String, ObjRenderBuffers> convertToRenderBuffers(
+        ReadableObj input, float weldEpsilon)
+    {
+        return ObjRenderBuffersConverter.convert(input, weldEpsilon);
+    }
+
+    /**
+     * SAFE SOFTWARE INC.
+     * Merges the given {@link ObjRenderBuffers} into one. The vertices
+     * and triangles of the inputs are appended in the given order, and
+     * the indices of each input are offset by the number of vertices of
+     * the inputs before it. If the list only contains one element, then
+     * this element is returned.
+     *
+     * @param renderBuffers The render buffers
+     * @return The merged render buffers
+     * @throws IllegalArgumentException If the list is empty, or if the
+     * inputs differ in whether they have normals or texture coordinates
+     */
+    public static ObjRenderBuffers mergeRenderBuffers(
+        List<ObjRenderBuffers> renderBuffers)
+    {
+        if (renderBuffers.isEmpty())
+        {
+            throw new IllegalArgumentException(
+                "The list of render buffers is empty");
+        }
+        if (renderBuffers.size() == 1)
+        {
+            return renderBuffers.get(0);
+        }
+        ObjRenderBuffers first = renderBuffers.get(0);
+        int numFloats = 0;
+        int numIndices = 0;
+        for (ObjRenderBuffers part : renderBuffers)
+        {
+            if (part.hasNormals() != first.hasNormals() ||
+                part.hasTexCoords() != first.hasTexCoords())
+            {
+                throw new IllegalArgumentException(
+                    "The render buffers have different vertex attributes");
+            }
+            numFloats += part.getVertexData().capacity();
+            numIndices += part.getIndices().capacity();
+        }
+        FloatBuffer vertexData = ObjData.createDirectFloatBuffer(numFloats);
+        IntBuffer indices = ObjData.createDirectIntBuffer(numIndices);
+        int firstVertex = 0;
+        for (ObjRenderBuffers part : renderBuffers)
+        {
+            FloatBuffer partVertexData = part.getVertexData().duplicate();
+            partVertexData.position(0);
+            vertexData.put(partVertexData);
+            IntBuffer partIndices = part.getIndices();
+            for (int i = 0; i < partIndices.capacity(); i++)
+            {
+                indices.put(firstVertex + partIndices.get(i));
+            }
+            firstVertex += part.getNumVertices();
+        }
+        vertexData.position(0);
+        indices.position(0);
+        return new ObjRenderBuffers(vertexData, indices,
+            first.hasNormals(), first.hasTexCoords());
+    }
+
     /**
      * Set the active group names and material group name in the given
      * output based on the group names and material group name that the
@@ -756,7 +1072,7 @@ public class ObjUtils
      * @param face The {@link ObjFace} to perform the activation for
      * @param output The output {@link WritableObj} 
      */
-    private static void activateGroups(
+    static void activateGroups(
         ReadableObj input, ObjFace face, WritableObj output)
     {
         Set<String> activatedGroupNames = 
@@ -43,6 +43,22 @@ public class Objs
     {
         return new DefaultObj();
     }
+
+    /**
+     * SAFE SOFTWARE INC.
+     * Creates a new {@link Obj} that stores its elements in primitive
+     * arrays. It behaves like the {@link Obj} returned by
+     * {@link #create()}, but requires considerably less memory for large
+     * models. The {@link FloatTuple} and {@link ObjFace} instances that
+     * it returns are created on demand, and the faces that are added to
+     * it are copied.
+     *
+     * @return The {@link Obj}
+     */
+    public static Obj createCompact()
+    {
+        return new CompactObj();
+    }
     
     /**
      * Create an {@link Obj} from the given (single-) indexed triangle data.<br>
@@ -0,0 +1,462 @@
+package de.javagl.obj;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * SAFE SOFTWARE INC.
+ * A compact, interleaved representation of the vertices of an
+ * {@link ObjRenderBuffers} instance. The indices of the render buffers
+ * remain valid for the quantized vertices.<br>
+ * <br>
+ * Each vertex consists of
+ * <ul>
+ *   <li>
+ *     The position, as three <code>unsigned short</code> values that are
+ *     normalized to the bounding box of all positions, followed by two
+ *     bytes of padding (8 bytes)
+ *   </li>
+ *   <li>
+ *     The normal, if present, as two <code>byte</code> values in
+ *     [-127,127] that contain the octahedral encoding of the normal,
+ *     followed by two bytes of padding (4 bytes)
+ *   </li>
+ *   <li>
+ *     The texture coordinates, if present, as two <code>unsigned
+ *     short</code> values that are normalized to the range of all texture
+ *     coordinates (4 bytes)
+ *   </li>
+ * </ul>
+ * All attributes start at a multiple of 4 bytes. When the positions and
+ * texture coordinates are read as normalized values by OpenGL (in the
+ * range [0,1]), the original values can be computed with the
+ * {@link #getPositionDequantization() position dequantization matrix}
+ * and the {@link #getTexCoordDequantization() texture coordinate
+ * dequantization}. The normals should not be read as normalized values,
+ * because the normalization of signed values differs between OpenGL
+ * versions. They can be decoded with {@link #decodeOctahedral}.
+ */
+public final class QuantizedRenderBuffers
+{
+    /**
+     * The size of the position of one vertex, in bytes
+     */
+    private static final int POSITION_SIZE = 8;
+
+    /**
+     * The size of the normal of one vertex, in bytes
+     */
+    private static final int NORMAL_SIZE = 4;
+
+    /**
+     * The size of the texture coordinates of one vertex, in bytes
+     */
+    private static final int TEX_COORD_SIZE = 4;
+
+    /**
+     * The maximum value of an unsigned short
+     */
+    private static final int MAX_UNSIGNED_SHORT = 65535;
+
+    /**
+     * The maximum value of a signed byte that is used for the normals
+     */
+    private static final int MAX_BYTE = 127;
+
+    /**
+     * The vertex data
+     */
+    private final ByteBuffer vertexData;
+
+    /**
+     * The number of vertices
+     */
+    private final int numVertices;
+
+    /**
+     * Whether the vertices contain normals
+     */
+    private final boolean hasNormals;
+
+    /**
+     * Whether the vertices contain texture coordinates
+     */
+    private final boolean hasTexCoords;
+
+    /**
+     * The position dequantization matrix
+     */
+    private final float positionDequantization[];
+
+    /**
+     * The texture coordinate dequantization
+     */
+    private final float texCoordDequantization[];
+
+    /**
+     * Creates new quantized render buffers
+     *
+     * @param vertexData The vertex data
+     * @param numVertices The number of vertices
+     * @param hasNormals Whether the vertices contain normals
+     * @param hasTexCoords Whether the vertices contain texture coordinates
+     * @param positionDequantization The position dequantization matrix
+     * @param texCoordDequantization The texture coordinate dequantization
+     */
+    private QuantizedRenderBuffers(ByteBuffer vertexData, int numVertices,
+        boolean hasNormals, boolean hasTexCoords,
+        float positionDequantization[], float texCoordDequantization[])
+    {
+        this.vertexData = vertexData;
+        this.numVertices = numVertices;
+        this.hasNormals = hasNormals;
+        this.hasTexCoords = hasTexCoords;
+        this.positionDequantization = positionDequantization;
+        this.texCoordDequantization = texCoordDequantization;
+    }
+
+    /**
+     * Quantize the vertices of the given {@link ObjRenderBuffers}.
+     *
+     * @param renderBuffers The render buffers
+     * @return The quantized render buffers
+     */
+    public static QuantizedRenderBuffers quantize(
+        ObjRenderBuffers renderBuffers)
+    {
+        FloatBuffer input = renderBuffers.getVertexData();
+        int inputStride = renderBuffers.getStride();
+        int numVertices = renderBuffers.getNumVertices();
+        boolean hasNormals = renderBuffers.hasNormals();
+        boolean hasTexCoords = renderBuffers.hasTexCoords();
+        int normalOffset = renderBuffers.getNormalOffset();
+        int texCoordOffset = renderBuffers.getTexCoordOffset();
+
+        float positionMin[] = new float[3];
+        float positionSize[] = new float[3];
+        computeRange(input, inputStride, numVertices, 0, 3,
+            positionMin, positionSize);
+        float texCoordMin[] = new float[2];
+        float texCoordSize[] = new float[2];
+        if (hasTexCoords)
+        {
+            computeRange(input, inputStride, numVertices, texCoordOffset, 2,
+                texCoordMin, texCoordSize);
+        }
+
+        int stride = computeStride(hasNormals, hasTexCoords);
+        ByteBuffer vertexData = ByteBuffer.allocateDirect(numVertices * stride)
+            .order(ByteOrder.nativeOrder());
+        byte octahedral[] = new byte[2];
+        for (int v = 0; v < numVertices; v++)
+        {
+            int i = v * inputStride;
+            int o = v * stride;
+            for (int j = 0; j < 3; j++)
+            {
+                vertexData.putShort(o + j * 2, quantize(
+                    input.get(i + j), positionMin[j], positionSize[j]));
+            }
+            o += POSITION_SIZE;
+            if (hasNormals)
+            {
+                encodeOctahedral(input.get(i + normalOffset),
+                    input.get(i + normalOffset + 1),
+                    input.get(i + normalOffset + 2), octahedral);
+                vertexData.put(o, octahedral[0]);
+                vertexData.put(o + 1, octahedral[1]);
+                o += NORMAL_SIZE;
+            }
+            if (hasTexCoords)
+            {
+                for (int j = 0; j < 2; j++)
+                {
+                    vertexData.putShort(o + j * 2,
+                        quantize(input.get(i + texCoordOffset + j),
+                            texCoordMin[j], texCoordSize[j]));
+                }
+            }
+        }
+
+        float positionDequantization[] = new float[16];
+        positionDequantization[0] = positionSize[0];
+        positionDequantization[5] = positionSize[1];
+        positionDequantization[10] = positionSize[2];
+        positionDequantization[12] = positionMin[0];
+        positionDequantization[13] = positionMin[1];
+        positionDequantization[14] = positionMin[2];
+        positionDequantization[15] = 1.0f;
+        float texCoordDequantization[] = {
+            texCoordSize[0], texCoordSize[1], texCoordMin[0], texCoordMin[1] };
+        return new QuantizedRenderBuffers(vertexData, numVertices,
+            hasNormals, hasTexCoords,
+            positionDequantization, texCoordDequantization);
+    }
+
+    /**
+     * Returns the direct buffer that contains the interleaved vertex data.
+     * Its position will be 0, and its limit and capacity will match the
+     * stored data.
+     *
+     * @return The vertex data
+     */
+    public ByteBuffer getVertexData()
+    {
+        return vertexData;
+    }
+
+    /**
+     * Returns the number of vertices
+     *
+     * @return The number of vertices
+     */
+    public int getNumVertices()
+    {
+        return numVertices;
+    }
+
+    /**
+     * Returns whether the vertices contain normals
+     *
+     * @return Whether the vertices contain normals
+     */
+    public boolean hasNormals()
+    {
+        return hasNormals;
+    }
+
+    /**
+     * Returns whether the vertices contain texture coordinates
+     *
+     * @return Whether the vertices contain texture coordinates
+     */
+    public boolean hasTexCoords()
+    {
+        return hasTexCoords;
+    }
+
+    /**
+     * Returns the size of one vertex, in bytes
+     *
+     * @return The stride
+     */
+    public int getStride()
+    {
+        return computeStride(hasNormals, hasTexCoords);
+    }
+
+    /**
+     * Returns the offset of the normal in each vertex, in bytes, or -1 if
+     * the vertices do not contain normals
+     *
+     * @return The normal offset
+     */
+    public int getNormalOffset()
+    {
+        return hasNormals ? POSITION_SIZE : -1;
+    }
+
+    /**
+     * Returns the offset of the texture coordinates in each vertex, in
+     * bytes, or -1 if the vertices do not contain texture coordinates
+     *
+     * @return The texture coordinate offset
+     */
+    public int getTexCoordOffset()
+    {
+        if (!hasTexCoords)
+        {
+            return -1;
+        }
+        return hasNormals ? POSITION_SIZE + NORMAL_SIZE : POSITION_SIZE;
+    }
+
+    /**
+     * Returns a reference to the 4x4 matrix, in column-major order, that
+     * transforms the normalized positions (with all coordinates in [0,1])
+     * into the original positions.
+     *
+     * @return The position dequantization matrix
+     */
+    public float[] getPositionDequantization()
+    {
+        return positionDequantization;
+    }
+
+    /**
+     * Returns a reference to the texture coordinate dequantization. This
+     * is an array <code>{scaleU, scaleV, offsetU, offsetV}</code>, so
+     * that the original texture coordinates are <code>(u * scaleU +
+     * offsetU, v * scaleV + offsetV)</code> for the normalized texture
+     * coordinates <code>(u, v)</code> in [0,1].
+     *
+     * @return The texture coordinate dequantization
+     */
+    public float[] getTexCoordDequantization()
+    {
+        return texCoordDequantization;
+    }
+
+    /**
+     * Computes the stride of the vertices
+     *
+     * @param hasNormals Whether the vertices contain normals
+     * @param hasTexCoords Whether the vertices contain texture coordinates
+     * @return The stride, in bytes
+     */
+    private static int computeStride(boolean hasNormals, boolean hasTexCoords)
+    {
+        return POSITION_SIZE +
+            (hasNormals ? NORMAL_SIZE : 0) +
+            (hasTexCoords ? TEX_COORD_SIZE : 0);
+    }
+
+    /**
+     * Computes the minimum and the size of the range of the given
+     * components of all vertices
+     *
+     * @param data The vertex data
+     * @param stride The stride, in floats
+     * @param numVertices The number of vertices
+     * @param offset The offset of the first component, in floats
+     * @param numComponents The number of components
+     * @param min Will store the minimum
+     * @param size Will store the size
+     */
+    private static void computeRange(FloatBuffer data, int stride,
+        int numVertices, int offset, int numComponents,
+        float min[], float size[])
+    {
+        for (int j = 0; j < numComponents; j++)
+        {
+            float minValue = Float.POSITIVE_INFINITY;
+            float maxValue = Float.NEGATIVE_INFINITY;
+            for (int v = 0; v < numVertices; v++)
+            {
+                float value = data.get(v * stride + offset + j);
+                minValue = Math.min(minValue, value);
+                maxValue = Math.max(maxValue, value);
+            }
+            if (numVertices == 0)
+            {
+                minValue = 0;
+                maxValue = 0;
+            }
+            min[j] = minValue;
+            size[j] = maxValue - minValue;
+        }
+    }
+
+    /**
+     * Quantize the given value to an unsigned short, relative to the given
+     * range
+     *
+     * @param value The value
+     * @param min The minimum of the range
+     * @param size The size of the range
+     * @return The quantized value, as the bits of an unsigned short
+     */
+    private static short quantize(float value, float min, float size)
+    {
+        if (size == 0)
+        {
+            return 0;
+        }
+        float normalized = (value - min) / size;
+        int quantized = Math.round(normalized * MAX_UNSIGNED_SHORT);
+        return (short) Math.max(0, Math.min(MAX_UNSIGNED_SHORT, quantized));
+    }
+
+    /**
+     * Computes the octahedral encoding of the given normal, as two signed
+     * bytes that represent values in [-1,1]. Of the possible roundings of
+     * the encoded values, the one whose decoded normal is closest to the
+     * given normal is chosen. A zero-length normal is encoded as (0,0),
+     * which decodes to (0,0,1).
+     *
+     * @param x The x-component of the normal
+     * @param y The y-component of the normal
+     * @param z The z-component of the normal
+     * @param result The array that will store the encoded values
+     */
+    static void encodeOctahedral(float x, float y, float z, byte result[])
+    {
+        float l1 = Math.abs(x) + Math.abs(y) + Math.abs(z);
+        if (!(l1 > 0))
+        {
+            result[0] = 0;
+            result[1] = 0;
+            return;
+        }
+        float u = x / l1;
+        float v = y / l1;
+        if (z < 0)
+        {
+            float previousU = u;
+            u = (1 - Math.abs(v)) * signNotZero(previousU);
+            v = (1 - Math.abs(previousU)) * signNotZero(v);
+        }
+        float length = (float) Math.sqrt(x * x + y * y + z * z);
+        float bestDot = Float.NEGATIVE_INFINITY;
+        float decoded[] = new float[3];
+        for (int i = 0; i < 4; i++)
+        {
+            float scaledU = u * MAX_BYTE;
+            float scaledV = v * MAX_BYTE;
+            int qu = (int) ((i & 1) == 0 ?
+                Math.floor(scaledU) : Math.ceil(scaledU));
+            int qv = (int) ((i & 2) == 0 ?
+                Math.floor(scaledV) : Math.ceil(scaledV));
+            qu = Math.max(-MAX_BYTE, Math.min(MAX_BYTE, qu));
+            qv = Math.max(-MAX_BYTE, Math.min(MAX_BYTE, qv));
+            decodeOctahedral((byte) qu, (byte) qv, decoded);
+            float dot = (decoded[0] * x + decoded[1] * y + decoded[2] * z) /
+                length;
+            if (dot > bestDot)
+            {
+                bestDot = dot;
+                result[0] = (byte) qu;
+                result[1] = (byte) qv;
+            }
+        }
+    }
+
+    /**
+     * Decodes the given octahedral encoding of a normal. This corresponds
+     * to the decoding that has to be done in a shader.
+     *
+     * @param encodedU The first encoded value
+     * @param encodedV The second encoded value
+     * @param result The array that will store the unit length normal
+     */
+    public static void decodeOctahedral(
+        byte encodedU, byte encodedV, float result[])
+    {
+        float u = Math.max(-1.0f, encodedU / (float) MAX_BYTE);
+        float v = Math.max(-1.0f, encodedV / (float) MAX_BYTE);
+        float x = u;
+        float y = v;
+        float z = 1 - Math.abs(u) - Math.abs(v);
+        if (z < 0)
+        {
+            x = (1 - Math.abs(v)) * signNotZero(u);
+            y = (1 - Math.abs(u)) * signNotZero(v);
+        }
+        float length = (float) Math.sqrt(x * x + y * y + z * z);
+        result[0] = x / length;
+        result[1] = y / length;
+        result[2] = z / length;
+    }
+
+    /**
+     * Returns 1 if the given value is not negative, and -1 otherwise
+     *
+     * @param value The value
+     * @return The sign
+     */
+    private static float signNotZero(float value)
+    {
+        return value >= 0 ? 1.0f : -1.0f;
+    }
+}
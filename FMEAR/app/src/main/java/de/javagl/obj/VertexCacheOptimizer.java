@@ -0,0 +1,447 @@
+package de.javagl.obj;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * SAFE SOFTWARE INC.
+ * Methods for reordering indexed triangle data so that it makes better use
+ * of the post-transform vertex cache of the GPU.<br>
+ * <br>
+ * The triangles are reordered with the linear-speed vertex cache
+ * optimization algorithm that was described by Tom Forsyth: Each vertex
+ * receives a score that depends on its position in a simulated LRU cache
+ * and on the number of triangles that still use it, and the triangle with
+ * the highest sum of vertex scores among the triangles that use a cached
+ * vertex is emitted next. Afterwards, the vertices can be reordered in
+ * the order in which they are first used, which improves the locality of
+ * the vertex fetches.<br>
+ * <br>
+ * The effect can be measured with
+ * {@link #computeAcmr(IntBuffer, int)}, which simulates a FIFO cache.
+ * <br>
+ * <br>
+ * All buffers are accessed using the <b>absolute</b> access methods, up
+ * to their capacity, so their positions are not affected.
+ */
+public class VertexCacheOptimizer
+{
+    /**
+     * The default size of the FIFO cache for computing the ACMR. This is
+     * a conservative estimate for mobile GPUs.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 16;
+
+    /**
+     * The size of the LRU cache that is assumed for the vertex scores
+     */
+    private static final int MAX_CACHE_SIZE = 32;
+
+    /**
+     * The exponent for the decay of the score of cached vertices
+     */
+    private static final float CACHE_DECAY_POWER = 1.5f;
+
+    /**
+     * The score of the vertices of the triangle that was emitted last
+     */
+    private static final float LAST_TRIANGLE_SCORE = 0.75f;
+
+    /**
+     * The scale of the score for vertices that are used by few triangles
+     */
+    private static final float VALENCE_BOOST_SCALE = 2.0f;
+
+    /**
+     * The exponent of the score for vertices that are used by few
+     * triangles
+     */
+    private static final float VALENCE_BOOST_POWER = 0.5f;
+
+    /**
+     * The largest number of triangles for which the valence score is
+     * looked up in a table
+     */
+    private static final int MAX_TABLE_VALENCE = 64;
+
+    /**
+     * The score for each position in the LRU cache
+     */
+    private static final float CACHE_POSITION_SCORES[] =
+        createCachePositionScores();
+
+    /**
+     * The score for each number of remaining triangles
+     */
+    private static final float VALENCE_SCORES[] = createValenceScores();
+
+    /**
+     * Reorder the triangles and the vertices of the given render buffers
+     * in place, to improve the vertex cache and vertex fetch efficiency.
+     * The rendered result does not change, except for the order in which
+     * the triangles are drawn.
+     *
+     * @param renderBuffers The render buffers
+     */
+    public static void optimize(ObjRenderBuffers renderBuffers)
+    {
+        optimizeIndices(
+            renderBuffers.getIndices(), renderBuffers.getNumVertices());
+        reorderVertices(renderBuffers.getVertexData(),
+            renderBuffers.getStride(), renderBuffers.getIndices());
+    }
+
+    /**
+     * Reorder the triangles in the given index buffer in place, to
+     * improve the vertex cache efficiency. Three consecutive indices form
+     * one triangle. The order of the vertices within each triangle is
+     * preserved.
+     *
+     * @param indices The indices
+     * @param numVertices The number of vertices. All indices must be
+     * smaller than this number.
+     */
+    public static void optimizeIndices(IntBuffer indices, int numVertices)
+    {
+        int numTriangles = indices.capacity() / 3;
+        int numIndices = numTriangles * 3;
+        int triangles[] = new int[numIndices];
+        for (int i = 0; i < numIndices; i++)
+        {
+            triangles[i] = indices.get(i);
+        }
+
+        // The triangles that use each vertex. The first activeCounts[v]
+        // entries of each range are the triangles that have not been
+        // emitted yet.
+        int activeCounts[] = new int[numVertices];
+        for (int i = 0; i < numIndices; i++)
+        {
+            activeCounts[triangles[i]]++;
+        }
+        int offsets[] = new int[numVertices + 1];
+        for (int v = 0; v < numVertices; v++)
+        {
+            offsets[v + 1] = offsets[v] + activeCounts[v];
+        }
+        int vertexTriangles[] = new int[numIndices];
+        int fillOffsets[] = Arrays.copyOf(offsets, numVertices);
+        for (int i = 0; i < numIndices; i++)
+        {
+            vertexTriangles[fillOffsets[triangles[i]]++] = i / 3;
+        }
+
+        float vertexScores[] = new float[numVertices];
+        for (int v = 0; v < numVertices; v++)
+        {
+            vertexScores[v] = computeScore(-1, activeCounts[v]);
+        }
+        int bestTriangle = -1;
+        float bestScore = -1;
+        for (int t = 0; t < numTriangles; t++)
+        {
+            float score =
+                vertexScores[triangles[t * 3 + 0]] +
+                vertexScores[triangles[t * 3 + 1]] +
+                vertexScores[triangles[t * 3 + 2]];
+            if (score > bestScore)
+            {
+                bestScore = score;
+                bestTriangle = t;
+            }
+        }
+
+        boolean emitted[] = new boolean[numTriangles];
+        int nextUnemitted = 0;
+        int cache[] = new int[MAX_CACHE_SIZE + 3];
+        int newCache[] = new int[MAX_CACHE_SIZE + 3];
+        int cacheSize = 0;
+        for (int n = 0; n < numTriangles; n++)
+        {
+            if (bestTriangle == -1)
+            {
+                // No triangle uses a cached vertex: Continue with the
+                // next triangle in the input order
+                while (emitted[nextUnemitted])
+                {
+                    nextUnemitted++;
+                }
+                bestTriangle = nextUnemitted;
+            }
+            int t = bestTriangle;
+            emitted[t] = true;
+            indices.put(n * 3 + 0, triangles[t * 3 + 0]);
+            indices.put(n * 3 + 1, triangles[t * 3 + 1]);
+            indices.put(n * 3 + 2, triangles[t * 3 + 2]);
+
+            // Remove the triangle from the active triangles of its
+            // vertices, and put the vertices at the front of the cache
+            int newCacheSize = 0;
+            for (int c = 0; c < 3; c++)
+            {
+                int v = triangles[t * 3 + c];
+                int start = offsets[v];
+                int last = start + activeCounts[v] - 1;
+                for (int a = start; a <= last; a++)
+                {
+                    if (vertexTriangles[a] == t)
+                    {
+                        vertexTriangles[a] = vertexTriangles[last];
+                        vertexTriangles[last] = t;
+                        activeCounts[v]--;
+                        break;
+                    }
+                }
+                if (!contains(newCache, newCacheSize, v))
+                {
+                    newCache[newCacheSize++] = v;
+                }
+            }
+            int numTriangleVertices = newCacheSize;
+            for (int i = 0; i < cacheSize; i++)
+            {
+                int v = cache[i];
+                if (!contains(newCache, numTriangleVertices, v))
+                {
+                    newCache[newCacheSize++] = v;
+                }
+            }
+
+            // Update the scores of all vertices that are in the cache
+            // or have just been evicted from it
+            for (int i = 0; i < newCacheSize; i++)
+            {
+                int v = newCache[i];
+                int position = i < MAX_CACHE_SIZE ? i : -1;
+                vertexScores[v] = computeScore(position, activeCounts[v]);
+            }
+
+            // Compute the scores of the triangles that use these vertices,
+            // and find the best one
+            bestTriangle = -1;
+            bestScore = -1;
+            for (int i = 0; i < newCacheSize; i++)
+            {
+                int v = newCache[i];
+                int start = offsets[v];
+                int end = start + activeCounts[v];
+                for (int a = start; a < end; a++)
+                {
+                    int u = vertexTriangles[a];
+                    float score =
+                        vertexScores[triangles[u * 3 + 0]] +
+                        vertexScores[triangles[u * 3 + 1]] +
+                        vertexScores[triangles[u * 3 + 2]];
+                    if (score > bestScore)
+                    {
+                        bestScore = score;
+                        bestTriangle = u;
+                    }
+                }
+            }
+
+            int swap[] = cache;
+            cache = newCache;
+            newCache = swap;
+            cacheSize = Math.min(newCacheSize, MAX_CACHE_SIZE);
+        }
+    }
+
+    /**
+     * Reorder the vertices in the given interleaved vertex data in place,
+     * so that they appear in the order in which they are first used by
+     * the given indices, and update the indices accordingly. Vertices
+     * that are not used at all are moved to the end.
+     *
+     * @param vertexData The interleaved vertex data
+     * @param stride The number of floats for each vertex
+     * @param indices The indices
+     */
+    public static void reorderVertices(
+        FloatBuffer vertexData, int stride, IntBuffer indices)
+    {
+        int numVertices = vertexData.capacity() / stride;
+        int newIndices[] = new int[numVertices];
+        Arrays.fill(newIndices, -1);
+        int numNewIndices = 0;
+        for (int i = 0; i < indices.capacity(); i++)
+        {
+            int index = indices.get(i);
+            int newIndex = newIndices[index];
+            if (newIndex == -1)
+            {
+                newIndex = numNewIndices++;
+                newIndices[index] = newIndex;
+            }
+            indices.put(i, newIndex);
+        }
+        for (int v = 0; v < numVertices; v++)
+        {
+            if (newIndices[v] == -1)
+            {
+                newIndices[v] = numNewIndices++;
+            }
+        }
+
+        float oldData[] = new float[numVertices * stride];
+        for (int i = 0; i < oldData.length; i++)
+        {
+            oldData[i] = vertexData.get(i);
+        }
+        for (int v = 0; v < numVertices; v++)
+        {
+            int target = newIndices[v] * stride;
+            for (int j = 0; j < stride; j++)
+            {
+                vertexData.put(target + j, oldData[v * stride + j]);
+            }
+        }
+    }
+
+    /**
+     * Computes the average cache miss ratio (ACMR) of the given indices,
+     * which is the average number of vertices that have to be transformed
+     * for each triangle, assuming a FIFO post-transform vertex cache with
+     * the given size. The value is between 0.5 (for very large, regular
+     * meshes) and 3.0 (when no vertex is ever reused from the cache).
+     *
+     * @param indices The indices
+     * @param cacheSize The size of the cache
+     * @return The ACMR, or 0 if there are no triangles
+     */
+    public static float computeAcmr(IntBuffer indices, int cacheSize)
+    {
+        int numTriangles = indices.capacity() / 3;
+        if (numTriangles == 0)
+        {
+            return 0;
+        }
+        int numVertices = 0;
+        for (int i = 0; i < numTriangles * 3; i++)
+        {
+            numVertices = Math.max(numVertices, indices.get(i) + 1);
+        }
+
+        // The value of the miss counter when each vertex was put into the
+        // cache. A vertex is still in the FIFO cache when less than
+        // cacheSize other vertices have been put into it since then.
+        int insertions[] = new int[numVertices];
+        Arrays.fill(insertions, Integer.MIN_VALUE);
+        int misses = 0;
+        for (int i = 0; i < numTriangles * 3; i++)
+        {
+            int v = indices.get(i);
+            if (insertions[v] == Integer.MIN_VALUE ||
+                misses - insertions[v] > cacheSize)
+            {
+                insertions[v] = misses;
+                misses++;
+            }
+        }
+        return (float) misses / numTriangles;
+    }
+
+    /**
+     * Returns whether the given array contains the given value within
+     * its first <code>n</code> elements
+     *
+     * @param array The array
+     * @param n The number of elements
+     * @param value The value
+     * @return Whether the value was found
+     */
+    private static boolean contains(int array[], int n, int value)
+    {
+        for (int i = 0; i < n; i++)
+        {
+            if (array[i] == value)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the score of a vertex
+     *
+     * @param cachePosition The position of the vertex in the LRU cache,
+     * or -1 if it is not in the cache
+     * @param numTriangles The number of triangles that have not been
+     * emitted yet and use the vertex
+     * @return The score
+     */
+    private static float computeScore(int cachePosition, int numTriangles)
+    {
+        if (numTriangles == 0)
+        {
+            // No triangle needs this vertex any more
+            return -1;
+        }
+        float score = 0;
+        if (cachePosition >= 0)
+        {
+            score = CACHE_POSITION_SCORES[cachePosition];
+        }
+        if (numTriangles <= MAX_TABLE_VALENCE)
+        {
+            return score + VALENCE_SCORES[numTriangles];
+        }
+        return score + VALENCE_BOOST_SCALE *
+            (float) Math.pow(numTriangles, -VALENCE_BOOST_POWER);
+    }
+
+    /**
+     * Creates the table of scores for each position in the LRU cache
+     *
+     * @return The table
+     */
+    private static float[] createCachePositionScores()
+    {
+        float scores[] = new float[MAX_CACHE_SIZE];
+        for (int i = 0; i < MAX_CACHE_SIZE; i++)
+        {
+            if (i < 3)
+            {
+                // The vertices of the last triangle get a fixed score,
+                // so that the next triangle does not always reuse the
+                // same edge, which would result in bad strips
+                scores[i] = LAST_TRIANGLE_SCORE;
+            }
+            else
+            {
+                float scale = 1.0f / (MAX_CACHE_SIZE - 3);
+                scores[i] = (float) Math.pow(
+                    1.0f - (i - 3) * scale, CACHE_DECAY_POWER);
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Creates the table of scores for each number of remaining triangles
+     * of a vertex. Vertices with few remaining triangles get a higher
+     * score, so that they are finished first.
+     *
+     * @return The table
+     */
+    private static float[] createValenceScores()
+    {
+        float scores[] = new float[MAX_TABLE_VALENCE + 1];
+        for (int i = 1; i <= MAX_TABLE_VALENCE; i++)
+        {
+            scores[i] = VALENCE_BOOST_SCALE *
+                (float) Math.pow(i, -VALENCE_BOOST_POWER);
+        }
+        return scores;
+    }
+
+    /**
+     * Private constructor to prevent instantiation
+     */
+    private VertexCacheOptimizer()
+    {
+        // Private constructor to prevent instantiation
+    }
+}
@@ -0,0 +1,245 @@
+package de.javagl.obj;
+
+import java.util.Arrays;
+
+/**
+ * SAFE SOFTWARE INC.
+ * A hash table for finding identical vertices. Each vertex is given as a
+ * tuple of <code>stride</code> float values and an additional
+ * <code>int</code> tag. Two vertices are considered to be identical when
+ * their tags are equal and all their values are equal after they have
+ * been quantized.<br>
+ * <br>
+ * When the epsilon is 0, then the values are compared exactly (except
+ * for <code>0.0f</code> and <code>-0.0f</code>, which are considered to
+ * be equal). Otherwise, each value is rounded to the nearest multiple of
+ * the epsilon. Note that two values that differ by less than the epsilon
+ * may still be rounded to different multiples.<br>
+ * <br>
+ * The table uses open addressing with linear probing, and stores the
+ * quantized values in primitive arrays, so that no objects are created
+ * for the vertices.
+ */
+final class VertexWelder
+{
+    /**
+     * The number of values of each vertex
+     */
+    private final int stride;
+
+    /**
+     * The reciprocal of the epsilon, or 0 for exact comparisons
+     */
+    private final float inverseEpsilon;
+
+    /**
+     * The quantized values of the unique vertices
+     */
+    private int keys[];
+
+    /**
+     * The tags of the unique vertices
+     */
+    private int tags[];
+
+    /**
+     * The hash codes of the unique vertices
+     */
+    private int hashes[];
+
+    /**
+     * The table, containing the index of a unique vertex plus one, or 0
+     * for empty slots. The length is a power of two.
+     */
+    private int table[];
+
+    /**
+     * The number of unique vertices
+     */
+    private int numVertices;
+
+    /**
+     * A scratch array for the quantized values of the current vertex
+     */
+    private final int key[];
+
+    /**
+     * Creates a new vertex welder
+     *
+     * @param stride The number of values of each vertex
+     * @param epsilon The epsilon for quantizing the values, or 0 to
+     * compare them exactly
+     * @param expectedNumVertices The expected number of unique vertices
+     * @throws IllegalArgumentException If the epsilon is negative
+     */
+    VertexWelder(int stride, float epsilon, int expectedNumVertices)
+    {
+        if (!(epsilon >= 0))
+        {
+            throw new IllegalArgumentException(
+                "The epsilon must not be negative, but is " + epsilon);
+        }
+        this.stride = stride;
+        this.inverseEpsilon = epsilon == 0 ? 0 : 1.0f / epsilon;
+        int capacity = Math.max(16, expectedNumVertices);
+        this.keys = new int[capacity * stride];
+        this.tags = new int[capacity];
+        this.hashes = new int[capacity];
+        this.table = new int[tableLengthFor(capacity)];
+        this.key = new int[stride];
+    }
+
+    /**
+     * Returns the number of unique vertices that have been found
+     *
+     * @return The number of unique vertices
+     */
+    int getNumVertices()
+    {
+        return numVertices;
+    }
+
+    /**
+     * Returns the index of the unique vertex that is identical to the
+     * given vertex. If no such vertex exists yet, then the given vertex
+     * becomes a new unique vertex, and its index will be the previous
+     * {@link #getNumVertices() number of vertices}.
+     *
+     * @param values The array containing the values
+     * @param offset The offset of the first value of the vertex
+     * @param tag The tag of the vertex
+     * @return The index of the unique vertex
+     */
+    int weld(float values[], int offset, int tag)
+    {
+        int hash = tag;
+        for (int i = 0; i < stride; i++)
+        {
+            int k = quantize(values[offset + i]);
+            key[i] = k;
+            hash = hash * 31 + k;
+        }
+        hash = mix(hash);
+
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (true)
+        {
+            int entry = table[slot];
+            if (entry == 0)
+            {
+                break;
+            }
+            int index = entry - 1;
+            if (hashes[index] == hash && tags[index] == tag &&
+                keyEquals(index))
+            {
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        int index = numVertices;
+        if (index == tags.length)
+        {
+            int newCapacity = index + (index >> 1) + 16;
+            keys = Arrays.copyOf(keys, newCapacity * stride);
+            tags = Arrays.copyOf(tags, newCapacity);
+            hashes = Arrays.copyOf(hashes, newCapacity);
+        }
+        System.arraycopy(key, 0, keys, index * stride, stride);
+        tags[index] = tag;
+        hashes[index] = hash;
+        numVertices++;
+        table[slot] = index + 1;
+        if (numVertices * 2 > table.length)
+        {
+            rehash(table.length * 2);
+        }
+        return index;
+    }
+
+    /**
+     * Returns whether the current key is equal to the key of the
+     * specified unique vertex
+     *
+     * @param index The index of the unique vertex
+     * @return Whether the keys are equal
+     */
+    private boolean keyEquals(int index)
+    {
+        int base = index * stride;
+        for (int i = 0; i < stride; i++)
+        {
+            if (keys[base + i] != key[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Quantize the given value
+     *
+     * @param value The value
+     * @return The quantized value
+     */
+    private int quantize(float value)
+    {
+        if (inverseEpsilon == 0)
+        {
+            if (value == 0.0f)
+            {
+                return 0;
+            }
+            return Float.floatToIntBits(value);
+        }
+        return Math.round(value * inverseEpsilon);
+    }
+
+    /**
+     * Rebuild the table with the given length
+     *
+     * @param newLength The new length, a power of two
+     */
+    private void rehash(int newLength)
+    {
+        table = new int[newLength];
+        int mask = newLength - 1;
+        for (int index = 0; index < numVertices; index++)
+        {
+            int slot = hashes[index] & mask;
+            while (table[slot] != 0)
+            {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = index + 1;
+        }
+    }
+
+    /**
+     * Returns the table length for the given number of vertices, which
+     * is the smallest power of two that is at least twice as large
+     *
+     * @param numVertices The number of vertices
+     * @return The table length
+     */
+    private static int tableLengthFor(int numVertices)
+    {
+        return Integer.highestOneBit(Math.max(1, numVertices * 2 - 1)) << 1;
+    }
+
+    /**
+     * Spread the bits of the given hash code, so that the lower bits
+     * depend on all bits
+     *
+     * @param hash The hash code
+     * @return The mixed hash code
+     */
+    private static int mix(int hash)
+    {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,148 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/** Tests for the {@link Etc1Encoder}. */
+public class Etc1EncoderTest {
+
+  // Creates an opaque RGBA image with smooth gradients, some edges and a little noise, which is
+  // roughly like a photographic texture.
+  private static ByteBuffer createImage(int width, int height, long seed) {
+    Random random = new Random(seed);
+    ByteBuffer rgba = ByteBuffer.allocateDirect(4 * width * height);
+    for (int y = 0; y < height; ++y) {
+      for (int x = 0; x < width; ++x) {
+        double wave = Math.sin(x * 0.05) * Math.cos(y * 0.03);
+        int stripe = ((x / 37) + (y / 23)) % 3 == 0 ? 60 : 0;
+        int r = clamp((int) (128 + 100 * wave) + stripe + random.nextInt(9) - 4);
+        int g = clamp((int) (x * 255.0 / width) - stripe / 2 + random.nextInt(9) - 4);
+        int b = clamp((int) (y * 255.0 / height) + random.nextInt(9) - 4);
+        rgba.put((byte) r).put((byte) g).put((byte) b).put((byte) 0xFF);
+      }
+    }
+    rgba.rewind();
+    return rgba;
+  }
+
+  private static int clamp(int value) {
+    return Math.max(0, Math.min(255, value));
+  }
+
+  // Returns the peak signal to noise ratio of the RGB channels of the given images, in dB.
+  private static double computePsnr(ByteBuffer a, ByteBuffer b, int width, int height) {
+    double sum = 0;
+    for (int i = 0; i < 4 * width * height; ++i) {
+      if (i % 4 == 3) {
+        continue;
+      }
+      int d = (a.get(i) & 0xFF) - (b.get(i) & 0xFF);
+      sum += d * d;
+    }
+    double meanSquaredError = sum / (3.0 * width * height);
+    return 10 * Math.log10(255 * 255 / Math.max(meanSquaredError, 1e-10));
+  }
+
+  private static ByteBuffer encodeAndDecode(ByteBuffer rgba, int width, int height) {
+    ByteBuffer etc1 = ByteBuffer.allocateDirect(Etc1Encoder.getEncodedSize(width, height));
+    Etc1Encoder.encode(rgba, width, height, etc1);
+    ByteBuffer decoded = ByteBuffer.allocateDirect(4 * width * height);
+    Etc1Encoder.decode(etc1, width, height, decoded);
+    return decoded;
+  }
+
+  @Test
+  public void computesEncodedSizes() {
+    assertEquals(8, Etc1Encoder.getEncodedSize(1, 1));
+    assertEquals(8, Etc1Encoder.getEncodedSize(4, 4));
+    assertEquals(16, Etc1Encoder.getEncodedSize(5, 4));
+    assertEquals(512 * 512 / 2, Etc1Encoder.getEncodedSize(512, 512));
+  }
+
+  @Test
+  public void uniformBlocksKeepTheirColor() {
+    int[][] colors = {{0x88, 0x33, 0xFF}, {0x84, 0x84, 0x84}, {0, 0, 0}};
+    for (int[] color : colors) {
+      ByteBuffer rgba = ByteBuffer.allocateDirect(4 * 16);
+      for (int i = 0; i < 16; ++i) {
+        rgba.put((byte) color[0]).put((byte) color[1]).put((byte) color[2]).put((byte) 0xFF);
+      }
+      rgba.rewind();
+      ByteBuffer decoded = encodeAndDecode(rgba, 4, 4);
+      // The smallest modifiers are 2 and -2
+      for (int i = 0; i < 16; ++i) {
+        for (int c = 0; c < 3; ++c) {
+          int value = decoded.get(4 * i + c) & 0xFF;
+          assertTrue(Math.abs(value - color[c]) <= 2);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void twoColorBlocksUseTheSubBlocks() {
+    // A block with a dark top and a bright bottom half is encoded with flipped sub-blocks
+    ByteBuffer rgba = ByteBuffer.allocateDirect(4 * 16);
+    for (int y = 0; y < 4; ++y) {
+      for (int x = 0; x < 4; ++x) {
+        int value = y < 2 ? 20 : 230;
+        rgba.put((byte) value).put((byte) value).put((byte) value).put((byte) 0xFF);
+      }
+    }
+    rgba.rewind();
+    ByteBuffer decoded = encodeAndDecode(rgba, 4, 4);
+    assertTrue(computePsnr(rgba, decoded, 4, 4) > 40);
+  }
+
+  @Test
+  public void encodedImagesHaveAHighPsnr() {
+    int width = 256;
+    int height = 192;
+    ByteBuffer rgba = createImage(width, height, 0);
+    double psnr = computePsnr(rgba, encodeAndDecode(rgba, width, height), width, height);
+    assertTrue("PSNR " + psnr, psnr > 32);
+
+    // Sizes that are not multiples of 4
+    ByteBuffer odd = createImage(37, 19, 1);
+    assertTrue(computePsnr(odd, encodeAndDecode(odd, 37, 19), 37, 19) > 32);
+  }
+
+  @Test
+  public void detectsOpaqueImages() {
+    ByteBuffer rgba = createImage(8, 8, 0);
+    assertTrue(Etc1Encoder.isOpaque(rgba, 8, 8));
+    rgba.put(4 * 63 + 3, (byte) 0xFE);
+    assertFalse(Etc1Encoder.isOpaque(rgba, 8, 8));
+  }
+
+  /**
+   * Measures the throughput of encoding a 1024x1024 image, which should be at least 1 megapixel per
+   * second, so that the textures of a dataset are not encoded much slower than they are decoded.
+   */
+  @Test
+  @Ignore("Benchmark, run by hand")
+  public void benchmarkEncodeThroughput() {
+    int size = 1024;
+    ByteBuffer rgba = createImage(size, size, 0);
+    ByteBuffer etc1 = ByteBuffer.allocateDirect(Etc1Encoder.getEncodedSize(size, size));
+    long bestNanos = Long.MAX_VALUE;
+    for (int run = 0; run < 3; ++run) {
+      long start = System.nanoTime();
+      Etc1Encoder.encode(rgba, size, size, etc1);
+      bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+    }
+    double megapixels = size * size / 1e6;
+    double megapixelsPerSecond = megapixels / (bestNanos / 1e9);
+    assertEquals(4 * size * size / 8, etc1.capacity());
+    assertTrue(String.format(Locale.ENGLISH,
+        "ETC1 encoding of %dx%d pixels: %.1f ms, %.2f megapixels/s", size, size,
+        bestNanos / 1e6, megapixelsPerSecond), megapixelsPerSecond >= 1.0);
+  }
+}
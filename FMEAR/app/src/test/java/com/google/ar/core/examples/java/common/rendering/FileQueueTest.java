@@ -0,0 +1,101 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/** Tests for the {@link FileQueue}. */
+public class FileQueueTest {
+
+  @Test
+  public void filesAreTakenInOrderUntilClosed() throws InterruptedException {
+    FileQueue queue = new FileQueue(3);
+    assertTrue(queue.put(new File("a")));
+    assertTrue(queue.put(new File("b")));
+    queue.close();
+    assertTrue(queue.isClosed());
+    assertFalse(queue.put(new File("c")));
+    assertEquals(new File("a"), queue.take());
+    assertEquals(new File("b"), queue.take());
+    assertNull(queue.take());
+  }
+
+  @Test
+  public void prefilledQueueIsClosed() throws InterruptedException {
+    FileQueue queue = FileQueue.of(Arrays.asList(new File("a"), new File("b")));
+    assertTrue(queue.isClosed());
+    assertEquals(new File("a"), queue.take());
+    assertEquals(new File("b"), queue.take());
+    assertNull(queue.take());
+    assertNull(FileQueue.of(Arrays.<File>asList()).take());
+  }
+
+  @Test
+  public void producerWaitsWhileQueueIsFull() throws InterruptedException {
+    final FileQueue queue = new FileQueue(2);
+    final AtomicInteger numPut = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(1);
+    Thread producer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          for (int i = 0; i < 5; ++i) {
+            queue.put(new File("file" + i));
+            numPut.incrementAndGet();
+          }
+          queue.close();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        done.countDown();
+      }
+    });
+    producer.start();
+
+    Thread.sleep(100);
+    assertEquals(2, numPut.get());
+    for (int i = 0; i < 5; ++i) {
+      assertEquals(new File("file" + i), queue.take());
+    }
+    assertNull(queue.take());
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void closingReleasesWaitingProducer() throws InterruptedException {
+    final FileQueue queue = new FileQueue(1);
+    queue.put(new File("a"));
+    final CountDownLatch done = new CountDownLatch(1);
+    final boolean[] added = {true};
+    Thread producer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          added[0] = queue.put(new File("b"));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        done.countDown();
+      }
+    });
+    producer.start();
+
+    Thread.sleep(50);
+    queue.close();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertFalse(added[0]);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void capacityMustBePositive() {
+    new FileQueue(0);
+  }
+}
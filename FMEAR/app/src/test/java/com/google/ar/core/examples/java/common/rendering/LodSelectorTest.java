@@ -0,0 +1,126 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** Tests for the {@link LodSelector}. */
+public class LodSelectorTest {
+
+  private static final float[] ERRORS = {0.0f, 0.01f, 0.04f, 0.2f};
+  private static final int[] TRIANGLE_COUNTS = {1000, 500, 250, 100};
+
+  @Test
+  public void selectsCoarsestLevelBelowPixelError() {
+    LodSelector selector = new LodSelector(1.0f, 0.0f, Integer.MAX_VALUE);
+    assertEquals(0, selector.selectLevel(ERRORS, 1000.0f, 0));
+    assertEquals(1, selector.selectLevel(ERRORS, 100.0f, 0));
+    assertEquals(2, selector.selectLevel(ERRORS, 20.0f, 0));
+    assertEquals(3, selector.selectLevel(ERRORS, 5.0f, 0));
+    assertEquals(0, selector.selectLevel(ERRORS, 1000.0f, 3));
+    assertEquals(3, selector.selectLevel(ERRORS, 0.0f, 1));
+  }
+
+  @Test
+  public void hysteresisPreventsFlickering() {
+    LodSelector selector = new LodSelector(1.0f, 0.25f, Integer.MAX_VALUE);
+
+    // Level 2 has an error of 1 pixel at 25 pixels per unit. Around this value, the previous level
+    // is kept in both directions.
+    int level = 1;
+    for (float pixelsPerUnit : new float[] {26.0f, 24.0f, 26.0f, 24.0f}) {
+      level = selector.selectLevel(ERRORS, pixelsPerUnit, level);
+      assertEquals(1, level);
+    }
+    level = 2;
+    for (float pixelsPerUnit : new float[] {26.0f, 24.0f, 30.0f, 24.0f}) {
+      level = selector.selectLevel(ERRORS, pixelsPerUnit, level);
+      assertEquals(2, level);
+    }
+
+    // Far enough away from the threshold, the level changes
+    assertEquals(2, selector.selectLevel(ERRORS, 18.0f, 1));
+    assertEquals(1, selector.selectLevel(ERRORS, 32.0f, 2));
+  }
+
+  @Test
+  public void triangleBudgetCoarsensSmallestErrorsFirst() {
+    LodSelector selector = new LodSelector(1.0f, 0.0f, 1750);
+    float[] pixelsPerUnit = {1000.0f, 1000.0f, 10.0f};
+    float[][] errors = {ERRORS, ERRORS, ERRORS};
+    int[][] triangleCounts = {TRIANGLE_COUNTS, TRIANGLE_COUNTS, TRIANGLE_COUNTS};
+    int[] levels = new int[3];
+
+    int total = selector.select(pixelsPerUnit, errors, triangleCounts, levels);
+
+    // Without the budget, the levels would be {0, 0, 2} with 2250 triangles. The third chunk has
+    // the smallest error for its next level, and then the first two chunks are coarsened.
+    assertArrayEquals(new int[] {1, 0, 3}, levels);
+    assertEquals(1600, total);
+    assertTrue(total <= 1750);
+  }
+
+  @Test
+  public void triangleBudgetStopsAtCoarsestLevels() {
+    LodSelector selector = new LodSelector(1.0f, 0.0f, 10);
+    int[] levels = new int[2];
+    int total = selector.select(new float[] {1000.0f, 1000.0f},
+        new float[][] {ERRORS, {0.0f}}, new int[][] {TRIANGLE_COUNTS, {50}}, levels);
+    assertArrayEquals(new int[] {3, 0}, levels);
+    assertEquals(150, total);
+  }
+
+  @Test
+  public void computesPixelsPerUnitFromProjectedBounds() {
+    // A projection with a 90 degree field of view, and the camera at a distance of 10 from the
+    // origin, looking along the negative z-axis
+    float[] mvp = createPerspectiveAtDistance(10.0f);
+    float[] bounds = {-1.0f, -1.0f, 0.0f, 1.0f, 1.0f, 0.0f};
+
+    // The square with side 2 covers 2/10 of the NDC range [-1,1], which is 0.1 * 1000 pixels
+    float pixelsPerUnit = LodSelector.computePixelsPerUnit(mvp, bounds, 1000, 500);
+    float diagonal = (float) Math.sqrt(8.0);
+    assertEquals(100.0f / diagonal, pixelsPerUnit, 1e-3f);
+
+    // Twice the distance halves the number of pixels per unit
+    float farPixelsPerUnit =
+        LodSelector.computePixelsPerUnit(createPerspectiveAtDistance(20.0f), bounds, 1000, 500);
+    assertEquals(pixelsPerUnit * 0.5f, farPixelsPerUnit, 1e-3f);
+  }
+
+  @Test
+  public void boundsBehindCameraUseFullDetail() {
+    float[] mvp = createPerspectiveAtDistance(10.0f);
+    float[] bounds = {-1.0f, -1.0f, 5.0f, 1.0f, 1.0f, 15.0f};
+    assertEquals(
+        Float.POSITIVE_INFINITY, LodSelector.computePixelsPerUnit(mvp, bounds, 1000, 500), 0.0f);
+    float[] empty = {1.0f, 1.0f, 1.0f, 1.0f, 1.0f, 1.0f};
+    assertEquals(0.0f, LodSelector.computePixelsPerUnit(mvp, empty, 1000, 500), 0.0f);
+  }
+
+  /**
+   * Creates a column-major model-view-projection matrix for a perspective projection with a 90
+   * degree field of view and an aspect ratio of 1, with the camera on the positive z-axis at the
+   * given distance from the origin, looking at the origin.
+   */
+  private static float[] createPerspectiveAtDistance(float distance) {
+    float near = 0.1f;
+    float far = 100.0f;
+    float[] m = new float[16];
+    m[0] = 1.0f;
+    m[5] = 1.0f;
+    m[10] = -(far + near) / (far - near);
+    m[11] = -1.0f;
+    m[14] = -2.0f * far * near / (far - near);
+
+    // Translate by -distance along z: the last column becomes the third column times -distance
+    // plus the fourth column
+    m[12] = m[8] * -distance + m[12];
+    m[13] = m[9] * -distance + m[13];
+    m[14] = m[10] * -distance + m[14];
+    m[15] = m[11] * -distance + m[15];
+    return m;
+  }
+}
@@ -0,0 +1,428 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import de.javagl.obj.Obj;
+import de.javagl.obj.ObjNormals;
+import de.javagl.obj.ObjReader;
+import de.javagl.obj.ObjRenderBuffers;
+import de.javagl.obj.ObjUtils;
+import de.javagl.obj.Objs;
+import de.javagl.obj.QuantizedRenderBuffers;
+import de.javagl.obj.VertexCacheOptimizer;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/** Tests and benchmarks for the {@link MeshCacheFile}. */
+public class MeshCacheFileTest {
+
+  private static final int GL_UNSIGNED_SHORT = 0x1403;
+  private static final int GL_UNSIGNED_INT = 0x1405;
+
+  private static File createTempDirectory() throws IOException {
+    File directory = File.createTempFile("fmear-meshes", "");
+    directory.delete();
+    directory.mkdirs();
+    directory.deleteOnExit();
+    return directory.getCanonicalFile();
+  }
+
+  private static File createFile(File file) throws IOException {
+    file.getParentFile().mkdirs();
+    try (FileOutputStream outputStream = new FileOutputStream(file)) {
+      outputStream.write(new byte[] {1, 2, 3});
+    }
+    file.deleteOnExit();
+    return file;
+  }
+
+  private static ByteBuffer createBytes(int size) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+    for (int i = 0; i < size; ++i) {
+      buffer.put(i, (byte) (i * 7));
+    }
+    return buffer;
+  }
+
+  private static ShortBuffer createShorts(int size) {
+    ShortBuffer buffer = ByteBuffer.allocateDirect(2 * size).order(ByteOrder.nativeOrder())
+        .asShortBuffer();
+    for (int i = 0; i < size; ++i) {
+      buffer.put(i, (short) (i * 3));
+    }
+    return buffer;
+  }
+
+  private static IntBuffer createInts(int size) {
+    IntBuffer buffer = ByteBuffer.allocateDirect(4 * size).order(ByteOrder.nativeOrder())
+        .asIntBuffer();
+    for (int i = 0; i < size; ++i) {
+      buffer.put(i, 70000 + i);
+    }
+    return buffer;
+  }
+
+  private static FloatBuffer createFloats(int size) {
+    FloatBuffer buffer = ByteBuffer.allocateDirect(4 * size).order(ByteOrder.nativeOrder())
+        .asFloatBuffer();
+    for (int i = 0; i < size; ++i) {
+      buffer.put(i, i * 0.5f);
+    }
+    return buffer;
+  }
+
+  // Creates a quantized material with 16 bit indices and two levels of detail
+  private static MeshCacheFile.Material createQuantizedMaterial(File textureFile) {
+    MeshCacheFile.Material material = new MeshCacheFile.Material();
+    material.name = "wall";
+    material.bounds = new float[] {-1, -2, -3, 4, 5, 6};
+    material.ambient = new float[] {0.1f, 0.2f, 0.3f};
+    material.diffuse = new float[] {0.4f, 0.5f, 0.6f};
+    material.specular = new float[] {0.7f, 0.8f, 0.9f};
+    material.shininess = 12;
+    material.opacity = 0.5f;
+    material.textureFile = textureFile;
+    material.quantized = true;
+    for (int i = 0; i < 16; ++i) {
+      material.positionDequantization[i] = i + 0.25f;
+    }
+    material.texCoordDequantization = new float[] {2, 3, -1, -0.5f};
+    material.vertexStride = 16;
+    material.normalsOffset = 8;
+    material.texCoordsOffset = 12;
+    material.numVertices = 13;
+    material.hasNormals = true;
+    material.hasTexCoords = true;
+    material.indexType = GL_UNSIGNED_SHORT;
+    material.indexSize = 2;
+    material.vertexData = createBytes(16 * 13);
+    // An odd number of indices, so that the next buffer has to be aligned
+    material.indexData = createShorts(33);
+    material.indexCount = 33;
+    material.lodIndexData = Arrays.<Buffer>asList(createShorts(21), createShorts(9));
+    material.lodIndexCounts = new int[] {21, 9};
+    material.lodErrors = new float[] {0.01f, 0.1f};
+    return material;
+  }
+
+  private static void assertBufferEquals(Buffer expected, Buffer actual) {
+    assertEquals(expected instanceof ByteBuffer, actual instanceof ByteBuffer);
+    assertEquals(expected instanceof ShortBuffer, actual instanceof ShortBuffer);
+    assertEquals(expected instanceof IntBuffer, actual instanceof IntBuffer);
+    assertEquals(expected.capacity(), actual.capacity());
+    assertEquals(0, actual.position());
+    assertEquals(actual.capacity(), actual.limit());
+    assertTrue(actual.isDirect());
+    for (int i = 0; i < expected.capacity(); ++i) {
+      if (expected instanceof ByteBuffer) {
+        assertEquals(((ByteBuffer) expected).get(i), ((ByteBuffer) actual).get(i));
+      } else if (expected instanceof ShortBuffer) {
+        assertEquals(((ShortBuffer) expected).get(i), ((ShortBuffer) actual).get(i));
+      } else if (expected instanceof IntBuffer) {
+        assertEquals(((IntBuffer) expected).get(i), ((IntBuffer) actual).get(i));
+      } else {
+        assertEquals(((FloatBuffer) expected).get(i), ((FloatBuffer) actual).get(i), 0.0f);
+      }
+    }
+  }
+
+  private static void assertMaterialEquals(MeshCacheFile.Material expected,
+      MeshCacheFile.Material actual) {
+    assertEquals(expected.name, actual.name);
+    if (expected.bounds == null) {
+      assertNull(actual.bounds);
+    } else {
+      assertArrayEquals(expected.bounds, actual.bounds, 0.0f);
+    }
+    assertArrayEquals(expected.ambient, actual.ambient, 0.0f);
+    assertArrayEquals(expected.diffuse, actual.diffuse, 0.0f);
+    assertArrayEquals(expected.specular, actual.specular, 0.0f);
+    assertEquals(expected.shininess, actual.shininess, 0.0f);
+    assertEquals(expected.opacity, actual.opacity, 0.0f);
+    assertEquals(expected.textureFile, actual.textureFile);
+    assertEquals(expected.quantized, actual.quantized);
+    assertArrayEquals(expected.positionDequantization, actual.positionDequantization, 0.0f);
+    assertArrayEquals(expected.texCoordDequantization, actual.texCoordDequantization, 0.0f);
+    assertEquals(expected.vertexStride, actual.vertexStride);
+    assertEquals(expected.normalsOffset, actual.normalsOffset);
+    assertEquals(expected.texCoordsOffset, actual.texCoordsOffset);
+    assertEquals(expected.numVertices, actual.numVertices);
+    assertEquals(expected.hasNormals, actual.hasNormals);
+    assertEquals(expected.hasTexCoords, actual.hasTexCoords);
+    assertEquals(expected.indexType, actual.indexType);
+    assertEquals(expected.indexSize, actual.indexSize);
+    assertEquals(expected.indexCount, actual.indexCount);
+    assertArrayEquals(expected.lodIndexCounts, actual.lodIndexCounts);
+    assertArrayEquals(expected.lodErrors, actual.lodErrors, 0.0f);
+    assertBufferEquals(expected.vertexData, actual.vertexData);
+    assertBufferEquals(expected.indexData, actual.indexData);
+    assertEquals(expected.lodIndexData.size(), actual.lodIndexData.size());
+    for (int i = 0; i < expected.lodIndexData.size(); ++i) {
+      assertBufferEquals(expected.lodIndexData.get(i), actual.lodIndexData.get(i));
+    }
+  }
+
+  @Test
+  public void quantizedMaterialsWithLevelsOfDetailAreRoundTripped() throws IOException {
+    File directory = createTempDirectory();
+    File objDirectory = new File(directory, "model");
+    File textureFile = createFile(new File(directory, "textures/wall.png"));
+    MeshCacheFile.Material material = createQuantizedMaterial(textureFile);
+    int indexPosition = 5;
+    material.indexData.position(indexPosition);
+
+    File file = new File(directory, "wall.mesh");
+    MeshCacheFile.write(file, objDirectory, Collections.singletonList(material));
+    assertFalse(new File(directory, "wall.mesh.tmp").exists());
+    // The buffers of the material are not modified
+    assertEquals(indexPosition, material.indexData.position());
+    material.indexData.position(0);
+
+    List<MeshCacheFile.Material> materials =
+        MeshCacheFile.read(file, objDirectory, new LocalFileSource());
+    assertEquals(1, materials.size());
+    assertMaterialEquals(material, materials.get(0));
+    assertNull(materials.get(0).atlasPage);
+    file.delete();
+  }
+
+  @Test
+  public void floatVerticesAndIntIndicesAreRoundTripped() throws IOException {
+    File directory = createTempDirectory();
+    MeshCacheFile.Material first = createQuantizedMaterial(null);
+    MeshCacheFile.Material second = new MeshCacheFile.Material();
+    second.name = "";
+    second.bounds = null;
+    second.vertexStride = 32;
+    second.numVertices = 3;
+    second.vertexData = createFloats(24);
+    second.indexType = GL_UNSIGNED_INT;
+    second.indexSize = 4;
+    second.indexData = createInts(3);
+    second.indexCount = 3;
+
+    File file = new File(directory, "floats.mesh");
+    MeshCacheFile.write(file, directory, Arrays.asList(first, second));
+    List<MeshCacheFile.Material> materials =
+        MeshCacheFile.read(file, directory, new LocalFileSource());
+    assertEquals(2, materials.size());
+    assertMaterialEquals(first, materials.get(0));
+    assertMaterialEquals(second, materials.get(1));
+    file.delete();
+  }
+
+  @Test
+  public void atlasPagesAreRoundTripped() throws IOException {
+    File directory = createTempDirectory();
+    File objDirectory = new File(directory, "model");
+    File pageFile = new File(objDirectory, "a.obj.atlas0");
+    List<File> imageFiles = Arrays.asList(createFile(new File(objDirectory, "a.png")),
+        createFile(new File(directory, "shared/b.png")));
+    List<TextureAtlas.Region> regions = Arrays.asList(
+        new TextureAtlas.Region(0, 4, 4, 64, 32), new TextureAtlas.Region(0, 76, 4, 16, 16));
+    MeshCacheFile.Material material = createQuantizedMaterial(pageFile);
+    material.atlasPage = new TextureAtlas.Page(pageFile, 128, 64, 4, imageFiles, regions);
+
+    File file = new File(directory, "atlas.mesh");
+    MeshCacheFile.write(file, objDirectory, Collections.singletonList(material));
+    MeshCacheFile.Material read =
+        MeshCacheFile.read(file, objDirectory, new LocalFileSource()).get(0);
+    assertMaterialEquals(material, read);
+    TextureAtlas.Page page = read.atlasPage;
+    assertEquals(pageFile, page.getFile());
+    assertEquals(128, page.getWidth());
+    assertEquals(64, page.getHeight());
+    assertEquals(4, page.getPadding());
+    assertEquals(imageFiles, page.getImageFiles());
+    assertEquals(material.atlasPage.describeLayout(), page.describeLayout());
+    file.delete();
+  }
+
+  @Test
+  public void otherVersionsAndByteOrdersAreRejected() throws IOException {
+    File directory = createTempDirectory();
+    File file = new File(directory, "version.mesh");
+    // The version follows the 8 bytes of the magic number, and the byte order follows the version
+    int[] offsets = {8 + 3, 8 + 4};
+    for (int offset : offsets) {
+      MeshCacheFile.write(file, directory,
+          Collections.singletonList(createQuantizedMaterial(null)));
+      try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+        randomAccessFile.seek(offset);
+        int value = randomAccessFile.read();
+        randomAccessFile.seek(offset);
+        randomAccessFile.write(value ^ 1);
+      }
+      try {
+        MeshCacheFile.read(file, directory, new LocalFileSource());
+        fail("Expected IOException");
+      } catch (IOException e) {
+        // Expected
+      }
+    }
+    file.delete();
+  }
+
+  @Test
+  public void truncatedFilesAreRejected() throws IOException {
+    File directory = createTempDirectory();
+    File file = new File(directory, "truncated.mesh");
+    MeshCacheFile.write(file, directory, Collections.singletonList(createQuantizedMaterial(null)));
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      randomAccessFile.setLength(randomAccessFile.length() - 20);
+    }
+    try {
+      MeshCacheFile.read(file, directory, new LocalFileSource());
+      fail("Expected IOException");
+    } catch (IOException e) {
+      // Expected
+    }
+    file.delete();
+  }
+
+  @Test
+  public void pathsAreRelativizedWithParentSegments() {
+    File base = new File("/data/dataset/model");
+    assertEquals("a.png", MeshCacheFile.relativize(base, new File("/data/dataset/model/a.png")));
+    assertEquals("textures/a.png",
+        MeshCacheFile.relativize(base, new File("/data/dataset/model/textures/a.png")));
+    assertEquals("../../shared/a.png",
+        MeshCacheFile.relativize(base, new File("/data/shared/a.png")));
+  }
+
+  // Writes an obj file with a grid of the given number of quads, with texture coordinates and
+  // without normals, like the files that are exported from FME.
+  private static File createGridObj(File directory, int size) throws IOException {
+    File file = new File(directory, "grid.obj");
+    try (Writer writer =
+        new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"))) {
+      StringBuilder sb = new StringBuilder();
+      for (int y = 0; y <= size; ++y) {
+        for (int x = 0; x <= size; ++x) {
+          float height = (float) Math.sin(x * 0.1) * (float) Math.cos(y * 0.1);
+          sb.append(String.format(Locale.ENGLISH, "v %f %f %f\nvt %f %f\n",
+              x * 0.5f, height, y * 0.5f, (float) x / size, (float) y / size));
+        }
+        writer.write(sb.toString());
+        sb.setLength(0);
+      }
+      for (int y = 0; y < size; ++y) {
+        for (int x = 0; x < size; ++x) {
+          int a = y * (size + 1) + x + 1;
+          int b = a + 1;
+          int c = a + size + 1;
+          int d = c + 1;
+          sb.append(String.format(Locale.ENGLISH, "f %d/%d %d/%d %d/%d %d/%d\n",
+              a, a, b, b, d, d, c, c));
+        }
+        writer.write(sb.toString());
+        sb.setLength(0);
+      }
+    }
+    file.deleteOnExit();
+    return file;
+  }
+
+  // Loads the obj file like the ObjectRenderer without a mesh cache, without the levels of detail
+  private static List<MeshCacheFile.Material> loadObj(File objFile, int numThreads)
+      throws IOException {
+    ByteBuffer objBuffer;
+    try (FileInputStream inputStream = new FileInputStream(objFile);
+        FileChannel channel = inputStream.getChannel()) {
+      objBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    Obj obj = ObjReader.readParallel(objBuffer, Objs.createCompact(), numThreads);
+    obj = ObjNormals.createWithNormals(
+        obj, ObjNormals.SMOOTH_CREASE_ANGLE, numThreads, Objs.createCompact());
+    Map<String, ObjRenderBuffers> renderBuffersMap = ObjUtils.convertToRenderBuffers(obj, 0.0f);
+    List<MeshCacheFile.Material> materials = new ArrayList<>();
+    for (Map.Entry<String, ObjRenderBuffers> entry : renderBuffersMap.entrySet()) {
+      ObjRenderBuffers renderBuffers = entry.getValue();
+      VertexCacheOptimizer.optimize(renderBuffers);
+      QuantizedRenderBuffers quantized = QuantizedRenderBuffers.quantize(renderBuffers);
+      MeshCacheFile.Material material = new MeshCacheFile.Material();
+      material.name = entry.getKey();
+      material.quantized = true;
+      material.positionDequantization = quantized.getPositionDequantization();
+      material.texCoordDequantization = quantized.getTexCoordDequantization();
+      material.vertexStride = quantized.getStride();
+      material.normalsOffset = quantized.getNormalOffset();
+      material.texCoordsOffset = quantized.getTexCoordOffset();
+      material.numVertices = quantized.getNumVertices();
+      material.vertexData = quantized.getVertexData();
+      material.indexType = GL_UNSIGNED_INT;
+      material.indexSize = 4;
+      material.indexData = renderBuffers.getIndices();
+      material.indexCount = renderBuffers.getIndices().capacity();
+      materials.add(material);
+    }
+    return materials;
+  }
+
+  @Test
+  @Ignore("Benchmark, run by hand")
+  public void benchmarkColdLoadAndMappedLoad() throws IOException {
+    File directory = createTempDirectory();
+    int numThreads = Runtime.getRuntime().availableProcessors();
+    for (int size : new int[] {100, 400}) {
+      File objFile = createGridObj(directory, size);
+      File cacheFile = new File(directory, "grid.mesh");
+      long loadNanos = Long.MAX_VALUE;
+      long writeNanos = Long.MAX_VALUE;
+      long readNanos = Long.MAX_VALUE;
+      for (int run = 0; run < 3; ++run) {
+        long before = System.nanoTime();
+        List<MeshCacheFile.Material> loaded = loadObj(objFile, numThreads);
+        long afterLoad = System.nanoTime();
+        MeshCacheFile.write(cacheFile, directory, loaded);
+        long afterWrite = System.nanoTime();
+        List<MeshCacheFile.Material> mapped =
+            MeshCacheFile.read(cacheFile, directory, new LocalFileSource());
+        long afterRead = System.nanoTime();
+        loadNanos = Math.min(loadNanos, afterLoad - before);
+        writeNanos = Math.min(writeNanos, afterWrite - afterLoad);
+        readNanos = Math.min(readNanos, afterRead - afterWrite);
+
+        assertEquals(loaded.size(), mapped.size());
+        assertBufferEquals(loaded.get(0).indexData, mapped.get(0).indexData);
+      }
+
+      // Mapping the cache file has to be much faster than parsing and preparing the obj file
+      String message = String.format(Locale.ENGLISH,
+          "Grid with %d triangles (obj %d KB, mesh cache %d KB) on %d threads: "
+              + "cold load %.1f ms, writing the cache %.1f ms, mapped load %.2f ms",
+          2 * size * size, objFile.length() / 1024, cacheFile.length() / 1024, numThreads,
+          loadNanos / 1e6, writeNanos / 1e6, readNanos / 1e6);
+      assertTrue(message, cacheFile.length() < objFile.length());
+      assertTrue(message, readNanos * 10 < loadNanos);
+      cacheFile.delete();
+      objFile.delete();
+    }
+  }
+}
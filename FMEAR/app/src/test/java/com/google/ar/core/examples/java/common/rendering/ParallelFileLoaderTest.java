@@ -0,0 +1,332 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import de.javagl.obj.Obj;
+import de.javagl.obj.ObjReader;
+import de.javagl.obj.ObjRenderBuffers;
+import de.javagl.obj.ObjUtils;
+import de.javagl.obj.Objs;
+import de.javagl.obj.VertexCacheOptimizer;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/** Tests for the {@link ParallelFileLoader}. */
+public class ParallelFileLoaderTest {
+
+  /** A listener that records the progress notifications. */
+  private static class RecordingListener implements ParallelFileLoader.ProgressListener {
+    final List<Integer> numFilesLoaded = Collections.synchronizedList(new ArrayList<Integer>());
+    final List<Integer> totalNumFiles = Collections.synchronizedList(new ArrayList<Integer>());
+
+    @Override
+    public void filesLoaded(int numFilesLoaded, int totalNumFiles) {
+      this.numFilesLoaded.add(numFilesLoaded);
+      this.totalNumFiles.add(totalNumFiles);
+    }
+  }
+
+  /**
+   * A loader that returns the name of each file after a random delay, and records the maximum number
+   * of files that were loaded at the same time. Files whose name starts with "missing" can not be
+   * loaded.
+   */
+  private static class StubFileLoader implements ParallelFileLoader.FileLoader<String> {
+    final Random random = new Random(0);
+    final AtomicInteger numLoading = new AtomicInteger();
+    final AtomicInteger maxNumLoading = new AtomicInteger();
+    final long memoryPerFile;
+
+    StubFileLoader(long memoryPerFile) {
+      this.memoryPerFile = memoryPerFile;
+    }
+
+    @Override
+    public long estimateMemory(File file) {
+      return file.getName().startsWith("large") ? 1000 : memoryPerFile;
+    }
+
+    @Override
+    public String load(File file, int numThreads) {
+      int n = numLoading.incrementAndGet();
+      synchronized (maxNumLoading) {
+        maxNumLoading.set(Math.max(maxNumLoading.get(), n));
+      }
+      try {
+        int delay;
+        synchronized (random) {
+          delay = random.nextInt(10);
+        }
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      numLoading.decrementAndGet();
+      return file.getName().startsWith("missing") ? null : file.getName();
+    }
+  }
+
+  @Test
+  public void resultsAreInFileOrder() {
+    List<File> files = createFiles("file", 50);
+    RecordingListener listener = new RecordingListener();
+    StubFileLoader fileLoader = new StubFileLoader(1);
+
+    List<String> results = new ParallelFileLoader(4, 100).load(files, fileLoader, listener);
+
+    List<String> expected = new ArrayList<>();
+    for (File file : files) {
+      expected.add(file.getName());
+    }
+    assertEquals(expected, results);
+    assertTrue(fileLoader.maxNumLoading.get() <= 4);
+    assertTrue(fileLoader.maxNumLoading.get() > 1);
+  }
+
+  @Test
+  public void progressIsReportedInIncreasingOrder() {
+    List<File> files = createFiles("file", 30);
+    files.addAll(createFiles("missing", 3));
+    RecordingListener listener = new RecordingListener();
+
+    List<String> results =
+        new ParallelFileLoader(8, 100).load(files, new StubFileLoader(1), listener);
+
+    assertEquals(30, results.size());
+    assertEquals(33, listener.numFilesLoaded.size());
+    for (int i = 0; i < 33; ++i) {
+      assertEquals(i + 1, (int) listener.numFilesLoaded.get(i));
+      assertEquals(33, (int) listener.totalNumFiles.get(i));
+    }
+  }
+
+  @Test
+  public void memoryBudgetLimitsConcurrentFiles() {
+    StubFileLoader fileLoader = new StubFileLoader(40);
+    new ParallelFileLoader(8, 100).load(createFiles("file", 20), fileLoader, null);
+    assertTrue(fileLoader.maxNumLoading.get() <= 2);
+
+    // A file that exceeds the budget is loaded alone
+    StubFileLoader largeFileLoader = new StubFileLoader(10);
+    List<File> files = createFiles("file", 10);
+    files.addAll(createFiles("large", 1));
+    files.addAll(createFiles("file", 10));
+    List<String> results = new ParallelFileLoader(8, 100).load(files, largeFileLoader, null);
+    assertEquals(21, results.size());
+    assertEquals("large0", results.get(10));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void exceptionsOfFileLoaderAreRethrown() {
+    new ParallelFileLoader(4, 100).load(createFiles("file", 10),
+        new ParallelFileLoader.FileLoader<String>() {
+          @Override
+          public long estimateMemory(File file) {
+            return 0;
+          }
+
+          @Override
+          public String load(File file, int numThreads) {
+            if (file.getName().equals("file5")) {
+              throw new IllegalArgumentException();
+            }
+            return file.getName();
+          }
+        }, null);
+  }
+
+  @Test
+  public void filesAreLoadedWhileTheyAreProduced() throws InterruptedException {
+    final FileQueue queue = new FileQueue(2);
+    final List<File> files = createFiles("file", 20);
+    Thread producer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          for (File file : files) {
+            queue.put(file);
+            Thread.sleep(1);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } finally {
+          queue.close();
+        }
+      }
+    });
+    producer.start();
+
+    RecordingListener listener = new RecordingListener();
+    List<String> results =
+        new ParallelFileLoader(4, 100).load(queue, files.size(), new StubFileLoader(1), listener);
+    producer.join();
+
+    List<String> expected = new ArrayList<>();
+    for (File file : files) {
+      expected.add(file.getName());
+    }
+    assertEquals(expected, results);
+    assertEquals(20, (int) listener.numFilesLoaded.get(19));
+  }
+
+  @Test
+  public void queueIsClosedWhenLoadingFails() throws InterruptedException {
+    FileQueue queue = new FileQueue(100);
+    for (File file : createFiles("file", 10)) {
+      assertTrue(queue.put(file));
+    }
+    try {
+      new ParallelFileLoader(2, 100).load(queue, 10, new ParallelFileLoader.FileLoader<String>() {
+        @Override
+        public long estimateMemory(File file) {
+          return 0;
+        }
+
+        @Override
+        public String load(File file, int numThreads) {
+          throw new IllegalArgumentException();
+        }
+      }, null);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    assertTrue(queue.isClosed());
+  }
+
+  @Test
+  @Ignore("Benchmark, run by hand")
+  public void benchmarkLoadObjFiles() throws IOException {
+    File directory = createTempDirectory();
+    try {
+      List<File> files = new ArrayList<>();
+      Random random = new Random(0);
+      for (int i = 0; i < 16; ++i) {
+        File file = new File(directory, "feature" + i + ".obj");
+        writeGridObj(file, random, 80 + random.nextInt(120));
+        files.add(file);
+      }
+
+      int numCores = Runtime.getRuntime().availableProcessors();
+      ParallelFileLoader.FileLoader<Integer> fileLoader = createObjFileLoader();
+
+      // Warm up
+      List<Integer> expected =
+          new ParallelFileLoader(numCores, Long.MAX_VALUE).load(files, fileLoader, null);
+
+      int[] threadCounts = {1, 2, 4};
+      long[] nanos = new long[threadCounts.length];
+      StringBuilder message = new StringBuilder(String.format(Locale.ENGLISH,
+          "Loading %d obj files on %d cores:", files.size(), numCores));
+      for (int i = 0; i < threadCounts.length; ++i) {
+        RecordingListener listener = new RecordingListener();
+        long before = System.nanoTime();
+        List<Integer> results = new ParallelFileLoader(threadCounts[i], Long.MAX_VALUE)
+            .load(files, fileLoader, listener);
+        nanos[i] = System.nanoTime() - before;
+        message.append(String.format(Locale.ENGLISH, " %d threads %.1f ms,", threadCounts[i],
+            nanos[i] / 1e6));
+        assertEquals(expected, results);
+        assertEquals(files.size(), (int) listener.numFilesLoaded.get(files.size() - 1));
+      }
+
+      // More threads can only be faster when there are more cores
+      if (numCores >= 2) {
+        assertTrue(message.toString(), nanos[1] < nanos[0]);
+      }
+    } finally {
+      for (File file : directory.listFiles()) {
+        file.delete();
+      }
+      directory.delete();
+    }
+  }
+
+  /**
+   * Creates a loader that reads an obj file, converts it into render buffers, and optimizes them for
+   * the vertex cache like ObjectRenderer, and returns the number of triangles.
+   */
+  private static ParallelFileLoader.FileLoader<Integer> createObjFileLoader() {
+    return new ParallelFileLoader.FileLoader<Integer>() {
+      @Override
+      public long estimateMemory(File file) {
+        return file.length();
+      }
+
+      @Override
+      public Integer load(File file, int numThreads) {
+        try (FileInputStream inputStream = new FileInputStream(file);
+            FileChannel channel = inputStream.getChannel()) {
+          ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+          Obj obj = ObjReader.readParallel(buffer, Objs.createCompact(), numThreads);
+          Map<String, ObjRenderBuffers> buffers = ObjUtils.convertToRenderBuffers(obj, 0.0f);
+          int numTriangles = 0;
+          for (ObjRenderBuffers renderBuffers : buffers.values()) {
+            VertexCacheOptimizer.optimize(renderBuffers);
+            numTriangles += renderBuffers.getIndices().capacity() / 3;
+          }
+          return numTriangles;
+        } catch (IOException e) {
+          return null;
+        }
+      }
+    };
+  }
+
+  private static List<File> createFiles(String prefix, int numFiles) {
+    List<File> files = new ArrayList<>();
+    for (int i = 0; i < numFiles; ++i) {
+      files.add(new File(prefix + i));
+    }
+    return files;
+  }
+
+  private static File createTempDirectory() throws IOException {
+    File directory = File.createTempFile("objs", "");
+    if (!directory.delete() || !directory.mkdir()) {
+      throw new IOException("Could not create " + directory);
+    }
+    return directory;
+  }
+
+  /** Writes an obj file with a height field of the given size, with normals and 3 materials. */
+  private static void writeGridObj(File file, Random random, int size) throws IOException {
+    try (Writer writer =
+        new OutputStreamWriter(new FileOutputStream(file), Charset.forName("US-ASCII"))) {
+      for (int y = 0; y < size; ++y) {
+        for (int x = 0; x < size; ++x) {
+          writer.write(String.format(Locale.ENGLISH, "v %d %d %.6f\nvn 0 0 1\n", x, y,
+              random.nextFloat()));
+        }
+      }
+      for (int y = 0; y < size - 1; ++y) {
+        if (y % (size / 3 + 1) == 0) {
+          writer.write("usemtl material" + y + "\n");
+        }
+        for (int x = 0; x < size - 1; ++x) {
+          int i = y * size + x + 1;
+          writer.write(String.format(Locale.ENGLISH, "f %d//%d %d//%d %d//%d %d//%d\n", i, i,
+              i + 1, i + 1, i + size + 1, i + size + 1, i + size, i + size));
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,175 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import de.javagl.obj.ObjReader;
+import de.javagl.obj.ObjRenderBuffers;
+import de.javagl.obj.ObjUtils;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/** Tests for the {@link TextureAtlas}. */
+public class TextureAtlasTest {
+
+  // Creates the render buffers of a quad with the given texture coordinates of its corners.
+  private static ObjRenderBuffers createQuad(float... texCoords) throws IOException {
+    StringBuilder obj = new StringBuilder();
+    obj.append("v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\n");
+    for (int i = 0; i < texCoords.length; i += 2) {
+      obj.append("vt ").append(texCoords[i]).append(" ").append(texCoords[i + 1]).append("\n");
+    }
+    obj.append(texCoords.length > 0 ? "f 1/1 2/2 3/3 4/4\n" : "f 1 2 3 4\n");
+    return ObjUtils.convertToRenderBuffers(ObjReader.read(new StringReader(obj.toString())))
+        .values().iterator().next();
+  }
+
+  @Test
+  public void packedRegionsDoNotOverlap() {
+    Random random = new Random(0);
+    int numImages = 300;
+    int pageSize = 1024;
+    int padding = 4;
+    int[] widths = new int[numImages];
+    int[] heights = new int[numImages];
+    for (int i = 0; i < numImages; ++i) {
+      widths[i] = 1 + random.nextInt(256);
+      heights[i] = 1 + random.nextInt(256);
+    }
+    TextureAtlas.Region[] regions = TextureAtlas.pack(widths, heights, pageSize, padding);
+
+    for (int i = 0; i < numImages; ++i) {
+      TextureAtlas.Region region = regions[i];
+      assertNotNull(region);
+      assertEquals(widths[i], region.getWidth());
+      assertEquals(heights[i], region.getHeight());
+      // The slots are aligned to ETC1 blocks, and the padding is inside of the page
+      assertEquals(0, (region.getX() - padding) % 4);
+      assertEquals(0, (region.getY() - padding) % 4);
+      assertTrue(region.getX() >= padding && region.getY() >= padding);
+      int[] size = TextureAtlas.computePageSize(regions, region.getPage(), padding);
+      assertTrue(size[0] <= pageSize && size[1] <= pageSize);
+      assertTrue(region.getX() + region.getWidth() + padding <= size[0]);
+      assertTrue(region.getY() + region.getHeight() + padding <= size[1]);
+      for (int j = 0; j < i; ++j) {
+        TextureAtlas.Region other = regions[j];
+        boolean separate = other.getPage() != region.getPage()
+            || other.getX() + other.getWidth() + padding <= region.getX() - padding
+            || region.getX() + region.getWidth() + padding <= other.getX() - padding
+            || other.getY() + other.getHeight() + padding <= region.getY() - padding
+            || region.getY() + region.getHeight() + padding <= other.getY() - padding;
+        assertTrue(region + " overlaps " + other, separate);
+      }
+    }
+  }
+
+  @Test
+  public void imagesThatDoNotFitIntoAPageAreNotPacked() {
+    TextureAtlas.Region[] regions =
+        TextureAtlas.pack(new int[] {1020, 1016, 10}, new int[] {8, 8, 10}, 1024, 4);
+    assertNull(regions[0]);
+    assertNotNull(regions[1]);
+    assertNotNull(regions[2]);
+    assertEquals(0, regions[2].getPage());
+  }
+
+  @Test
+  public void pagesAreShrunkToPowersOfTwo() {
+    TextureAtlas.Region[] regions =
+        TextureAtlas.pack(new int[] {100, 20}, new int[] {50, 20}, 1024, 4);
+    assertTrue(Arrays.equals(new int[] {256, 64}, TextureAtlas.computePageSize(regions, 0, 4)));
+  }
+
+  @Test
+  public void texCoordTransformMapsCornersToTheRegion() {
+    TextureAtlas.Region region = new TextureAtlas.Region(0, 8, 12, 16, 32);
+    float[] transform = TextureAtlas.computeTexCoordTransform(region, 64, 128);
+    // The shader samples t = 1 - v, so that v = 1 is the top row of the image
+    float topLeftS = 0.0f * transform[0] + transform[2];
+    float topLeftT = 1.0f - (1.0f * transform[1] + transform[3]);
+    float bottomRightS = 1.0f * transform[0] + transform[2];
+    float bottomRightT = 1.0f - (0.0f * transform[1] + transform[3]);
+    assertEquals(8.0f / 64, topLeftS, 1e-6f);
+    assertEquals(12.0f / 128, topLeftT, 1e-6f);
+    assertEquals(24.0f / 64, bottomRightS, 1e-6f);
+    assertEquals(44.0f / 128, bottomRightT, 1e-6f);
+  }
+
+  @Test
+  public void wrappingTexCoordsAreDetected() throws IOException {
+    assertTrue(TextureAtlas.hasNonWrappingTexCoords(createQuad(0, 0, 1, 0, 1, 1, 0, 1)));
+    assertTrue(TextureAtlas.hasNonWrappingTexCoords(createQuad(0, 0, 1.0001f, 0, 1, 1, 0, 1)));
+    assertFalse(TextureAtlas.hasNonWrappingTexCoords(createQuad(0, 0, 2, 0, 2, 2, 0, 2)));
+    assertFalse(TextureAtlas.hasNonWrappingTexCoords(createQuad(-0.5f, 0, 1, 0, 1, 1, 0, 1)));
+    assertFalse(TextureAtlas.hasNonWrappingTexCoords(createQuad()));
+  }
+
+  @Test
+  public void texCoordsAreTransformedAndClamped() throws IOException {
+    ObjRenderBuffers quad = createQuad(0, 0, 1.0001f, 0, 1, 1, 0, 0.5f);
+    TextureAtlas.transformTexCoords(quad, new float[] {0.5f, 0.25f, 0.25f, 0.5f});
+    FloatBuffer vertexData = quad.getVertexData();
+    List<Float> texCoords = new ArrayList<>();
+    for (int i = quad.getTexCoordOffset(); i < vertexData.capacity(); i += quad.getStride()) {
+      texCoords.add(vertexData.get(i));
+      texCoords.add(vertexData.get(i + 1));
+    }
+    assertEquals(Arrays.asList(0.25f, 0.5f, 0.75f, 0.5f, 0.75f, 0.75f, 0.25f, 0.625f), texCoords);
+  }
+
+  @Test
+  public void composedPagesRepeatTheEdgesOfTheImages() {
+    int padding = 4;
+    TextureAtlas.Region[] regions =
+        TextureAtlas.pack(new int[] {2, 3}, new int[] {2, 1}, 64, padding);
+    int[] size = TextureAtlas.computePageSize(regions, 0, padding);
+    TextureAtlas.Page page = new TextureAtlas.Page(new File("page"), size[0], size[1], padding,
+        Arrays.asList(new File("a"), new File("b")), Arrays.asList(regions));
+
+    // The first image has a different color in each pixel, the second one is red
+    ByteBuffer first = ByteBuffer.allocateDirect(16);
+    first.put(new byte[] {1, 1, 1, -1, 2, 2, 2, -1, 3, 3, 3, -1, 4, 4, 4, -1}).rewind();
+    ByteBuffer second = ByteBuffer.allocateDirect(12);
+    second.put(new byte[] {-1, 0, 0, -1, -1, 0, 0, -1, -1, 0, 0, -1}).rewind();
+    List<ImageDecoder.DecodedImage> images = Arrays.asList(
+        new ImageDecoder.DecodedImage(2, 2, first), new ImageDecoder.DecodedImage(3, 1, second));
+    ImageDecoder.DecodedImage composed = TextureAtlas.compose(page, images, new ByteBufferPool(0));
+    assertEquals(size[0], composed.getWidth());
+    assertEquals(size[1], composed.getHeight());
+    ByteBuffer pixels = composed.getPixels();
+
+    TextureAtlas.Region region = regions[0];
+    int x = region.getX();
+    int y = region.getY();
+    int width = composed.getWidth();
+    assertEquals(1, pixels.get(4 * (width * y + x)));
+    assertEquals(4, pixels.get(4 * (width * (y + 1) + x + 1)));
+    // The corners of the padding repeat the corners of the image
+    assertEquals(1, pixels.get(4 * (width * (y - padding) + x - padding)));
+    assertEquals(2, pixels.get(4 * (width * (y - 1) + x + 1 + padding)));
+    assertEquals(3, pixels.get(4 * (width * (y + 1 + padding) + x - 1)));
+    assertEquals(4, pixels.get(4 * (width * (y + 1 + padding) + x + 1 + padding)));
+
+    TextureAtlas.Region secondRegion = regions[1];
+    int index = 4 * (width * (secondRegion.getY() + padding) + secondRegion.getX() + 2 + padding);
+    assertEquals(-1, pixels.get(index));
+    assertEquals(0, pixels.get(index + 1));
+
+    // Pixels outside of the slots are opaque black
+    int last = 4 * (width * composed.getHeight() - 1);
+    assertEquals(0, pixels.get(last));
+    assertEquals(-1, pixels.get(last + 3));
+    assertTrue(Etc1Encoder.isOpaque(pixels, composed.getWidth(), composed.getHeight()));
+  }
+}
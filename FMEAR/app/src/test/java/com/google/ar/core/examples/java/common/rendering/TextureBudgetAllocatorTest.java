@@ -0,0 +1,90 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+/** Tests for the {@link TextureBudgetAllocator}. */
+public class TextureBudgetAllocatorTest {
+
+  private static long computeTotalBytes(
+      List<TextureBudgetAllocator.Texture> textures, int[] sizes, int[] levels) {
+    long bytes = 0;
+    for (int i = 0; i < textures.size(); ++i) {
+      bytes += TextureBudgetAllocator.computeBytes(
+          TextureBudgetAllocator.reduce(sizes[2 * i], levels[i]),
+          TextureBudgetAllocator.reduce(sizes[2 * i + 1], levels[i]), true);
+    }
+    return bytes;
+  }
+
+  @Test
+  public void computesBytesOfMipChains() {
+    assertEquals(4, TextureBudgetAllocator.computeBytes(1, 1, true));
+    assertEquals(64, TextureBudgetAllocator.computeBytes(4, 4, false));
+    assertEquals(4 * (16 + 4 + 1), TextureBudgetAllocator.computeBytes(4, 4, true));
+    assertEquals(4 * (8 + 4 + 2 + 1), TextureBudgetAllocator.computeBytes(8, 1, true));
+    assertEquals(4 * (12 + 2 + 1), TextureBudgetAllocator.computeBytes(3, 4, true));
+  }
+
+  @Test
+  public void texturesWithinTheBudgetAreNotReduced() {
+    List<TextureBudgetAllocator.Texture> textures = Arrays.asList(
+        new TextureBudgetAllocator.Texture(1024, 1024, 1.0f),
+        new TextureBudgetAllocator.Texture(512, 256, 0.0f));
+    int[] levels = TextureBudgetAllocator.allocate(textures, 64 * 1024 * 1024, 4096, true);
+    assertArrayEquals(new int[] {0, 0}, levels);
+  }
+
+  @Test
+  public void texturesAreLimitedToTheMaximumSize() {
+    List<TextureBudgetAllocator.Texture> textures = Arrays.asList(
+        new TextureBudgetAllocator.Texture(8192, 8192, 1.0f),
+        new TextureBudgetAllocator.Texture(8192, 1024, 1.0f),
+        new TextureBudgetAllocator.Texture(4096, 4096, 1.0f));
+    int[] levels = TextureBudgetAllocator.allocate(textures, Long.MAX_VALUE, 4096, true);
+    assertArrayEquals(new int[] {1, 1, 0}, levels);
+  }
+
+  @Test
+  public void texelsFollowTheWeights() {
+    // Four 2048x2048 textures, whose materials cover 1, 4, 16 and 0 units of area
+    List<TextureBudgetAllocator.Texture> textures = new ArrayList<>();
+    float[] weights = {1.0f, 4.0f, 16.0f, 0.0f};
+    for (float weight : weights) {
+      textures.add(new TextureBudgetAllocator.Texture(2048, 2048, weight));
+    }
+    long budget = 29 * 1024 * 1024;
+    int[] levels = TextureBudgetAllocator.allocate(textures, budget, 4096, true);
+
+    int[] sizes = new int[8];
+    Arrays.fill(sizes, 2048);
+    assertTrue(computeTotalBytes(textures, sizes, levels) <= budget);
+
+    // The texture without weight is reduced to 1x1. Each quadrupling of the weight keeps one more
+    // level.
+    assertEquals(11, levels[3]);
+    assertEquals(levels[0] - 1, levels[1]);
+    assertEquals(levels[1] - 1, levels[2]);
+    assertEquals(0, levels[2]);
+  }
+
+  @Test
+  public void budgetsThatCanNotBeMetReduceAllTexturesTo1x1() {
+    List<TextureBudgetAllocator.Texture> textures = Arrays.asList(
+        new TextureBudgetAllocator.Texture(300, 200, 1.0f),
+        new TextureBudgetAllocator.Texture(7, 1, 1.0f));
+    int[] levels = TextureBudgetAllocator.allocate(textures, 0, 4096, false);
+    assertEquals(1, TextureBudgetAllocator.reduce(300, levels[0]));
+    assertEquals(1, TextureBudgetAllocator.reduce(200, levels[0]));
+    assertEquals(1, TextureBudgetAllocator.reduce(7, levels[1]));
+    assertEquals(0, TextureBudgetAllocator.allocate(
+        Collections.<TextureBudgetAllocator.Texture>emptyList(), 0, 4096, true).length);
+  }
+}
@@ -0,0 +1,145 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+/** Tests for the {@link TextureCache}. */
+public class TextureCacheTest {
+
+  /** A deleter that records the deleted textures. */
+  private static class RecordingDeleter implements TextureCache.Deleter {
+    final List<Integer> deletedTextureIds = new ArrayList<>();
+
+    @Override
+    public void deleteTexture(int textureId) {
+      deletedTextureIds.add(textureId);
+    }
+  }
+
+  private static File createFile(File directory, String name, int size) throws IOException {
+    File file = new File(directory, name);
+    try (FileOutputStream outputStream = new FileOutputStream(file)) {
+      outputStream.write(new byte[size]);
+    }
+    file.deleteOnExit();
+    return file;
+  }
+
+  private static File createDirectory() throws IOException {
+    File directory = File.createTempFile("textures", "");
+    assertTrue(directory.delete());
+    assertTrue(directory.mkdir());
+    directory.deleteOnExit();
+    return directory;
+  }
+
+  @Test
+  public void keysIdentifyFilesByCanonicalPath() throws IOException {
+    File directory = createDirectory();
+    File file = createFile(directory, "facade.png", 100);
+    File subDirectory = new File(directory, "sub");
+    assertTrue(subDirectory.mkdir());
+    subDirectory.deleteOnExit();
+
+    File otherPath = new File(subDirectory, "../facade.png");
+    assertEquals(TextureCache.Key.of(file), TextureCache.Key.of(otherPath));
+    assertEquals(TextureCache.Key.of(file).hashCode(), TextureCache.Key.of(otherPath).hashCode());
+    assertEquals(file.getCanonicalFile(), TextureCache.Key.of(otherPath).getFile());
+
+    File otherFile = createFile(directory, "roof.png", 100);
+    assertFalse(TextureCache.Key.of(file).equals(TextureCache.Key.of(otherFile)));
+  }
+
+  @Test
+  public void keysChangeWhenFilesAreReplaced() throws IOException {
+    File directory = createDirectory();
+    File file = createFile(directory, "facade.png", 100);
+    TextureCache.Key key = TextureCache.Key.of(file);
+
+    createFile(directory, "facade.png", 200);
+    assertFalse(key.equals(TextureCache.Key.of(file)));
+
+    // The same size, but an older modification time
+    createFile(directory, "facade.png", 100);
+    assertTrue(file.setLastModified(1000000000000L));
+    assertFalse(key.equals(TextureCache.Key.of(file)));
+  }
+
+  @Test
+  public void sharedTexturesAreLoadedOnce() throws IOException {
+    File directory = createDirectory();
+    TextureCache.Key facade = TextureCache.Key.of(createFile(directory, "facade.png", 10));
+    TextureCache.Key roof = TextureCache.Key.of(createFile(directory, "roof.png", 20));
+    RecordingDeleter deleter = new RecordingDeleter();
+    TextureCache cache = new TextureCache(deleter);
+
+    // Three materials use the facade, one uses the roof
+    assertEquals(-1, cache.acquire(facade));
+    cache.put(facade, 7, 4096);
+    assertEquals(7, cache.acquire(facade));
+    assertEquals(7, cache.acquire(facade));
+    assertEquals(-1, cache.acquire(roof));
+    cache.put(roof, 8, 1024);
+
+    assertEquals(2, cache.getNumTextures());
+    assertEquals(5120, cache.getTextureBytes());
+    assertEquals(2, cache.getNumHits());
+    assertEquals(2, cache.getNumMisses());
+    assertEquals(8192, cache.getBytesSaved());
+
+    // The textures are deleted with their last reference
+    cache.release(facade);
+    cache.release(roof);
+    assertEquals(Collections.singletonList(8), deleter.deletedTextureIds);
+    assertTrue(cache.contains(facade));
+    assertFalse(cache.contains(roof));
+    cache.release(facade);
+    cache.release(facade);
+    assertEquals(Arrays.asList(8, 7), deleter.deletedTextureIds);
+    assertEquals(0, cache.getNumTextures());
+  }
+
+  @Test
+  public void failedTexturesAreNotDeleted() {
+    TextureCache.Key key = TextureCache.Key.of(new File("missing.png"));
+    RecordingDeleter deleter = new RecordingDeleter();
+    TextureCache cache = new TextureCache(deleter);
+    assertEquals(-1, cache.acquire(key));
+    cache.put(key, 0, 0);
+    assertEquals(0, cache.acquire(key));
+    cache.release(key);
+    cache.release(key);
+    assertTrue(deleter.deletedTextureIds.isEmpty());
+  }
+
+  @Test
+  public void clearDeletesAllTextures() throws IOException {
+    File directory = createDirectory();
+    TextureCache.Key facade = TextureCache.Key.of(createFile(directory, "facade.png", 10));
+    RecordingDeleter deleter = new RecordingDeleter();
+    TextureCache cache = new TextureCache(deleter);
+    cache.acquire(facade);
+    cache.put(facade, 3, 100);
+    cache.acquire(facade);
+    cache.clear();
+    assertEquals(Collections.singletonList(3), deleter.deletedTextureIds);
+    assertEquals(0, cache.getNumTextures());
+    assertEquals(0, cache.getNumHits());
+    assertEquals(0, cache.getBytesSaved());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void releasingUnknownTexturesFails() {
+    new TextureCache(new RecordingDeleter()).release(TextureCache.Key.of(new File("unknown.png")));
+  }
+}
@@ -0,0 +1,460 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/** Tests for the {@link TextureDecoder} and the {@link ByteBufferPool}. */
+public class TextureDecoderTest {
+
+  /**
+   * A decoder that decodes images with ImageIO, like the BitmapImageDecoder does on Android. The
+   * images are reduced by subsampling, which for odd sizes rounds up instead of down.
+   */
+  private static class ImageIoDecoder implements ImageDecoder {
+    final AtomicInteger numDecoded = new AtomicInteger();
+
+    @Override
+    public int[] readSize(File file) throws IOException {
+      BufferedImage image = ImageIO.read(file);
+      if (image == null) {
+        throw new IOException("Could not decode " + file);
+      }
+      return new int[] {image.getWidth(), image.getHeight()};
+    }
+
+    @Override
+    public DecodedImage decode(File file, int sampleSize, ByteBufferPool pool) throws IOException {
+      BufferedImage image;
+      try (ImageInputStream inputStream = ImageIO.createImageInputStream(file)) {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(inputStream);
+        if (!readers.hasNext()) {
+          throw new IOException("Could not decode " + file);
+        }
+        ImageReader reader = readers.next();
+        try {
+          reader.setInput(inputStream);
+          ImageReadParam param = reader.getDefaultReadParam();
+          param.setSourceSubsampling(sampleSize, sampleSize, 0, 0);
+          image = reader.read(0, param);
+        } finally {
+          reader.dispose();
+        }
+      }
+      int width = image.getWidth();
+      int height = image.getHeight();
+      int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+      ByteBuffer pixels = pool.acquire(4 * width * height);
+      for (int value : argb) {
+        pixels.put((byte) (value >> 16));
+        pixels.put((byte) (value >> 8));
+        pixels.put((byte) value);
+        pixels.put((byte) (value >>> 24));
+      }
+      pixels.rewind();
+      numDecoded.incrementAndGet();
+      return new DecodedImage(width, height, pixels);
+    }
+  }
+
+  // Writes an image with random blocks of colors, which compresses roughly like a texture.
+  private static File createImage(String format, int width, int height, long seed)
+      throws IOException {
+    Random random = new Random(seed);
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < height; ++y) {
+      for (int x = 0; x < width; ++x) {
+        int block = ((y / 16) * 31 + (x / 16)) * 0x9E3779B1;
+        image.setRGB(x, y, (block ^ random.nextInt(16)) & 0xFFFFFF);
+      }
+    }
+    File file = File.createTempFile("texture", "." + format);
+    file.deleteOnExit();
+    ImageIO.write(image, format, file);
+    return file;
+  }
+
+  @Test
+  public void decodesImagesIntoRgbaPixels() throws IOException {
+    BufferedImage image = new BufferedImage(3, 2, BufferedImage.TYPE_INT_RGB);
+    image.setRGB(0, 0, 0xFF0000);
+    image.setRGB(1, 0, 0x00FF00);
+    image.setRGB(2, 1, 0x0000FF);
+    File file = File.createTempFile("texture", ".png");
+    file.deleteOnExit();
+    ImageIO.write(image, "png", file);
+
+    TextureDecoder decoder =
+        new TextureDecoder(new ImageIoDecoder(), new ByteBufferPool(0), 2, false);
+    decoder.request(file);
+    List<ImageDecoder.DecodedImage> levels = decoder.take(file);
+    decoder.shutdown();
+
+    assertEquals(1, levels.size());
+    ImageDecoder.DecodedImage decoded = levels.get(0);
+    assertEquals(3, decoded.getWidth());
+    assertEquals(2, decoded.getHeight());
+    ByteBuffer pixels = decoded.getPixels();
+    assertEquals(0, pixels.position());
+    assertEquals(24, pixels.limit());
+    // Red, green and blue, each with full alpha
+    assertEquals((byte) 0xFF, pixels.get(0));
+    assertEquals(0, pixels.get(1));
+    assertEquals(0, pixels.get(2));
+    assertEquals((byte) 0xFF, pixels.get(3));
+    assertEquals((byte) 0xFF, pixels.get(5));
+    assertEquals((byte) 0xFF, pixels.get(22));
+    assertEquals((byte) 0xFF, pixels.get(23));
+  }
+
+  @Test
+  public void eachFileIsDecodedOnce() throws IOException {
+    File file = createImage("png", 64, 64, 0);
+    ImageIoDecoder imageDecoder = new ImageIoDecoder();
+    TextureDecoder decoder = new TextureDecoder(imageDecoder, new ByteBufferPool(0), 4, false);
+    for (int i = 0; i < 10; ++i) {
+      decoder.request(file);
+    }
+    ImageDecoder.DecodedImage decoded = decoder.take(file).get(0);
+    assertNull(decoder.take(file));
+
+    // Requesting it again after it has been taken does not decode it again
+    decoder.request(file);
+    assertNull(decoder.take(file));
+    decoder.shutdown();
+
+    assertEquals(64, decoded.getWidth());
+    assertEquals(1, imageDecoder.numDecoded.get());
+  }
+
+  @Test
+  public void failuresArePassedToTake() throws IOException {
+    File file = File.createTempFile("broken", ".png");
+    file.deleteOnExit();
+    TextureDecoder decoder =
+        new TextureDecoder(new ImageIoDecoder(), new ByteBufferPool(0), 1, false);
+    decoder.request(file);
+    try {
+      decoder.take(file);
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      // Expected
+    }
+    assertNull(decoder.take(new File("notRequested.png")));
+    decoder.shutdown();
+  }
+
+  @Test
+  public void isDoneWhenDecodingHasFinished() throws Exception {
+    File file = createImage("png", 32, 32, 0);
+    TextureDecoder decoder =
+        new TextureDecoder(new ImageIoDecoder(), new ByteBufferPool(0), 1, false);
+    assertTrue(!decoder.isDone(file));
+    decoder.request(file);
+    long start = System.nanoTime();
+    while (!decoder.isDone(file)) {
+      assertTrue(System.nanoTime() - start < 10000000000L);
+      Thread.sleep(1);
+    }
+    decoder.take(file);
+    assertTrue(!decoder.isDone(file));
+    decoder.shutdown();
+  }
+
+  @Test
+  public void imagesAreReducedAndMipmapped() throws IOException {
+    File file = createImage("png", 256, 64, 0);
+    TextureDecoder decoder =
+        new TextureDecoder(new ImageIoDecoder(), new ByteBufferPool(0), 1, true);
+    assertEquals(256, decoder.readSize(file)[0]);
+    decoder.request(file, 4);
+    List<ImageDecoder.DecodedImage> levels = decoder.take(file);
+    decoder.shutdown();
+
+    // 64x16, 32x8, 16x4, 8x2, 4x1, 2x1, 1x1
+    assertEquals(7, levels.size());
+    assertEquals(64, levels.get(0).getWidth());
+    assertEquals(16, levels.get(0).getHeight());
+    assertEquals(4, levels.get(4).getWidth());
+    assertEquals(1, levels.get(4).getHeight());
+    assertEquals(1, levels.get(6).getWidth());
+    assertEquals(4, levels.get(6).getPixels().limit());
+  }
+
+  @Test
+  public void mipmapsAverageBlocksOfPixels() {
+    // A 3x2 image: the third column is dropped in the next level
+    ByteBuffer pixels = ByteBuffer.allocateDirect(24);
+    byte[] values = {
+        0, 0, 0, 0, (byte) 200, 100, 0, (byte) 255, 99, 99, 99, 99,
+        (byte) 255, 0, 40, (byte) 255, 0, 0, 0, (byte) 255, 99, 99, 99, 99};
+    pixels.put(values);
+    pixels.rewind();
+    ImageDecoder.DecodedImage image = new ImageDecoder.DecodedImage(3, 2, pixels);
+    List<ImageDecoder.DecodedImage> levels =
+        TextureMipmaps.generate(image, new ByteBufferPool(0));
+
+    assertEquals(2, levels.size());
+    assertTrue(levels.get(0) == image);
+    ImageDecoder.DecodedImage level = levels.get(1);
+    assertEquals(1, level.getWidth());
+    assertEquals(1, level.getHeight());
+    ByteBuffer levelPixels = level.getPixels();
+    assertEquals(0, levelPixels.position());
+    assertEquals(114, levelPixels.get(0) & 0xFF);
+    assertEquals(25, levelPixels.get(1) & 0xFF);
+    assertEquals(10, levelPixels.get(2) & 0xFF);
+    assertEquals(191, levelPixels.get(3) & 0xFF);
+
+    // A 1x4 image is halved along its height only
+    ByteBuffer column = ByteBuffer.allocateDirect(16);
+    column.put(new byte[] {10, 10, 10, 10, 20, 20, 20, 20, 30, 30, 30, 30, 50, 50, 50, 50});
+    column.rewind();
+    ImageDecoder.DecodedImage halved = TextureMipmaps.halve(
+        new ImageDecoder.DecodedImage(1, 4, column), new ByteBufferPool(0));
+    assertEquals(1, halved.getWidth());
+    assertEquals(2, halved.getHeight());
+    assertEquals(15, halved.getPixels().get(0));
+    assertEquals(40, halved.getPixels().get(4));
+  }
+
+  @Test
+  public void opaqueImagesAreCompressedAndCached() throws IOException {
+    File cacheDirectory = File.createTempFile("ktx", "");
+    assertTrue(cacheDirectory.delete());
+    cacheDirectory.deleteOnExit();
+    File file = createImage("png", 64, 32, 0);
+
+    TextureDecoder decoder = new TextureDecoder(new ImageIoDecoder(), new LocalFileSource(),
+        new ByteBufferPool(0), 1, true, true, cacheDirectory, file.getParentFile());
+    decoder.request(file, 2);
+    List<ImageDecoder.DecodedImage> levels = decoder.take(file);
+    decoder.shutdown();
+    assertEquals(1, decoder.getNumCompressed());
+    assertEquals(0, decoder.getNumCacheHits());
+    assertEquals(6, levels.size());
+    assertEquals(ImageDecoder.DecodedImage.Format.ETC1, levels.get(0).getFormat());
+    assertEquals(Etc1Encoder.getEncodedSize(32, 16), levels.get(0).getPixels().limit());
+    File[] cacheFiles = cacheDirectory.listFiles();
+    assertEquals(1, cacheFiles.length);
+    cacheFiles[0].deleteOnExit();
+
+    // The image of the dataset at another location is read from the cache
+    File datasetRoot = File.createTempFile("dataset", "");
+    assertTrue(datasetRoot.delete());
+    assertTrue(datasetRoot.mkdir());
+    datasetRoot.deleteOnExit();
+    File copy = new File(datasetRoot, file.getName());
+    copy.deleteOnExit();
+    java.nio.file.Files.copy(file.toPath(), copy.toPath());
+    assertTrue(copy.setLastModified(file.lastModified()));
+    ImageIoDecoder imageDecoder = new ImageIoDecoder();
+    TextureDecoder cachedDecoder = new TextureDecoder(imageDecoder, new LocalFileSource(),
+        new ByteBufferPool(0), 1, true, true, cacheDirectory, datasetRoot);
+    cachedDecoder.request(copy, 2);
+    List<ImageDecoder.DecodedImage> cachedLevels = cachedDecoder.take(copy);
+    cachedDecoder.shutdown();
+    assertEquals(1, cachedDecoder.getNumCacheHits());
+    assertEquals(0, imageDecoder.numDecoded.get());
+    assertEquals(levels.size(), cachedLevels.size());
+    for (int i = 0; i < levels.size(); ++i) {
+      assertEquals(levels.get(i).getWidth(), cachedLevels.get(i).getWidth());
+      assertEquals(levels.get(i).getHeight(), cachedLevels.get(i).getHeight());
+      assertEquals(levels.get(i).getPixels(), cachedLevels.get(i).getPixels());
+    }
+
+    // A modified image is decoded again
+    assertTrue(copy.setLastModified(file.lastModified() + 10000));
+    TextureDecoder modifiedDecoder = new TextureDecoder(new ImageIoDecoder(),
+        new LocalFileSource(), new ByteBufferPool(0), 1, true, true, cacheDirectory, datasetRoot);
+    modifiedDecoder.request(copy, 2);
+    modifiedDecoder.take(copy);
+    modifiedDecoder.shutdown();
+    assertEquals(0, modifiedDecoder.getNumCacheHits());
+    assertEquals(1, modifiedDecoder.getNumCompressed());
+    for (File cacheFile : cacheDirectory.listFiles()) {
+      cacheFile.deleteOnExit();
+    }
+  }
+
+  @Test
+  public void imagesWithAlphaAreNotCompressed() throws IOException {
+    BufferedImage image = new BufferedImage(8, 8, BufferedImage.TYPE_INT_ARGB);
+    image.setRGB(3, 3, 0x80FF0000);
+    File file = File.createTempFile("alpha", ".png");
+    file.deleteOnExit();
+    ImageIO.write(image, "png", file);
+
+    TextureDecoder decoder =
+        new TextureDecoder(new ImageIoDecoder(), new ByteBufferPool(0), 1, false, true, null);
+    decoder.request(file);
+    List<ImageDecoder.DecodedImage> levels = decoder.take(file);
+    decoder.shutdown();
+    assertEquals(ImageDecoder.DecodedImage.Format.RGBA, levels.get(0).getFormat());
+    assertEquals(0, decoder.getNumCompressed());
+  }
+
+  @Test
+  public void atlasPagesAreComposedFromTheirImages() throws IOException {
+    File first = createImage("png", 16, 8, 0);
+    File second = createImage("png", 8, 8, 1);
+    int padding = 4;
+    TextureAtlas.Region[] regions =
+        TextureAtlas.pack(new int[] {16, 8}, new int[] {8, 8}, 64, padding);
+    int[] size = TextureAtlas.computePageSize(regions, 0, padding);
+    TextureAtlas.Page page = new TextureAtlas.Page(new File(first.getPath() + ".atlas0"), size[0],
+        size[1], padding, Arrays.asList(first, second), Arrays.asList(regions));
+
+    ImageIoDecoder imageDecoder = new ImageIoDecoder();
+    TextureDecoder decoder = new TextureDecoder(imageDecoder, new ByteBufferPool(0), 1, false);
+    decoder.requestAtlasPage(page, 1);
+    assertTrue(decoder.isRequested(page.getFile()));
+    List<ImageDecoder.DecodedImage> levels = decoder.take(page.getFile());
+    assertEquals(2, imageDecoder.numDecoded.get());
+    assertEquals(1, levels.size());
+    ImageDecoder.DecodedImage composed = levels.get(0);
+    assertEquals(size[0], composed.getWidth());
+    assertEquals(size[1], composed.getHeight());
+
+    // The pixels of the regions are the pixels of the images
+    List<File> files = Arrays.asList(first, second);
+    for (int i = 0; i < 2; ++i) {
+      ImageDecoder.DecodedImage image = imageDecoder.decode(files.get(i), 1, new ByteBufferPool(0));
+      TextureAtlas.Region region = regions[i];
+      for (int y = 0; y < region.getHeight(); ++y) {
+        for (int x = 0; x < region.getWidth(); ++x) {
+          int pageIndex = 4 * (composed.getWidth() * (region.getY() + y) + region.getX() + x);
+          int imageIndex = 4 * (image.getWidth() * y + x);
+          assertEquals(image.getPixels().getInt(imageIndex),
+              composed.getPixels().getInt(pageIndex));
+        }
+      }
+    }
+
+    // Reduced pages are halved after they have been composed
+    decoder.requestAtlasPage(page, 1);
+    assertNull(decoder.take(page.getFile()));
+    TextureAtlas.Page otherPage = new TextureAtlas.Page(new File(first.getPath() + ".atlas1"),
+        size[0], size[1], padding, Arrays.asList(first, second), Arrays.asList(regions));
+    decoder.requestAtlasPage(otherPage, 4);
+    ImageDecoder.DecodedImage reduced = decoder.take(otherPage.getFile()).get(0);
+    decoder.shutdown();
+    assertEquals(size[0] / 4, reduced.getWidth());
+    assertEquals(size[1] / 4, reduced.getHeight());
+  }
+
+  @Test
+  public void poolReusesBuffersOfSimilarSizes() {
+    ByteBufferPool pool = new ByteBufferPool(1024 * 1024);
+    ByteBuffer first = pool.acquire(1000);
+    assertEquals(1024, first.capacity());
+    assertEquals(1000, first.limit());
+    assertTrue(first.isDirect());
+    pool.release(first);
+    assertEquals(1024, pool.getPooledBytes());
+
+    // A smaller size that fits reuses the buffer, with the new limit
+    ByteBuffer second = pool.acquire(600);
+    assertTrue(second == first);
+    assertEquals(600, second.limit());
+    assertEquals(0, second.position());
+    pool.release(second);
+
+    // Sizes that are much smaller or larger allocate new buffers
+    ByteBuffer small = pool.acquire(100);
+    ByteBuffer large = pool.acquire(2000);
+    assertTrue(small != first);
+    assertTrue(large != first);
+    assertEquals(2048, large.capacity());
+    assertEquals(3, pool.getNumAllocated());
+    assertEquals(1, pool.getNumReused());
+  }
+
+  @Test
+  public void poolKeepsAtMostTheMaximumNumberOfBytes() {
+    ByteBufferPool pool = new ByteBufferPool(3000);
+    ByteBuffer a = pool.acquire(2048);
+    ByteBuffer b = pool.acquire(2048);
+    pool.release(a);
+    pool.release(b);
+    assertEquals(2048, pool.getPooledBytes());
+    pool.clear();
+    assertEquals(0, pool.getPooledBytes());
+  }
+
+  /**
+   * Measures the throughput of decoding PNG and JPEG files with different numbers of threads,
+   * including returning the buffers to the pool, like the ObjectRenderer does after uploading.
+   */
+  @Test
+  @Ignore("Benchmark, run by hand")
+  public void benchmarkDecodeThroughput() throws IOException {
+    int numFiles = 16;
+    int size = 1024;
+    int numCores = Runtime.getRuntime().availableProcessors();
+    int[] threadCounts = {1, 2, 4};
+    for (String format : new String[] {"png", "jpg"}) {
+      List<File> files = new ArrayList<>();
+      long fileBytes = 0;
+      for (int i = 0; i < numFiles; ++i) {
+        File file = createImage(format, size, size, i);
+        files.add(file);
+        fileBytes += file.length();
+      }
+      long[] nanos = new long[threadCounts.length];
+      StringBuilder message = new StringBuilder(String.format(Locale.ENGLISH,
+          "Decoding %d %s files (%d KB) on %d cores:", numFiles, format, fileBytes / 1024,
+          numCores));
+      for (int i = 0; i < threadCounts.length; ++i) {
+        int numThreads = threadCounts[i];
+        ByteBufferPool pool = new ByteBufferPool(64 * 1024 * 1024);
+        TextureDecoder decoder = new TextureDecoder(new ImageIoDecoder(), pool, numThreads, false);
+        long start = System.nanoTime();
+        for (File file : files) {
+          decoder.request(file);
+        }
+        long pixelBytes = 0;
+        for (File file : files) {
+          List<ImageDecoder.DecodedImage> levels = decoder.take(file);
+          pixelBytes += levels.get(0).getPixels().limit();
+          decoder.release(levels);
+        }
+        nanos[i] = System.nanoTime() - start;
+        decoder.shutdown();
+        message.append(String.format(Locale.ENGLISH,
+            " %d threads %.1f ms with %d buffers allocated and %d reused,", numThreads,
+            nanos[i] / 1e6, pool.getNumAllocated(), pool.getNumReused()));
+
+        // Each worker allocates at most one buffer, which it reuses for the following files
+        assertEquals(4L * numFiles * size * size, pixelBytes);
+        assertTrue(message.toString(), pool.getNumAllocated() <= numThreads);
+        assertEquals(message.toString(), numFiles,
+            pool.getNumAllocated() + pool.getNumReused());
+      }
+
+      // More threads can only be faster when there are more cores
+      if (numCores >= 2) {
+        assertTrue(message.toString(), nanos[1] < nanos[0]);
+      }
+    }
+  }
+}
@@ -0,0 +1,306 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/** Tests for the {@link UploadScheduler} and the {@link BufferUpload}. */
+public class UploadSchedulerTest {
+
+  private static final int GL_ARRAY_BUFFER = 0x8892;
+
+  /** A fake GL that stores the contents of the buffers in byte arrays. */
+  private static class FakeGlSink implements BufferUpload.Sink {
+    final List<byte[]> buffers = new ArrayList<>();
+    final List<int[]> subDataCalls = new ArrayList<>();
+
+    @Override
+    public int createBuffer(int target, int size) {
+      buffers.add(new byte[size]);
+      return buffers.size();
+    }
+
+    @Override
+    public void bufferSubData(int target, int bufferId, int offset, int size, Buffer data) {
+      subDataCalls.add(new int[] {bufferId, offset, size});
+      ByteBuffer bytes = ByteBuffer.wrap(buffers.get(bufferId - 1));
+      bytes.position(offset);
+      int start = data.position();
+      if (data instanceof FloatBuffer) {
+        for (int i = 0; i < size / 4; ++i) {
+          bytes.putFloat(((FloatBuffer) data).get(start + i));
+        }
+      } else if (data instanceof IntBuffer) {
+        for (int i = 0; i < size / 4; ++i) {
+          bytes.putInt(((IntBuffer) data).get(start + i));
+        }
+      } else if (data instanceof ShortBuffer) {
+        for (int i = 0; i < size / 2; ++i) {
+          bytes.putShort(((ShortBuffer) data).get(start + i));
+        }
+      } else {
+        for (int i = 0; i < size; ++i) {
+          bytes.put(((ByteBuffer) data).get(start + i));
+        }
+      }
+    }
+  }
+
+  /** A clock that advances by a fixed amount whenever it is read. */
+  private static class FakeClock implements UploadScheduler.Clock {
+    long nanos = 0;
+    long step;
+
+    FakeClock(long step) {
+      this.step = step;
+    }
+
+    @Override
+    public long nanoTime() {
+      nanos += step;
+      return nanos;
+    }
+  }
+
+  /** An upload that records the chunks that it uploaded. */
+  private static class FakeUpload implements UploadScheduler.Upload {
+    final String name;
+    float priority;
+    boolean ready = true;
+    long remainingBytes;
+    final List<String> log;
+
+    FakeUpload(String name, float priority, long bytes, List<String> log) {
+      this.name = name;
+      this.priority = priority;
+      this.remainingBytes = bytes;
+      this.log = log;
+    }
+
+    @Override
+    public float getPriority() {
+      return priority;
+    }
+
+    @Override
+    public boolean isReady() {
+      return ready;
+    }
+
+    @Override
+    public long getRemainingBytes() {
+      return remainingBytes;
+    }
+
+    @Override
+    public long uploadNext(long maxBytes) {
+      long bytes = Math.min(maxBytes, remainingBytes);
+      remainingBytes -= bytes;
+      log.add(name + bytes);
+      return bytes;
+    }
+  }
+
+  @Test
+  public void bufferUploadIsChunkedAlongElements() {
+    FakeGlSink sink = new FakeGlSink();
+    float[] values = new float[1000];
+    for (int i = 0; i < values.length; ++i) {
+      values[i] = i * 0.5f;
+    }
+    FloatBuffer data = FloatBuffer.wrap(values);
+    BufferUpload upload = new BufferUpload(sink, GL_ARRAY_BUFFER, data);
+    assertEquals(4000, upload.getRemainingBytes());
+
+    int numChunks = 0;
+    while (!upload.isDone()) {
+      int bytes = upload.uploadNext(1001);
+      assertEquals(0, bytes % 4);
+      assertTrue(bytes <= 1001);
+      ++numChunks;
+    }
+    assertEquals(4, numChunks);
+    assertEquals(0, upload.getRemainingBytes());
+    assertEquals(0, data.position());
+
+    // The chunks are contiguous and contain all values
+    int offset = 0;
+    for (int[] call : sink.subDataCalls) {
+      assertEquals(upload.getBufferId(), call[0]);
+      assertEquals(offset, call[1]);
+      offset += call[2];
+    }
+    FloatBuffer uploaded = ByteBuffer.wrap(sink.buffers.get(0)).asFloatBuffer();
+    float[] uploadedValues = new float[values.length];
+    uploaded.get(uploadedValues);
+    assertArrayEquals(values, uploadedValues, 0.0f);
+  }
+
+  @Test
+  public void bufferUploadUploadsAtLeastOneElement() {
+    FakeGlSink sink = new FakeGlSink();
+    BufferUpload upload =
+        new BufferUpload(sink, GL_ARRAY_BUFFER, ShortBuffer.wrap(new short[] {1, 2, 3}));
+    assertEquals(2, upload.uploadNext(1));
+    assertEquals(4, upload.uploadNext(100));
+    assertTrue(upload.isDone());
+    assertArrayEquals(new byte[] {0, 1, 0, 2, 0, 3}, sink.buffers.get(0));
+
+    // Empty buffers are created, but contain no chunks
+    BufferUpload emptyUpload = new BufferUpload(sink, GL_ARRAY_BUFFER, IntBuffer.allocate(0));
+    assertEquals(0, emptyUpload.uploadNext(100));
+    assertTrue(emptyUpload.isDone());
+    assertEquals(2, emptyUpload.getBufferId());
+  }
+
+  @Test
+  public void byteBudgetLimitsEachFrame() {
+    List<String> log = new ArrayList<>();
+    UploadScheduler scheduler = new UploadScheduler(Long.MAX_VALUE, 1000, 300, new FakeClock(0));
+    scheduler.add(new FakeUpload("a", 1.0f, 2500, log));
+    assertEquals(2500, scheduler.getBacklogBytes());
+
+    assertEquals(1000, scheduler.runFrame());
+    assertEquals(Arrays.asList("a300", "a300", "a300", "a100"), log);
+    assertEquals(4, scheduler.getChunksLastFrame());
+    assertEquals(1500, scheduler.getBacklogBytes());
+
+    assertEquals(1000, scheduler.runFrame());
+    assertEquals(500, scheduler.runFrame());
+    assertEquals(0, scheduler.getNumPendingUploads());
+    assertEquals(0, scheduler.runFrame());
+  }
+
+  @Test
+  public void timeBudgetLimitsEachFrame() {
+    // Each chunk takes 1 ms
+    List<String> log = new ArrayList<>();
+    UploadScheduler scheduler =
+        new UploadScheduler(4000000, Long.MAX_VALUE, 100, new FakeClock(1000000));
+    scheduler.add(new FakeUpload("a", 1.0f, 10000, log));
+    scheduler.runFrame();
+    assertEquals(4, scheduler.getChunksLastFrame());
+    assertEquals(400, scheduler.getBytesLastFrame());
+  }
+
+  @Test
+  public void eachFrameMakesProgress() {
+    List<String> log = new ArrayList<>();
+    UploadScheduler scheduler = new UploadScheduler(0, 0, 100, new FakeClock(1000000));
+    scheduler.add(new FakeUpload("a", 1.0f, 150, log));
+    scheduler.add(new FakeUpload("b", 1.0f, 10, log));
+    int numFrames = 0;
+    while (scheduler.getNumPendingUploads() > 0) {
+      scheduler.runFrame();
+      assertEquals(1, scheduler.getChunksLastFrame());
+      ++numFrames;
+    }
+    assertEquals(Arrays.asList("a1", "a1", "a1"), log.subList(0, 3));
+    assertEquals(160, numFrames);
+  }
+
+  @Test
+  public void uploadsAreOrderedByPriority() {
+    List<String> log = new ArrayList<>();
+    UploadScheduler scheduler = new UploadScheduler(Long.MAX_VALUE, 100, 100, new FakeClock(0));
+    FakeUpload small = new FakeUpload("small", 10.0f, 200, log);
+    FakeUpload large = new FakeUpload("large", 500.0f, 200, log);
+    FakeUpload tie = new FakeUpload("tie", 10.0f, 100, log);
+    scheduler.add(small);
+    scheduler.add(large);
+    scheduler.add(tie);
+
+    scheduler.runFrame();
+    scheduler.runFrame();
+    assertEquals(Arrays.asList("large100", "large100"), log);
+
+    // Priorities are updated in each frame, and equal priorities keep the order of adding
+    small.priority = 5.0f;
+    scheduler.runFrame();
+    scheduler.runFrame();
+    scheduler.runFrame();
+    assertEquals(Arrays.asList("large100", "large100", "tie100", "small100", "small100"), log);
+    assertEquals(0, scheduler.getNumPendingUploads());
+  }
+
+  @Test
+  public void uploadsThatAreNotReadyAreSkipped() {
+    List<String> log = new ArrayList<>();
+    UploadScheduler scheduler = new UploadScheduler(Long.MAX_VALUE, 100, 100, new FakeClock(0));
+    FakeUpload waiting = new FakeUpload("waiting", 500.0f, 100, log);
+    FakeUpload other = new FakeUpload("other", 10.0f, 200, log);
+    waiting.ready = false;
+    scheduler.add(waiting);
+    scheduler.add(other);
+
+    scheduler.runFrame();
+    assertEquals(Arrays.asList("other100"), log);
+    assertEquals(2, scheduler.getNumPendingUploads());
+
+    // Once it is ready, the upload is performed first again
+    waiting.ready = true;
+    scheduler.runFrame();
+    scheduler.runFrame();
+    assertEquals(Arrays.asList("other100", "waiting100", "other100"), log);
+    assertEquals(0, scheduler.getNumPendingUploads());
+
+    // Frames in which no upload is ready do not upload anything
+    FakeUpload blocked = new FakeUpload("blocked", 1.0f, 100, log);
+    blocked.ready = false;
+    scheduler.add(blocked);
+    assertEquals(0, scheduler.runFrame());
+    assertEquals(1, scheduler.getNumPendingUploads());
+  }
+
+  @Test
+  public void buffersAreUploadedThroughScheduler() {
+    FakeGlSink sink = new FakeGlSink();
+    byte[] vertices = new byte[100000];
+    for (int i = 0; i < vertices.length; ++i) {
+      vertices[i] = (byte) i;
+    }
+    final BufferUpload bufferUpload =
+        new BufferUpload(sink, GL_ARRAY_BUFFER, ByteBuffer.wrap(vertices));
+    UploadScheduler scheduler = new UploadScheduler(Long.MAX_VALUE, 16384, 4096, new FakeClock(0));
+    scheduler.add(new UploadScheduler.Upload() {
+      @Override
+      public float getPriority() {
+        return 0;
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public long getRemainingBytes() {
+        return bufferUpload.isDone() ? 0 : Math.max(1, bufferUpload.getRemainingBytes());
+      }
+
+      @Override
+      public long uploadNext(long maxBytes) {
+        return bufferUpload.uploadNext(maxBytes);
+      }
+    });
+
+    int numFrames = 0;
+    while (scheduler.getNumPendingUploads() > 0) {
+      assertTrue(scheduler.runFrame() <= 16384);
+      ++numFrames;
+    }
+    assertEquals((vertices.length + 16383) / 16384, numFrames);
+    assertEquals((vertices.length + 4095) / 4096, sink.subDataCalls.size());
+    assertArrayEquals(vertices, sink.buffers.get(0));
+  }
+}
@@ -0,0 +1,132 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Test;
+
+/** Tests for the {@link ZipFileSource}. */
+public class ZipFileSourceTest {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  // Creates an archive with the given alternating entry names and contents. Names that end with
+  // '/' are directories.
+  private static File createArchive(String... namesAndContents) throws IOException {
+    File archive = File.createTempFile("dataset", ".fmear");
+    archive.deleteOnExit();
+    try (ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(archive))) {
+      for (int i = 0; i < namesAndContents.length; i += 2) {
+        outputStream.putNextEntry(new ZipEntry(namesAndContents[i]));
+        if (namesAndContents[i + 1] != null) {
+          outputStream.write(namesAndContents[i + 1].getBytes(UTF_8));
+        }
+        outputStream.closeEntry();
+      }
+    }
+    return archive;
+  }
+
+  private static String readFully(InputStream inputStream) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    byte[] buffer = new byte[16];
+    int read;
+    while ((read = inputStream.read(buffer)) >= 0) {
+      outputStream.write(buffer, 0, read);
+    }
+    return new String(outputStream.toByteArray(), UTF_8);
+  }
+
+  @Test
+  public void entriesAreFoundBelowDirectories() throws IOException {
+    File archive = createArchive(
+        "model/", null,
+        "model/a.obj", "v 0 0 0",
+        "model/parts/B.OBJ", "v 1 1 1",
+        "model/a.mtl", "newmtl a",
+        "__MACOSX/model/._a.obj", "metadata");
+    try (ZipFileSource source = new ZipFileSource(archive)) {
+      File root = source.getRoot();
+      assertEquals(3, source.getNumEntries());
+      assertEquals(Arrays.asList(new File(root, "model/a.obj"), new File(root, "model/parts/B.OBJ")),
+          source.find(root, ".obj"));
+      assertEquals(Arrays.asList(new File(root, "model/parts/B.OBJ")),
+          source.find(new File(root, "model/parts"), ".obj"));
+      assertTrue(source.find(new File(root, "other"), ".obj").isEmpty());
+      assertFalse(source.exists(new File(root, "model")));
+      assertEquals(7, source.length(new File(root, "model/a.obj")));
+    }
+  }
+
+  @Test
+  public void pathsAreResolvedRelativeToTheirDirectory() throws IOException {
+    File archive = createArchive(
+        "model/a.obj", "v 0 0 0",
+        "model/materials/a.mtl", "newmtl a\nmap_Kd ..\\textures\\a.png",
+        "model/textures/a.png", "png");
+    try (ZipFileSource source = new ZipFileSource(archive)) {
+      File root = source.getRoot();
+      File mtlFile = source.resolve(new File(root, "model"), "./materials/a.mtl");
+      assertEquals(new File(root, "model/materials/a.mtl"), mtlFile);
+      File textureFile = source.resolve(mtlFile.getParentFile(), "../textures/a.png");
+      assertTrue(source.exists(textureFile));
+      assertEquals("png", readFully(source.open(textureFile)));
+      assertFalse(source.exists(source.resolve(root, "../outside.png")));
+    }
+  }
+
+  @Test
+  public void entriesAreReadIntoBuffers() throws IOException {
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 20000; ++i) {
+      content.append("v ").append(i).append(" 0 0\n");
+    }
+    File archive = createArchive("a.obj", content.toString());
+    try (ZipFileSource source = new ZipFileSource(archive)) {
+      File objFile = new File(source.getRoot(), "a.obj");
+      ByteBuffer buffer = source.read(objFile);
+      assertEquals(0, buffer.position());
+      assertEquals(source.length(objFile), buffer.limit());
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.get(bytes);
+      assertEquals(content.toString(), new String(bytes, UTF_8));
+    }
+  }
+
+  @Test
+  public void namesAreNormalized() {
+    assertEquals("a/c.png", ZipFileSource.normalize("./a/b/../c.png"));
+    assertEquals("a/b.png", ZipFileSource.normalize("a\\\\b.png"));
+    assertNull(ZipFileSource.normalize("../a.png"));
+  }
+
+  @Test(expected = IOException.class)
+  public void missingEntriesCanNotBeOpened() throws IOException {
+    File archive = createArchive("a.obj", "v 0 0 0");
+    try (ZipFileSource source = new ZipFileSource(archive)) {
+      source.open(new File(source.getRoot(), "b.obj"));
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void entriesCanNotBeReadAfterClosing() throws IOException {
+    File archive = createArchive("a.obj", "v 0 0 0");
+    ZipFileSource source = new ZipFileSource(archive);
+    File objFile = new File(source.getRoot(), "a.obj");
+    source.close();
+    assertTrue(source.exists(objFile));
+    source.read(objFile);
+  }
+}
@@ -0,0 +1,146 @@
+package com.safe.fmear;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the {@link DatasetCache}.
+ */
+public class DatasetCacheTest {
+
+    private static File createTempDirectory() throws IOException {
+        File directory = File.createTempFile("fmear-datasets", "");
+        directory.delete();
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    // Creates an archive with one entry of the given name and content.
+    private static File createArchive(String name, String content) throws IOException {
+        File archive = File.createTempFile("dataset", ".fmear");
+        archive.deleteOnExit();
+        try (ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(archive))) {
+            ZipEntry entry = new ZipEntry(name);
+            entry.setTime(0);
+            outputStream.putNextEntry(entry);
+            outputStream.write(content.getBytes(Charset.forName("UTF-8")));
+            outputStream.closeEntry();
+        }
+        return archive;
+    }
+
+    private static String computeKey(File archive) throws IOException {
+        try (ZipFile zipFile = new ZipFile(archive)) {
+            return DatasetCache.computeKey(zipFile);
+        }
+    }
+
+    // Creates and commits an entry with one file of the given size.
+    private static File addEntry(DatasetCache cache, String key, int size) throws IOException {
+        File temporaryDirectory = cache.create(key);
+        try (FileOutputStream outputStream =
+                     new FileOutputStream(new File(temporaryDirectory, "model.obj"))) {
+            outputStream.write(new byte[size]);
+        }
+        return cache.commit(key, temporaryDirectory);
+    }
+
+    @Test
+    public void keysDependOnTheContentOfTheArchive() throws IOException {
+        String key = computeKey(createArchive("a.obj", "v 0 0 0"));
+        assertEquals(key, computeKey(createArchive("a.obj", "v 0 0 0")));
+        assertNotEquals(key, computeKey(createArchive("a.obj", "v 1 0 0")));
+        assertNotEquals(key, computeKey(createArchive("b.obj", "v 0 0 0")));
+    }
+
+    @Test
+    public void committedEntriesAreFound() throws IOException {
+        DatasetCache cache = new DatasetCache(createTempDirectory(), 1000);
+        assertNull(cache.get("a"));
+        File temporaryDirectory = cache.create("a");
+        assertNull(cache.get("a"));
+        File entryDirectory = addEntry(cache, "a", 10);
+        assertEquals(entryDirectory, cache.get("a"));
+        assertTrue(new File(entryDirectory, "model.obj").isFile());
+        assertFalse(temporaryDirectory.exists());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted() throws IOException {
+        DatasetCache cache = new DatasetCache(createTempDirectory(), 350);
+        addEntry(cache, "a", 100);
+        addEntry(cache, "b", 100);
+        addEntry(cache, "c", 100);
+        assertEquals(Arrays.asList("a", "b", "c"), cache.getKeys());
+
+        // Using "a" makes "b" the least recently used entry
+        assertNotNull(cache.get("a"));
+        addEntry(cache, "d", 100);
+        assertEquals(Arrays.asList("c", "a", "d"), cache.getKeys());
+        assertNull(cache.get("b"));
+        assertTrue(cache.getSizeBytes() <= 350);
+    }
+
+    @Test
+    public void entriesLargerThanTheQuotaAreKept() throws IOException {
+        DatasetCache cache = new DatasetCache(createTempDirectory(), 50);
+        addEntry(cache, "a", 10);
+        addEntry(cache, "b", 100);
+        assertEquals(Collections.singletonList("b"), cache.getKeys());
+    }
+
+    @Test
+    public void entriesFilledInPlaceAreFoundAfterCommitting() throws IOException {
+        File directory = createTempDirectory();
+        DatasetCache cache = new DatasetCache(directory, 1000);
+        File entryDirectory = cache.createInPlace("a");
+        try (FileOutputStream outputStream =
+                     new FileOutputStream(new File(entryDirectory, "model.obj"))) {
+            outputStream.write(new byte[10]);
+        }
+        assertNull(cache.get("a"));
+        assertEquals(entryDirectory, cache.commitInPlace("a"));
+        assertEquals(entryDirectory, cache.get("a"));
+        assertTrue(new File(entryDirectory, "model.obj").isFile());
+
+        // An entry that was not committed, like after a crash, is deleted by a new cache
+        File interruptedDirectory = cache.createInPlace("b");
+        cache = new DatasetCache(directory, 1000);
+        assertFalse(interruptedDirectory.exists());
+        assertNotNull(cache.get("a"));
+    }
+
+    @Test
+    public void interruptedAndRemovedEntriesAreInvalid() throws IOException {
+        File directory = createTempDirectory();
+        DatasetCache cache = new DatasetCache(directory, 1000);
+        addEntry(cache, "a", 10);
+        File temporaryDirectory = cache.create("b");
+
+        // A new cache, like after a crash, deletes the entry that was not committed
+        cache = new DatasetCache(directory, 1000);
+        assertFalse(temporaryDirectory.exists());
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+
+        cache.remove("a");
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getSizeBytes());
+    }
+}
@@ -0,0 +1,442 @@
+package com.safe.fmear;
+
+import com.google.ar.core.examples.java.common.rendering.FileQueue;
+import com.google.ar.core.examples.java.common.rendering.ParallelFileLoader;
+import de.javagl.obj.ObjReader;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests and benchmarks for the {@link ZipExtractor}.
+ */
+public class ZipExtractorTest {
+
+    // Creates an archive with the given entry names and sizes. The content of each entry is text
+    // that compresses like obj files, and names that end with '/' are directories.
+    private static File createArchive(Random random, String[] names, int[] sizes)
+            throws IOException {
+        File archive = File.createTempFile("dataset", ".fmear");
+        archive.deleteOnExit();
+        try (ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(archive))) {
+            for (int i = 0; i < names.length; i++) {
+                outputStream.putNextEntry(new ZipEntry(names[i]));
+                outputStream.write(createContent(random, sizes[i]));
+                outputStream.closeEntry();
+            }
+        }
+        return archive;
+    }
+
+    private static byte[] createContent(Random random, int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i % 32 == 31 ? '\n' : '0' + random.nextInt(10));
+        }
+        return content;
+    }
+
+    private static File createTempDirectory() throws IOException {
+        File directory = File.createTempFile("fmear", "");
+        directory.delete();
+        directory.mkdirs();
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    private static void deleteRecursively(File fileOrDirectory) {
+        File[] children = fileOrDirectory.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        fileOrDirectory.delete();
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int numBytes;
+        while ((numBytes = inputStream.read(buffer)) >= 0) {
+            outputStream.write(buffer, 0, numBytes);
+        }
+        return outputStream.toByteArray();
+    }
+
+    // The sequential extraction that was used before, with a 1 KB buffer
+    private static long extractSequentially(File archive, File destinationFolder)
+            throws IOException {
+        long bytes = 0;
+        byte[] buffer = new byte[1024];
+        try (ZipInputStream zipInputStream = new ZipInputStream(new FileInputStream(archive))) {
+            ZipEntry zipEntry;
+            while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+                File file = new File(destinationFolder, zipEntry.getName());
+                file.getParentFile().mkdirs();
+                try (OutputStream outputStream = new FileOutputStream(file)) {
+                    int numBytes;
+                    while ((numBytes = zipInputStream.read(buffer)) > 0) {
+                        outputStream.write(buffer, 0, numBytes);
+                        bytes += numBytes;
+                    }
+                }
+            }
+        }
+        return bytes;
+    }
+
+    @Test
+    public void extractsAllEntries() throws IOException {
+        Random random = new Random(0);
+        String[] names = {"model/", "model/a.obj", "model/textures/a.png", "b.obj",
+                "__MACOSX/model/._a.obj"};
+        int[] sizes = {0, 5000, 2 * ZipExtractor.LARGE_ENTRY_SIZE + 17, 0, 100};
+        File archive = createArchive(random, names, sizes);
+        File destination = createTempDirectory();
+
+        final List<Integer> progress = new ArrayList<>();
+        final List<Long> bytesProgress = new ArrayList<>();
+        long bytes;
+        try (ZipFile zipFile = new ZipFile(archive)) {
+            bytes = new ZipExtractor(3).extract(zipFile, destination,
+                    new ZipExtractor.ProgressListener() {
+                        @Override
+                        public void progressChanged(int numEntriesExtracted, int totalNumEntries,
+                                                    long bytesExtracted, long totalBytes) {
+                            assertEquals(3, totalNumEntries);
+                            assertTrue(bytesExtracted <= totalBytes);
+                            progress.add(numEntriesExtracted);
+                            bytesProgress.add(bytesExtracted);
+                        }
+                    });
+        }
+
+        long totalBytes = 5000 + 2 * ZipExtractor.LARGE_ENTRY_SIZE + 17;
+        assertEquals(totalBytes, bytes);
+
+        // The large entry is reported while it is written, and the progress never goes back
+        assertTrue(progress.size() > 3);
+        for (int i = 1; i < progress.size(); i++) {
+            assertTrue(progress.get(i) >= progress.get(i - 1));
+            assertTrue(bytesProgress.get(i) >= bytesProgress.get(i - 1));
+        }
+        assertEquals(3, (int) progress.get(progress.size() - 1));
+        assertEquals(totalBytes, (long) bytesProgress.get(bytesProgress.size() - 1));
+        assertEquals(5000, new File(destination, "model/a.obj").length());
+        assertEquals(0, new File(destination, "b.obj").length());
+        assertFalse(new File(destination, "__MACOSX").exists());
+        String textureName = "model/textures/a.png";
+        try (ZipFile zipFile = new ZipFile(archive);
+             InputStream expected = zipFile.getInputStream(zipFile.getEntry(textureName));
+             InputStream actual = new FileInputStream(new File(destination, textureName))) {
+            assertTrue(Arrays.equals(readFully(expected), readFully(actual)));
+        }
+        deleteRecursively(destination);
+    }
+
+    // Creates an archive with obj entries of the given numbers of vertices, and texture entries of
+    // the given sizes.
+    private static File createDatasetArchive(Random random, int[] numVertices, int[] textureSizes)
+            throws IOException {
+        File archive = File.createTempFile("dataset", ".fmear");
+        archive.deleteOnExit();
+        try (ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(archive))) {
+            for (int i = 0; i < numVertices.length; i++) {
+                outputStream.putNextEntry(new ZipEntry("model/" + i + ".obj"));
+                StringBuilder obj = new StringBuilder();
+                for (int v = 0; v < numVertices[i]; v++) {
+                    obj.append(String.format(Locale.ENGLISH, "v %.4f %.4f %.4f\n",
+                            random.nextFloat(), random.nextFloat(), random.nextFloat()));
+                }
+                for (int v = 1; v + 2 <= numVertices[i]; v += 3) {
+                    obj.append("f ").append(v).append(' ').append(v + 1).append(' ')
+                            .append(v + 2).append('\n');
+                }
+                outputStream.write(obj.toString().getBytes("US-ASCII"));
+                outputStream.closeEntry();
+            }
+            for (int i = 0; i < textureSizes.length; i++) {
+                outputStream.putNextEntry(new ZipEntry("model/textures/" + i + ".png"));
+                outputStream.write(createContent(random, textureSizes[i]));
+                outputStream.closeEntry();
+            }
+        }
+        return archive;
+    }
+
+    // A loader that parses an obj file and returns its number of faces
+    private static final ParallelFileLoader.FileLoader<Integer> OBJ_FILE_LOADER =
+            new ParallelFileLoader.FileLoader<Integer>() {
+                @Override
+                public long estimateMemory(File file) {
+                    return file.length();
+                }
+
+                @Override
+                public Integer load(File file, int numThreads) {
+                    try (InputStream inputStream = new FileInputStream(file)) {
+                        return ObjReader.read(inputStream).getNumFaces();
+                    } catch (IOException e) {
+                        return null;
+                    }
+                }
+            };
+
+    // Extracts the archive and loads its obj files while they are extracted, like ARActivity.
+    // Returns the number of faces.
+    private static int extractAndLoadPipelined(File archive, File destination, int numThreads)
+            throws IOException, InterruptedException {
+        final FileQueue queue = new FileQueue(4);
+        final int[] numFiles = new int[1];
+        final CountDownLatch found = new CountDownLatch(1);
+        final List<Integer> results = new ArrayList<>();
+        final ParallelFileLoader loader = new ParallelFileLoader(numThreads, Long.MAX_VALUE);
+        Thread loaderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    found.await();
+                    results.addAll(loader.load(queue, numFiles[0], OBJ_FILE_LOADER, null));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        loaderThread.start();
+        try (ZipFile zipFile = new ZipFile(archive)) {
+            new ZipExtractor(numThreads).extract(zipFile, destination, null, ".obj",
+                    new ZipExtractor.FileListener() {
+                        @Override
+                        public void deferredEntriesFound(int numEntries, long totalBytes) {
+                            numFiles[0] = numEntries;
+                            found.countDown();
+                        }
+
+                        @Override
+                        public void deferredFileExtracted(File file)
+                                throws InterruptedException {
+                            queue.put(file);
+                        }
+                    });
+        } finally {
+            queue.close();
+        }
+        loaderThread.join();
+        int numFaces = 0;
+        for (int result : results) {
+            numFaces += result;
+        }
+        return numFaces;
+    }
+
+    @Test
+    public void deferredFilesArePassedAfterTheOtherEntries() throws IOException {
+        Random random = new Random(3);
+        String[] names = {"model/a.OBJ", "model/a.mtl", "model/b.obj", "model/textures/a.png",
+                "model/textures/b.png"};
+        int[] sizes = {3000, 200, 5000, 4000, 2 * ZipExtractor.LARGE_ENTRY_SIZE};
+        File archive = createArchive(random, names, sizes);
+        final File destination = createTempDirectory();
+
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        final List<File> files = Collections.synchronizedList(new ArrayList<File>());
+        try (ZipFile zipFile = new ZipFile(archive)) {
+            new ZipExtractor(1).extract(zipFile, destination,
+                    new ZipExtractor.ProgressListener() {
+                        private int mNumEntriesExtracted;
+
+                        @Override
+                        public void progressChanged(int numEntriesExtracted, int totalNumEntries,
+                                                    long bytesExtracted, long totalBytes) {
+                            if (numEntriesExtracted > mNumEntriesExtracted) {
+                                mNumEntriesExtracted = numEntriesExtracted;
+                                events.add("extracted");
+                            }
+                        }
+                    }, ".obj", new ZipExtractor.FileListener() {
+                        @Override
+                        public void deferredEntriesFound(int numEntries, long totalBytes) {
+                            assertEquals(2, numEntries);
+                            assertEquals(8000, totalBytes);
+                            assertTrue(events.isEmpty());
+                        }
+
+                        @Override
+                        public void deferredFileExtracted(File file) {
+                            assertTrue(file.isFile());
+                            assertTrue(new File(destination, "model/a.mtl").isFile());
+                            assertTrue(new File(destination, "model/textures/b.png").isFile());
+                            events.add("deferred");
+                            files.add(file);
+                        }
+                    });
+        }
+
+        // The deferred entries are extracted last, with the largest first
+        assertEquals(Arrays.asList("extracted", "extracted", "extracted",
+                "extracted", "deferred", "extracted", "deferred"), events);
+        assertEquals(Arrays.asList("b.obj", "a.OBJ"),
+                Arrays.asList(files.get(0).getName(), files.get(1).getName()));
+        deleteRecursively(destination);
+    }
+
+    @Test
+    public void rejectsEntriesOutsideOfTheDestination() throws IOException {
+        File archive = createArchive(new Random(1), new String[] {"../evil.obj"}, new int[] {10});
+        File destination = createTempDirectory();
+        try (ZipFile zipFile = new ZipFile(archive)) {
+            new ZipExtractor(1).extract(zipFile, destination, null);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertFalse(new File(destination.getParentFile(), "evil.obj").exists());
+        deleteRecursively(destination);
+    }
+
+    @Test
+    @Ignore("Benchmark, run by hand")
+    public void benchmarkExtraction() throws IOException {
+        Random random = new Random(2);
+        int numSmall = 400;
+        int numLarge = 4;
+        String[] names = new String[numSmall + numLarge];
+        int[] sizes = new int[names.length];
+        long totalBytes = 0;
+        for (int i = 0; i < numSmall; i++) {
+            names[i] = "small/" + i + ".obj";
+            sizes[i] = 1000 + random.nextInt(20000);
+            totalBytes += sizes[i];
+        }
+        for (int i = 0; i < numLarge; i++) {
+            names[numSmall + i] = "large/" + i + ".obj";
+            sizes[numSmall + i] = 8 * 1024 * 1024;
+            totalBytes += sizes[numSmall + i];
+        }
+        File archive = createArchive(random, names, sizes);
+
+        // The fastest of the runs, sequentially and with 1, 2 and 4 threads
+        int[] threadCounts = {1, 2, 4};
+        long sequentialNanos = Long.MAX_VALUE;
+        long[] nanos = new long[threadCounts.length];
+        Arrays.fill(nanos, Long.MAX_VALUE);
+        for (int run = 0; run < 2; run++) {
+            File destination = createTempDirectory();
+            long before = System.nanoTime();
+            long bytes = extractSequentially(archive, destination);
+            long after = System.nanoTime();
+            deleteRecursively(destination);
+            assertEquals(totalBytes, bytes);
+            sequentialNanos = Math.min(sequentialNanos, after - before);
+            for (int i = 0; i < threadCounts.length; i++) {
+                destination = createTempDirectory();
+                try (ZipFile zipFile = new ZipFile(archive)) {
+                    before = System.nanoTime();
+                    bytes = new ZipExtractor(threadCounts[i]).extract(zipFile, destination, null);
+                    after = System.nanoTime();
+                }
+                deleteRecursively(destination);
+                assertEquals(totalBytes, bytes);
+                nanos[i] = Math.min(nanos[i], after - before);
+            }
+        }
+
+        int numCores = Runtime.getRuntime().availableProcessors();
+        String message = String.format(Locale.ENGLISH,
+                "Extracted %d small and %d large entries (%d KB) on %d cores: "
+                        + "sequential %.1f ms, 1 threads %.1f ms, 2 threads %.1f ms, "
+                        + "4 threads %.1f ms",
+                numSmall, numLarge, totalBytes / 1024, numCores, sequentialNanos / 1e6,
+                nanos[0] / 1e6, nanos[1] / 1e6, nanos[2] / 1e6);
+        assertTrue(message, nanos[0] < sequentialNanos);
+
+        // More threads can only be faster when there are more cores
+        if (numCores >= 2) {
+            assertTrue(message, nanos[1] < nanos[0]);
+        }
+    }
+
+    @Test
+    @Ignore("Benchmark, run by hand")
+    public void benchmarkPipelinedLoading() throws IOException, InterruptedException {
+        Random random = new Random(4);
+        int[] numVertices = new int[24];
+        for (int i = 0; i < numVertices.length; i++) {
+            numVertices[i] = 5000 + random.nextInt(30000);
+        }
+        int[] textureSizes = new int[40];
+        for (int i = 0; i < textureSizes.length; i++) {
+            textureSizes[i] = 10000 + random.nextInt(200000);
+        }
+        File archive = createDatasetArchive(random, numVertices, textureSizes);
+        int numCores = Runtime.getRuntime().availableProcessors();
+
+        // The fastest of the runs, with the phases that were used before (extract everything, then
+        // find and load the objs) and pipelined
+        long phasedNanos = Long.MAX_VALUE;
+        long pipelinedNanos = Long.MAX_VALUE;
+        int numFaces = 0;
+        for (int run = 0; run < 3; run++) {
+            File destination = createTempDirectory();
+            long before = System.nanoTime();
+            try (ZipFile zipFile = new ZipFile(archive)) {
+                new ZipExtractor(numCores).extract(zipFile, destination, null);
+            }
+            List<File> objFiles = new ArrayList<>();
+            for (File file : new File(destination, "model").listFiles()) {
+                if (file.getName().endsWith(".obj")) {
+                    objFiles.add(file);
+                }
+            }
+            int phasedFaces = 0;
+            for (int result : new ParallelFileLoader(numCores, Long.MAX_VALUE)
+                    .load(objFiles, OBJ_FILE_LOADER, null)) {
+                phasedFaces += result;
+            }
+            phasedNanos = Math.min(phasedNanos, System.nanoTime() - before);
+            deleteRecursively(destination);
+
+            destination = createTempDirectory();
+            before = System.nanoTime();
+            numFaces = extractAndLoadPipelined(archive, destination, numCores);
+            pipelinedNanos = Math.min(pipelinedNanos, System.nanoTime() - before);
+            deleteRecursively(destination);
+            assertEquals(phasedFaces, numFaces);
+        }
+
+        String message = String.format(Locale.ENGLISH,
+                "Extracted and loaded %d obj files with %d faces on %d cores: "
+                        + "phased %.1f ms, pipelined %.1f ms",
+                numVertices.length, numFaces, numCores, phasedNanos / 1e6, pipelinedNanos / 1e6);
+
+        // Extraction and loading can only overlap when there are more cores
+        if (numCores >= 2) {
+            assertTrue(message, pipelinedNanos < phasedNanos);
+        }
+    }
+}
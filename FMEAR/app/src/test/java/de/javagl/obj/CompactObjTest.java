@@ -0,0 +1,163 @@
+package de.javagl.obj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link CompactObj}, which must behave like the
+ * {@link DefaultObj}
+ */
+public class CompactObjTest
+{
+    @Test
+    public void readsSameAsDefaultObj() throws IOException
+    {
+        String objString = ObjTestUtils.createGridObj(new Random(0), 30, 7);
+        Obj expected = ObjReader.read(new StringReader(objString));
+        Obj actual = ObjReader.read(
+            new StringReader(objString), Objs.createCompact());
+        ObjTestUtils.assertObjEquals(expected, actual);
+    }
+
+    @Test
+    public void storesMixedDimensionsAndFaceTypes() throws IOException
+    {
+        String objString =
+            "v 0 0 0\nv 1 0 0\nv 1 1 0 1\nv 0 1\n" +
+            "vt 0 0\nvt 1\nvt 1 1 0\n" +
+            "vn 0 0 1\n" +
+            "f 1 2 3\n" +
+            "g a b\n" +
+            "f 1/1 2/2 3/3 4/1\n" +
+            "usemtl red\n" +
+            "f 1//1 2//1 3//1\n" +
+            "g b a\n" +
+            "f 1/3/1 2/2/1 4/1/1\n" +
+            "usemtl red\n" +
+            "f 4 3 2 1\n";
+        Obj expected = ObjReader.read(new StringReader(objString));
+        Obj actual = ObjReader.read(
+            new StringReader(objString), Objs.createCompact());
+        ObjTestUtils.assertObjEquals(expected, actual);
+        assertNull(actual.getActivatedGroupNames(expected.getFace(1)));
+        assertEquals(actual.getFace(2), actual.getGroup("a").getFace(1));
+        assertEquals(actual.getFace(2).hashCode(),
+            actual.getGroup("a").getFace(1).hashCode());
+    }
+
+    @Test
+    public void worksWithObjUtilsAndObjData() throws IOException
+    {
+        String objString = ObjTestUtils.createGridObj(new Random(1), 20, 5);
+
+        Obj expected = ObjReader.read(new StringReader(objString));
+        expected = ObjUtils.triangulate(expected);
+        expected = ObjUtils.makeTexCoordsUnique(expected);
+        expected = ObjUtils.makeNormalsUnique(expected);
+        expected = ObjUtils.makeVertexIndexed(expected);
+
+        Obj actual = ObjReader.read(
+            new StringReader(objString), Objs.createCompact());
+        actual = ObjUtils.triangulate(actual, Objs.createCompact());
+        actual = ObjUtils.makeTexCoordsUnique(
+            actual, null, Objs.createCompact());
+        actual = ObjUtils.makeNormalsUnique(
+            actual, null, Objs.createCompact());
+        actual = ObjUtils.makeVertexIndexed(actual, Objs.createCompact());
+        ObjTestUtils.assertObjEquals(expected, actual);
+
+        Map<String, Obj> expectedParts =
+            ObjSplitting.splitByMaterialGroups(expected);
+        Map<String, Obj> actualParts =
+            ObjSplitting.splitByMaterialGroups(actual);
+        assertEquals(expectedParts.keySet(), actualParts.keySet());
+        for (String name : expectedParts.keySet())
+        {
+            Obj e = expectedParts.get(name);
+            Obj a = actualParts.get(name);
+            ObjTestUtils.assertObjEquals(e, a);
+            assertEquals(ObjData.getFaceVertexIndices(e, 3),
+                ObjData.getFaceVertexIndices(a, 3));
+            assertEquals(ObjData.getVertices(e), ObjData.getVertices(a));
+            assertEquals(ObjData.getTexCoords(e, 2),
+                ObjData.getTexCoords(a, 2));
+            assertEquals(ObjData.getNormals(e), ObjData.getNormals(a));
+        }
+    }
+
+    @Test
+    public void trimmingKeepsTheElements() throws IOException
+    {
+        String objString = ObjTestUtils.createGridObj(new Random(3), 10, 3);
+        Obj expected = ObjReader.read(new StringReader(objString));
+        CompactObj actual = new CompactObj();
+        ObjReader.read(new StringReader(objString), actual);
+        actual.trimToSize();
+        ObjTestUtils.assertObjEquals(expected, actual);
+
+        expected.addVertex(1, 2, 3);
+        actual.addVertex(1, 2, 3);
+        expected.addFace(0, 1, expected.getNumVertices() - 1);
+        actual.addFace(0, 1, actual.getNumVertices() - 1);
+        ObjTestUtils.assertObjEquals(expected, actual);
+    }
+
+    @Test
+    @Ignore("Measures the heap, run by hand")
+    public void memoryFootprint() throws IOException
+    {
+        String objString = ObjTestUtils.createGridObj(new Random(2), 300, 10);
+        byte bytes[] = objString.getBytes(StandardCharsets.US_ASCII);
+        objString = null;
+
+        long before = usedMemory();
+        Obj defaultObj = ObjReader.read(new ByteArrayInputStream(bytes));
+        long defaultBytes = usedMemory() - before;
+
+        before = usedMemory();
+        Obj compactObj = ObjReader.read(
+            new ByteArrayInputStream(bytes), Objs.createCompact());
+        long compactBytes = usedMemory() - before;
+
+        double ratio = (double) defaultBytes / compactBytes;
+        assertEquals(defaultObj.getNumFaces(), compactObj.getNumFaces());
+        assertTrue(String.format(Locale.ENGLISH,
+            "Heap for %d vertices and %d faces: " +
+            "DefaultObj %.1f MB, CompactObj %.1f MB, " +
+            "expected a ratio of at least 3, but was %.1f",
+            compactObj.getNumVertices(), compactObj.getNumFaces(),
+            defaultBytes / (1024.0 * 1024.0),
+            compactBytes / (1024.0 * 1024.0), ratio),
+            ratio >= 3);
+    }
+
+    /**
+     * Returns the amount of memory that is currently used, after trying
+     * to trigger a garbage collection
+     *
+     * @return The used memory, in bytes
+     */
+    private static long usedMemory()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++)
+        {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
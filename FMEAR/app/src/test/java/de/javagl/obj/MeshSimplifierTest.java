@@ -0,0 +1,226 @@
+package de.javagl.obj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link MeshSimplifier}
+ */
+public class MeshSimplifierTest
+{
+    @Test
+    public void createLodLevelsReachesTriangleTargets()
+    {
+        ObjRenderBuffers renderBuffers = createHeightField(64, 0.5f);
+        int numTriangles = renderBuffers.getIndices().capacity() / 3;
+        List<ObjLodLevel> lodLevels = MeshSimplifier.createLodLevels(
+            renderBuffers, MeshSimplifier.DEFAULT_LOD_RATIOS);
+
+        assertEquals(MeshSimplifier.DEFAULT_LOD_RATIOS.length,
+            lodLevels.size());
+        float previousError = 0;
+        for (int i = 0; i < lodLevels.size(); i++)
+        {
+            ObjLodLevel lodLevel = lodLevels.get(i);
+            int target = (int) (numTriangles *
+                MeshSimplifier.DEFAULT_LOD_RATIOS[i]);
+            assertTrue(lodLevel.toString(),
+                lodLevel.getNumTriangles() <= target);
+            assertTrue(lodLevel.toString(),
+                lodLevel.getNumTriangles() > target * 0.8f);
+            assertTrue(lodLevel.getError() >= previousError);
+            previousError = lodLevel.getError();
+        }
+    }
+
+    @Test
+    public void flatMeshIsSimplifiedWithoutError()
+    {
+        ObjRenderBuffers renderBuffers = createHeightField(32, 0.0f);
+        int numTriangles = renderBuffers.getIndices().capacity() / 3;
+        MeshSimplifier simplifier = new MeshSimplifier(renderBuffers);
+        ObjLodLevel lodLevel = simplifier.simplify(numTriangles / 5, 1e-4f);
+        assertTrue(lodLevel.toString(),
+            lodLevel.getNumTriangles() <= numTriangles / 5);
+        assertEquals(0.0f, lodLevel.getError(), 1e-3f);
+        assertEquals(0.0f, computeMaxDeviation(renderBuffers, lodLevel),
+            1e-3f);
+    }
+
+    @Test
+    public void simplifyRespectsMaxError()
+    {
+        ObjRenderBuffers renderBuffers = createHeightField(64, 2.0f);
+        int numTriangles = renderBuffers.getIndices().capacity() / 3;
+        float maxErrors[] = { 0.01f, 0.05f, 0.2f };
+        int previousNumTriangles = numTriangles;
+        for (float maxError : maxErrors)
+        {
+            MeshSimplifier simplifier = new MeshSimplifier(renderBuffers);
+            ObjLodLevel lodLevel = simplifier.simplify(0, maxError);
+            float deviation = computeMaxDeviation(renderBuffers, lodLevel);
+            assertTrue(lodLevel.toString(), lodLevel.getError() <= maxError);
+            assertTrue("Deviation " + deviation + " for " + lodLevel,
+                deviation <= maxError * 4);
+            assertTrue(lodLevel.getNumTriangles() < previousNumTriangles);
+            previousNumTriangles = lodLevel.getNumTriangles();
+        }
+    }
+
+    @Test
+    public void borderVerticesArePreserved()
+    {
+        int size = 32;
+        ObjRenderBuffers renderBuffers = createHeightField(size, 0.5f);
+        MeshSimplifier simplifier = new MeshSimplifier(renderBuffers);
+        IntBuffer indices = simplifier.simplify(0,
+            Float.POSITIVE_INFINITY).getIndices();
+        boolean used[] = new boolean[size * size];
+        for (int i = 0; i < indices.capacity(); i++)
+        {
+            used[indices.get(i)] = true;
+        }
+        for (int i = 0; i < size; i++)
+        {
+            assertTrue(used[i]);
+            assertTrue(used[(size - 1) * size + i]);
+            assertTrue(used[i * size]);
+            assertTrue(used[i * size + size - 1]);
+        }
+    }
+
+    @Test
+    @Ignore("Benchmark, run by hand")
+    public void benchmarkCreateLodLevels()
+    {
+        // A grid with 708 x 708 vertices has about 1M triangles
+        ObjRenderBuffers renderBuffers = createHeightField(708, 20.0f);
+        long before = System.nanoTime();
+        List<ObjLodLevel> lodLevels = MeshSimplifier.createLodLevels(
+            renderBuffers, MeshSimplifier.DEFAULT_LOD_RATIOS);
+        long nanos = System.nanoTime() - before;
+        int numTriangles = renderBuffers.getIndices().capacity() / 3;
+        String message = String.format(Locale.ENGLISH,
+            "Created LOD levels for %d triangles in %.1f ms: %s",
+            numTriangles, nanos / 1e6, lodLevels);
+        float ratios[] = MeshSimplifier.DEFAULT_LOD_RATIOS;
+        assertEquals(message, ratios.length, lodLevels.size());
+        for (int i = 0; i < ratios.length; i++)
+        {
+            int target = (int) (numTriangles * ratios[i]);
+            int actual = lodLevels.get(i).getNumTriangles();
+            assertTrue(message, actual <= target && actual > target * 0.8f);
+        }
+    }
+
+    /**
+     * Create the render buffers for a triangulated grid with positions and
+     * texture coordinates, where the heights follow a smooth wave
+     *
+     * @param size The number of vertices along each side
+     * @param amplitude The amplitude of the wave
+     * @return The render buffers
+     */
+    private static ObjRenderBuffers createHeightField(
+        int size, float amplitude)
+    {
+        FloatBuffer vertexData =
+            ObjData.createDirectFloatBuffer(size * size * 5);
+        for (int y = 0; y < size; y++)
+        {
+            for (int x = 0; x < size; x++)
+            {
+                vertexData.put(x).put(y).put(height(x, y, amplitude));
+                vertexData.put((float) x / size).put((float) y / size);
+            }
+        }
+        vertexData.position(0);
+        IntBuffer indices =
+            ObjData.createDirectIntBuffer((size - 1) * (size - 1) * 6);
+        for (int y = 0; y < size - 1; y++)
+        {
+            for (int x = 0; x < size - 1; x++)
+            {
+                int i0 = y * size + x;
+                indices.put(i0).put(i0 + 1).put(i0 + size + 1);
+                indices.put(i0).put(i0 + size + 1).put(i0 + size);
+            }
+        }
+        indices.position(0);
+        return new ObjRenderBuffers(vertexData, indices, false, true);
+    }
+
+    /**
+     * Returns the height of the height field at the given position
+     *
+     * @param x The x-coordinate
+     * @param y The y-coordinate
+     * @param amplitude The amplitude
+     * @return The height
+     */
+    private static float height(float x, float y, float amplitude)
+    {
+        return (float) (amplitude * Math.sin(x / 9.0) * Math.cos(y / 7.0));
+    }
+
+    /**
+     * Computes the maximum vertical distance between the vertices of the
+     * given height field and the simplified surface
+     *
+     * @param renderBuffers The render buffers of the height field
+     * @param lodLevel The simplified mesh
+     * @return The maximum distance
+     */
+    private static float computeMaxDeviation(
+        ObjRenderBuffers renderBuffers, ObjLodLevel lodLevel)
+    {
+        FloatBuffer vertexData = renderBuffers.getVertexData();
+        int stride = renderBuffers.getStride();
+        int numVertices = renderBuffers.getNumVertices();
+        float deviations[] = new float[numVertices];
+        IntBuffer indices = lodLevel.getIndices();
+        for (int t = 0; t < indices.capacity(); t += 3)
+        {
+            float p[][] = new float[3][];
+            for (int c = 0; c < 3; c++)
+            {
+                int o = indices.get(t + c) * stride;
+                p[c] = new float[] { vertexData.get(o),
+                    vertexData.get(o + 1), vertexData.get(o + 2) };
+            }
+            float det = (p[1][1] - p[2][1]) * (p[0][0] - p[2][0]) +
+                (p[2][0] - p[1][0]) * (p[0][1] - p[2][1]);
+            for (int v = 0; v < numVertices; v++)
+            {
+                float x = vertexData.get(v * stride);
+                float y = vertexData.get(v * stride + 1);
+                float z = vertexData.get(v * stride + 2);
+                float a = ((p[1][1] - p[2][1]) * (x - p[2][0]) +
+                    (p[2][0] - p[1][0]) * (y - p[2][1])) / det;
+                float b = ((p[2][1] - p[0][1]) * (x - p[2][0]) +
+                    (p[0][0] - p[2][0]) * (y - p[2][1])) / det;
+                float c = 1 - a - b;
+                float epsilon = -1e-5f;
+                if (a >= epsilon && b >= epsilon && c >= epsilon)
+                {
+                    float h = a * p[0][2] + b * p[1][2] + c * p[2][2];
+                    deviations[v] = Math.max(deviations[v], Math.abs(h - z));
+                }
+            }
+        }
+        float max = 0;
+        for (float deviation : deviations)
+        {
+            max = Math.max(max, deviation);
+        }
+        return max;
+    }
+}
@@ -0,0 +1,349 @@
+package de.javagl.obj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ObjNormals}
+ */
+public class ObjNormalsTest
+{
+    /**
+     * The vertices of a unit cube
+     */
+    private static final String CUBE =
+        "v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\n" +
+        "v 0 0 1\nv 1 0 1\nv 1 1 1\nv 0 1 1\n" +
+        "g cube\n" +
+        "usemtl box\n" +
+        "f 1 4 3 2\nf 5 6 7 8\nf 1 2 6 5\n" +
+        "f 2 3 7 6\nf 3 4 8 7\nf 4 1 5 8\n";
+
+    @Test
+    public void matchesPreviousImplementation() throws IOException
+    {
+        Obj input = createTriangulatedGrid(new Random(0), 40);
+        Obj expected = createWithNormalsReference(input);
+        for (int numThreads : new int[] { 1, 4 })
+        {
+            Obj actual = ObjNormals.createWithNormals(input,
+                ObjNormals.SMOOTH_CREASE_ANGLE, numThreads,
+                Objs.createCompact());
+            assertObjEqualsWithNormals(expected, actual);
+        }
+    }
+
+    @Test
+    public void smoothCubeHasOneNormalPerCorner() throws IOException
+    {
+        Obj input = ObjReader.read(new StringReader(CUBE));
+        Obj actual = ObjNormals.createWithNormals(input);
+        assertEquals(8, actual.getNumNormals());
+        float d = (float) (1.0 / Math.sqrt(3.0));
+        FloatTuple normal = actual.getNormal(
+            actual.getFace(0).getNormalIndex(0));
+        assertEquals(-d, normal.getX(), 1e-6f);
+        assertEquals(-d, normal.getY(), 1e-6f);
+        assertEquals(-d, normal.getZ(), 1e-6f);
+        assertEquals(input.getActivatedMaterialGroupName(input.getFace(0)),
+            actual.getActivatedMaterialGroupName(actual.getFace(0)));
+    }
+
+    @Test
+    public void creaseAngleKeepsHardEdges() throws IOException
+    {
+        Obj input = ObjReader.read(new StringReader(CUBE));
+        Obj actual = ObjNormals.createWithNormals(
+            input, 60.0f, 1, Objs.create());
+        assertEquals(24, actual.getNumNormals());
+        float expected[][] = {
+            { 0, 0, -1 }, { 0, 0, 1 }, { 0, -1, 0 },
+            { 1, 0, 0 }, { 0, 1, 0 }, { -1, 0, 0 } };
+        for (int f = 0; f < actual.getNumFaces(); f++)
+        {
+            ObjFace face = actual.getFace(f);
+            for (int j = 0; j < face.getNumVertices(); j++)
+            {
+                FloatTuple normal = actual.getNormal(face.getNormalIndex(j));
+                assertEquals(expected[f][0], normal.getX(), 1e-6f);
+                assertEquals(expected[f][1], normal.getY(), 1e-6f);
+                assertEquals(expected[f][2], normal.getZ(), 1e-6f);
+            }
+        }
+    }
+
+    @Test
+    public void creaseAngleSmoothsShallowEdges()
+    {
+        Obj input = createTriangulatedGrid(new Random(1), 10);
+        Obj smooth = ObjNormals.createWithNormals(input,
+            ObjNormals.SMOOTH_CREASE_ANGLE, 1, Objs.create());
+        Obj creased = ObjNormals.createWithNormals(
+            input, 89.0f, 1, Objs.create());
+        assertObjEqualsWithNormals(smooth, withUniqueNormals(creased));
+    }
+
+    @Test
+    @Ignore("Benchmark, run by hand")
+    public void benchmarkAgainstPreviousImplementation()
+    {
+        Obj input = createTriangulatedGrid(new Random(2), 300);
+        int numThreads = Runtime.getRuntime().availableProcessors();
+
+        // Warm up
+        for (int i = 0; i < 3; i++)
+        {
+            createWithNormalsReference(input);
+            ObjNormals.createWithNormals(input,
+                ObjNormals.SMOOTH_CREASE_ANGLE, numThreads,
+                Objs.createCompact());
+        }
+
+        long before = System.nanoTime();
+        createWithNormalsReference(input);
+        long referenceNanos = System.nanoTime() - before;
+
+        before = System.nanoTime();
+        ObjNormals.createWithNormals(input,
+            ObjNormals.SMOOTH_CREASE_ANGLE, numThreads, Objs.createCompact());
+        long smoothNanos = System.nanoTime() - before;
+
+        before = System.nanoTime();
+        ObjNormals.createWithNormals(
+            input, 45.0f, numThreads, Objs.createCompact());
+        long creasedNanos = System.nanoTime() - before;
+
+        String message = String.format(Locale.ENGLISH,
+            "Normals for %d triangles with %d threads: " +
+            "previous %.1f ms, smooth %.1f ms, crease angle 45 %.1f ms",
+            input.getNumFaces(), numThreads, referenceNanos / 1e6,
+            smoothNanos / 1e6, creasedNanos / 1e6);
+        assertTrue(message, smoothNanos < referenceNanos);
+        assertTrue(message, creasedNanos < referenceNanos);
+    }
+
+    /**
+     * Returns a copy of the given {@link Obj} in which faces with equal
+     * normal values use the same normal index, in the order of their
+     * first use
+     *
+     * @param obj The {@link Obj}
+     * @return The result
+     */
+    private static Obj withUniqueNormals(Obj obj)
+    {
+        Obj output = Objs.create();
+        output.setMtlFileNames(obj.getMtlFileNames());
+        for (int i = 0; i < obj.getNumVertices(); i++)
+        {
+            output.addVertex(obj.getVertex(i));
+        }
+        for (int i = 0; i < obj.getNumTexCoords(); i++)
+        {
+            output.addTexCoord(obj.getTexCoord(i));
+        }
+        Map<FloatTuple, Integer> indices = new HashMap<FloatTuple, Integer>();
+        for (int f = 0; f < obj.getNumFaces(); f++)
+        {
+            ObjFace face = obj.getFace(f);
+            int v[] = new int[face.getNumVertices()];
+            int vt[] = new int[face.getNumVertices()];
+            int vn[] = new int[face.getNumVertices()];
+            for (int j = 0; j < v.length; j++)
+            {
+                v[j] = face.getVertexIndex(j);
+                vt[j] = face.getTexCoordIndex(j);
+                FloatTuple normal = obj.getNormal(face.getNormalIndex(j));
+                Integer index = indices.get(normal);
+                if (index == null)
+                {
+                    index = indices.size();
+                    indices.put(normal, index);
+                    output.addNormal(normal);
+                }
+                vn[j] = index;
+            }
+            output.addFace(v, vt, vn);
+        }
+        return output;
+    }
+
+    /**
+     * Assert that the given OBJs are equal, allowing for rounding errors
+     * in the normals
+     *
+     * @param expected The expected OBJ
+     * @param actual The actual OBJ
+     */
+    private static void assertObjEqualsWithNormals(
+        ReadableObj expected, ReadableObj actual)
+    {
+        assertEquals(expected.getNumNormals(), actual.getNumNormals());
+        for (int i = 0; i < expected.getNumNormals(); i++)
+        {
+            FloatTuple e = expected.getNormal(i);
+            FloatTuple a = actual.getNormal(i);
+            assertEquals("normal " + i, e.getX(), a.getX(), 1e-6f);
+            assertEquals("normal " + i, e.getY(), a.getY(), 1e-6f);
+            assertEquals("normal " + i, e.getZ(), a.getZ(), 1e-6f);
+        }
+        assertEquals(expected.getNumFaces(), actual.getNumFaces());
+        for (int i = 0; i < expected.getNumFaces(); i++)
+        {
+            assertEquals("face " + i,
+                ObjFaces.createString(expected.getFace(i)),
+                ObjFaces.createString(actual.getFace(i)));
+        }
+    }
+
+    /**
+     * Create a triangulated grid with random heights and texture
+     * coordinates, without normals
+     *
+     * @param random The random number generator
+     * @param size The number of vertices along each side
+     * @return The {@link Obj}
+     */
+    private static Obj createTriangulatedGrid(Random random, int size)
+    {
+        Obj obj = Objs.create();
+        for (int y = 0; y < size; y++)
+        {
+            for (int x = 0; x < size; x++)
+            {
+                obj.addVertex(x, y, random.nextFloat() * 0.5f);
+                obj.addTexCoord((float) x / size, (float) y / size);
+            }
+        }
+        for (int y = 0; y < size - 1; y++)
+        {
+            if (y % 7 == 0)
+            {
+                obj.setActiveMaterialGroupName("row" + y);
+            }
+            for (int x = 0; x < size - 1; x++)
+            {
+                int i0 = y * size + x;
+                int i1 = i0 + 1;
+                int i2 = i0 + size + 1;
+                int i3 = i0 + size;
+                int a[] = { i0, i1, i2 };
+                int b[] = { i0, i2, i3 };
+                obj.addFace(a, a.clone(), null);
+                obj.addFace(b, b.clone(), null);
+            }
+        }
+        return obj;
+    }
+
+    /**
+     * The implementation of the normal generation that was used in the
+     * renderer before the {@link ObjNormals} had been introduced
+     *
+     * @param obj The input, consisting of triangles
+     * @return The result
+     */
+    private static Obj createWithNormalsReference(Obj obj)
+    {
+        List<float[]> normalArrayList = new ArrayList<float[]>();
+        Map<FloatTuple, Integer> vertexToNormalIndexMap =
+            new HashMap<FloatTuple, Integer>();
+        Map<ObjFace, List<Integer>> faceToNormalIndexMap =
+            new HashMap<ObjFace, List<Integer>>();
+        for (int i = 0; i < obj.getNumFaces(); i++)
+        {
+            ObjFace face = obj.getFace(i);
+            FloatTuple faceVertices[] = new FloatTuple[3];
+            for (int j = 0; j < 3; j++)
+            {
+                faceVertices[j] = obj.getVertex(face.getVertexIndex(j));
+            }
+            float p1[] = createVector(faceVertices[1], faceVertices[0]);
+            float p2[] = createVector(faceVertices[2], faceVertices[0]);
+            float vertexNormal[] = {
+                p1[1] * p2[2] - p2[1] * p1[2],
+                p1[2] * p2[0] - p2[2] * p1[0],
+                p1[0] * p2[1] - p2[0] * p1[1] };
+            faceToNormalIndexMap.put(face, new ArrayList<Integer>(3));
+            for (FloatTuple faceVertex : faceVertices)
+            {
+                Integer index = vertexToNormalIndexMap.get(faceVertex);
+                if (index != null)
+                {
+                    float n[] = normalArrayList.get(index);
+                    for (int k = 0; k < 3; k++)
+                    {
+                        n[k] += vertexNormal[k];
+                    }
+                }
+                else
+                {
+                    normalArrayList.add(vertexNormal.clone());
+                    index = normalArrayList.size() - 1;
+                    vertexToNormalIndexMap.put(faceVertex, index);
+                }
+                faceToNormalIndexMap.get(face).add(index);
+            }
+        }
+        Obj output = Objs.create();
+        output.setMtlFileNames(obj.getMtlFileNames());
+        for (int i = 0; i < obj.getNumVertices(); i++)
+        {
+            output.addVertex(obj.getVertex(i));
+        }
+        for (int i = 0; i < obj.getNumTexCoords(); i++)
+        {
+            output.addTexCoord(obj.getTexCoord(i));
+        }
+        for (float n[] : normalArrayList)
+        {
+            float m = (float) Math.sqrt(n[0] * n[0] + n[1] * n[1] + n[2] * n[2]);
+            output.addNormal(n[0] / m, n[1] / m, n[2] / m);
+        }
+        for (int h = 0; h < obj.getNumFaces(); h++)
+        {
+            ObjFace face = obj.getFace(h);
+            String materialName = obj.getActivatedMaterialGroupName(face);
+            if (materialName != null)
+            {
+                output.setActiveMaterialGroupName(materialName);
+            }
+            int v[] = new int[3];
+            int vt[] = new int[3];
+            int vn[] = new int[3];
+            for (int i = 0; i < 3; i++)
+            {
+                v[i] = face.getVertexIndex(i);
+                vt[i] = face.getTexCoordIndex(i);
+                vn[i] = faceToNormalIndexMap.get(face).get(i);
+            }
+            output.addFace(v, vt, vn);
+        }
+        return output;
+    }
+
+    /**
+     * Returns the vector from the given tail to the given head
+     *
+     * @param head The head
+     * @param tail The tail
+     * @return The vector
+     */
+    private static float[] createVector(FloatTuple head, FloatTuple tail)
+    {
+        return new float[] { head.getX() - tail.getX(),
+            head.getY() - tail.getY(), head.getZ() - tail.getZ() };
+    }
+}
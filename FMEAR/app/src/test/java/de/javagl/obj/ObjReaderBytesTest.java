@@ -0,0 +1,225 @@
+package de.javagl.obj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Tests for the byte-level reading in {@link ObjReader}, which must yield
+ * the same result as the line-based reading
+ */
+public class ObjReaderBytesTest
+{
+    @Test
+    public void readsSameAsLineBasedReaderForSimpleObj() throws IOException
+    {
+        assertSameResult(
+            "v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\n" +
+            "vt 0 0\nvt 1 0\nvt 1 1\nvt 0 1\n" +
+            "vn 0 0 1\n" +
+            "f 1/1/1 2/2/1 3/3/1 4/4/1\n" +
+            "f 1 2 3\n" +
+            "f 1//1 3//1 4//1\n" +
+            "f 1/1 3/3 4/4\n");
+    }
+
+    @Test
+    public void readsSameAsLineBasedReaderForGroupsAndMaterials()
+        throws IOException
+    {
+        assertSameResult(
+            "mtllib  my materials.mtl \n" +
+            "v 0 0 0\nv 1 0 0\nv 1 1 0\n" +
+            "f 1 2 3\n" +
+            "g first second\n" +
+            "USEMTL red\n" +
+            "f 1 2 3\n" +
+            "g\n" +
+            "usemtl blue\n" +
+            "F 3 2 1\n" +
+            "usemtl red\n" +
+            "f -3 -2 -1\n");
+    }
+
+    @Test
+    public void readsSameAsLineBasedReaderForUnusualFormatting()
+        throws IOException
+    {
+        assertSameResult(
+            "# comment\r\n" +
+            "\tv\t1.5\t-2.25e-3  +3.0 \r\n" +
+            "v 1 2\r" +
+            "v 1 2 3 4 5\n" +
+            "V 0.1 0.2 0.3\n" +
+            "v -0.0 1E10 .5\n" +
+            "v 1.0f 2.0d 0x1.8p1\n" +
+            "v NaN Infinity -Infinity\n" +
+            "v 0.123456789012345678901234 123456789012345678901.5 1e-40\n" +
+            "vt 0.5\n" +
+            "vt 0.5 0.5 0.5\n" +
+            "vn 1 0 0 \n" +
+            "s off\n" +
+            "o object\n" +
+            "f 1 / 2 3 4\n" +
+            "f 1/ 2 3/ 4 4/ 2\n" +
+            "f 1 2 \\\n" +
+            " 3\n" +
+            "f -1 -2 -3\n" +
+            "f 1/2 3 4\n" +
+            "\n" +
+            "    \n" +
+            "f 1 2 3");
+    }
+
+    @Test
+    public void readsSameFloatsAsFloatParseFloat() throws IOException
+    {
+        Random random = new Random(0);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++)
+        {
+            float f = Float.intBitsToFloat(random.nextInt());
+            if (Float.isNaN(f) || Float.isInfinite(f))
+            {
+                continue;
+            }
+            double d = random.nextDouble() * 2000 - 1000;
+            sb.append("v ").append(f)
+                .append(" ").append(d)
+                .append(" ").append(String.format(Locale.ENGLISH, "%.7f", d))
+                .append("\n");
+        }
+        assertSameResult(sb.toString());
+    }
+
+    @Test
+    public void readsSameAsLineBasedReaderForGrid() throws IOException
+    {
+        assertSameResult(ObjTestUtils.createGridObj(new Random(0), 50, 7));
+    }
+
+    @Test
+    public void readsFromByteBufferWithoutChangingPosition()
+        throws IOException
+    {
+        String objString = ObjTestUtils.createGridObj(new Random(1), 20, 3);
+        byte bytes[] = objString.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(bytes.length);
+        byteBuffer.put(bytes);
+        byteBuffer.flip();
+
+        Obj expected = ObjReader.read(new StringReader(objString));
+        Obj actual = ObjReader.read(byteBuffer);
+        ObjTestUtils.assertObjEquals(expected, actual);
+        assertEquals(0, byteBuffer.position());
+    }
+
+    @Test
+    public void readsLinesThatAreSplitBetweenReads() throws IOException
+    {
+        String objString = ObjTestUtils.createGridObj(new Random(2), 30, 5)
+            .replace("\n", "\r\n");
+        final byte bytes[] = objString.getBytes(StandardCharsets.US_ASCII);
+
+        // A stream that only returns a few bytes in each read
+        InputStream inputStream = new ByteArrayInputStream(bytes)
+        {
+            @Override
+            public synchronized int read(byte b[], int off, int len)
+            {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+        Obj expected = ObjReader.read(new StringReader(objString));
+        Obj actual = ObjReader.readBytes(inputStream);
+        ObjTestUtils.assertObjEquals(expected, actual);
+    }
+
+    @Test
+    public void throwsOnInvalidInputLikeLineBasedReader()
+    {
+        String invalidObjs[] =
+        {
+            "v 1.0 abc 2.0\n",
+            "v 1.0 1..0\n",
+            "f 1 2/\n",
+            "f 0 1 2\n",
+        };
+        for (String invalidObj : invalidObjs)
+        {
+            try
+            {
+                ObjReader.readBytes(createStream(invalidObj));
+                fail("Expected IOException for " + invalidObj);
+            }
+            catch (IOException e)
+            {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    @Ignore("Benchmark, run by hand")
+    public void benchmarkThroughput() throws IOException
+    {
+        String objString = ObjTestUtils.createGridObj(new Random(3), 300, 20);
+        byte bytes[] = objString.getBytes(StandardCharsets.US_ASCII);
+        double megabytes = bytes.length / (1024.0 * 1024.0);
+        long lineBasedNanos = Long.MAX_VALUE;
+        long byteLevelNanos = Long.MAX_VALUE;
+        for (int run = 0; run < 3; run++)
+        {
+            long before = System.nanoTime();
+            Obj expected = ObjReader.read(new ByteArrayInputStream(bytes));
+            long between = System.nanoTime();
+            Obj actual = ObjReader.readBytes(new ByteArrayInputStream(bytes));
+            long after = System.nanoTime();
+            lineBasedNanos = Math.min(lineBasedNanos, between - before);
+            byteLevelNanos = Math.min(byteLevelNanos, after - between);
+            ObjTestUtils.assertObjEquals(expected, actual);
+        }
+        assertTrue(String.format(Locale.ENGLISH,
+            "Read %.1f MB: line-based %.1f MB/s, byte-level %.1f MB/s",
+            megabytes, megabytes / (lineBasedNanos * 1e-9),
+            megabytes / (byteLevelNanos * 1e-9)),
+            byteLevelNanos < lineBasedNanos);
+    }
+
+    /**
+     * Assert that reading the given OBJ string with the line-based reader
+     * and with the byte-level reader yields the same result
+     *
+     * @param objString The OBJ string
+     * @throws IOException If an IO error occurs
+     */
+    private static void assertSameResult(String objString) throws IOException
+    {
+        Obj expected = ObjReader.read(new StringReader(objString));
+        Obj actual = ObjReader.readBytes(createStream(objString));
+        ObjTestUtils.assertObjEquals(expected, actual);
+    }
+
+    /**
+     * Creates an input stream with the US-ASCII bytes of the given string
+     *
+     * @param s The string
+     * @return The input stream
+     */
+    private static InputStream createStream(String s)
+    {
+        return new ByteArrayInputStream(s.getBytes(StandardCharsets.US_ASCII));
+    }
+}
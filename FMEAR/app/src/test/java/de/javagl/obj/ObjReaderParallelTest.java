@@ -0,0 +1,164 @@
+package de.javagl.obj;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Tests for the parallel reading in {@link ObjReader}, which must yield
+ * the same result as the sequential reading
+ */
+public class ObjReaderParallelTest
+{
+    @Test
+    public void readsSameAsSequentialReaderForAllChunkSizes()
+        throws IOException
+    {
+        String objString =
+            "mtllib first.mtl\n" +
+            "v 0 0 0\nv 1 0 0\nv 1 1 0\r\nv 0 1 0\r" +
+            "vt 0 0\nvt 1 0\nvt 1 1\n" +
+            "vn 0 0 1\n" +
+            "f 1/1/1 2/2/1 3/3/1\n" +
+            "g first second\n" +
+            "f -4/-3/-1 -3/-2/-1 -2/-1/-1\n" +
+            "usemtl red\n" +
+            "v 2 2 \\\n" +
+            "  2\n" +
+            "f -1 -2 -3 \\\n" +
+            "\n" +
+            "   \n" +
+            "f 1 2 \\\n" +
+            "3 \\\n" +
+            " 4\n" +
+            "mtllib second.mtl\n" +
+            "g\n" +
+            "v 3 3 3\n" +
+            "f -1 -2 -3\n" +
+            "usemtl blue\n" +
+            "f 5 4 3";
+        for (int chunkSize = 1; chunkSize <= objString.length(); chunkSize++)
+        {
+            assertSameResult(objString, 4, chunkSize);
+        }
+    }
+
+    @Test
+    public void readsSameAsSequentialReaderForGrid() throws IOException
+    {
+        String objString = ObjTestUtils.createGridObj(new Random(0), 40, 9);
+        assertSameResult(objString, 3, 1000);
+        assertSameResult(objString.replace("\n", "\r\n"), 8, 5000);
+    }
+
+    @Test
+    public void throwsOnInvalidInputInAnyChunk()
+    {
+        String objString = ObjTestUtils.createGridObj(new Random(1), 30, 5);
+        int middle = objString.indexOf('\n', objString.length() / 2) + 1;
+        String invalidObjs[] =
+        {
+            "v 1.0 abc 2.0\n" + objString,
+            objString.substring(0, middle) + "f 0 1 2\n" +
+                objString.substring(middle),
+            objString + "vt 1..0 1\n",
+        };
+        for (String invalidObj : invalidObjs)
+        {
+            try
+            {
+                ObjParallelReader.read(
+                    createBuffer(invalidObj), Objs.create(), 4, 100);
+                fail("Expected IOException");
+            }
+            catch (IOException e)
+            {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    @Ignore("Benchmark, run by hand")
+    public void benchmarkScaling() throws IOException
+    {
+        String objString = ObjTestUtils.createGridObj(new Random(2), 400, 20);
+        ByteBuffer byteBuffer = createBuffer(objString);
+        double megabytes = byteBuffer.remaining() / (1024.0 * 1024.0);
+        Obj expected = ObjReader.read(new StringReader(objString));
+        int numCores = Runtime.getRuntime().availableProcessors();
+        int threadCounts[] = { 1, 2, 4, 8 };
+        long nanos[] = new long[threadCounts.length];
+        Arrays.fill(nanos, Long.MAX_VALUE);
+        for (int run = 0; run < 3; run++)
+        {
+            for (int i = 0; i < threadCounts.length; i++)
+            {
+                long before = System.nanoTime();
+                Obj actual =
+                    ObjReader.readParallel(byteBuffer, threadCounts[i]);
+                nanos[i] = Math.min(nanos[i], System.nanoTime() - before);
+                ObjTestUtils.assertObjEquals(expected, actual);
+            }
+        }
+
+        // More threads can only be faster when there are more cores
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ENGLISH,
+            "Read %.1f MB with %d cores:", megabytes, numCores));
+        for (int i = 0; i < threadCounts.length; i++)
+        {
+            sb.append(String.format(Locale.ENGLISH, " %d threads %.1f MB/s",
+                threadCounts[i], megabytes / (nanos[i] * 1e-9)));
+        }
+        if (numCores >= 2)
+        {
+            assertTrue(sb.toString(), nanos[1] < nanos[0]);
+        }
+    }
+
+    /**
+     * Assert that reading the given OBJ string with the sequential reader
+     * and with the parallel reader yields the same result
+     *
+     * @param objString The OBJ string
+     * @param numThreads The number of threads
+     * @param minChunkSize The minimum chunk size
+     * @throws IOException If an IO error occurs
+     */
+    private static void assertSameResult(
+        String objString, int numThreads, int minChunkSize)
+        throws IOException
+    {
+        Obj expected = ObjReader.read(new StringReader(objString));
+        Obj actual = ObjParallelReader.read(createBuffer(objString),
+            Objs.create(), numThreads, minChunkSize);
+        ObjTestUtils.assertObjEquals(expected, actual);
+    }
+
+    /**
+     * Creates a direct byte buffer with the US-ASCII bytes of the given
+     * string
+     *
+     * @param s The string
+     * @return The byte buffer
+     */
+    private static ByteBuffer createBuffer(String s)
+    {
+        byte bytes[] = s.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(bytes.length);
+        byteBuffer.put(bytes);
+        byteBuffer.flip();
+        return byteBuffer;
+    }
+}
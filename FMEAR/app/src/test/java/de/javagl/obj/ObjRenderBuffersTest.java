@@ -0,0 +1,401 @@
+package de.javagl.obj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ObjUtils#convertToRenderBuffers(ReadableObj)}, which
+ * must give the same result as the sequence of operations that it
+ * replaces
+ */
+public class ObjRenderBuffersTest
+{
+    @Test
+    public void matchesChainForGrid() throws IOException
+    {
+        String objString = ObjTestUtils.createGridObj(new Random(0), 30, 7);
+        Obj obj = ObjReader.read(
+            new StringReader(objString), Objs.createCompact());
+        assertSameAsChain(obj);
+    }
+
+    @Test
+    public void matchesChainForRandomPolygons()
+    {
+        for (int seed = 0; seed < 20; seed++)
+        {
+            assertSameAsChain(createRandomObj(new Random(seed), true));
+        }
+    }
+
+    @Test
+    public void matchesChainWithoutMaterials()
+    {
+        for (int seed = 0; seed < 20; seed++)
+        {
+            Map<String, ObjRenderBuffers> result =
+                assertSameAsChain(createRandomObj(new Random(seed), false));
+            assertEquals(1, result.size());
+            assertTrue(result.containsKey(""));
+        }
+    }
+
+    @Test
+    public void handlesDegenerateFaces() throws IOException
+    {
+        String objString =
+            "v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\n" +
+            "vt 0 0\nvt 1 0\n" +
+            "usemtl unused\n" +
+            "f 1/1 2/2\n" +
+            "usemtl a\n" +
+            "f 1/1 2/2 3/1 4/2\n" +
+            "usemtl b\n" +
+            "f 1\n" +
+            "f 4/2 3/2 1/1\n";
+        Obj obj = ObjReader.read(new StringReader(objString));
+        Map<String, ObjRenderBuffers> result = assertSameAsChain(obj);
+        assertEquals(2, result.size());
+        assertFalse(result.containsKey("unused"));
+        ObjRenderBuffers a = result.get("a");
+        assertTrue(a.hasTexCoords());
+        assertFalse(a.hasNormals());
+        assertEquals(5, a.getStride());
+        assertEquals(3, a.getTexCoordOffset());
+    }
+
+    @Test
+    public void mergesRenderBuffers() throws IOException
+    {
+        String objString =
+            "v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\n" +
+            "usemtl a\n" +
+            "f 1 2 3\n" +
+            "usemtl b\n" +
+            "f 1 3 4\n" +
+            "f 4 3 2\n";
+        Obj obj = ObjReader.read(new StringReader(objString));
+        Map<String, ObjRenderBuffers> result =
+            ObjUtils.convertToRenderBuffers(obj);
+        ObjRenderBuffers a = result.get("a");
+        ObjRenderBuffers b = result.get("b");
+        List<ObjRenderBuffers> parts = new ArrayList<ObjRenderBuffers>();
+        parts.add(a);
+        parts.add(b);
+        ObjRenderBuffers merged = ObjUtils.mergeRenderBuffers(parts);
+
+        assertEquals(a.getNumVertices() + b.getNumVertices(),
+            merged.getNumVertices());
+        assertEquals(9, merged.getIndices().capacity());
+        for (int i = 0; i < 3; i++)
+        {
+            assertEquals(a.getIndices().get(i), merged.getIndices().get(i));
+        }
+        for (int i = 0; i < 6; i++)
+        {
+            assertEquals(a.getNumVertices() + b.getIndices().get(i),
+                merged.getIndices().get(3 + i));
+        }
+        int stride = merged.getStride();
+        for (int i = 0; i < b.getVertexData().capacity(); i++)
+        {
+            assertEquals(b.getVertexData().get(i),
+                merged.getVertexData().get(a.getNumVertices() * stride + i),
+                0.0f);
+        }
+        assertTrue(ObjUtils.mergeRenderBuffers(parts.subList(0, 1)) == a);
+    }
+
+    @Test
+    @Ignore("Benchmark, run by hand")
+    public void benchmarkAgainstChain() throws IOException
+    {
+        String objString = ObjTestUtils.createGridObj(new Random(3), 300, 10);
+        Obj obj = ObjReader.read(
+            new StringReader(objString), Objs.createCompact());
+        objString = null;
+
+        // Warm up
+        for (int i = 0; i < 3; i++)
+        {
+            convertWithChain(obj);
+            ObjUtils.convertToRenderBuffers(obj);
+        }
+
+        Measurement chain = new Measurement();
+        chain.start();
+        Map<String, List<Object>> chainResult = convertWithChain(obj);
+        chain.stop();
+
+        Measurement fused = new Measurement();
+        fused.start();
+        Map<String, ObjRenderBuffers> fusedResult =
+            ObjUtils.convertToRenderBuffers(obj);
+        fused.stop();
+
+        assertEquals(chainResult.keySet(), fusedResult.keySet());
+        String message = String.format(Locale.ENGLISH,
+            "Converting %d faces to render buffers:%n" +
+            "  chain: %6.1f ms, %6.1f MB allocated, %6.1f MB peak heap%n" +
+            "  fused: %6.1f ms, %6.1f MB allocated, %6.1f MB peak heap",
+            obj.getNumFaces(),
+            chain.millis(), chain.allocatedMB(), chain.peakMB(),
+            fused.millis(), fused.allocatedMB(), fused.peakMB());
+        assertTrue(message, fused.millis() < chain.millis());
+        assertTrue(message, fused.allocatedMB() <= chain.allocatedMB());
+        assertTrue(message, fused.peakMB() <= chain.peakMB());
+    }
+
+    /**
+     * Assert that converting the given {@link Obj} into render buffers
+     * gives the same result as the sequence of operations that was used
+     * before, and return the render buffers
+     *
+     * @param obj The {@link Obj}
+     * @return The render buffers
+     */
+    private static Map<String, ObjRenderBuffers> assertSameAsChain(Obj obj)
+    {
+        Map<String, List<Object>> expected = convertWithChain(obj);
+        Map<String, ObjRenderBuffers> actual =
+            ObjUtils.convertToRenderBuffers(obj);
+        assertEquals(new ArrayList<String>(expected.keySet()),
+            new ArrayList<String>(actual.keySet()));
+        for (String name : expected.keySet())
+        {
+            List<Object> e = expected.get(name);
+            ObjRenderBuffers a = actual.get(name);
+            assertEquals(e.get(0), a.getIndices());
+
+            FloatBuffer vertices = (FloatBuffer) e.get(1);
+            FloatBuffer texCoords = (FloatBuffer) e.get(2);
+            FloatBuffer normals = (FloatBuffer) e.get(3);
+            assertEquals(normals.capacity() > 0, a.hasNormals());
+            assertEquals(texCoords.capacity() > 0, a.hasTexCoords());
+            assertEquals(vertices.capacity() / 3, a.getNumVertices());
+            assertEquals(vertices, extract(a, 0, 3));
+            if (a.hasNormals())
+            {
+                assertEquals(normals, extract(a, a.getNormalOffset(), 3));
+            }
+            if (a.hasTexCoords())
+            {
+                assertEquals(texCoords,
+                    extract(a, a.getTexCoordOffset(), 2));
+            }
+        }
+        return actual;
+    }
+
+    /**
+     * Convert the given {@link Obj} with the sequence of operations that
+     * was used before the render buffers had been introduced. For each
+     * material group, the result contains the indices, vertices, texture
+     * coordinates and normals.
+     *
+     * @param input The input
+     * @return The result
+     */
+    private static Map<String, List<Object>> convertWithChain(Obj input)
+    {
+        Obj obj = ObjUtils.triangulate(input, Objs.createCompact());
+        obj = ObjUtils.makeTexCoordsUnique(obj, null, Objs.createCompact());
+        obj = ObjUtils.makeNormalsUnique(obj, null, Objs.createCompact());
+        obj = ObjUtils.makeVertexIndexed(obj, Objs.createCompact());
+        Map<String, Obj> parts = ObjSplitting.splitByMaterialGroups(obj);
+        if (parts.isEmpty())
+        {
+            parts.put("", obj);
+        }
+        Map<String, List<Object>> result =
+            new LinkedHashMap<String, List<Object>>();
+        for (Map.Entry<String, Obj> entry : parts.entrySet())
+        {
+            Obj part = entry.getValue();
+            List<Object> buffers = new ArrayList<Object>();
+            buffers.add(ObjData.getFaceVertexIndices(part, 3));
+            buffers.add(ObjData.getVertices(part));
+            buffers.add(ObjData.getTexCoords(part, 2));
+            buffers.add(ObjData.getNormals(part));
+            result.put(entry.getKey(), buffers);
+        }
+        return result;
+    }
+
+    /**
+     * Extract one attribute from the interleaved vertex data of the
+     * given render buffers
+     *
+     * @param renderBuffers The render buffers
+     * @param offset The offset of the attribute
+     * @param size The size of the attribute
+     * @return The attribute values
+     */
+    private static FloatBuffer extract(
+        ObjRenderBuffers renderBuffers, int offset, int size)
+    {
+        FloatBuffer vertexData = renderBuffers.getVertexData();
+        int stride = renderBuffers.getStride();
+        int n = renderBuffers.getNumVertices();
+        FloatBuffer result = FloatBuffer.allocate(n * size);
+        for (int i = 0; i < n; i++)
+        {
+            for (int j = 0; j < size; j++)
+            {
+                result.put(vertexData.get(i * stride + offset + j));
+            }
+        }
+        result.position(0);
+        return result;
+    }
+
+    /**
+     * Create an {@link Obj} with random polygons, whose texture coordinate
+     * and normal indices are chosen from small pools, so that many
+     * vertices have to be duplicated. All faces of one material group
+     * either have texture coordinates and normals or not, because for
+     * mixed material groups, the interleaved data intentionally differs
+     * from the result of the split.
+     *
+     * @param random The random number generator
+     * @param withMaterials Whether material groups should be activated
+     * @return The {@link Obj}
+     */
+    private static Obj createRandomObj(Random random, boolean withMaterials)
+    {
+        Obj obj = Objs.create();
+        int numVertices = 30;
+        for (int i = 0; i < numVertices; i++)
+        {
+            obj.addVertex(random.nextFloat(), random.nextFloat(), i);
+        }
+        for (int i = 0; i < 4; i++)
+        {
+            obj.addTexCoord(random.nextFloat(), i);
+        }
+        for (int i = 0; i < 3; i++)
+        {
+            obj.addNormal(0, random.nextFloat(), i);
+        }
+        int numMaterials = 4;
+        int material = -1;
+        boolean faceTexCoords = random.nextBoolean();
+        boolean faceNormals = random.nextBoolean();
+        for (int f = 0; f < 80; f++)
+        {
+            if (withMaterials && random.nextInt(8) == 0)
+            {
+                material = random.nextInt(numMaterials);
+                obj.setActiveMaterialGroupName("material" + material);
+            }
+            if (material != -1)
+            {
+                faceTexCoords = (material & 1) != 0;
+                faceNormals = (material & 2) != 0;
+            }
+            int n = 1 + random.nextInt(5);
+            int v[] = new int[n];
+            int vt[] = faceTexCoords ? new int[n] : null;
+            int vn[] = faceNormals ? new int[n] : null;
+            for (int i = 0; i < n; i++)
+            {
+                v[i] = random.nextInt(numVertices);
+                if (vt != null)
+                {
+                    vt[i] = random.nextInt(obj.getNumTexCoords());
+                }
+                if (vn != null)
+                {
+                    vn[i] = random.nextInt(obj.getNumNormals());
+                }
+            }
+            obj.addFace(v, vt, vn);
+        }
+        return obj;
+    }
+
+    /**
+     * Measures the time, the number of allocated bytes and the peak heap
+     * usage of an operation on the current thread
+     */
+    private static class Measurement
+    {
+        private long startNanos;
+        private long nanos;
+        private long startAllocated;
+        private long allocated;
+        private long peak;
+
+        void start()
+        {
+            for (int i = 0; i < 3; i++)
+            {
+                System.gc();
+            }
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            {
+                pool.resetPeakUsage();
+            }
+            startAllocated = allocatedBytes();
+            startNanos = System.nanoTime();
+        }
+
+        void stop()
+        {
+            nanos = System.nanoTime() - startNanos;
+            allocated = allocatedBytes() - startAllocated;
+            peak = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            {
+                if (pool.getType() == MemoryType.HEAP)
+                {
+                    peak += pool.getPeakUsage().getUsed();
+                }
+            }
+        }
+
+        double millis()
+        {
+            return nanos / 1e6;
+        }
+
+        double allocatedMB()
+        {
+            return allocated / (1024.0 * 1024.0);
+        }
+
+        double peakMB()
+        {
+            return peak / (1024.0 * 1024.0);
+        }
+
+        private static long allocatedBytes()
+        {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean)
+            {
+                return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+            return 0;
+        }
+    }
+}
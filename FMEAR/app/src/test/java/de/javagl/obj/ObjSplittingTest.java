@@ -0,0 +1,314 @@
+package de.javagl.obj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Tests for the splitting of OBJs with
+ * {@link ObjSplitting#splitByMaterialGroups(ReadableObj, int)} and of
+ * {@link ObjRenderBuffers} with
+ * {@link ObjSplitting#splitByMaxNumVertices(ObjRenderBuffers, int)}
+ */
+public class ObjSplittingTest
+{
+    @Test
+    public void splitByMaterialGroupsMatchesGroupToObj() throws IOException
+    {
+        String objString = ObjTestUtils.createGridObj(new Random(0), 40, 37);
+        Obj obj = ObjReader.read(new StringReader(objString));
+        Obj compactObj = ObjReader.read(
+            new StringReader(objString), Objs.createCompact());
+        Map<String, Obj> expected = splitWithGroupToObj(obj);
+        assertTrue(expected.size() >= 37);
+        for (int numThreads : new int[] { 1, 4 })
+        {
+            assertSplitEquals(expected,
+                ObjSplitting.splitByMaterialGroups(obj, numThreads));
+            assertSplitEquals(expected,
+                ObjSplitting.splitByMaterialGroups(compactObj, numThreads));
+        }
+    }
+
+    @Test
+    public void splitByMaterialGroupsHandlesInterleavedMaterials()
+        throws IOException
+    {
+        String objString =
+            "mtllib a.mtl\n" +
+            "v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\n" +
+            "vt 0 0\nvt 1 0\nvt 1 1\n" +
+            "vn 0 0 1\n" +
+            "g first\n" +
+            "usemtl red\n" +
+            "f 1/1/1 2/2/1 3/3/1\n" +
+            "usemtl green\n" +
+            "f 3 4 1\n" +
+            "g second\n" +
+            "usemtl red\n" +
+            "f 4//1 3//1 2//1\n" +
+            "usemtl blue\n" +
+            "usemtl green\n" +
+            "f 2/2 3/3 4/1\n";
+        Obj obj = ObjReader.read(new StringReader(objString));
+        Map<String, Obj> expected = splitWithGroupToObj(obj);
+        assertEquals(2, expected.size());
+        for (int numThreads : new int[] { 1, 2, 8 })
+        {
+            assertSplitEquals(expected,
+                ObjSplitting.splitByMaterialGroups(obj, numThreads));
+        }
+    }
+
+    @Test
+    @Ignore("Benchmark, run by hand")
+    public void benchmarkSplitByMaterialGroups() throws IOException
+    {
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        for (int numMaterials : new int[] { 10, 300, 1000 })
+        {
+            String objString = ObjTestUtils.createGridObj(
+                new Random(0), 400, numMaterials);
+            Obj obj = ObjReader.read(new StringReader(objString));
+
+            // Take the fastest of a few runs, to reduce the influence of
+            // the JIT and the garbage collector
+            Map<String, Obj> expected = null;
+            Map<String, Obj> actual = null;
+            long groupToObjNanos = Long.MAX_VALUE;
+            long singleNanos = Long.MAX_VALUE;
+            long parallelNanos = Long.MAX_VALUE;
+            for (int run = 0; run < 3; run++)
+            {
+                long before = System.nanoTime();
+                expected = splitWithGroupToObj(obj);
+                groupToObjNanos = Math.min(groupToObjNanos,
+                    System.nanoTime() - before);
+
+                before = System.nanoTime();
+                ObjSplitting.splitByMaterialGroups(obj, 1);
+                singleNanos = Math.min(singleNanos,
+                    System.nanoTime() - before);
+
+                before = System.nanoTime();
+                actual = ObjSplitting.splitByMaterialGroups(obj, numThreads);
+                parallelNanos = Math.min(parallelNanos,
+                    System.nanoTime() - before);
+            }
+            assertEquals(expected.keySet(), actual.keySet());
+
+            // With many materials, groupToObj passes over the whole
+            // model for each of them
+            String message = String.format(Locale.ENGLISH,
+                "Grid 400, %d materials: groupToObj %.1f ms, " +
+                "single pass %.1f ms, %d threads %.1f ms",
+                expected.size(), groupToObjNanos / 1e6, singleNanos / 1e6,
+                numThreads, parallelNanos / 1e6);
+            if (numMaterials >= 300)
+            {
+                assertTrue(message, singleNanos < groupToObjNanos);
+            }
+        }
+    }
+
+    @Test
+    public void splitRenderBuffersKeepsTrianglesInOrder() throws IOException
+    {
+        ObjRenderBuffers renderBuffers = createRenderBuffers(60, 1);
+        List<String> expected = deindex(renderBuffers);
+        for (int maxNumVertices : new int[] { 3, 100, 1000 })
+        {
+            List<ObjRenderBuffers> parts = ObjSplitting.splitByMaxNumVertices(
+                renderBuffers, maxNumVertices);
+            assertTrue(parts.size() > 1);
+            List<String> actual = new ArrayList<String>();
+            for (ObjRenderBuffers part : parts)
+            {
+                assertTrue(part.getNumVertices() <= maxNumVertices);
+                assertEquals(renderBuffers.getStride(), part.getStride());
+                assertEquals(0, part.getIndices().position());
+                assertEquals(0, part.getVertexData().position());
+                actual.addAll(deindex(part));
+            }
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void splitRenderBuffersUsesFullParts() throws IOException
+    {
+        ObjRenderBuffers renderBuffers = createRenderBuffers(300, 1);
+        List<ObjRenderBuffers> parts =
+            ObjSplitting.splitByMaxNumVertices(renderBuffers, 65535);
+        int numVertices = renderBuffers.getNumVertices();
+        assertTrue(parts.size() <= (numVertices + 65534) / 65535 + 1);
+        for (int i = 0; i < parts.size() - 1; i++)
+        {
+            assertTrue(parts.get(i).getNumVertices() > 65530);
+        }
+    }
+
+    @Test
+    public void splitRenderBuffersReturnsSmallInput() throws IOException
+    {
+        ObjRenderBuffers renderBuffers = createRenderBuffers(20, 1);
+        List<ObjRenderBuffers> parts =
+            ObjSplitting.splitByMaxNumVertices(renderBuffers, 65535);
+        assertEquals(1, parts.size());
+        assertSame(renderBuffers, parts.get(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void splitRenderBuffersRejectsTooSmallParts() throws IOException
+    {
+        ObjSplitting.splitByMaxNumVertices(createRenderBuffers(4, 1), 2);
+    }
+
+    @Test
+    @Ignore("Benchmark, run by hand")
+    public void measureShortIndexSplitting() throws IOException
+    {
+        int sizes[] = { 100, 300, 600 };
+        int numMaterials[] = { 1, 10 };
+        for (int size : sizes)
+        {
+            for (int materials : numMaterials)
+            {
+                String objString =
+                    ObjTestUtils.createGridObj(new Random(0), size, materials);
+                Obj obj = ObjReader.read(new StringReader(objString));
+                Map<String, ObjRenderBuffers> buffers =
+                    ObjUtils.convertToRenderBuffers(obj, 0.0f);
+                long intIndexBytes = 0;
+                long shortIndexBytes = 0;
+                int numParts = 0;
+                long before = System.nanoTime();
+                for (ObjRenderBuffers renderBuffers : buffers.values())
+                {
+                    List<ObjRenderBuffers> parts =
+                        ObjSplitting.splitByMaxNumVertices(
+                            renderBuffers, 65535);
+                    intIndexBytes += 4L * renderBuffers.getIndices().capacity();
+                    for (ObjRenderBuffers part : parts)
+                    {
+                        shortIndexBytes += 2L * part.getIndices().capacity();
+                    }
+                    numParts += parts.size();
+                }
+                long nanos = System.nanoTime() - before;
+                String message = String.format(Locale.ENGLISH,
+                    "Grid %d, %d materials: indices %d KB -> %d KB, " +
+                    "draw calls %d -> %d, split in %.1f ms",
+                    size, materials, intIndexBytes / 1024,
+                    shortIndexBytes / 1024, buffers.size(), numParts,
+                    nanos / 1e6);
+                assertTrue(message, shortIndexBytes < intIndexBytes);
+                assertTrue(message, numParts >= buffers.size());
+            }
+        }
+    }
+
+    /**
+     * Split the given OBJ by calling
+     * {@link ObjUtils#groupToObj(ReadableObj, ObjGroup, List)} for each
+     * non-empty material group
+     *
+     * @param obj The OBJ
+     * @return The mapping from material group names to OBJs
+     */
+    private static Map<String, Obj> splitWithGroupToObj(ReadableObj obj)
+    {
+        Map<String, Obj> objs = new LinkedHashMap<String, Obj>();
+        for (int i = 0; i < obj.getNumMaterialGroups(); i++)
+        {
+            ObjGroup materialGroup = obj.getMaterialGroup(i);
+            if (materialGroup.getNumFaces() > 0)
+            {
+                objs.put(materialGroup.getName(),
+                    ObjUtils.groupToObj(obj, materialGroup, null));
+            }
+        }
+        return objs;
+    }
+
+    /**
+     * Assert that the given mappings contain equal OBJs for the same
+     * material group names, in the same order
+     *
+     * @param expected The expected mapping
+     * @param actual The actual mapping
+     */
+    private static void assertSplitEquals(
+        Map<String, Obj> expected, Map<String, Obj> actual)
+    {
+        assertEquals(new ArrayList<String>(expected.keySet()),
+            new ArrayList<String>(actual.keySet()));
+        for (String name : expected.keySet())
+        {
+            ObjTestUtils.assertObjEquals(expected.get(name), actual.get(name));
+        }
+    }
+
+    /**
+     * Create the render buffers of a grid with the given size, with only
+     * the given number of materials
+     *
+     * @param size The size
+     * @param numMaterials The number of materials
+     * @return The render buffers of the first material
+     * @throws IOException If the OBJ can not be read
+     */
+    private static ObjRenderBuffers createRenderBuffers(
+        int size, int numMaterials) throws IOException
+    {
+        String objString = ObjTestUtils.createGridObj(
+            new Random(size), size, numMaterials);
+        Obj obj = ObjReader.read(new StringReader(objString));
+        return ObjUtils.convertToRenderBuffers(obj, 0.0f)
+            .values().iterator().next();
+    }
+
+    /**
+     * Returns the vertex data of all triangles of the given render
+     * buffers, in their order
+     *
+     * @param renderBuffers The render buffers
+     * @return The triangles, as strings
+     */
+    private static List<String> deindex(ObjRenderBuffers renderBuffers)
+    {
+        IntBuffer indices = renderBuffers.getIndices();
+        FloatBuffer vertexData = renderBuffers.getVertexData();
+        int stride = renderBuffers.getStride();
+        List<String> triangles = new ArrayList<String>();
+        for (int t = 0; t < indices.capacity() / 3; t++)
+        {
+            StringBuilder sb = new StringBuilder();
+            for (int c = 0; c < 3; c++)
+            {
+                int v = indices.get(t * 3 + c);
+                for (int j = 0; j < stride; j++)
+                {
+                    sb.append(vertexData.get(v * stride + j)).append(" ");
+                }
+                sb.append("|");
+            }
+            triangles.add(sb.toString());
+        }
+        return triangles;
+    }
+}
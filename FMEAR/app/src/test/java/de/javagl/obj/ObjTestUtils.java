@@ -0,0 +1,159 @@
+package de.javagl.obj;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Utility methods for the OBJ tests
+ */
+class ObjTestUtils
+{
+    /**
+     * Assert that the given OBJs contain the same elements, groups and
+     * material groups
+     *
+     * @param expected The expected OBJ
+     * @param actual The actual OBJ
+     */
+    static void assertObjEquals(ReadableObj expected, ReadableObj actual)
+    {
+        assertEquals(expected.getMtlFileNames(), actual.getMtlFileNames());
+        assertEquals(expected.getNumVertices(), actual.getNumVertices());
+        for (int i = 0; i < expected.getNumVertices(); i++)
+        {
+            assertEquals("vertex " + i,
+                expected.getVertex(i), actual.getVertex(i));
+        }
+        assertEquals(expected.getNumTexCoords(), actual.getNumTexCoords());
+        for (int i = 0; i < expected.getNumTexCoords(); i++)
+        {
+            assertEquals("texCoord " + i,
+                expected.getTexCoord(i), actual.getTexCoord(i));
+        }
+        assertEquals(expected.getNumNormals(), actual.getNumNormals());
+        for (int i = 0; i < expected.getNumNormals(); i++)
+        {
+            assertEquals("normal " + i,
+                expected.getNormal(i), actual.getNormal(i));
+        }
+        assertEquals(expected.getNumFaces(), actual.getNumFaces());
+        for (int i = 0; i < expected.getNumFaces(); i++)
+        {
+            ObjFace e = expected.getFace(i);
+            ObjFace a = actual.getFace(i);
+            assertEquals("face " + i,
+                ObjFaces.createString(e), ObjFaces.createString(a));
+            assertEquals("face " + i, e.containsTexCoordIndices(),
+                a.containsTexCoordIndices());
+            assertEquals("face " + i, e.containsNormalIndices(),
+                a.containsNormalIndices());
+            assertEquals("groups of face " + i,
+                expected.getActivatedGroupNames(e),
+                actual.getActivatedGroupNames(a));
+            assertEquals("material group of face " + i,
+                expected.getActivatedMaterialGroupName(e),
+                actual.getActivatedMaterialGroupName(a));
+        }
+        assertGroupsEqual(expected, actual, false);
+        assertGroupsEqual(expected, actual, true);
+    }
+
+    /**
+     * Assert that the groups or material groups of the given OBJs have
+     * the same names and contain the same faces
+     *
+     * @param expected The expected OBJ
+     * @param actual The actual OBJ
+     * @param material Whether the material groups should be compared
+     */
+    private static void assertGroupsEqual(
+        ReadableObj expected, ReadableObj actual, boolean material)
+    {
+        int n = material ?
+            expected.getNumMaterialGroups() : expected.getNumGroups();
+        assertEquals(n, material ?
+            actual.getNumMaterialGroups() : actual.getNumGroups());
+        for (int i = 0; i < n; i++)
+        {
+            ObjGroup e = material ?
+                expected.getMaterialGroup(i) : expected.getGroup(i);
+            ObjGroup a = material ?
+                actual.getMaterialGroup(i) : actual.getGroup(i);
+            assertEquals(e.getName(), a.getName());
+            assertEquals(e.getName(), e.getNumFaces(), a.getNumFaces());
+            for (int j = 0; j < e.getNumFaces(); j++)
+            {
+                assertEquals(e.getName() + " face " + j,
+                    ObjFaces.createString(e.getFace(j)),
+                    ObjFaces.createString(a.getFace(j)));
+            }
+        }
+    }
+
+    /**
+     * Create the contents of an OBJ file with a grid of quads. The grid
+     * is split into the given number of material groups and geometry
+     * groups, and contains texture coordinates and normals.
+     *
+     * @param random The random number generator
+     * @param size The number of vertices along each side of the grid
+     * @param numMaterials The number of material groups
+     * @return The OBJ file contents
+     */
+    static String createGridObj(Random random, int size, int numMaterials)
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# Test grid\n");
+        sb.append("mtllib grid.mtl\n");
+        for (int y = 0; y < size; y++)
+        {
+            for (int x = 0; x < size; x++)
+            {
+                sb.append(String.format(Locale.ENGLISH, "v %f %f %.9f\n",
+                    x * 0.5f, y * 0.5f, random.nextFloat() - 0.5f));
+                sb.append(String.format(Locale.ENGLISH, "vt %.6f %.6f\n",
+                    (float) x / size, (float) y / size));
+                sb.append(String.format(Locale.ENGLISH, "vn %s %s %s\n",
+                    random.nextFloat(), random.nextFloat(), 1.0f));
+            }
+        }
+        int numQuads = (size - 1) * (size - 1);
+        int quadsPerMaterial = Math.max(1, numQuads / numMaterials);
+        int quad = 0;
+        for (int y = 0; y < size - 1; y++)
+        {
+            for (int x = 0; x < size - 1; x++)
+            {
+                if (quad % quadsPerMaterial == 0)
+                {
+                    int m = quad / quadsPerMaterial;
+                    sb.append("g feature").append(m % 3).append("\n");
+                    sb.append("usemtl material").append(m).append("\n");
+                }
+                int i0 = y * size + x + 1;
+                int i1 = i0 + 1;
+                int i2 = i0 + size + 1;
+                int i3 = i0 + size;
+                sb.append("f");
+                for (int i : new int[] { i0, i1, i2, i3 })
+                {
+                    sb.append(" ").append(i).append("/").append(i)
+                        .append("/").append(i);
+                }
+                sb.append("\n");
+                quad++;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Private constructor to prevent instantiation
+     */
+    private ObjTestUtils()
+    {
+        // Private constructor to prevent instantiation
+    }
+}
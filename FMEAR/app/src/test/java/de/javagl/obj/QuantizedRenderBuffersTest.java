@@ -0,0 +1,177 @@
+package de.javagl.obj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link QuantizedRenderBuffers}
+ */
+public class QuantizedRenderBuffersTest
+{
+    /**
+     * The maximum angle between a normal and its decoded octahedral
+     * encoding, in degrees
+     */
+    private static final double MAX_NORMAL_ERROR_DEGREES = 1.0;
+
+    @Test
+    public void quantizedVerticesAreWithinErrorBounds()
+    {
+        Random random = new Random(0);
+        int numVertices = 10000;
+        ObjRenderBuffers renderBuffers =
+            createRandomRenderBuffers(random, numVertices, true, true);
+        QuantizedRenderBuffers quantized =
+            QuantizedRenderBuffers.quantize(renderBuffers);
+
+        assertEquals(16, quantized.getStride());
+        assertEquals(8, quantized.getNormalOffset());
+        assertEquals(12, quantized.getTexCoordOffset());
+        assertEquals(numVertices * 16, quantized.getVertexData().capacity());
+
+        FloatBuffer input = renderBuffers.getVertexData();
+        ByteBuffer data = quantized.getVertexData();
+        float p[] = quantized.getPositionDequantization();
+        float t[] = quantized.getTexCoordDequantization();
+        // Half of the quantization step, plus rounding errors
+        float positionBounds[] = { p[0] / 65535 / 2, p[5] / 65535 / 2,
+            p[10] / 65535 / 2 };
+        float texCoordBounds[] = { t[0] / 65535 / 2, t[1] / 65535 / 2 };
+        float normal[] = new float[3];
+        double maxAngle = 0;
+        for (int v = 0; v < numVertices; v++)
+        {
+            int i = v * 8;
+            int o = v * 16;
+            for (int j = 0; j < 3; j++)
+            {
+                float q = (data.getShort(o + j * 2) & 0xFFFF) / 65535.0f;
+                float position = q * p[j * 5] + p[12 + j];
+                float expected = input.get(i + j);
+                assertEquals(expected, position,
+                    positionBounds[j] * 1.001f + 4 * Math.ulp(expected));
+            }
+            QuantizedRenderBuffers.decodeOctahedral(
+                data.get(o + 8), data.get(o + 9), normal);
+            double dot = normal[0] * input.get(i + 3) +
+                normal[1] * input.get(i + 4) + normal[2] * input.get(i + 5);
+            double angle = Math.toDegrees(Math.acos(Math.min(1.0, dot)));
+            maxAngle = Math.max(maxAngle, angle);
+            for (int j = 0; j < 2; j++)
+            {
+                float q = (data.getShort(o + 12 + j * 2) & 0xFFFF) / 65535.0f;
+                float texCoord = q * t[j] + t[2 + j];
+                float expected = input.get(i + 6 + j);
+                assertEquals(expected, texCoord,
+                    texCoordBounds[j] * 1.001f + 4 * Math.ulp(expected));
+            }
+        }
+        assertTrue("Angle " + maxAngle, maxAngle <= MAX_NORMAL_ERROR_DEGREES);
+    }
+
+    @Test
+    public void octahedralEncodingHandlesSpecialNormals()
+    {
+        float normals[][] = {
+            { 1, 0, 0 }, { -1, 0, 0 }, { 0, 1, 0 }, { 0, -1, 0 },
+            { 0, 0, 1 }, { 0, 0, -1 } };
+        byte encoded[] = new byte[2];
+        float decoded[] = new float[3];
+        for (float n[] : normals)
+        {
+            QuantizedRenderBuffers.encodeOctahedral(n[0], n[1], n[2], encoded);
+            QuantizedRenderBuffers.decodeOctahedral(
+                encoded[0], encoded[1], decoded);
+            assertEquals(n[0], decoded[0], 1e-6f);
+            assertEquals(n[1], decoded[1], 1e-6f);
+            assertEquals(n[2], decoded[2], 1e-6f);
+        }
+
+        QuantizedRenderBuffers.encodeOctahedral(0, 0, 0, encoded);
+        assertEquals(0, encoded[0]);
+        assertEquals(0, encoded[1]);
+    }
+
+    @Test
+    public void strideDependsOnAttributes()
+    {
+        Random random = new Random(1);
+        QuantizedRenderBuffers positionsOnly = QuantizedRenderBuffers.quantize(
+            createRandomRenderBuffers(random, 10, false, false));
+        assertEquals(8, positionsOnly.getStride());
+        assertEquals(-1, positionsOnly.getNormalOffset());
+        assertEquals(-1, positionsOnly.getTexCoordOffset());
+
+        QuantizedRenderBuffers withTexCoords = QuantizedRenderBuffers.quantize(
+            createRandomRenderBuffers(random, 10, false, true));
+        assertEquals(12, withTexCoords.getStride());
+        assertEquals(8, withTexCoords.getTexCoordOffset());
+    }
+
+    @Test
+    public void flatPositionsAreQuantizedExactly()
+    {
+        FloatBuffer vertexData = FloatBuffer.wrap(new float[] {
+            1, 2, 5, 3, 2, 5, 1, 4, 5 });
+        IntBuffer indices = IntBuffer.wrap(new int[] { 0, 1, 2 });
+        QuantizedRenderBuffers quantized = QuantizedRenderBuffers.quantize(
+            new ObjRenderBuffers(vertexData, indices, false, false));
+        float p[] = quantized.getPositionDequantization();
+        assertEquals(0.0f, p[10], 0.0f);
+        assertEquals(5.0f, p[14], 0.0f);
+        ByteBuffer data = quantized.getVertexData();
+        assertEquals((short) 65535, data.getShort(8));
+        assertEquals(0, data.getShort(8 + 4));
+    }
+
+    /**
+     * Create render buffers with random positions, and random unit
+     * normals and texture coordinates if they are requested
+     *
+     * @param random The random number generator
+     * @param numVertices The number of vertices
+     * @param hasNormals Whether the render buffers should have normals
+     * @param hasTexCoords Whether the render buffers should have texture
+     * coordinates
+     * @return The render buffers
+     */
+    private static ObjRenderBuffers createRandomRenderBuffers(Random random,
+        int numVertices, boolean hasNormals, boolean hasTexCoords)
+    {
+        int stride = 3 + (hasNormals ? 3 : 0) + (hasTexCoords ? 2 : 0);
+        FloatBuffer vertexData =
+            ObjData.createDirectFloatBuffer(numVertices * stride);
+        for (int v = 0; v < numVertices; v++)
+        {
+            vertexData.put(random.nextFloat() * 100 - 20);
+            vertexData.put(random.nextFloat() * 3);
+            vertexData.put(random.nextFloat() * 0.01f + 5);
+            if (hasNormals)
+            {
+                double x = random.nextGaussian();
+                double y = random.nextGaussian();
+                double z = random.nextGaussian();
+                double length = Math.sqrt(x * x + y * y + z * z);
+                vertexData.put((float) (x / length));
+                vertexData.put((float) (y / length));
+                vertexData.put((float) (z / length));
+            }
+            if (hasTexCoords)
+            {
+                vertexData.put(random.nextFloat() * 4 - 1);
+                vertexData.put(random.nextFloat());
+            }
+        }
+        vertexData.position(0);
+        IntBuffer indices = ObjData.createDirectIntBuffer(3);
+        return new ObjRenderBuffers(
+            vertexData, indices, hasNormals, hasTexCoords);
+    }
+}
@@ -0,0 +1,208 @@
+package de.javagl.obj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link VertexCacheOptimizer}
+ */
+public class VertexCacheOptimizerTest
+{
+    @Test
+    public void computesAcmr()
+    {
+        IntBuffer single = IntBuffer.wrap(new int[] { 0, 1, 2 });
+        assertEquals(3.0f, VertexCacheOptimizer.computeAcmr(single, 16), 0);
+
+        // A strip of 4 triangles uses 6 vertices
+        IntBuffer strip = IntBuffer.wrap(new int[] {
+            0, 1, 2, 2, 1, 3, 2, 3, 4, 4, 3, 5 });
+        assertEquals(1.5f, VertexCacheOptimizer.computeAcmr(strip, 16), 0);
+
+        // With a cache size of 2, the first vertex of each triangle is
+        // always evicted before it is used again
+        IntBuffer repeated = IntBuffer.wrap(new int[] {
+            0, 1, 2, 0, 1, 2 });
+        assertEquals(3.0f, VertexCacheOptimizer.computeAcmr(repeated, 2), 0);
+        assertEquals(1.5f, VertexCacheOptimizer.computeAcmr(repeated, 3), 0);
+    }
+
+    @Test
+    public void optimizeImprovesAcmrOfShuffledGrid() throws IOException
+    {
+        ObjRenderBuffers renderBuffers = createShuffledGrid(new Random(0), 60);
+        IntBuffer indices = renderBuffers.getIndices();
+        List<String> expected = deindexSorted(renderBuffers);
+        float before = VertexCacheOptimizer.computeAcmr(indices,
+            VertexCacheOptimizer.DEFAULT_CACHE_SIZE);
+
+        VertexCacheOptimizer.optimize(renderBuffers);
+
+        float after = VertexCacheOptimizer.computeAcmr(indices,
+            VertexCacheOptimizer.DEFAULT_CACHE_SIZE);
+        assertTrue("ACMR before " + before, before > 2.5f);
+        assertTrue("ACMR after " + after, after < 0.9f);
+        assertEquals(expected, deindexSorted(renderBuffers));
+        assertEquals(0, indices.position());
+        assertEquals(0, renderBuffers.getVertexData().position());
+    }
+
+    @Test
+    public void reorderVerticesUsesFirstUseOrder()
+    {
+        FloatBuffer vertexData = FloatBuffer.wrap(new float[] {
+            0, 0, 1, 1, 2, 2, 3, 3 });
+        IntBuffer indices = IntBuffer.wrap(new int[] { 2, 0, 3 });
+        VertexCacheOptimizer.reorderVertices(vertexData, 2, indices);
+        assertEquals(IntBuffer.wrap(new int[] { 0, 1, 2 }), indices);
+        assertEquals(FloatBuffer.wrap(new float[] { 2, 2, 0, 0, 3, 3, 1, 1 }),
+            vertexData);
+    }
+
+    @Test
+    public void optimizeHandlesDegenerateTriangles()
+    {
+        IntBuffer indices = IntBuffer.wrap(new int[] {
+            0, 0, 1, 1, 2, 3, 3, 3, 3, 0, 1, 2 });
+        VertexCacheOptimizer.optimizeIndices(indices, 4);
+        List<String> triangles = new ArrayList<String>();
+        for (int t = 0; t < 4; t++)
+        {
+            triangles.add(indices.get(t * 3) + "," + indices.get(t * 3 + 1) +
+                "," + indices.get(t * 3 + 2));
+        }
+        Collections.sort(triangles);
+        assertEquals("[0,0,1, 0,1,2, 1,2,3, 3,3,3]", triangles.toString());
+    }
+
+    @Test
+    @Ignore("Benchmark, run by hand")
+    public void benchmarkOptimize() throws IOException
+    {
+        String objString = ObjTestUtils.createGridObj(new Random(1), 300, 10);
+        Obj obj = ObjReader.read(new StringReader(objString));
+        Map<String, ObjRenderBuffers> buffers =
+            ObjUtils.convertToRenderBuffers(obj);
+        ObjRenderBuffers shuffled = createShuffledGrid(new Random(2), 300);
+        buffers.put("shuffled", shuffled);
+
+        for (Map.Entry<String, ObjRenderBuffers> entry : buffers.entrySet())
+        {
+            ObjRenderBuffers renderBuffers = entry.getValue();
+            float before = VertexCacheOptimizer.computeAcmr(
+                renderBuffers.getIndices(),
+                VertexCacheOptimizer.DEFAULT_CACHE_SIZE);
+            long start = System.nanoTime();
+            VertexCacheOptimizer.optimize(renderBuffers);
+            long nanos = System.nanoTime() - start;
+            float after = VertexCacheOptimizer.computeAcmr(
+                renderBuffers.getIndices(),
+                VertexCacheOptimizer.DEFAULT_CACHE_SIZE);
+            int numTriangles = renderBuffers.getIndices().capacity() / 3;
+            String message = String.format(Locale.ENGLISH,
+                "%s %d triangles: ACMR %.3f -> %.3f in %.1f ms",
+                entry.getKey(), numTriangles, before, after, nanos / 1e6);
+            assertTrue(message, after <= before);
+            if (numTriangles >= 1000)
+            {
+                assertTrue(message, after < 0.75f);
+            }
+        }
+    }
+
+    /**
+     * Create the render buffers for a triangulated grid, where the
+     * triangles are in a random order
+     *
+     * @param random The random number generator
+     * @param size The number of vertices along each side
+     * @return The render buffers
+     */
+    private static ObjRenderBuffers createShuffledGrid(Random random, int size)
+    {
+        List<int[]> triangles = new ArrayList<int[]>();
+        for (int y = 0; y < size - 1; y++)
+        {
+            for (int x = 0; x < size - 1; x++)
+            {
+                int i0 = y * size + x;
+                triangles.add(new int[] { i0, i0 + 1, i0 + size + 1 });
+                triangles.add(new int[] { i0, i0 + size + 1, i0 + size });
+            }
+        }
+        Collections.shuffle(triangles, random);
+        IntBuffer indices = ObjData.createDirectIntBuffer(triangles.size() * 3);
+        for (int triangle[] : triangles)
+        {
+            indices.put(triangle);
+        }
+        indices.position(0);
+        FloatBuffer vertexData =
+            ObjData.createDirectFloatBuffer(size * size * 3);
+        for (int y = 0; y < size; y++)
+        {
+            for (int x = 0; x < size; x++)
+            {
+                vertexData.put(x).put(y).put(random.nextFloat());
+            }
+        }
+        vertexData.position(0);
+        return new ObjRenderBuffers(vertexData, indices, false, false);
+    }
+
+    /**
+     * Returns the vertex data of all triangles of the given render
+     * buffers, where each triangle is rotated so that its smallest
+     * vertex comes first, and the triangles are sorted
+     *
+     * @param renderBuffers The render buffers
+     * @return The triangles, as strings
+     */
+    private static List<String> deindexSorted(ObjRenderBuffers renderBuffers)
+    {
+        IntBuffer indices = renderBuffers.getIndices();
+        FloatBuffer vertexData = renderBuffers.getVertexData();
+        int stride = renderBuffers.getStride();
+        List<String> triangles = new ArrayList<String>();
+        for (int t = 0; t < indices.capacity() / 3; t++)
+        {
+            String corners[] = new String[3];
+            for (int c = 0; c < 3; c++)
+            {
+                StringBuilder sb = new StringBuilder();
+                int v = indices.get(t * 3 + c);
+                for (int j = 0; j < stride; j++)
+                {
+                    sb.append(vertexData.get(v * stride + j)).append(" ");
+                }
+                corners[c] = sb.toString();
+            }
+            int first = 0;
+            for (int c = 1; c < 3; c++)
+            {
+                if (corners[c].compareTo(corners[first]) < 0)
+                {
+                    first = c;
+                }
+            }
+            triangles.add(corners[first] + "|" + corners[(first + 1) % 3] +
+                "|" + corners[(first + 2) % 3]);
+        }
+        Collections.sort(triangles);
+        return triangles;
+    }
+}
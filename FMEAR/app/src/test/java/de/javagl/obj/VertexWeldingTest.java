@@ -0,0 +1,285 @@
+package de.javagl.obj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ObjUtils#weldVertices(ReadableObj, float)} and
+ * {@link ObjUtils#convertToRenderBuffers(ReadableObj, float)}
+ */
+public class VertexWeldingTest
+{
+    @Test
+    public void weldVerticesMergesRepeatedCoordinates()
+    {
+        Obj input = createSoupObj(new Random(0), 20, 0.0f);
+        Obj welded = ObjUtils.weldVertices(input, 0.0f);
+        assertEquals(19 * 19 * 4, input.getNumVertices());
+        assertEquals(20 * 20, welded.getNumVertices());
+        assertEquals(20 * 20, welded.getNumTexCoords());
+        assertEquals(20 * 20, welded.getNumNormals());
+        assertSameCornerValues(input, welded);
+        assertEquals(input.getNumMaterialGroups(),
+            welded.getNumMaterialGroups());
+        assertEquals(input.getMaterialGroup(2).getNumFaces(),
+            welded.getMaterialGroup(2).getNumFaces());
+    }
+
+    @Test
+    public void weldVerticesKeepsDistinctAttributes()
+    {
+        Obj input = Objs.create();
+        input.addVertex(0, 0, 0);
+        input.addVertex(1, 0, 0);
+        input.addVertex(0, 1, 0);
+        input.addVertex(0, 0, 0);
+        input.addTexCoord(0, 0);
+        input.addTexCoord(1, 1);
+        input.addFace(new int[] { 0, 1, 2 }, new int[] { 0, 0, 0 }, null);
+        input.addFace(new int[] { 3, 1, 2 }, new int[] { 1, 0, 0 }, null);
+        input.addFace(new int[] { 3, 1, 2 }, null, null);
+        Obj welded = ObjUtils.weldVertices(input, 0.0f);
+        assertEquals(7, welded.getNumVertices());
+        assertEquals(7, welded.getNumTexCoords());
+        assertSameCornerValues(input, welded);
+    }
+
+    @Test
+    public void weldVerticesWithEpsilon()
+    {
+        Obj input = createSoupObj(new Random(1), 20, 1e-6f);
+        Obj exact = ObjUtils.weldVertices(input, 0.0f);
+        Obj welded = ObjUtils.weldVertices(input, 1e-3f);
+        assertTrue(exact.getNumVertices() > 20 * 20);
+        assertEquals(20 * 20, welded.getNumVertices());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void weldVerticesRejectsNegativeEpsilon()
+    {
+        ObjUtils.weldVertices(Objs.create(), -1.0f);
+    }
+
+    @Test
+    public void convertToRenderBuffersWithWelding()
+    {
+        Obj input = createSoupObj(new Random(2), 20, 0.0f);
+        Map<String, ObjRenderBuffers> expected =
+            ObjUtils.convertToRenderBuffers(input);
+        Map<String, ObjRenderBuffers> actual =
+            ObjUtils.convertToRenderBuffers(input, 0.0f);
+        assertEquals(expected.keySet(), actual.keySet());
+        for (String name : expected.keySet())
+        {
+            ObjRenderBuffers e = expected.get(name);
+            ObjRenderBuffers a = actual.get(name);
+            assertTrue(a.getNumVertices() < e.getNumVertices());
+            assertEquals(a.getNumVertices() * a.getStride(),
+                a.getVertexData().capacity());
+            assertEquals(deindex(e), deindex(a));
+        }
+    }
+
+    @Test
+    @Ignore("Benchmark, run by hand")
+    public void benchmarkWelding()
+    {
+        Obj input = createSoupObj(new Random(3), 300, 0.0f);
+
+        // Warm up
+        for (int i = 0; i < 3; i++)
+        {
+            makeVertexIndexed(input);
+            ObjUtils.weldVertices(input, 0.0f, Objs.createCompact());
+        }
+
+        long before = System.nanoTime();
+        Obj indexed = makeVertexIndexed(input);
+        long indexedNanos = System.nanoTime() - before;
+
+        before = System.nanoTime();
+        Obj welded = ObjUtils.weldVertices(input, 0.0f, Objs.createCompact());
+        long weldedNanos = System.nanoTime() - before;
+
+        before = System.nanoTime();
+        Map<String, ObjRenderBuffers> buffers =
+            ObjUtils.convertToRenderBuffers(input);
+        long buffersNanos = System.nanoTime() - before;
+
+        before = System.nanoTime();
+        Map<String, ObjRenderBuffers> weldedBuffers =
+            ObjUtils.convertToRenderBuffers(input, 0.0f);
+        long weldedBuffersNanos = System.nanoTime() - before;
+
+        String message = String.format(Locale.ENGLISH,
+            "Welding %d faces:%n" +
+            "  makeVertexIndexed chain: %7d vertices, %6.1f ms%n" +
+            "  weldVertices:            %7d vertices, %6.1f ms%n" +
+            "  render buffers:          %7d vertices, %6.1f ms%n" +
+            "  welded render buffers:   %7d vertices, %6.1f ms",
+            input.getNumFaces(),
+            indexed.getNumVertices(), indexedNanos / 1e6,
+            welded.getNumVertices(), weldedNanos / 1e6,
+            countVertices(buffers), buffersNanos / 1e6,
+            countVertices(weldedBuffers), weldedBuffersNanos / 1e6);
+        assertEquals(message, 300 * 300, welded.getNumVertices());
+        assertTrue(message, weldedNanos < indexedNanos);
+        assertTrue(message,
+            countVertices(weldedBuffers) * 3 < countVertices(buffers));
+    }
+
+    /**
+     * Apply the sequence of operations that does not merge vertices with
+     * equal values to the given input
+     *
+     * @param input The input
+     * @return The result
+     */
+    private static Obj makeVertexIndexed(Obj input)
+    {
+        Obj obj = ObjUtils.makeTexCoordsUnique(
+            input, null, Objs.createCompact());
+        obj = ObjUtils.makeNormalsUnique(obj, null, Objs.createCompact());
+        return ObjUtils.makeVertexIndexed(obj, Objs.createCompact());
+    }
+
+    /**
+     * Returns the total number of vertices in the given render buffers
+     *
+     * @param buffers The render buffers
+     * @return The number of vertices
+     */
+    private static int countVertices(Map<String, ObjRenderBuffers> buffers)
+    {
+        int result = 0;
+        for (ObjRenderBuffers b : buffers.values())
+        {
+            result += b.getNumVertices();
+        }
+        return result;
+    }
+
+    /**
+     * Returns a buffer containing the vertex data of each index of the
+     * given render buffers
+     *
+     * @param renderBuffers The render buffers
+     * @return The de-indexed vertex data
+     */
+    private static FloatBuffer deindex(ObjRenderBuffers renderBuffers)
+    {
+        IntBuffer indices = renderBuffers.getIndices();
+        FloatBuffer vertexData = renderBuffers.getVertexData();
+        int stride = renderBuffers.getStride();
+        FloatBuffer result = FloatBuffer.allocate(indices.capacity() * stride);
+        for (int i = 0; i < indices.capacity(); i++)
+        {
+            for (int j = 0; j < stride; j++)
+            {
+                result.put(vertexData.get(indices.get(i) * stride + j));
+            }
+        }
+        result.position(0);
+        return result;
+    }
+
+    /**
+     * Assert that all corners of all faces of the given objects have
+     * the same vertex, texture coordinate and normal values
+     *
+     * @param expected The expected object
+     * @param actual The actual object
+     */
+    private static void assertSameCornerValues(
+        ReadableObj expected, ReadableObj actual)
+    {
+        assertEquals(expected.getNumFaces(), actual.getNumFaces());
+        for (int i = 0; i < expected.getNumFaces(); i++)
+        {
+            ObjFace e = expected.getFace(i);
+            ObjFace a = actual.getFace(i);
+            assertEquals(e.getNumVertices(), a.getNumVertices());
+            assertEquals(e.containsTexCoordIndices(),
+                a.containsTexCoordIndices());
+            assertEquals(e.containsNormalIndices(),
+                a.containsNormalIndices());
+            for (int j = 0; j < e.getNumVertices(); j++)
+            {
+                assertEquals(expected.getVertex(e.getVertexIndex(j)),
+                    actual.getVertex(a.getVertexIndex(j)));
+                if (e.containsTexCoordIndices())
+                {
+                    assertEquals(
+                        expected.getTexCoord(e.getTexCoordIndex(j)),
+                        actual.getTexCoord(a.getTexCoordIndex(j)));
+                }
+                if (e.containsNormalIndices())
+                {
+                    assertEquals(expected.getNormal(e.getNormalIndex(j)),
+                        actual.getNormal(a.getNormalIndex(j)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Create a grid of quads, where each quad refers to its own four
+     * vertices, texture coordinates and normals, as it is common for
+     * exported CAD data. The quads are distributed over 4 material
+     * groups.
+     *
+     * @param random The random number generator
+     * @param size The number of vertices along each side of the grid
+     * @param jitter The maximum amount by which each repeated vertex is
+     * moved
+     * @return The {@link Obj}
+     */
+    private static Obj createSoupObj(Random random, int size, float jitter)
+    {
+        float heights[] = new float[size * size];
+        for (int i = 0; i < heights.length; i++)
+        {
+            heights[i] = random.nextInt(4) * 0.25f;
+        }
+        Obj obj = Objs.create();
+        int numQuads = (size - 1) * (size - 1);
+        int quad = 0;
+        for (int y = 0; y < size - 1; y++)
+        {
+            for (int x = 0; x < size - 1; x++)
+            {
+                if (quad % (numQuads / 4 + 1) == 0)
+                {
+                    obj.setActiveMaterialGroupName(
+                        "material" + quad / (numQuads / 4 + 1));
+                }
+                int v[] = new int[4];
+                int cornersX[] = { x, x + 1, x + 1, x };
+                int cornersY[] = { y, y, y + 1, y + 1 };
+                for (int j = 0; j < 4; j++)
+                {
+                    int cx = cornersX[j];
+                    int cy = cornersY[j];
+                    float dz = jitter * (random.nextFloat() - 0.5f);
+                    v[j] = obj.getNumVertices();
+                    obj.addVertex(cx * 0.5f, cy * 0.5f,
+                        heights[cy * size + cx] + dz);
+                    obj.addTexCoord((float) cx / size, (float) cy / size);
+                    obj.addNormal(0, 0, 1);
+                }
+                obj.addFace(v, v.clone(), v.clone());
+                quad++;
+            }
+        }
+        return obj;
+    }
+}